@@ -0,0 +1,9 @@
+// Fragment shader that renders a texture at half its size. With linear filtering, every fragment
+// samples the corner shared by four texels, and so averages them.
+precision mediump float;
+varying vec2 v_TexCoord;
+uniform sampler2D sTexture;
+
+void main() {
+    gl_FragColor = texture2D(sTexture, v_TexCoord);
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.helpers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A list of anchors, or of objects holding anchors, shared between the UI thread, callbacks and
+ * the GL thread without locks.
+ *
+ * <p>The registry publishes immutable snapshots. Each change copies the current snapshot, applies
+ * itself to the copy and publishes it atomically, retrying if another change was published in the
+ * meantime. Readers get the latest snapshot and iterate it for as long as they like, while changes
+ * go to newer snapshots. Changes are rare compared to frames, so copying on each one costs less
+ * than locking around each render loop.
+ *
+ * @param <T> the type of the elements
+ */
+public final class AnchorRegistry<T> {
+  /** An immutable list of elements, published by a change of the registry. */
+  public static final class Snapshot<T> implements Iterable<T> {
+    private final Object[] elements;
+    private final long epoch;
+
+    private Snapshot(Object[] elements, long epoch) {
+      this.elements = elements;
+      this.epoch = epoch;
+    }
+
+    public int size() {
+      return elements.length;
+    }
+
+    public boolean isEmpty() {
+      return elements.length == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+      return (T) elements[index];
+    }
+
+    /**
+     * Returns the number of changes published before this snapshot. A snapshot with the same epoch
+     * as another has the same elements.
+     */
+    public long getEpoch() {
+      return epoch;
+    }
+
+    /**
+     * Returns an iterator over the elements. Iterate with {@link #size} and {@link #get} instead to
+     * avoid allocating in each frame.
+     */
+    @Override
+    public Iterator<T> iterator() {
+      return new Iterator<T>() {
+        private int index = 0;
+
+        @Override
+        public boolean hasNext() {
+          return index < elements.length;
+        }
+
+        @Override
+        public T next() {
+          if (index >= elements.length) {
+            throw new NoSuchElementException();
+          }
+          return get(index++);
+        }
+      };
+    }
+  }
+
+  private final AtomicReference<Snapshot<T>> snapshot =
+      new AtomicReference<>(new Snapshot<>(new Object[0], 0));
+
+  /** Returns the latest snapshot. Never blocks. */
+  public Snapshot<T> getSnapshot() {
+    return snapshot.get();
+  }
+
+  public int size() {
+    return snapshot.get().size();
+  }
+
+  public boolean isEmpty() {
+    return snapshot.get().isEmpty();
+  }
+
+  /** Adds an element at the end. */
+  public void add(T element) {
+    while (true) {
+      Snapshot<T> current = snapshot.get();
+      Object[] elements = Arrays.copyOf(current.elements, current.elements.length + 1);
+      elements[current.elements.length] = element;
+      if (publish(current, elements)) {
+        return;
+      }
+    }
+  }
+
+  /** Removes the first occurrence of an element. Returns whether there was one. */
+  public boolean remove(T element) {
+    while (true) {
+      Snapshot<T> current = snapshot.get();
+      int index = indexOf(current.elements, element);
+      if (index < 0) {
+        return false;
+      }
+      Object[] elements = new Object[current.elements.length - 1];
+      System.arraycopy(current.elements, 0, elements, 0, index);
+      System.arraycopy(
+          current.elements, index + 1, elements, index, current.elements.length - index - 1);
+      if (publish(current, elements)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Removes every element contained in {@code elements}, publishing a single snapshot. Returns
+   * whether any was removed.
+   */
+  public boolean removeAll(Collection<?> elements) {
+    HashSet<?> removedElements = new HashSet<>(elements);
+    while (true) {
+      Snapshot<T> current = snapshot.get();
+      Object[] keptElements = new Object[current.elements.length];
+      int keptCount = 0;
+      for (Object element : current.elements) {
+        if (!removedElements.contains(element)) {
+          keptElements[keptCount++] = element;
+        }
+      }
+      if (keptCount == current.elements.length) {
+        return false;
+      }
+      if (publish(current, Arrays.copyOf(keptElements, keptCount))) {
+        return true;
+      }
+    }
+  }
+
+  /** Removes all elements, and returns them so that their anchors can be detached. */
+  public List<T> clear() {
+    while (true) {
+      Snapshot<T> current = snapshot.get();
+      if (current.isEmpty() || publish(current, new Object[0])) {
+        List<T> removedElements = new ArrayList<>(current.size());
+        for (T element : current) {
+          removedElements.add(element);
+        }
+        return removedElements;
+      }
+    }
+  }
+
+  /** Publishes a snapshot of {@code elements} if {@code current} is still the latest. */
+  private boolean publish(Snapshot<T> current, Object[] elements) {
+    return snapshot.compareAndSet(current, new Snapshot<>(elements, current.epoch + 1));
+  }
+
+  private static int indexOf(Object[] elements, Object element) {
+    for (int i = 0; i < elements.length; ++i) {
+      if (elements[i] == null ? element == null : elements[i].equals(element)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
@@ -20,7 +20,9 @@ import android.graphics.ImageFormat;
 import android.media.Image;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.PowerManager;
 import android.util.Log;
 import android.util.Size;
 import android.view.Gravity;
@@ -31,6 +33,7 @@ import android.widget.RadioGroup;
 import android.widget.Switch;
 import android.widget.TextView;
 import android.widget.Toast;
+import androidx.annotation.RequiresApi;
 import androidx.appcompat.app.AppCompatActivity;
 import com.google.ar.core.ArCoreApk;
 import com.google.ar.core.Camera;
@@ -42,20 +45,24 @@ import com.google.ar.core.Frame;
 import com.google.ar.core.Session;
 import com.google.ar.core.examples.java.common.helpers.CameraPermissionHelper;
 import com.google.ar.core.examples.java.common.helpers.FullScreenHelper;
+import com.google.ar.core.examples.java.common.helpers.ImageView;
 import com.google.ar.core.examples.java.common.helpers.SnackbarHelper;
 import com.google.ar.core.examples.java.common.helpers.TrackingStateHelper;
 import com.google.ar.core.exceptions.CameraNotAvailableException;
 import com.google.ar.core.exceptions.NotYetAvailableException;
+import com.google.ar.core.exceptions.ResourceExhaustedException;
 import com.google.ar.core.exceptions.UnavailableApkTooOldException;
 import com.google.ar.core.exceptions.UnavailableArcoreNotInstalledException;
 import com.google.ar.core.exceptions.UnavailableSdkTooOldException;
 import com.google.ar.core.exceptions.UnavailableUserDeclinedInstallationException;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
@@ -68,21 +75,29 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
           + "\n\t%s Image Dimensions: (%d, %d)"
           + "\n\tUnrotated Field of View: (%.2f˚, %.2f˚)"
           + "\n\tRender frame time: %.1f ms (%.0ffps)"
-          + "\n\tCPU image frame time: %.1f ms (%.0ffps)";
+          + "\n\tCPU image frame time: %.1f ms (%.0ffps)"
+          + "\n\tPipeline: %s, %d dropped"
+          + "\n\tGPU read back latency: %d frames (%.1f ms), %d dropped"
+          + "\n\tImage acquisition: %s";
   private static final float RADIANS_TO_DEGREES = (float) (180 / Math.PI);
 
+  // Edge detection output: pixels with a Sobel gradient above the threshold are drawn as edges.
+  // The pipeline runs the threshold, and any pixel stage added next to it, as one lookup table.
+  private static final int EDGE_THRESHOLD = 128;
+  private static final int EDGE = 0xFF;
+  private static final int NO_EDGE = 0x1F;
+
   // This app demonstrates two approaches to obtaining image data accessible on CPU:
   // 1. Access the CPU image directly from ARCore. This approach delivers a frame without latency
   //    (if available), but currently is lower resolution than the GPU image.
   // 2. Download the texture from GPU. This approach incurs a 1-frame latency, but allows a high
   //    resolution image.
-  private enum ImageAcquisitionPath {
-    CPU_DIRECT_ACCESS,
-    GPU_DOWNLOAD
-  }
+  // Which one is faster depends on the device, so both are measured and the faster one is used.
+  private final ImageAcquisitionSelector imageAcquisitionSelector = new ImageAcquisitionSelector();
 
-  // Select the image acquisition path here.
-  private final ImageAcquisitionPath imageAcquisitionPath = ImageAcquisitionPath.CPU_DIRECT_ACCESS;
+  // Thermal throttling changes the relative cost of the two paths.
+  private PowerManager.OnThermalStatusChangedListener thermalStatusListener;
+  private boolean isThermalThrottling;
 
   // Multiple CPU image Resolution.
   private enum ImageResolution {
@@ -103,7 +118,14 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
   private CpuImageDisplayRotationHelper cpuImageDisplayRotationHelper;
   private final TrackingStateHelper trackingStateHelper = new TrackingStateHelper(this);
   private final CpuImageRenderer cpuImageRenderer = new CpuImageRenderer();
-  private final EdgeDetector edgeDetector = new EdgeDetector();
+  private final ImagePipelineWorker imagePipelineWorker =
+      new ImagePipelineWorker(
+          new ImagePipeline(
+              Arrays.asList(
+                  ImageStages.grayscale(),
+                  ImageStages.gaussianBlur(),
+                  ImageStages.sobel(),
+                  ImageStages.threshold(EDGE_THRESHOLD, NO_EDGE, EDGE))));
 
   // This lock prevents changing resolution as the frame is being rendered. ARCore requires all
   // CPU images to be released before changing resolution.
@@ -113,8 +135,19 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
   private TextView cameraIntrinsicsTextView;
 
   // The fields below are used for the GPU_DOWNLOAD image acquisition path.
-  private final TextureReader textureReader = new TextureReader();
-  private int gpuDownloadFrameBufferIndex = -1;
+  // Frames are read back asynchronously through a ring of frame buffers, so that the GL thread
+  // never waits for a read back to complete.
+  // The worker holds up to two frame buffers while it processes them in place, and one more may
+  // wait to be released, which leaves at least two for read backs.
+  private static final int GPU_DOWNLOAD_BUFFER_COUNT = 5;
+  private final TextureReader textureReader = new TextureReader(GPU_DOWNLOAD_BUFFER_COUNT);
+  // Start time of the frame whose texture was submitted into each frame buffer.
+  private final long[] gpuDownloadFrameStartNanos = new long[GPU_DOWNLOAD_BUFFER_COUNT];
+  // Frame buffers processed by the worker, to be released on the GL thread, and the callback
+  // queuing each of them.
+  private final ConcurrentLinkedQueue<Integer> processedGpuDownloadBuffers =
+      new ConcurrentLinkedQueue<>();
+  private final Runnable[] gpuDownloadBufferReleases = new Runnable[GPU_DOWNLOAD_BUFFER_COUNT];
 
   // ARCore full resolution GL texture typically has a size of 1920 x 1080.
   private static final int TEXTURE_WIDTH = 1920;
@@ -124,6 +157,11 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
   private static final int IMAGE_WIDTH = 1280;
   private static final int IMAGE_HEIGHT = 720;
 
+  // The texture is downscaled further on the GPU, and only the processed level is read back. Level
+  // 1 is half the sampling resolution, a quarter of the bytes of level 0.
+  private static final int GPU_DOWNLOAD_LEVEL_COUNT = 2;
+  private static final int GPU_DOWNLOAD_PROCESSED_LEVEL = 1;
+
   // For Camera Configuration APIs usage.
   private CameraConfig cpuLowResolutionCameraConfig;
   private CameraConfig cpuMediumResolutionCameraConfig;
@@ -150,6 +188,11 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
 
     cpuImageDisplayRotationHelper = new CpuImageDisplayRotationHelper(/*context=*/ this);
 
+    for (int i = 0; i < GPU_DOWNLOAD_BUFFER_COUNT; ++i) {
+      int bufferIndex = i;
+      gpuDownloadBufferReleases[i] = () -> processedGpuDownloadBuffers.add(bufferIndex);
+    }
+
     // Set up renderer.
     surfaceView.setPreserveEGLContextOnPause(true);
     surfaceView.setEGLContextClientVersion(2);
@@ -174,6 +217,7 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
       session.close();
       session = null;
     }
+    imagePipelineWorker.close();
 
     super.onDestroy();
   }
@@ -240,17 +284,25 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
     }
     surfaceView.onResume();
     cpuImageDisplayRotationHelper.onResume();
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+      registerThermalStatusListener();
+    }
   }
 
   @Override
   public void onPause() {
     super.onPause();
+    if (thermalStatusListener != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+      unregisterThermalStatusListener();
+    }
     if (session != null) {
       // Note that the order matters - GLSurfaceView is paused first so that it does not try
       // to query the session. If Session is paused before GLSurfaceView, GLSurfaceView may
       // still call session.update() and get a SessionPausedException.
       cpuImageDisplayRotationHelper.onPause();
       surfaceView.onPause();
+      // The worker may still hold camera images, which must be closed before pausing.
+      imagePipelineWorker.cancel();
       session.pause();
     }
   }
@@ -290,7 +342,8 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
           TextureReaderImage.IMAGE_FORMAT_I8,
           IMAGE_WIDTH,
           IMAGE_HEIGHT,
-          false);
+          false,
+          GPU_DOWNLOAD_LEVEL_COUNT);
 
     } catch (IOException e) {
       Log.e(TAG, "Failed to read an asset file", e);
@@ -328,14 +381,19 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
 
         renderFrameTimeHelper.nextFrame();
 
-        switch (imageAcquisitionPath) {
+        // Whichever path is used now, release the frame buffers processed since the last frame.
+        releaseProcessedGpuDownloadBuffers();
+
+        long frameStartNanos = System.nanoTime();
+        switch (imageAcquisitionSelector.beginFrame()) {
           case CPU_DIRECT_ACCESS:
-            renderProcessedImageCpuDirectAccess(frame);
+            renderProcessedImageCpuDirectAccess(frame, frameStartNanos);
             break;
           case GPU_DOWNLOAD:
-            renderProcessedImageGpuDownload(frame);
+            renderProcessedImageGpuDownload(frame, frameStartNanos);
             break;
         }
+        imageAcquisitionSelector.recordGlThreadTime(System.nanoTime() - frameStartNanos);
 
         // Update the camera intrinsics' text.
         runOnUiThread(() -> cameraIntrinsicsTextView.setText(getCameraIntrinsicsText(frame)));
@@ -347,76 +405,115 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
   }
 
   /* Demonstrates how to access a CPU image directly from ARCore. */
-  private void renderProcessedImageCpuDirectAccess(Frame frame) {
-    try (Image image = frame.acquireCameraImage()) {
-      if (image.getFormat() != ImageFormat.YUV_420_888) {
-        throw new IllegalArgumentException(
-            "Expected image in YUV_420_888 format, got format " + image.getFormat());
-      }
+  private void renderProcessedImageCpuDirectAccess(Frame frame, long frameStartNanos) {
+    Image image;
+    try {
+      image = frame.acquireCameraImage();
+    } catch (NotYetAvailableException e) {
+      // This exception will routinely happen during startup, and is expected. cpuImageRenderer
+      // will handle null image properly, and will just render the background.
+      cpuImageRenderer.drawWithoutCpuImage();
+      return;
+    } catch (ResourceExhaustedException e) {
+      // The worker still holds the images submitted before, keep showing the last processed one.
+      drawProcessedImage(frame);
+      return;
+    }
+    int format = image.getFormat();
+    if (format != ImageFormat.YUV_420_888) {
+      image.close();
+      throw new IllegalArgumentException(
+          "Expected image in YUV_420_888 format, got format " + format);
+    }
 
-      ByteBuffer processedImageBytesGrayscale = null;
-      // Do not process the image with edge dectection algorithm if it is not being displayed.
-      if (isCVModeOn) {
-        processedImageBytesGrayscale =
-            edgeDetector.detect(
-                image.getWidth(),
-                image.getHeight(),
-                image.getPlanes()[0].getRowStride(),
-                image.getPlanes()[0].getBuffer());
+    // Do not process the image with edge dectection algorithm if it is not being displayed, unless
+    // the acquisition paths are being compared, which must include the processing on both paths.
+    if (isCVModeOn || imageAcquisitionSelector.isEvaluating()) {
+      // The worker reads the Y plane in place and closes the image once done, so the image is not
+      // copied on this thread.
+      imagePipelineWorker.submit(ImageView.of(image).getY(), frameStartNanos, image::close);
+      drawProcessedImage(frame);
+    } else {
+      int width = image.getWidth();
+      int height = image.getHeight();
+      try {
+        cpuImageRenderer.drawWithCpuImage(
+            frame,
+            width,
+            height,
+            null,
+            cpuImageDisplayRotationHelper.getViewportAspectRatio(),
+            cpuImageDisplayRotationHelper.getCameraToDisplayRotation());
+      } finally {
+        image.close();
       }
 
-      cpuImageRenderer.drawWithCpuImage(
-          frame,
-          image.getWidth(),
-          image.getHeight(),
-          processedImageBytesGrayscale,
-          cpuImageDisplayRotationHelper.getViewportAspectRatio(),
-          cpuImageDisplayRotationHelper.getCameraToDisplayRotation());
-
       // Measure frame time since last successful execution of drawWithCpuImage().
       cpuImageFrameTimeHelper.nextFrame();
-    } catch (NotYetAvailableException e) {
-      // This exception will routinely happen during startup, and is expected. cpuImageRenderer
-      // will handle null image properly, and will just render the background.
-      cpuImageRenderer.drawWithoutCpuImage();
     }
   }
 
   /* Demonstrates how to access a CPU image using a download from GPU. */
-  private void renderProcessedImageGpuDownload(Frame frame) {
-    // If there is a frame being requested previously, acquire the pixels and process it.
-    if (gpuDownloadFrameBufferIndex >= 0) {
-      TextureReaderImage image = textureReader.acquireFrame(gpuDownloadFrameBufferIndex);
-
+  private void renderProcessedImageGpuDownload(Frame frame, long frameStartNanos) {
+    // If a frame requested previously has been read back, acquire the pixels and process it.
+    TextureReaderImage image = textureReader.tryAcquireFrame();
+    if (image != null) {
       if (image.format != TextureReaderImage.IMAGE_FORMAT_I8) {
+        textureReader.releaseFrame(image.bufferIndex);
         throw new IllegalArgumentException(
             "Expected image in I8 format, got format " + image.format);
       }
 
-      ByteBuffer processedImageBytesGrayscale =
-          edgeDetector.detect(image.width, image.height, /* stride= */ image.width, image.buffer);
+      // The worker reads the mapped frame buffer in place. It must be released on this thread, so
+      // the worker only queues it, and it is released by a later frame.
+      imagePipelineWorker.submit(
+          image.getPlaneView(),
+          gpuDownloadFrameStartNanos[image.bufferIndex],
+          gpuDownloadBufferReleases[image.bufferIndex]);
+    }
+    drawProcessedImage(frame);
 
-      // You should always release frame buffer after using. Otherwise the next call to
-      // submitFrame() may fail.
-      textureReader.releaseFrame(gpuDownloadFrameBufferIndex);
+    // Submit request for the texture from the current frame.
+    int bufferIndex =
+        textureReader.submitFrame(
+            cpuImageRenderer.getTextureId(),
+            TEXTURE_WIDTH,
+            TEXTURE_HEIGHT,
+            /* levels= */ 1 << GPU_DOWNLOAD_PROCESSED_LEVEL);
+    gpuDownloadFrameStartNanos[bufferIndex] = frameStartNanos;
+  }
 
-      cpuImageRenderer.drawWithCpuImage(
-          frame,
-          IMAGE_WIDTH,
-          IMAGE_HEIGHT,
-          processedImageBytesGrayscale,
-          cpuImageDisplayRotationHelper.getViewportAspectRatio(),
-          cpuImageDisplayRotationHelper.getCameraToDisplayRotation());
+  /**
+   * Releases the frame buffers the worker is done with. You should always release frame buffers
+   * after using them. Otherwise the next call to submitFrame() may fail.
+   */
+  private void releaseProcessedGpuDownloadBuffers() {
+    Integer bufferIndex;
+    while ((bufferIndex = processedGpuDownloadBuffers.poll()) != null) {
+      textureReader.releaseFrame(bufferIndex);
+    }
+  }
 
-      // Measure frame time since last successful execution of drawWithCpuImage().
+  /**
+   * Draws the latest image processed by {@link #imagePipelineWorker}, if a new one is available.
+   * Otherwise the previously processed image stays on screen.
+   */
+  private void drawProcessedImage(Frame frame) {
+    ImagePipelineWorker.Result result = imagePipelineWorker.pollResult();
+    cpuImageRenderer.drawWithCpuImage(
+        frame,
+        result != null ? result.width : 0,
+        result != null ? result.height : 0,
+        result != null ? result.pixels : null,
+        cpuImageDisplayRotationHelper.getViewportAspectRatio(),
+        cpuImageDisplayRotationHelper.getCameraToDisplayRotation());
+    if (result != null) {
+      imageAcquisitionSelector.recordLatency(result.timestampNanos, result.width * result.height);
+      imagePipelineWorker.recycle(result);
+
+      // Measure frame time since last processed image was drawn.
       cpuImageFrameTimeHelper.nextFrame();
-    } else {
-      cpuImageRenderer.drawWithoutCpuImage();
     }
-
-    // Submit request for the texture from the current frame.
-    gpuDownloadFrameBufferIndex =
-        textureReader.submitFrame(cpuImageRenderer.getTextureId(), TEXTURE_WIDTH, TEXTURE_HEIGHT);
   }
 
   public void onLowResolutionRadioButtonClicked(View view) {
@@ -467,6 +564,7 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
     if (session != null) {
       // Block here if the image is still being used.
       synchronized (frameImageInUseLock) {
+        imagePipelineWorker.cancel();
         session.pause();
         session.setCameraConfig(cameraConfig);
         try {
@@ -488,9 +586,33 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
       Toast toast = Toast.makeText(this, toastMessage, Toast.LENGTH_LONG);
       toast.setGravity(Gravity.BOTTOM, /* xOffset= */ 0, /* yOffset=*/ 250);
       toast.show();
+
+      // The CPU image resolution changed, so the faster image acquisition path may have too.
+      imageAcquisitionSelector.requestReevaluation();
     }
   }
 
+  @RequiresApi(api = Build.VERSION_CODES.Q)
+  private void registerThermalStatusListener() {
+    PowerManager powerManager = getSystemService(PowerManager.class);
+    thermalStatusListener =
+        status -> {
+          boolean throttling = status >= PowerManager.THERMAL_STATUS_MODERATE;
+          if (throttling != isThermalThrottling) {
+            isThermalThrottling = throttling;
+            Log.i(TAG, "Thermal status changed to " + status);
+            imageAcquisitionSelector.requestReevaluation();
+          }
+        };
+    powerManager.addThermalStatusListener(thermalStatusListener);
+  }
+
+  @RequiresApi(api = Build.VERSION_CODES.Q)
+  private void unregisterThermalStatusListener() {
+    getSystemService(PowerManager.class).removeThermalStatusListener(thermalStatusListener);
+    thermalStatusListener = null;
+  }
+
   // Obtains the supported camera configs and build the list of radio button one for each camera
   // config.
   private void obtainCameraConfigs() {
@@ -580,6 +702,7 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
     fovY *= RADIANS_TO_DEGREES;
 
     return String.format(
+        Locale.US,
         CAMERA_INTRINSICS_TEXT_FORMAT,
         imageType,
         intrinsicsLabel,
@@ -595,6 +718,12 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
         renderFrameTimeHelper.getSmoothedFrameTime(),
         renderFrameTimeHelper.getSmoothedFrameRate(),
         cpuImageFrameTimeHelper.getSmoothedFrameTime(),
-        cpuImageFrameTimeHelper.getSmoothedFrameRate());
+        cpuImageFrameTimeHelper.getSmoothedFrameRate(),
+        imagePipelineWorker.getPipeline().getTimingSummary(),
+        imagePipelineWorker.getDroppedImageCount(),
+        textureReader.getReadbackLatencyFrames(),
+        textureReader.getReadbackLatencyMillis(),
+        textureReader.getDroppedFrameCount(),
+        imageAcquisitionSelector.getStatus());
   }
 }
@@ -15,79 +15,89 @@
  */
 package com.google.ar.core.examples.java.computervision;
 
-import java.nio.ByteBuffer;
-
-/** Detects edges from input YUV image. */
-public class EdgeDetector {
-  private byte[] inputPixels = new byte[0]; // Reuse java byte array to avoid multiple allocations.
+/**
+ * Detects edges in a grayscale image with the Sobel operator, as a stage of an {@link
+ * ImagePipeline}.
+ *
+ * <p>The pipeline runs the detector in parallel over row bands with one halo row above and below
+ * each band, reads the input plane in place whatever its strides, and writes into pooled direct
+ * buffers, so detection neither copies the input nor allocates per frame.
+ *
+ * <p>Every output pixel is the strength of the edge at that pixel: its gradient magnitude, rounded
+ * up and saturated to 255. Rounding up keeps {@code magnitude > t} equivalent to comparing the
+ * squared gradient with {@code t * t}, so a following {@link ImageStages#threshold} stage detects
+ * exactly the same edges as a threshold on the squared gradient. Edges of the image are extended,
+ * so the border pixels only see gradients along the border.
+ */
+final class EdgeDetector implements ImageStage {
+  private static final int MAX_MAGNITUDE = 255;
+  private static final int MAX_SQUARED_MAGNITUDE = MAX_MAGNITUDE * MAX_MAGNITUDE;
 
-  private static final int SOBEL_EDGE_THRESHOLD = 128 * 128;
+  // Gradient magnitude rounded up, indexed by squared magnitude. Replaces a square root per pixel.
+  private static final byte[] MAGNITUDES = new byte[MAX_SQUARED_MAGNITUDE + 1];
 
-  /**
-   * Process a grayscale image using the Sobel edge detector.
-   *
-   * @param width image width.
-   * @param height image height.
-   * @param stride image stride (number of bytes per row, equals to width if no row padding).
-   * @param input bytes of the image, assumed single channel grayscale of size [stride * height].
-   * @return bytes of the processed image, where the byte value is the strength of the edge at that
-   *     pixel. Number of bytes is width * height, row padding (if any) is removed.
-   */
-  public synchronized ByteBuffer detect(int width, int height, int stride, ByteBuffer input) {
-    // Reallocate input byte array if its size is different from the required size.
-    if (stride * height > inputPixels.length) {
-      inputPixels = new byte[stride * height];
+  static {
+    int magnitude = 0;
+    for (int squaredMagnitude = 0; squaredMagnitude <= MAX_SQUARED_MAGNITUDE; ++squaredMagnitude) {
+      if (magnitude * magnitude < squaredMagnitude) {
+        ++magnitude;
+      }
+      MAGNITUDES[squaredMagnitude] = (byte) magnitude;
     }
+  }
 
-    // Allocate a new output byte array.
-    byte[] outputPixels = new byte[width * height];
-
-    // Copy input buffer into a java array for ease of access. This is not the most optimal
-    // way to process an image, but used here for simplicity.
-    input.position(0);
-
-    // Note: On certain devices with specific resolution where the stride is not equal to the width.
-    // In such situation the memory allocated for the frame may not be exact multiple of stride x
-    // height hence the capacity of the ByteBuffer could be less. To handle such situations it will
-    // be better to transfer the exact amount of image bytes to the destination bytes.
-    input.get(inputPixels, 0, input.capacity());
+  @Override
+  public String getName() {
+    return "sobel";
+  }
 
-    // Detect edges.
-    for (int j = 1; j < height - 1; j++) {
-      for (int i = 1; i < width - 1; i++) {
-        // Offset of the pixel at [i, j] of the input image.
-        int offset = (j * stride) + i;
+  @Override
+  public int getRadius() {
+    return 1;
+  }
 
-        // Neighbour pixels around the pixel at [i, j].
-        int a00 = inputPixels[offset - stride - 1];
-        int a01 = inputPixels[offset - stride];
-        int a02 = inputPixels[offset - stride + 1];
-        int a10 = inputPixels[offset - 1];
-        int a12 = inputPixels[offset + 1];
-        int a20 = inputPixels[offset + stride - 1];
-        int a21 = inputPixels[offset + stride];
-        int a22 = inputPixels[offset + stride + 1];
+  @Override
+  public void processRow(byte[][] rows, int width, byte[] output) {
+    byte[] above = rows[0];
+    byte[] center = rows[1];
+    byte[] below = rows[2];
+    // The first and last columns repeat themselves as their missing neighbour.
+    output[0] = detect(above, center, below, 0, 0, Math.min(1, width - 1));
+    for (int i = 1; i < width - 1; ++i) {
+      output[i] = detect(above, center, below, i - 1, i, i + 1);
+    }
+    if (width > 1) {
+      output[width - 1] = detect(above, center, below, width - 2, width - 1, width - 1);
+    }
+  }
 
-        // Sobel X filter:
-        //   -1, 0, 1,
-        //   -2, 0, 2,
-        //   -1, 0, 1
-        int xSum = -a00 - (2 * a10) - a20 + a02 + (2 * a12) + a22;
+  private static byte detect(
+      byte[] above, byte[] center, byte[] below, int left, int i, int right) {
+    // Neighbour pixels around the pixel at [i, j]. Pixel values are unsigned bytes.
+    int a00 = above[left] & 0xFF;
+    int a01 = above[i] & 0xFF;
+    int a02 = above[right] & 0xFF;
+    int a10 = center[left] & 0xFF;
+    int a12 = center[right] & 0xFF;
+    int a20 = below[left] & 0xFF;
+    int a21 = below[i] & 0xFF;
+    int a22 = below[right] & 0xFF;
 
-        // Sobel Y filter:
-        //    1, 2, 1,
-        //    0, 0, 0,
-        //   -1, -2, -1
-        int ySum = a00 + (2 * a01) + a02 - a20 - (2 * a21) - a22;
+    // Sobel X filter:
+    //   -1, 0, 1,
+    //   -2, 0, 2,
+    //   -1, 0, 1
+    int xSum = -a00 - (2 * a10) - a20 + a02 + (2 * a12) + a22;
 
-        if ((xSum * xSum) + (ySum * ySum) > SOBEL_EDGE_THRESHOLD) {
-          outputPixels[(j * width) + i] = (byte) 0xFF;
-        } else {
-          outputPixels[(j * width) + i] = (byte) 0x1F;
-        }
-      }
-    }
+    // Sobel Y filter:
+    //    1, 2, 1,
+    //    0, 0, 0,
+    //   -1, -2, -1
+    int ySum = a00 + (2 * a01) + a02 - a20 - (2 * a21) - a22;
 
-    return ByteBuffer.wrap(outputPixels);
+    int squaredMagnitude = (xSum * xSum) + (ySum * ySum);
+    return squaredMagnitude >= MAX_SQUARED_MAGNITUDE
+        ? (byte) MAX_MAGNITUDE
+        : MAGNITUDES[squaredMagnitude];
   }
 }
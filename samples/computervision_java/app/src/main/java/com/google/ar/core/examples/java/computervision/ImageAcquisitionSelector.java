@@ -0,0 +1,207 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import android.util.Log;
+import java.util.Locale;
+
+/**
+ * Chooses the faster image acquisition path for the device at runtime.
+ *
+ * <p>Each path is used in turn for a warm-up window, whose samples are discarded, and a measurement
+ * window. Two costs are measured for every path: the time spent on the GL thread acquiring the
+ * image and handing it to the image pipeline, and the end-to-end latency from the start of the
+ * frame that captured an image until it is drawn. While paths are evaluated, images of both paths
+ * go through the image pipeline whether or not its output is displayed, so that both costs cover
+ * the same work. The path with the lowest sum of both averages is then used until {@link
+ * #requestReevaluation()} is called, e.g. after the camera configuration changed or the device
+ * started throttling.
+ *
+ * <p>Costs are compared as measured, not scaled by image size. If the size of the images of the
+ * evaluated path changes, e.g. because images of the previous camera configuration were still being
+ * processed, its samples are discarded and a new warm-up window starts.
+ *
+ * <p>A path that has not delivered any image by the end of its measurement window, e.g. because
+ * startup delayed it, is probed again before a path is selected. Only a path that still has no
+ * sample after {@link #MAX_PROBE_ROUNDS} rounds is never selected.
+ *
+ * <p>All methods but {@link #requestReevaluation()} must be called on the GL thread.
+ */
+final class ImageAcquisitionSelector {
+  private static final String TAG = ImageAcquisitionSelector.class.getSimpleName();
+
+  /** The ways of obtaining image data accessible on CPU, see {@link ComputerVisionActivity}. */
+  enum Path {
+    CPU_DIRECT_ACCESS,
+    GPU_DOWNLOAD
+  }
+
+  // Frames used after switching paths before measuring, so that results of the previous path and
+  // one-time setup costs do not count.
+  private static final int WARM_UP_FRAMES = 30;
+  private static final int MEASUREMENT_FRAMES = 90;
+  private static final int MAX_PROBE_ROUNDS = 3;
+  private static final float NANOSECONDS_PER_MILLISECOND = 1_000_000f;
+
+  private final Path[] paths = Path.values();
+  private final long[] glThreadNanos = new long[paths.length];
+  private final int[] glThreadSamples = new int[paths.length];
+  private final long[] latencyNanos = new long[paths.length];
+  private final int[] latencySamples = new int[paths.length];
+  // Pixel count of the images measured on every path, 0 until its first measured sample.
+  private final int[] measuredPixelCounts = new int[paths.length];
+
+  private volatile boolean reevaluationRequested = true;
+
+  // Index of the path being evaluated, or paths.length once one has been selected.
+  private int evaluatedPath;
+  private int framesOnPath;
+  private int probeRounds;
+  private Path selectedPath = Path.CPU_DIRECT_ACCESS;
+
+  /** Requests the paths to be measured again. May be called from any thread. */
+  void requestReevaluation() {
+    reevaluationRequested = true;
+  }
+
+  /** Returns the path to use for the current frame. Call once at the start of every frame. */
+  Path beginFrame() {
+    if (reevaluationRequested) {
+      reevaluationRequested = false;
+      for (int i = 0; i < paths.length; ++i) {
+        glThreadNanos[i] = 0;
+        glThreadSamples[i] = 0;
+        latencyNanos[i] = 0;
+        latencySamples[i] = 0;
+        measuredPixelCounts[i] = 0;
+      }
+      evaluatedPath = 0;
+      framesOnPath = 0;
+      probeRounds = 0;
+    }
+    if (isEvaluating() && ++framesOnPath > WARM_UP_FRAMES + MEASUREMENT_FRAMES) {
+      framesOnPath = 1;
+      evaluatedPath = getNextPathToProbe(evaluatedPath + 1);
+      if (evaluatedPath == paths.length) {
+        selectFastestPath();
+      }
+    }
+    return isEvaluating() ? paths[evaluatedPath] : selectedPath;
+  }
+
+  /** Records the GL thread time spent acquiring the image of the current frame. */
+  void recordGlThreadTime(long nanos) {
+    if (isMeasuring()) {
+      glThreadNanos[evaluatedPath] += nanos;
+      glThreadSamples[evaluatedPath]++;
+    }
+  }
+
+  /**
+   * Records the end-to-end latency of an image drawn in the current frame, processed or not.
+   *
+   * @param frameStartNanos {@link System#nanoTime()} at the start of the frame the image was
+   *     captured in.
+   * @param pixelCount the number of pixels of the image. A change restarts the warm-up window.
+   */
+  void recordLatency(long frameStartNanos, int pixelCount) {
+    if (!isMeasuring()) {
+      return;
+    }
+    if (measuredPixelCounts[evaluatedPath] == 0) {
+      measuredPixelCounts[evaluatedPath] = pixelCount;
+    } else if (pixelCount != measuredPixelCounts[evaluatedPath]) {
+      Log.i(TAG, "Image size of " + paths[evaluatedPath] + " changed, warming up again");
+      measuredPixelCounts[evaluatedPath] = pixelCount;
+      glThreadNanos[evaluatedPath] = 0;
+      glThreadSamples[evaluatedPath] = 0;
+      latencyNanos[evaluatedPath] = 0;
+      latencySamples[evaluatedPath] = 0;
+      framesOnPath = 0;
+      return;
+    }
+    latencyNanos[evaluatedPath] += System.nanoTime() - frameStartNanos;
+    latencySamples[evaluatedPath]++;
+  }
+
+  /**
+   * Returns whether paths are being evaluated. Images must then go through the image pipeline
+   * even if its output is not displayed.
+   */
+  boolean isEvaluating() {
+    return evaluatedPath < paths.length;
+  }
+
+  /** Returns a one line description of the selection state, for display. */
+  String getStatus() {
+    if (isEvaluating()) {
+      return "evaluating " + paths[evaluatedPath];
+    }
+    StringBuilder status = new StringBuilder().append(selectedPath).append(" (");
+    for (int i = 0; i < paths.length; ++i) {
+      status
+          .append(i == 0 ? "" : ", ")
+          .append(String.format(Locale.US, "%.1f ms", getScoreMillis(i)));
+    }
+    return status.append(")").toString();
+  }
+
+  private boolean isMeasuring() {
+    return isEvaluating() && framesOnPath > WARM_UP_FRAMES;
+  }
+
+  /**
+   * Returns the first path from {@code path} on to evaluate, or if there is none, the first path
+   * without latency samples to probe again. Returns {@code paths.length} once all are measured.
+   */
+  private int getNextPathToProbe(int path) {
+    if (path < paths.length) {
+      return path;
+    }
+    if (++probeRounds < MAX_PROBE_ROUNDS) {
+      for (int i = 0; i < paths.length; ++i) {
+        if (latencySamples[i] == 0) {
+          return i;
+        }
+      }
+    }
+    return paths.length;
+  }
+
+  private void selectFastestPath() {
+    int fastest = 0;
+    for (int i = 1; i < paths.length; ++i) {
+      if (getScoreMillis(i) < getScoreMillis(fastest)) {
+        fastest = i;
+      }
+    }
+    selectedPath = paths[fastest];
+    Log.i(TAG, "Selected " + selectedPath + ": " + getStatus());
+  }
+
+  /**
+   * Returns the average GL thread time plus the average latency of a path, or infinity if the path
+   * did not deliver any image.
+   */
+  private float getScoreMillis(int path) {
+    if (glThreadSamples[path] == 0 || latencySamples[path] == 0) {
+      return Float.POSITIVE_INFINITY;
+    }
+    return ((float) glThreadNanos[path] / glThreadSamples[path]
+            + (float) latencyNanos[path] / latencySamples[path])
+        / NANOSECONDS_PER_MILLISECOND;
+  }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import com.google.ar.core.examples.java.common.helpers.PlaneView;
+import com.google.ar.core.examples.java.computervision.ImageStage.PixelStage;
+import com.google.ar.core.examples.java.computervision.ImageStage.SourceStage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs a chain of {@link ImageStage}s over an image.
+ *
+ * <p>All stages run in a single pass: every input row is pushed through the whole chain as soon as
+ * it is read, and each stage only keeps the few rows its window needs. Adjacent {@link PixelStage}s
+ * are combined into a single lookup table. The image is split into horizontal bands that are
+ * processed in parallel on a {@link ForkJoinPool}; each band reads as many halo rows above and
+ * below as the windows of all stages need together. After the first image of a given width, the
+ * pipeline does not allocate.
+ *
+ * <p>The time spent in every stage is measured and can be read with {@link #getStageMillis(int)}.
+ *
+ * <p>This class is not thread-safe, and {@link #process} is meant to be called from a single
+ * thread. Timings may be read from any thread.
+ */
+final class ImagePipeline {
+  // Rate by which smoothed stage times approach the time of the last image.
+  private static final float SMOOTHING_FACTOR = .05f;
+  private static final float NANOSECONDS_PER_MILLISECOND = 1_000_000f;
+
+  private final ImageStage[] stages;
+  private final ForkJoinPool pool;
+  private final Band[] bands;
+  private final ProcessTask processTask = new ProcessTask();
+
+  // Smoothed CPU time of every stage, summed over all bands, and wall time of the whole pipeline.
+  private final float[] stageMillis;
+  private volatile float totalMillis;
+
+  private int allocatedWidth;
+
+  /** Creates a pipeline using one band per available processor. */
+  ImagePipeline(List<ImageStage> stages) {
+    this(stages, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Creates a pipeline.
+   *
+   * @param stages the stages, in order. If the first stage is not a {@link SourceStage}, the input
+   *     is read with {@link ImageStages#plane()}.
+   * @param parallelism the number of bands processed in parallel.
+   */
+  ImagePipeline(List<ImageStage> stages, int parallelism) {
+    this.stages = fuse(stages);
+    stageMillis = new float[this.stages.length];
+    pool = new ForkJoinPool(parallelism);
+    bands = new Band[parallelism];
+    for (int i = 0; i < parallelism; ++i) {
+      bands[i] = new Band(this.stages);
+    }
+  }
+
+  /**
+   * Processes an image.
+   *
+   * @param input the image to process. Only read.
+   * @param output receives the result. Must have the same width and height as {@code input}.
+   */
+  void process(PlaneView input, PlaneView output) {
+    if (input.getWidth() != output.getWidth() || input.getHeight() != output.getHeight()) {
+      throw new IllegalArgumentException(
+          "Output size " + output.getWidth() + "x" + output.getHeight()
+              + " does not match input size " + input.getWidth() + "x" + input.getHeight());
+    }
+    long startNanos = System.nanoTime();
+    if (input.getWidth() != allocatedWidth) {
+      allocatedWidth = input.getWidth();
+      for (Band band : bands) {
+        band.allocate(input.getWidth());
+      }
+    }
+
+    int bandCount = Math.min(bands.length, input.getHeight());
+    int rowsPerBand = (input.getHeight() + bandCount - 1) / bandCount;
+    for (int i = 0; i < bandCount; ++i) {
+      int firstRow = Math.min(input.getHeight(), i * rowsPerBand);
+      int endRow = Math.min(input.getHeight(), firstRow + rowsPerBand);
+      bands[i].set(input, output, firstRow, endRow);
+    }
+    processTask.bandCount = bandCount;
+    processTask.reinitialize();
+    pool.invoke(processTask);
+
+    for (int k = 0; k < stages.length; ++k) {
+      long stageNanos = 0;
+      for (int i = 0; i < bandCount; ++i) {
+        stageNanos += bands[i].takeNanos(k);
+      }
+      stageMillis[k] = smooth(stageMillis[k], stageNanos / NANOSECONDS_PER_MILLISECOND);
+    }
+    long totalNanos = System.nanoTime() - startNanos;
+    totalMillis = smooth(totalMillis, totalNanos / NANOSECONDS_PER_MILLISECOND);
+  }
+
+  /** Returns the number of stages, after adjacent pixel stages have been combined. */
+  int getStageCount() {
+    return stages.length;
+  }
+
+  /** Returns the name of a stage. Combined pixel stages are named after all their parts. */
+  String getStageName(int stage) {
+    return stages[stage].getName();
+  }
+
+  /** Returns the smoothed CPU time of a stage in milliseconds, summed over all bands. */
+  float getStageMillis(int stage) {
+    return stageMillis[stage];
+  }
+
+  /** Returns the smoothed wall clock time of the whole pipeline in milliseconds. */
+  float getTotalMillis() {
+    return totalMillis;
+  }
+
+  /** Returns a one line summary of the stage timings, for display. */
+  String getTimingSummary() {
+    StringBuilder summary = new StringBuilder();
+    for (int k = 0; k < stages.length; ++k) {
+      summary.append(String.format(Locale.US, "%s %.1f, ", stages[k].getName(), stageMillis[k]));
+    }
+    return summary.append(String.format(Locale.US, "total %.1f ms", totalMillis)).toString();
+  }
+
+  /** Shuts down the worker threads. The pipeline must not be used afterwards. */
+  void close() {
+    pool.shutdown();
+  }
+
+  private static float smooth(float smoothed, float value) {
+    return smoothed == 0f ? value : smoothed + SMOOTHING_FACTOR * (value - smoothed);
+  }
+
+  /** Prepends a source stage if needed and combines runs of adjacent pixel stages. */
+  private static ImageStage[] fuse(List<ImageStage> stages) {
+    List<ImageStage> fused = new ArrayList<>();
+    int next = 0;
+    if (!stages.isEmpty() && stages.get(0) instanceof SourceStage) {
+      fused.add(stages.get(0));
+      next = 1;
+    } else {
+      fused.add(ImageStages.plane());
+    }
+    List<PixelStage> pixelStages = new ArrayList<>();
+    for (int i = next; i <= stages.size(); ++i) {
+      ImageStage stage = i < stages.size() ? stages.get(i) : null;
+      if (stage instanceof PixelStage) {
+        pixelStages.add((PixelStage) stage);
+        continue;
+      }
+      if (!pixelStages.isEmpty()) {
+        fused.add(new ImageStages.LookupStage(pixelStages.toArray(new PixelStage[0])));
+        pixelStages.clear();
+      }
+      if (stage != null) {
+        fused.add(stage);
+      }
+    }
+    return fused.toArray(new ImageStage[0]);
+  }
+
+  /** Forks all bands of the current image and waits for them. */
+  private final class ProcessTask extends RecursiveAction {
+    int bandCount;
+
+    @Override
+    protected void compute() {
+      for (int i = 1; i < bandCount; ++i) {
+        bands[i].reinitialize();
+        bands[i].fork();
+      }
+      // Process the first band on this thread rather than leave it idle.
+      bands[0].reinitialize();
+      bands[0].invoke();
+      for (int i = 1; i < bandCount; ++i) {
+        bands[i].join();
+      }
+    }
+  }
+
+  /** The state of one stage within a band. */
+  private static final class Node {
+    final ImageStage stage;
+    final int radius;
+    // Rolling window of the last 2 * radius + 1 input rows, indexed by row modulo its length.
+    byte[][] ring;
+    // The input rows passed to the stage, centered on the output row.
+    final byte[][] window;
+    byte[] output;
+    // Output rows of this stage needed by the band.
+    int firstRow;
+    int endRow;
+    long nanos;
+
+    Node(ImageStage stage) {
+      this.stage = stage;
+      radius = stage.getRadius();
+      window = new byte[2 * radius + 1][];
+    }
+  }
+
+  /** Runs all stages over a range of output rows. */
+  private static final class Band extends RecursiveAction {
+    private final Node[] nodes;
+
+    private PlaneView input;
+    private PlaneView output;
+    private int width;
+    private int height;
+    private int firstRow;
+    private int endRow;
+
+    Band(ImageStage[] stages) {
+      nodes = new Node[stages.length];
+      for (int k = 0; k < stages.length; ++k) {
+        nodes[k] = new Node(stages[k]);
+      }
+    }
+
+    void allocate(int width) {
+      for (Node node : nodes) {
+        node.ring = node.radius > 0 ? new byte[2 * node.radius + 1][width] : null;
+        node.output = new byte[width];
+      }
+    }
+
+    void set(PlaneView input, PlaneView output, int firstRow, int endRow) {
+      this.input = input;
+      this.output = output;
+      this.width = input.getWidth();
+      this.height = input.getHeight();
+      this.firstRow = firstRow;
+      this.endRow = endRow;
+    }
+
+    long takeNanos(int stage) {
+      long nanos = nodes[stage].nanos;
+      nodes[stage].nanos = 0;
+      return nanos;
+    }
+
+    @Override
+    protected void compute() {
+      if (firstRow >= endRow) {
+        return;
+      }
+      // Walk back from the last stage to find the rows every stage must produce, including halos.
+      int first = firstRow;
+      int end = endRow;
+      for (int k = nodes.length - 1; k >= 0; --k) {
+        nodes[k].firstRow = first;
+        nodes[k].endRow = end;
+        first = Math.max(0, first - nodes[k].radius);
+        end = Math.min(height, end + nodes[k].radius);
+      }
+
+      Node source = nodes[0];
+      SourceStage sourceStage = (SourceStage) source.stage;
+      for (int y = source.firstRow; y < source.endRow; ++y) {
+        long startNanos = System.nanoTime();
+        sourceStage.readRow(input, y, source.output);
+        source.nanos += System.nanoTime() - startNanos;
+        push(1, y, source.output);
+      }
+      input = null;
+      output = null;
+    }
+
+    /** Feeds input row {@code y} to stage {@code k}, and emits every output row it completes. */
+    private void push(int k, int y, byte[] row) {
+      if (k == nodes.length) {
+        output.writeRow(y, row);
+        return;
+      }
+      Node node = nodes[k];
+      int radius = node.radius;
+      if (radius == 0) {
+        node.window[0] = row;
+        emit(k, y);
+        return;
+      }
+      System.arraycopy(row, 0, node.ring[y % node.ring.length], 0, width);
+      int outputRow = y - radius;
+      if (outputRow >= node.firstRow && outputRow < node.endRow) {
+        emit(k, outputRow);
+      }
+      if (y == height - 1) {
+        // The rows closest to the bottom edge see the last row repeated, and are complete now.
+        for (outputRow = Math.max(node.firstRow, y - radius + 1);
+            outputRow < node.endRow;
+            ++outputRow) {
+          emit(k, outputRow);
+        }
+      }
+    }
+
+    private void emit(int k, int outputRow) {
+      Node node = nodes[k];
+      int radius = node.radius;
+      if (radius > 0) {
+        for (int i = 0; i < node.window.length; ++i) {
+          int row = Math.min(height - 1, Math.max(0, outputRow - radius + i));
+          node.window[i] = node.ring[row % node.ring.length];
+        }
+      }
+      long startNanos = System.nanoTime();
+      node.stage.processRow(node.window, width, node.output);
+      node.nanos += System.nanoTime() - startNanos;
+      push(k + 1, outputRow, node.output);
+    }
+  }
+}
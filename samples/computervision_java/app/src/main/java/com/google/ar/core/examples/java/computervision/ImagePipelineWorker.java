@@ -0,0 +1,246 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import android.util.Log;
+import com.google.ar.core.examples.java.common.helpers.PlaneView;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs an {@link ImagePipeline} on a dedicated thread, so that the GL thread never waits for image
+ * processing.
+ *
+ * <p>Images are handed to the worker through a single slot mailbox. Submitting an image while the
+ * previous one has not been picked up yet drops the previous one, so the worker always processes
+ * the most recent image. Results are published the same way, and the GL thread takes the latest
+ * one with {@link #pollResult()}. Submitted images are not copied: the worker reads them in place,
+ * and runs their release callback once it is done with them, so the caller must keep the pixels
+ * valid until then. At most two submitted images and three result buffers are held at any time.
+ *
+ * <p>A failure to process an image is logged and the image is skipped; the worker keeps running.
+ */
+final class ImagePipelineWorker {
+  private static final String TAG = ImagePipelineWorker.class.getSimpleName();
+
+  /** A submitted image, waiting to be processed. */
+  private static final class Input {
+    PlaneView plane;
+    long timestampNanos;
+    Runnable release;
+  }
+
+  /** A processed image, valid until passed back to {@link #recycle(Result)}. */
+  static final class Result {
+    /**
+     * Processed pixels, one byte per pixel, without row padding. The buffer is direct, so that it
+     * can be passed to {@code glTexImage2D} as is.
+     */
+    ByteBuffer pixels = ByteBuffer.allocateDirect(0);
+
+    int width;
+    int height;
+
+    /** The timestamp the input image was submitted with. */
+    long timestampNanos;
+
+    private PlaneView view;
+  }
+
+  private final ImagePipeline pipeline;
+  private final Thread thread;
+
+  private final AtomicReference<Input> pendingInput = new AtomicReference<>();
+  private final ConcurrentLinkedQueue<Input> freeInputs = new ConcurrentLinkedQueue<>();
+  private final AtomicReference<Result> latestResult = new AtomicReference<>();
+  private final ConcurrentLinkedQueue<Result> freeResults = new ConcurrentLinkedQueue<>();
+
+  // Guards isProcessing, so that cancel() can wait for the image being processed.
+  private final Object processingLock = new Object();
+  private boolean isProcessing;
+
+  private volatile boolean closed;
+  private volatile long droppedImageCount;
+  private volatile long failedImageCount;
+
+  /** Creates the worker and starts its thread. The worker takes ownership of the pipeline. */
+  ImagePipelineWorker(ImagePipeline pipeline) {
+    this.pipeline = pipeline;
+    thread = new Thread(this::run, TAG);
+    thread.start();
+  }
+
+  /**
+   * Queues an image plane for processing, replacing any image that has not been picked up by the
+   * worker yet. Never blocks.
+   *
+   * @param plane the image. Only read, in place, until {@code release} runs.
+   * @param timestampNanos an arbitrary timestamp passed on to the result.
+   * @param release run once the worker no longer reads {@code plane}, either on the worker thread
+   *     after processing or on the calling thread of {@link #submit} or {@link #cancel} if the
+   *     image is dropped. Must not block.
+   */
+  void submit(PlaneView plane, long timestampNanos, Runnable release) {
+    Input input = freeInputs.poll();
+    if (input == null) {
+      input = new Input();
+    }
+    input.plane = plane;
+    input.timestampNanos = timestampNanos;
+    input.release = release;
+
+    Input dropped = pendingInput.getAndSet(input);
+    if (dropped != null) {
+      ++droppedImageCount;
+      release(dropped);
+    }
+    LockSupport.unpark(thread);
+  }
+
+  /**
+   * Drops the image waiting to be processed, if any, and waits for the worker to finish the image
+   * it is processing. Once this returns, all submitted images have been released.
+   */
+  void cancel() {
+    Input dropped;
+    synchronized (processingLock) {
+      dropped = pendingInput.getAndSet(null);
+      boolean interrupted = false;
+      while (isProcessing) {
+        try {
+          processingLock.wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    if (dropped != null) {
+      release(dropped);
+    }
+  }
+
+  /**
+   * Returns the most recent result not returned before, or null if there is none. The result must
+   * be passed back to {@link #recycle(Result)} once it is no longer used.
+   */
+  Result pollResult() {
+    return latestResult.getAndSet(null);
+  }
+
+  /** Returns a result obtained from {@link #pollResult()} to the pool. */
+  void recycle(Result result) {
+    freeResults.add(result);
+  }
+
+  /** Returns the number of submitted images dropped because a newer one arrived first. */
+  long getDroppedImageCount() {
+    return droppedImageCount;
+  }
+
+  /** Returns the number of images that could not be processed. */
+  long getFailedImageCount() {
+    return failedImageCount;
+  }
+
+  /** Returns the pipeline run by this worker, e.g. to read its timings. */
+  ImagePipeline getPipeline() {
+    return pipeline;
+  }
+
+  /**
+   * Stops the worker thread and the pipeline. The pending image is released without being
+   * processed.
+   */
+  void close() {
+    closed = true;
+    LockSupport.unpark(thread);
+  }
+
+  private void run() {
+    try {
+      while (!closed) {
+        Input input;
+        synchronized (processingLock) {
+          input = pendingInput.getAndSet(null);
+          isProcessing = input != null;
+        }
+        if (input == null) {
+          LockSupport.park(this);
+          continue;
+        }
+        try {
+          Result result = process(input.plane);
+          result.timestampNanos = input.timestampNanos;
+          Result replaced = latestResult.getAndSet(result);
+          if (replaced != null) {
+            freeResults.add(replaced);
+          }
+        } catch (RuntimeException e) {
+          // Keep processing the next images, a single bad image should not stop the worker.
+          ++failedImageCount;
+          Log.e(TAG, "Image processing failed", e);
+        } finally {
+          release(input);
+          synchronized (processingLock) {
+            isProcessing = false;
+            processingLock.notifyAll();
+          }
+        }
+      }
+    } finally {
+      Input pending = pendingInput.getAndSet(null);
+      if (pending != null) {
+        release(pending);
+      }
+      pipeline.close();
+    }
+  }
+
+  /** Runs the release callback of an input and returns it to the pool. */
+  private void release(Input input) {
+    Runnable release = input.release;
+    input.plane = null;
+    input.release = null;
+    freeInputs.add(input);
+    release.run();
+  }
+
+  private Result process(PlaneView input) {
+    Result result = freeResults.poll();
+    if (result == null) {
+      result = new Result();
+    }
+    if (result.width != input.getWidth() || result.height != input.getHeight()) {
+      result.width = input.getWidth();
+      result.height = input.getHeight();
+      result.pixels = ByteBuffer.allocateDirect(result.width * result.height);
+      result.view = PlaneView.packed(result.pixels, result.width, result.height);
+    }
+    try {
+      pipeline.process(input, result.view);
+    } catch (RuntimeException e) {
+      freeResults.add(result);
+      throw e;
+    }
+    result.pixels.rewind();
+    return result;
+  }
+}
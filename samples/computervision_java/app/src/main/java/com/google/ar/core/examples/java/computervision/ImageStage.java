@@ -0,0 +1,89 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import com.google.ar.core.examples.java.common.helpers.PlaneView;
+
+/**
+ * A single step of an {@link ImagePipeline} working on single channel 8-bit images.
+ *
+ * <p>Stages compute their output one row at a time from a small window of input rows. This lets
+ * the pipeline stream every row through all stages in a single pass over the image, keeping only
+ * the window of each stage in memory instead of whole intermediate images. See {@link
+ * ImageStages} for the available stages.
+ */
+interface ImageStage {
+
+  /** Returns the name of the stage, used in timing reports. */
+  String getName();
+
+  /**
+   * Returns how many rows above and below, and columns left and right of a pixel are read to
+   * compute it. Stages that map each pixel independently return 0.
+   */
+  int getRadius();
+
+  /**
+   * Computes one output row.
+   *
+   * @param rows the {@code 2 * getRadius() + 1} input rows centered on the output row. Rows above
+   *     the first or below the last row of the image repeat the nearest edge row.
+   * @param width the number of pixels in each row.
+   * @param output receives the output row.
+   */
+  void processRow(byte[][] rows, int width, byte[] output);
+
+  /**
+   * A stage that maps every pixel value independently of its neighbours. Adjacent pixel stages are
+   * combined by the pipeline into a single lookup table.
+   */
+  interface PixelStage extends ImageStage {
+    /** Maps an unsigned pixel value in [0, 255] range to a new value in the same range. */
+    int apply(int value);
+
+    @Override
+    default int getRadius() {
+      return 0;
+    }
+
+    @Override
+    default void processRow(byte[][] rows, int width, byte[] output) {
+      byte[] input = rows[0];
+      for (int i = 0; i < width; ++i) {
+        output[i] = (byte) apply(input[i] & 0xFF);
+      }
+    }
+  }
+
+  /**
+   * A stage reading pixels from the pipeline input. It is only meaningful as the first stage of a
+   * pipeline; anywhere else it passes rows through unchanged.
+   */
+  interface SourceStage extends ImageStage {
+    /** Reads row {@code y} of {@code input} into {@code output}, one byte per pixel. */
+    void readRow(PlaneView input, int y, byte[] output);
+
+    @Override
+    default int getRadius() {
+      return 0;
+    }
+
+    @Override
+    default void processRow(byte[][] rows, int width, byte[] output) {
+      System.arraycopy(rows[0], 0, output, 0, width);
+    }
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import com.google.ar.core.examples.java.common.helpers.PlaneView;
+import com.google.ar.core.examples.java.computervision.ImageStage.PixelStage;
+import com.google.ar.core.examples.java.computervision.ImageStage.SourceStage;
+import java.nio.ByteBuffer;
+
+/** Factory of the {@link ImageStage}s available to an {@link ImagePipeline}. */
+final class ImageStages {
+  private ImageStages() {}
+
+  /**
+   * Returns a stage reading the input plane as is. Pipelines that do not start with a {@link
+   * SourceStage} read their input with this stage.
+   */
+  static SourceStage plane() {
+    return new SourceStage() {
+      @Override
+      public String getName() {
+        return "read";
+      }
+
+      @Override
+      public void readRow(PlaneView input, int y, byte[] output) {
+        input.readRow(y, output);
+      }
+    };
+  }
+
+  /**
+   * Returns a stage converting the input to grayscale. Inputs with a pixel stride of at least 3 are
+   * read as RGB(A) and converted to BT.601 luma. Other inputs, such as the Y plane of a camera
+   * image, are already grayscale and are read as is.
+   */
+  static SourceStage grayscale() {
+    return new SourceStage() {
+      @Override
+      public String getName() {
+        return "grayscale";
+      }
+
+      @Override
+      public void readRow(PlaneView input, int y, byte[] output) {
+        if (input.getPixelStride() < 3) {
+          input.readRow(y, output);
+          return;
+        }
+        ByteBuffer buffer = input.getBuffer();
+        for (int i = 0; i < input.getWidth(); ++i) {
+          int pixel = input.getIndex(i, y);
+          int r = buffer.get(pixel) & 0xFF;
+          int g = buffer.get(pixel + 1) & 0xFF;
+          int b = buffer.get(pixel + 2) & 0xFF;
+          // Fixed point BT.601 weights, scaled by 256.
+          output[i] = (byte) ((77 * r + 150 * g + 29 * b + 128) >> 8);
+        }
+      }
+    };
+  }
+
+  /** Returns a stage applying a 3x3 Gaussian blur, with the kernel [1 2 1] in both directions. */
+  static ImageStage gaussianBlur() {
+    return new ImageStage() {
+      @Override
+      public String getName() {
+        return "blur";
+      }
+
+      @Override
+      public int getRadius() {
+        return 1;
+      }
+
+      @Override
+      public void processRow(byte[][] rows, int width, byte[] output) {
+        byte[] above = rows[0];
+        byte[] center = rows[1];
+        byte[] below = rows[2];
+        for (int i = 0; i < width; ++i) {
+          int left = i > 0 ? i - 1 : 0;
+          int right = i < width - 1 ? i + 1 : i;
+          int sum =
+              (above[left] & 0xFF)
+                  + 2 * (above[i] & 0xFF)
+                  + (above[right] & 0xFF)
+                  + 2 * (center[left] & 0xFF)
+                  + 4 * (center[i] & 0xFF)
+                  + 2 * (center[right] & 0xFF)
+                  + (below[left] & 0xFF)
+                  + 2 * (below[i] & 0xFF)
+                  + (below[right] & 0xFF);
+          output[i] = (byte) ((sum + 8) >> 4);
+        }
+      }
+    };
+  }
+
+  /**
+   * Returns a stage detecting edges with the Sobel operator. Every pixel becomes the strength of
+   * the edge at that pixel; follow it with {@link #threshold} to keep strong edges only. See
+   * {@link EdgeDetector}.
+   */
+  static ImageStage sobel() {
+    return new EdgeDetector();
+  }
+
+  /**
+   * Returns a stage replacing every pixel with {@code above} if its value is strictly greater than
+   * {@code threshold}, and with {@code below} otherwise.
+   */
+  static PixelStage threshold(int threshold, int below, int above) {
+    return new PixelStage() {
+      @Override
+      public String getName() {
+        return "threshold";
+      }
+
+      @Override
+      public int apply(int value) {
+        return value > threshold ? above : below;
+      }
+    };
+  }
+
+  /** A pixel stage backed by a lookup table, used to run adjacent pixel stages as one. */
+  static final class LookupStage implements PixelStage {
+    private final String name;
+    private final byte[] table = new byte[256];
+
+    /** Combines the given pixel stages, applied in order, into a single stage. */
+    LookupStage(PixelStage... stages) {
+      StringBuilder names = new StringBuilder();
+      for (PixelStage stage : stages) {
+        names.append(names.length() == 0 ? "" : "+").append(stage.getName());
+      }
+      name = names.toString();
+      for (int value = 0; value < 256; ++value) {
+        int mapped = value;
+        for (PixelStage stage : stages) {
+          mapped = stage.apply(mapped) & 0xFF;
+        }
+        table[value] = (byte) mapped;
+      }
+    }
+
+    @Override
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public int apply(int value) {
+      return table[value] & 0xFF;
+    }
+
+    @Override
+    public void processRow(byte[][] rows, int width, byte[] output) {
+      byte[] input = rows[0];
+      byte[] lookup = table;
+      for (int i = 0; i < width; ++i) {
+        output[i] = lookup[input[i] & 0xFF];
+      }
+    }
+  }
+}
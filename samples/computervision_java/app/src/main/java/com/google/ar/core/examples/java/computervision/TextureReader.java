@@ -57,6 +57,22 @@ import java.nio.IntBuffer;
  *
  * <p>releaseFrame(bufferIndex);
  *
+ * <p>(C) Non-blocking ring: submitFrame() is called every frame, and tryAcquireFrame() returns the
+ * most recent frame whose read back has completed on the GPU, or null if none has yet. Each
+ * request is guarded by a fence, so tryAcquireFrame() never waits for the GPU. When all frame
+ * buffers hold pending requests, submitFrame() drops the oldest one, and tryAcquireFrame() drops
+ * completed frames older than the one it returns. The number of frame buffers is set in the
+ * constructor; one more than the expected read back latency in frames avoids drops.
+ *
+ * <p>releaseFrame(image.bufferIndex);
+ *
+ * <p>Pyramid: the reader can also render a pyramid of downscaled copies of the texture on the GPU,
+ * each level half the size of the previous one, by passing a level count to create(). Each
+ * submitFrame() request selects the levels to read back with a bit mask, and only those levels are
+ * transferred to the CPU. With IMAGE_FORMAT_I8, the conversion to luma happens on the GPU too, so a
+ * level reads back one byte per pixel. The returned image is the lowest requested level, and its
+ * levels array holds the images of all requested levels.
+ *
  * <p>Note: To use any of the above two methods, you need to call create() routine to initialize the
  * reader before calling any of the reading routine. You will also need to call destroy() method to
  * release the internal resource when you are done with the reader.
@@ -66,15 +82,34 @@ public class TextureReader {
 
   // By default, we create only two internal buffers. So you can only hold more than one buffer
   // index in your app without releasing it. If you need to hold more than one buffers, you can
-  // increase the bufferCount member.
-  private final int bufferCount = 2;
-  private int[] frameBuffer;
-  private int[] texture;
+  // pass a larger buffer count to the constructor.
+  private static final int DEFAULT_BUFFER_COUNT = 2;
+
+  // States of a frame buffer.
+  private static final int BUFFER_FREE = 0;
+  // A read back request was submitted, and may still be running on the GPU.
+  private static final int BUFFER_SUBMITTED = 1;
+  // The pixel buffer is mapped for the app, until releaseFrame().
+  private static final int BUFFER_ACQUIRED = 2;
+
+  private final int bufferCount;
   private int[] pbo;
-  private Boolean[] bufferUsed;
+  private final int[] bufferState;
+  // Bit mask of the pyramid levels read back into every buffer.
+  private final int[] bufferLevels;
+  // Fence signaled once the read back of a submitted buffer completed, or 0.
+  private final long[] fence;
+  // Submission order and time of every buffer, for dropping and latency measurements.
+  private final long[] submitSequence;
+  private final long[] submitTimeNanos;
+  private long nextSubmitSequence;
   private int frontIndex = -1;
   private int backIndex = -1;
 
+  private long droppedFrameCount;
+  private int readbackLatencyFrames;
+  private float readbackLatencyMillis;
+
   // By default, the output image format is set to RGBA. You can also set it to IMAGE_FORMAT_I8.
   private int imageFormat = TextureReaderImage.IMAGE_FORMAT_RGBA;
   private int imageWidth = 0;
@@ -82,11 +117,25 @@ public class TextureReader {
   private int pixelBufferSize = 0;
   private Boolean keepAspectRatio = false;
 
+  // Render targets of the pyramid levels, shared by all frame buffers. Level 0 has the output
+  // image size, and every further level half the size of the previous one. Each level has a fixed
+  // location in the pixel buffers.
+  private int levelCount = 1;
+  private int[] levelFrameBuffer;
+  private int[] levelTexture;
+  private int[] levelWidth;
+  private int[] levelHeight;
+  private int[] levelOffset;
+  private int[] levelSize;
+
   private FloatBuffer quadVertices;
   private FloatBuffer quadTexCoord;
   private int quadProgram;
   private int quadPositionAttrib;
   private int quadTexCoordAttrib;
+  private int downsampleProgram;
+  private int downsamplePositionAttrib;
+  private int downsampleTexCoordAttrib;
   private static final int COORDS_PER_VERTEX = 3;
   private static final int TEXCOORDS_PER_VERTEX = 2;
   private static final int FLOAT_SIZE = 4;
@@ -108,6 +157,29 @@ public class TextureReader {
         1.0f, 1.0f,
       };
 
+  /** Creates a texture reader with two frame buffers. */
+  public TextureReader() {
+    this(DEFAULT_BUFFER_COUNT);
+  }
+
+  /**
+   * Creates a texture reader.
+   *
+   * @param bufferCount the number of frame buffers, which bounds the number of frames that can be
+   *     submitted or acquired at the same time.
+   */
+  public TextureReader(int bufferCount) {
+    if (bufferCount < 1) {
+      throw new IllegalArgumentException("At least one buffer is required.");
+    }
+    this.bufferCount = bufferCount;
+    bufferState = new int[bufferCount];
+    bufferLevels = new int[bufferCount];
+    fence = new long[bufferCount];
+    submitSequence = new long[bufferCount];
+    submitTimeNanos = new long[bufferCount];
+  }
+
   /**
    * Creates the texture reader. This function needs to be called from the OpenGL rendering thread.
    *
@@ -121,6 +193,32 @@ public class TextureReader {
    */
   public void create(Context context, int format, int width, int height, Boolean keepAspectRatio)
       throws IOException {
+    create(context, format, width, height, keepAspectRatio, /* levelCount= */ 1);
+  }
+
+  /**
+   * Creates the texture reader with a pyramid of downscaled levels. This function needs to be
+   * called from the OpenGL rendering thread.
+   *
+   * @param format the format of the output pixel buffer. It can be one of the two values:
+   *     TextureReaderImage.IMAGE_FORMAT_RGBA or TextureReaderImage.IMAGE_FORMAT_I8.
+   * @param width the width of the output image at level 0.
+   * @param height the height of the output image at level 0.
+   * @param keepAspectRatio whether or not to keep aspect ratio, see above.
+   * @param levelCount the number of pyramid levels, at least 1. Level {@code i} has a size of
+   *     {@code max(1, width >> i)} by {@code max(1, height >> i)} pixels.
+   */
+  public void create(
+      Context context,
+      int format,
+      int width,
+      int height,
+      Boolean keepAspectRatio,
+      int levelCount)
+      throws IOException {
+    if (levelCount < 1 || levelCount > Integer.SIZE - 1) {
+      throw new IllegalArgumentException("Invalid level count " + levelCount);
+    }
     if (format != TextureReaderImage.IMAGE_FORMAT_RGBA
         && format != TextureReaderImage.IMAGE_FORMAT_I8) {
       throw new RuntimeException("Image format not supported.");
@@ -133,32 +231,37 @@ public class TextureReader {
     frontIndex = -1;
     backIndex = -1;
 
-    if (imageFormat == TextureReaderImage.IMAGE_FORMAT_RGBA) {
-      pixelBufferSize = imageWidth * imageHeight * 4;
-    } else if (imageFormat == TextureReaderImage.IMAGE_FORMAT_I8) {
-      pixelBufferSize = imageWidth * imageHeight;
+    int bytesPerPixel = imageFormat == TextureReaderImage.IMAGE_FORMAT_RGBA ? 4 : 1;
+    this.levelCount = levelCount;
+    levelWidth = new int[levelCount];
+    levelHeight = new int[levelCount];
+    levelOffset = new int[levelCount];
+    levelSize = new int[levelCount];
+    pixelBufferSize = 0;
+    for (int level = 0; level < levelCount; level++) {
+      levelWidth[level] = Math.max(1, imageWidth >> level);
+      levelHeight[level] = Math.max(1, imageHeight >> level);
+      levelOffset[level] = pixelBufferSize;
+      levelSize[level] = levelWidth[level] * levelHeight[level] * bytesPerPixel;
+      pixelBufferSize += levelSize[level];
     }
 
-    // Create framebuffers and PBOs.
-    pbo = new int[bufferCount];
-    frameBuffer = new int[bufferCount];
-    texture = new int[bufferCount];
-    bufferUsed = new Boolean[bufferCount];
-    GLES30.glGenBuffers(bufferCount, pbo, 0);
-    GLES20.glGenFramebuffers(bufferCount, frameBuffer, 0);
-    GLES20.glGenTextures(bufferCount, texture, 0);
+    // Create framebuffers for every level.
+    levelFrameBuffer = new int[levelCount];
+    levelTexture = new int[levelCount];
+    GLES20.glGenFramebuffers(levelCount, levelFrameBuffer, 0);
+    GLES20.glGenTextures(levelCount, levelTexture, 0);
 
-    for (int i = 0; i < bufferCount; i++) {
-      bufferUsed[i] = false;
-      GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, frameBuffer[i]);
+    for (int level = 0; level < levelCount; level++) {
+      GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, levelFrameBuffer[level]);
 
-      GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture[i]);
+      GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, levelTexture[level]);
       GLES30.glTexImage2D(
           GLES30.GL_TEXTURE_2D,
           0,
           imageFormat == TextureReaderImage.IMAGE_FORMAT_I8 ? GLES30.GL_R8 : GLES30.GL_RGBA,
-          imageWidth,
-          imageHeight,
+          levelWidth[level],
+          levelHeight[level],
           0,
           imageFormat == TextureReaderImage.IMAGE_FORMAT_I8 ? GLES30.GL_RED : GLES30.GL_RGBA,
           GLES30.GL_UNSIGNED_BYTE,
@@ -170,7 +273,11 @@ public class TextureReader {
       GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
       GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
       GLES20.glFramebufferTexture2D(
-          GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0, GLES20.GL_TEXTURE_2D, texture[i], 0);
+          GLES20.GL_FRAMEBUFFER,
+          GLES20.GL_COLOR_ATTACHMENT0,
+          GLES20.GL_TEXTURE_2D,
+          levelTexture[level],
+          0);
 
       int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
       if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
@@ -181,8 +288,14 @@ public class TextureReader {
                 + " and error "
                 + GLES20.glGetError());
       }
+    }
+    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
 
-      // Setup PBOs
+    // Create PBOs large enough for all levels.
+    pbo = new int[bufferCount];
+    GLES30.glGenBuffers(bufferCount, pbo, 0);
+    for (int i = 0; i < bufferCount; i++) {
+      bufferState[i] = BUFFER_FREE;
       GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pbo[i]);
       GLES30.glBufferData(
           GLES30.GL_PIXEL_PACK_BUFFER, pixelBufferSize, null, GLES30.GL_DYNAMIC_READ);
@@ -231,17 +344,41 @@ public class TextureReader {
     quadTexCoordAttrib = GLES20.glGetAttribLocation(quadProgram, "a_TexCoord");
     int texLoc = GLES20.glGetUniformLocation(quadProgram, "sTexture");
     GLES20.glUniform1i(texLoc, 0);
+
+    if (levelCount > 1) {
+      int downsampleShader =
+          ShaderUtil.loadGLShader(
+              TAG, context, GLES20.GL_FRAGMENT_SHADER, "shaders/gpu_download_downsample.frag");
+      downsampleProgram = GLES20.glCreateProgram();
+      GLES20.glAttachShader(downsampleProgram, vertexShader);
+      GLES20.glAttachShader(downsampleProgram, downsampleShader);
+      GLES20.glLinkProgram(downsampleProgram);
+      GLES20.glUseProgram(downsampleProgram);
+
+      downsamplePositionAttrib = GLES20.glGetAttribLocation(downsampleProgram, "a_Position");
+      downsampleTexCoordAttrib = GLES20.glGetAttribLocation(downsampleProgram, "a_TexCoord");
+      GLES20.glUniform1i(GLES20.glGetUniformLocation(downsampleProgram, "sTexture"), 0);
+    }
+  }
+
+  /** Returns the number of pyramid levels. */
+  public int getLevelCount() {
+    return levelCount;
   }
 
   /** Destroy the texture reader. */
   public void destroy() {
-    if (frameBuffer != null) {
-      GLES20.glDeleteFramebuffers(bufferCount, frameBuffer, 0);
-      frameBuffer = null;
+    for (int i = 0; i < bufferCount; i++) {
+      deleteFence(i);
+      bufferState[i] = BUFFER_FREE;
+    }
+    if (levelFrameBuffer != null) {
+      GLES20.glDeleteFramebuffers(levelCount, levelFrameBuffer, 0);
+      levelFrameBuffer = null;
     }
-    if (texture != null) {
-      GLES20.glDeleteTextures(bufferCount, texture, 0);
-      texture = null;
+    if (levelTexture != null) {
+      GLES20.glDeleteTextures(levelCount, levelTexture, 0);
+      levelTexture = null;
     }
     if (pbo != null) {
       GLES30.glDeleteBuffers(bufferCount, pbo, 0);
@@ -254,7 +391,8 @@ public class TextureReader {
    * immediately. Instead, it returns a frame buffer index, which can be used to acquire the frame
    * buffer later through acquireFrame().
    *
-   * <p>If there is no enough frame buffer available, an exception will be thrown.
+   * <p>If all frame buffers hold submitted requests, the oldest request is dropped and its buffer
+   * reused. If all frame buffers are acquired, an exception will be thrown.
    *
    * @param textureId the id of the input OpenGL texture.
    * @param textureWidth width of the texture in pixels.
@@ -264,20 +402,44 @@ public class TextureReader {
    *     releaseBuffer() routine after using of the frame.
    */
   public int submitFrame(int textureId, int textureWidth, int textureHeight) {
-    // Find next buffer.
+    return submitFrame(textureId, textureWidth, textureHeight, /* levels= */ 1);
+  }
+
+  /**
+   * Submits a frame reading request for the given pyramid levels. Levels up to the highest one
+   * requested are rendered, but only the requested levels are read back.
+   *
+   * @param textureId the id of the input OpenGL texture.
+   * @param textureWidth width of the texture in pixels.
+   * @param textureHeight height of the texture in pixels.
+   * @param levels bit mask of the levels to read back, where bit {@code i} selects level {@code
+   *     i}. Must select at least one level.
+   * @return the index to the frame buffer this request is associated to, see above.
+   */
+  public int submitFrame(int textureId, int textureWidth, int textureHeight, int levels) {
+    if (levels == 0 || (levels >>> levelCount) != 0) {
+      throw new IllegalArgumentException("Invalid level mask " + Integer.toBinaryString(levels));
+    }
+
+    // Find next buffer, or drop the oldest submitted frame if there is none.
     int bufferIndex = -1;
     for (int i = 0; i < bufferCount; i++) {
-      if (!bufferUsed[i]) {
+      if (bufferState[i] == BUFFER_FREE) {
         bufferIndex = i;
         break;
       }
     }
     if (bufferIndex == -1) {
-      throw new RuntimeException("No buffer available.");
+      bufferIndex = findOldestSubmitted();
+      if (bufferIndex == -1) {
+        throw new RuntimeException("No buffer available.");
+      }
+      deleteFence(bufferIndex);
+      droppedFrameCount++;
     }
 
     // Bind both read and write to framebuffer.
-    GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, frameBuffer[bufferIndex]);
+    GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, levelFrameBuffer[0]);
 
     // Save and setup viewport
     IntBuffer viewport = IntBuffer.allocate(4);
@@ -287,18 +449,34 @@ public class TextureReader {
     // Draw texture to framebuffer.
     drawTexture(textureId, textureWidth, textureHeight);
 
-    // Start reading into PBO
-    GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pbo[bufferIndex]);
-    GLES30.glReadBuffer(GLES30.GL_COLOR_ATTACHMENT0);
+    // Render every further level from the previous one, up to the highest requested level.
+    int highestLevel = Integer.SIZE - 1 - Integer.numberOfLeadingZeros(levels);
+    for (int level = 1; level <= highestLevel; level++) {
+      GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, levelFrameBuffer[level]);
+      GLES20.glViewport(0, 0, levelWidth[level], levelHeight[level]);
+      drawDownsample(levelTexture[level - 1]);
+    }
 
-    GLES30.glReadPixels(
-        0,
-        0,
-        imageWidth,
-        imageHeight,
-        imageFormat == TextureReaderImage.IMAGE_FORMAT_I8 ? GLES30.GL_RED : GLES20.GL_RGBA,
-        GLES20.GL_UNSIGNED_BYTE,
-        0);
+    // Start reading the requested levels into PBO. Rows of small levels are not padded.
+    GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pbo[bufferIndex]);
+    GLES20.glPixelStorei(GLES20.GL_PACK_ALIGNMENT, 1);
+    for (int level = 0; level <= highestLevel; level++) {
+      if ((levels & (1 << level)) == 0) {
+        continue;
+      }
+      GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, levelFrameBuffer[level]);
+      GLES30.glReadBuffer(GLES30.GL_COLOR_ATTACHMENT0);
+      GLES30.glReadPixels(
+          0,
+          0,
+          levelWidth[level],
+          levelHeight[level],
+          imageFormat == TextureReaderImage.IMAGE_FORMAT_I8 ? GLES30.GL_RED : GLES20.GL_RGBA,
+          GLES20.GL_UNSIGNED_BYTE,
+          levelOffset[level]);
+    }
+    GLES20.glPixelStorei(GLES20.GL_PACK_ALIGNMENT, 4);
+    fence[bufferIndex] = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
 
     // Restore viewport.
     GLES20.glViewport(viewport.get(0), viewport.get(1), viewport.get(2), viewport.get(3));
@@ -306,10 +484,66 @@ public class TextureReader {
     GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
     GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
 
-    bufferUsed[bufferIndex] = true;
+    bufferState[bufferIndex] = BUFFER_SUBMITTED;
+    bufferLevels[bufferIndex] = levels;
+    submitSequence[bufferIndex] = nextSubmitSequence++;
+    submitTimeNanos[bufferIndex] = System.nanoTime();
     return bufferIndex;
   }
 
+  /**
+   * Acquires the most recent submitted frame whose read back has completed, without waiting for
+   * the GPU. Completed frames older than the returned one are dropped. Use releaseFrame() with the
+   * returned image's bufferIndex once done with the image.
+   *
+   * @return a TextureReaderImage object, or null if no submitted frame has completed yet.
+   */
+  public TextureReaderImage tryAcquireFrame() {
+    int newestCompleted = -1;
+    // Fences signal in submission order, so stop at the first frame still in flight.
+    for (int index = findOldestSubmitted(); index != -1; index = findOldestSubmitted()) {
+      if (!isReadbackComplete(index)) {
+        break;
+      }
+      if (newestCompleted != -1) {
+        // Never mapped, so there is nothing to unmap.
+        deleteFence(newestCompleted);
+        bufferState[newestCompleted] = BUFFER_FREE;
+        droppedFrameCount++;
+      }
+      newestCompleted = index;
+      // Take the buffer out of the submitted set, so the next search finds newer frames.
+      bufferState[index] = BUFFER_ACQUIRED;
+    }
+    if (newestCompleted == -1) {
+      return null;
+    }
+    readbackLatencyFrames = (int) (nextSubmitSequence - submitSequence[newestCompleted]);
+    readbackLatencyMillis = (System.nanoTime() - submitTimeNanos[newestCompleted]) / 1_000_000f;
+    return mapFrame(newestCompleted);
+  }
+
+  /**
+   * Returns the number of submitFrame() calls between the submission and the acquisition of the
+   * last frame returned by tryAcquireFrame().
+   */
+  public int getReadbackLatencyFrames() {
+    return readbackLatencyFrames;
+  }
+
+  /**
+   * Returns the time in milliseconds between the submission and the acquisition of the last frame
+   * returned by tryAcquireFrame().
+   */
+  public float getReadbackLatencyMillis() {
+    return readbackLatencyMillis;
+  }
+
+  /** Returns the number of submitted frames dropped before being acquired. */
+  public long getDroppedFrameCount() {
+    return droppedFrameCount;
+  }
+
   /**
    * Acquires the frame requested earlier. This routine returns a TextureReaderImage object that
    * contains the pixels mapped to the frame buffer requested previously through submitFrame().
@@ -321,22 +555,11 @@ public class TextureReader {
    * @return a TextureReaderImage object if succeed. Null otherwise.
    */
   public TextureReaderImage acquireFrame(int bufferIndex) {
-    if (bufferIndex < 0 || bufferIndex >= bufferCount || !bufferUsed[bufferIndex]) {
+    if (bufferIndex < 0 || bufferIndex >= bufferCount || bufferState[bufferIndex] == BUFFER_FREE) {
       throw new RuntimeException("Invalid buffer index.");
     }
-
-    // Bind the current PB and acquire the pixel buffer.
-    GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pbo[bufferIndex]);
-    ByteBuffer mapped =
-        (ByteBuffer)
-            GLES30.glMapBufferRange(
-                GLES30.GL_PIXEL_PACK_BUFFER, 0, pixelBufferSize, GLES30.GL_MAP_READ_BIT);
-
-    // Wrap the mapped buffer into TextureReaderImage object.
-    TextureReaderImage buffer =
-        new TextureReaderImage(imageWidth, imageHeight, imageFormat, mapped);
-
-    return buffer;
+    bufferState[bufferIndex] = BUFFER_ACQUIRED;
+    return mapFrame(bufferIndex);
   }
 
   /**
@@ -347,13 +570,16 @@ public class TextureReader {
    *     returned from submitFrame().
    */
   public void releaseFrame(int bufferIndex) {
-    if (bufferIndex < 0 || bufferIndex >= bufferCount || !bufferUsed[bufferIndex]) {
+    if (bufferIndex < 0 || bufferIndex >= bufferCount || bufferState[bufferIndex] == BUFFER_FREE) {
       throw new RuntimeException("Invalid buffer index.");
     }
-    GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pbo[bufferIndex]);
-    GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
-    GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
-    bufferUsed[bufferIndex] = false;
+    if (bufferState[bufferIndex] == BUFFER_ACQUIRED) {
+      GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pbo[bufferIndex]);
+      GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+      GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+    }
+    deleteFence(bufferIndex);
+    bufferState[bufferIndex] = BUFFER_FREE;
   }
 
   /**
@@ -387,6 +613,94 @@ public class TextureReader {
     return null;
   }
 
+  /** Maps the pixel buffer of a frame buffer, stalling until its read back completes if needed. */
+  private TextureReaderImage mapFrame(int bufferIndex) {
+    // Only map the range holding the requested levels.
+    int levels = bufferLevels[bufferIndex];
+    int lowestLevel = Integer.numberOfTrailingZeros(levels);
+    int highestLevel = Integer.SIZE - 1 - Integer.numberOfLeadingZeros(levels);
+    int mapOffset = levelOffset[lowestLevel];
+    int mapLength = levelOffset[highestLevel] + levelSize[highestLevel] - mapOffset;
+
+    // Bind the current PB and acquire the pixel buffer.
+    GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pbo[bufferIndex]);
+    ByteBuffer mapped =
+        (ByteBuffer)
+            GLES30.glMapBufferRange(
+                GLES30.GL_PIXEL_PACK_BUFFER, mapOffset, mapLength, GLES30.GL_MAP_READ_BIT);
+    GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+
+    // Wrap every requested level of the mapped buffer into TextureReaderImage object.
+    TextureReaderImage[] images = new TextureReaderImage[levelCount];
+    for (int level = lowestLevel; level <= highestLevel; level++) {
+      if ((levels & (1 << level)) == 0) {
+        continue;
+      }
+      ByteBuffer levelBuffer = mapped.duplicate();
+      levelBuffer.position(levelOffset[level] - mapOffset);
+      levelBuffer.limit(levelOffset[level] - mapOffset + levelSize[level]);
+      images[level] =
+          new TextureReaderImage(
+              levelWidth[level], levelHeight[level], imageFormat, levelBuffer.slice());
+      images[level].bufferIndex = bufferIndex;
+      images[level].levels = images;
+    }
+    return images[lowestLevel];
+  }
+
+  /** Polls the fence of a submitted frame buffer without waiting. */
+  private boolean isReadbackComplete(int bufferIndex) {
+    if (fence[bufferIndex] == 0) {
+      return true;
+    }
+    // Flush, so that the fence is guaranteed to signal eventually even if nothing else does.
+    int result =
+        GLES30.glClientWaitSync(fence[bufferIndex], GLES30.GL_SYNC_FLUSH_COMMANDS_BIT, 0);
+    return result == GLES30.GL_ALREADY_SIGNALED || result == GLES30.GL_CONDITION_SATISFIED;
+  }
+
+  /** Returns the submitted frame buffer with the oldest request, or -1 if there is none. */
+  private int findOldestSubmitted() {
+    int oldest = -1;
+    for (int i = 0; i < bufferCount; i++) {
+      if (bufferState[i] == BUFFER_SUBMITTED
+          && (oldest == -1 || submitSequence[i] < submitSequence[oldest])) {
+        oldest = i;
+      }
+    }
+    return oldest;
+  }
+
+  private void deleteFence(int bufferIndex) {
+    if (fence[bufferIndex] != 0) {
+      GLES30.glDeleteSync(fence[bufferIndex]);
+      fence[bufferIndex] = 0;
+    }
+  }
+
+  /** Draws a level texture to the current framebuffer, which has half its size. */
+  private void drawDownsample(int sourceTexture) {
+    GLES20.glUseProgram(downsampleProgram);
+
+    quadTexCoord.put(QUAD_TEXCOORDS);
+    quadTexCoord.position(0);
+    GLES20.glVertexAttribPointer(
+        downsamplePositionAttrib, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, quadVertices);
+    GLES20.glVertexAttribPointer(
+        downsampleTexCoordAttrib, TEXCOORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, quadTexCoord);
+    GLES20.glEnableVertexAttribArray(downsamplePositionAttrib);
+    GLES20.glEnableVertexAttribArray(downsampleTexCoordAttrib);
+
+    GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, sourceTexture);
+
+    GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+
+    GLES20.glDisableVertexAttribArray(downsamplePositionAttrib);
+    GLES20.glDisableVertexAttribArray(downsampleTexCoordAttrib);
+    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+  }
+
   /** Draws texture to full screen. */
   private void drawTexture(int textureId, int textureWidth, int textureHeight) {
     // Disable features that we don't use.
@@ -15,6 +15,7 @@
  */
 package com.google.ar.core.examples.java.computervision;
 
+import com.google.ar.core.examples.java.common.helpers.PlaneView;
 import java.nio.ByteBuffer;
 
 /** Image Buffer Class. */
@@ -37,6 +38,18 @@ public class TextureReaderImage {
   /** Pixel format. Can be either IMAGE_FORMAT_RGBA or IMAGE_FORMAT_I8. */
   public int format;
 
+  /**
+   * Index of the {@link TextureReader} frame buffer holding the pixels, to be passed to
+   * releaseFrame(). -1 if the image is not backed by a frame buffer.
+   */
+  public int bufferIndex = -1;
+
+  /**
+   * Images of the pyramid levels read back with the same frame, indexed by level, with null for
+   * levels that were not requested. Null if the image is not backed by a frame buffer.
+   */
+  public TextureReaderImage[] levels;
+
   /** Default constructor. */
   public TextureReaderImage() {
     width = 1;
@@ -71,4 +84,15 @@ public class TextureReaderImage {
     format = imgFormat;
     buffer = imgBuffer;
   }
+
+  /**
+   * Returns a view of the pixels, without copying them. RGBA images are viewed with a pixel stride
+   * of 4, so that the samples read are the red channel and the other channels are at the next
+   * indices.
+   */
+  public PlaneView getPlaneView() {
+    int pixelStride = format == IMAGE_FORMAT_RGBA ? 4 : 1;
+    return new PlaneView(
+        buffer, width, height, width * pixelStride, pixelStride, /* bytesPerSample= */ 1);
+  }
 }
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import com.google.ar.core.examples.java.common.helpers.PlaneView;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the {@link EdgeDetector} stage run by an {@link ImagePipeline}, on one thread and on all
+ * processors, with the original single threaded detector that copied the input and allocated its
+ * output on every frame.
+ *
+ * <p>The input is a noisy gradient with row padding, like the Y plane of a camera image. Run {@link
+ * #main} from the IDE, or the JMH runner with this class on the test classpath.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EdgeDetectorBenchmark {
+  private static final int ROW_PADDING = 64;
+  private static final int EDGE_THRESHOLD = 128;
+  private static final int EDGE = 0xFF;
+  private static final int NO_EDGE = 0x1F;
+
+  /** Image size, {@code <width>x<height>}. */
+  @Param({"640x480", "1920x1080"})
+  public String size;
+
+  private int width;
+  private int height;
+  private int stride;
+  private ByteBuffer input;
+  private PlaneView inputView;
+  private PlaneView outputView;
+  private ImagePipeline singleThreadPipeline;
+  private ImagePipeline parallelPipeline;
+  private byte[] baselineInputPixels = new byte[0];
+
+  @Setup
+  public void setUp() {
+    String[] dimensions = size.split("x");
+    width = Integer.parseInt(dimensions[0]);
+    height = Integer.parseInt(dimensions[1]);
+    stride = width + ROW_PADDING;
+    input = ByteBuffer.allocateDirect(stride * height);
+    Random random = new Random(42);
+    for (int y = 0; y < height; ++y) {
+      for (int x = 0; x < width; ++x) {
+        // Vertical bands every 64 columns over a horizontal ramp, with noise.
+        int value = (x / 64 % 2) * 96 + y * 128 / height + random.nextInt(16);
+        input.put(y * stride + x, (byte) value);
+      }
+    }
+    inputView =
+        new PlaneView(
+            input, width, height, stride, /* pixelStride= */ 1, /* bytesPerSample= */ 1);
+    outputView = PlaneView.packed(ByteBuffer.allocateDirect(width * height), width, height);
+    singleThreadPipeline = newPipeline(1);
+    parallelPipeline = newPipeline(Runtime.getRuntime().availableProcessors());
+  }
+
+  @TearDown
+  public void tearDown() {
+    singleThreadPipeline.close();
+    parallelPipeline.close();
+  }
+
+  @Benchmark
+  public ByteBuffer baseline() {
+    return detectBaseline(width, height, stride, input);
+  }
+
+  @Benchmark
+  public PlaneView pipelineSingleThread() {
+    singleThreadPipeline.process(inputView, outputView);
+    return outputView;
+  }
+
+  @Benchmark
+  public PlaneView pipelineParallel() {
+    parallelPipeline.process(inputView, outputView);
+    return outputView;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(EdgeDetectorBenchmark.class.getSimpleName()).build())
+        .run();
+  }
+
+  private static ImagePipeline newPipeline(int parallelism) {
+    return new ImagePipeline(
+        Arrays.asList(
+            new EdgeDetector(), ImageStages.threshold(EDGE_THRESHOLD, NO_EDGE, EDGE)),
+        parallelism);
+  }
+
+  /** The detector before it became a pipeline stage, kept as the reference. */
+  private ByteBuffer detectBaseline(int width, int height, int stride, ByteBuffer input) {
+    if (stride * height > baselineInputPixels.length) {
+      baselineInputPixels = new byte[stride * height];
+    }
+    byte[] outputPixels = new byte[width * height];
+    input.position(0);
+    input.get(baselineInputPixels, 0, input.capacity());
+    int squaredThreshold = EDGE_THRESHOLD * EDGE_THRESHOLD;
+    for (int j = 1; j < height - 1; j++) {
+      for (int i = 1; i < width - 1; i++) {
+        int offset = (j * stride) + i;
+        int a00 = baselineInputPixels[offset - stride - 1];
+        int a01 = baselineInputPixels[offset - stride];
+        int a02 = baselineInputPixels[offset - stride + 1];
+        int a10 = baselineInputPixels[offset - 1];
+        int a12 = baselineInputPixels[offset + 1];
+        int a20 = baselineInputPixels[offset + stride - 1];
+        int a21 = baselineInputPixels[offset + stride];
+        int a22 = baselineInputPixels[offset + stride + 1];
+        int xSum = -a00 - (2 * a10) - a20 + a02 + (2 * a12) + a22;
+        int ySum = a00 + (2 * a01) + a02 - a20 - (2 * a21) - a22;
+        outputPixels[(j * width) + i] =
+            (xSum * xSum) + (ySum * ySum) > squaredThreshold ? (byte) EDGE : (byte) NO_EDGE;
+      }
+    }
+    return ByteBuffer.wrap(outputPixels);
+  }
+}
@@ -1,3 +1,4 @@
+#version 300 es
 /*
  * Copyright 2023 Google LLC
  *
@@ -15,15 +16,20 @@
  */
 
 uniform mat4 u_ModelViewProjection;
-uniform vec4 u_Color;
-uniform float u_PointSize;
+// Time since the renderer was created, in seconds.
+uniform float u_Time;
+uniform float u_FadeInSeconds;
 
-attribute vec4 a_Position;
+layout(location = 0) in vec4 a_Position;
+layout(location = 1) in vec4 a_Color;
+// Time the geometry of the vertex was uploaded at, in seconds.
+layout(location = 2) in float a_ReadyTime;
 
-varying vec4 v_Color;
+out vec4 v_Color;
 
 void main() {
-   v_Color = u_Color;
-   gl_Position = u_ModelViewProjection * vec4(a_Position.xyz, 1.0);
-   gl_PointSize = u_PointSize;
+  // Geometries are blended additively, so they fade in by scaling their color.
+  float fade = clamp((u_Time - a_ReadyTime) / u_FadeInSeconds, 0.0, 1.0);
+  v_Color = a_Color * fade;
+  gl_Position = u_ModelViewProjection * vec4(a_Position.xyz, 1.0);
 }
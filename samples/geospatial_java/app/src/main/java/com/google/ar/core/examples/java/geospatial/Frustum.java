@@ -0,0 +1,65 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.geospatial;
+
+/**
+ * The view frustum of a camera, as six planes extracted from its view projection matrix, for
+ * culling objects outside of the view.
+ */
+final class Frustum {
+  // The six planes as (a, b, c, d) with normalized (a, b, c) pointing inside the frustum, so that
+  // a * x + b * y + c * z + d is the signed distance of (x, y, z) to the plane.
+  private final float[] planes = new float[6 * 4];
+
+  /**
+   * Sets the planes from a view projection matrix in OpenGL convention (column-major, clip space
+   * from -w to w).
+   */
+  void set(float[] viewProjectionMatrix) {
+    // Left, right, bottom, top, near and far planes: the fourth row of the matrix plus or minus
+    // each of the first three.
+    for (int i = 0; i < 6; ++i) {
+      int row = i / 2;
+      float sign = i % 2 == 0 ? 1f : -1f;
+      float length = 0f;
+      for (int column = 0; column < 4; ++column) {
+        float value =
+            viewProjectionMatrix[column * 4 + 3] + sign * viewProjectionMatrix[column * 4 + row];
+        planes[i * 4 + column] = value;
+        if (column < 3) {
+          length += value * value;
+        }
+      }
+      length = (float) Math.sqrt(length);
+      for (int column = 0; column < 4; ++column) {
+        planes[i * 4 + column] /= length;
+      }
+    }
+  }
+
+  /** Returns whether a sphere is at least partly inside the frustum. */
+  boolean intersectsSphere(float x, float y, float z, float radius) {
+    for (int i = 0; i < 6; ++i) {
+      float distance =
+          planes[i * 4] * x + planes[i * 4 + 1] * y + planes[i * 4 + 2] * z + planes[i * 4 + 3];
+      if (distance < -radius) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.geospatial;
+
+/**
+ * Geodetic math in double precision on the WGS84 ellipsoid, for placing many points at once.
+ *
+ * <p>Batch methods work on arrays of {@code count} points packed as triples: geodetic coordinates
+ * as latitude and longitude in degrees and altitude in meters, ECEF (earth-centered, earth-fixed)
+ * and ENU (east, north, up) coordinates in meters. They do not allocate, and may write their
+ * result over their input.
+ */
+final class Geodesy {
+  /** The semi-major axis of the WGS84 ellipsoid, in meters. */
+  static final double WGS84_A = 6378137.0;
+  /** The flattening of the WGS84 ellipsoid. */
+  static final double WGS84_F = 1 / 298.257223563;
+  /** The semi-minor axis of the WGS84 ellipsoid, in meters. */
+  static final double WGS84_B = WGS84_A * (1 - WGS84_F);
+  /** The mean radius of the Earth, in meters, for spherical approximations. */
+  static final double MEAN_RADIUS_METERS = 6371008.8;
+
+  // The square of the first eccentricity of the WGS84 ellipsoid.
+  private static final double WGS84_E2 = WGS84_F * (2 - WGS84_F);
+  private static final int VINCENTY_MAX_ITERATIONS = 200;
+  // About 0.006 mm on the ellipsoid.
+  private static final double VINCENTY_TOLERANCE = 1e-12;
+
+  private Geodesy() {}
+
+  /**
+   * A local east, north, up frame tangent to the ellipsoid at an origin, such as the geospatial
+   * pose of the camera.
+   */
+  static final class LocalFrame {
+    private double originX;
+    private double originY;
+    private double originZ;
+    private double sinLatitude;
+    private double cosLatitude;
+    private double sinLongitude;
+    private double cosLongitude;
+
+    LocalFrame() {
+      setOrigin(0, 0, 0);
+    }
+
+    /** Sets the origin of the frame, in degrees and meters. */
+    void setOrigin(double latitude, double longitude, double altitude) {
+      double latitudeRadians = Math.toRadians(latitude);
+      double longitudeRadians = Math.toRadians(longitude);
+      sinLatitude = Math.sin(latitudeRadians);
+      cosLatitude = Math.cos(latitudeRadians);
+      sinLongitude = Math.sin(longitudeRadians);
+      cosLongitude = Math.cos(longitudeRadians);
+      double primeVerticalRadius = WGS84_A / Math.sqrt(1 - WGS84_E2 * sinLatitude * sinLatitude);
+      originX = (primeVerticalRadius + altitude) * cosLatitude * cosLongitude;
+      originY = (primeVerticalRadius + altitude) * cosLatitude * sinLongitude;
+      originZ = (primeVerticalRadius * (1 - WGS84_E2) + altitude) * sinLatitude;
+    }
+
+    /** Converts {@code count} points from geodetic to ENU coordinates in this frame. */
+    void toEnu(double[] geodetic, double[] enu, int count) {
+      toEcef(geodetic, enu, count);
+      for (int i = 0; i < 3 * count; i += 3) {
+        double x = enu[i] - originX;
+        double y = enu[i + 1] - originY;
+        double z = enu[i + 2] - originZ;
+        enu[i] = -sinLongitude * x + cosLongitude * y;
+        enu[i + 1] =
+            -sinLatitude * cosLongitude * x - sinLatitude * sinLongitude * y + cosLatitude * z;
+        enu[i + 2] =
+            cosLatitude * cosLongitude * x + cosLatitude * sinLongitude * y + sinLatitude * z;
+      }
+    }
+  }
+
+  /** Converts {@code count} points from geodetic to ECEF coordinates. */
+  static void toEcef(double[] geodetic, double[] ecef, int count) {
+    for (int i = 0; i < 3 * count; i += 3) {
+      double latitude = Math.toRadians(geodetic[i]);
+      double longitude = Math.toRadians(geodetic[i + 1]);
+      double altitude = geodetic[i + 2];
+      double sinLatitude = Math.sin(latitude);
+      double cosLatitude = Math.cos(latitude);
+      double primeVerticalRadius = WGS84_A / Math.sqrt(1 - WGS84_E2 * sinLatitude * sinLatitude);
+      ecef[i] = (primeVerticalRadius + altitude) * cosLatitude * Math.cos(longitude);
+      ecef[i + 1] = (primeVerticalRadius + altitude) * cosLatitude * Math.sin(longitude);
+      ecef[i + 2] = (primeVerticalRadius * (1 - WGS84_E2) + altitude) * sinLatitude;
+    }
+  }
+
+  /**
+   * Computes the distances of {@code count} points in ENU coordinates to the origin of their frame,
+   * in meters. With {@code horizontal}, the up coordinates are ignored.
+   */
+  static void getDistances(double[] enu, double[] distances, int count, boolean horizontal) {
+    for (int i = 0; i < count; ++i) {
+      double east = enu[3 * i];
+      double north = enu[3 * i + 1];
+      double up = horizontal ? 0 : enu[3 * i + 2];
+      distances[i] = Math.sqrt(east * east + north * north + up * up);
+    }
+  }
+
+  /**
+   * Computes the headings of {@code count} points in ENU coordinates from the origin of their
+   * frame, in degrees clockwise from north in [0, 360).
+   */
+  static void getHeadings(double[] enu, double[] headings, int count) {
+    for (int i = 0; i < count; ++i) {
+      double heading = Math.toDegrees(Math.atan2(enu[3 * i], enu[3 * i + 1]));
+      headings[i] = heading < 0 ? heading + 360 : heading;
+    }
+  }
+
+  /**
+   * Returns the great-circle distance between two locations in degrees, in meters, on a sphere of
+   * the mean radius of the Earth. Within 0.5% of the distance on the ellipsoid.
+   */
+  static double getHaversineDistance(
+      double latitude1, double longitude1, double latitude2, double longitude2) {
+    double sinHalfLatitudeDelta = Math.sin(Math.toRadians(latitude2 - latitude1) / 2);
+    double sinHalfLongitudeDelta = Math.sin(Math.toRadians(longitude2 - longitude1) / 2);
+    double h =
+        sinHalfLatitudeDelta * sinHalfLatitudeDelta
+            + Math.cos(Math.toRadians(latitude1))
+                * Math.cos(Math.toRadians(latitude2))
+                * sinHalfLongitudeDelta
+                * sinHalfLongitudeDelta;
+    return 2 * MEAN_RADIUS_METERS * Math.asin(Math.sqrt(Math.min(1, h)));
+  }
+
+  /**
+   * Computes the haversine distances from a location in degrees to {@code count} points in geodetic
+   * coordinates, in meters. Altitudes are ignored.
+   */
+  static void getHaversineDistances(
+      double latitude, double longitude, double[] geodetic, double[] distances, int count) {
+    for (int i = 0; i < count; ++i) {
+      distances[i] =
+          getHaversineDistance(latitude, longitude, geodetic[3 * i], geodetic[3 * i + 1]);
+    }
+  }
+
+  /**
+   * Returns the geodesic distance between two locations in degrees on the WGS84 ellipsoid, in
+   * meters, with Vincenty's inverse formula. Accurate to a millimeter, but returns {@link
+   * Double#NaN} for nearly antipodal locations, where the formula does not converge.
+   */
+  static double getVincentyDistance(
+      double latitude1, double longitude1, double latitude2, double longitude2) {
+    double u1 = Math.atan((1 - WGS84_F) * Math.tan(Math.toRadians(latitude1)));
+    double u2 = Math.atan((1 - WGS84_F) * Math.tan(Math.toRadians(latitude2)));
+    double sinU1 = Math.sin(u1);
+    double cosU1 = Math.cos(u1);
+    double sinU2 = Math.sin(u2);
+    double cosU2 = Math.cos(u2);
+    double l = Math.toRadians(longitude2 - longitude1);
+    double lambda = l;
+    double sinSigma;
+    double cosSigma;
+    double sigma;
+    double cosSquaredAlpha;
+    double cos2SigmaM;
+    int iteration = 0;
+    while (true) {
+      double sinLambda = Math.sin(lambda);
+      double cosLambda = Math.cos(lambda);
+      double a = cosU2 * sinLambda;
+      double b = cosU1 * sinU2 - sinU1 * cosU2 * cosLambda;
+      sinSigma = Math.sqrt(a * a + b * b);
+      if (sinSigma == 0) {
+        // Coincident locations.
+        return 0;
+      }
+      cosSigma = sinU1 * sinU2 + cosU1 * cosU2 * cosLambda;
+      sigma = Math.atan2(sinSigma, cosSigma);
+      double sinAlpha = cosU1 * cosU2 * sinLambda / sinSigma;
+      cosSquaredAlpha = 1 - sinAlpha * sinAlpha;
+      // Both locations on the equator.
+      cos2SigmaM = cosSquaredAlpha == 0 ? 0 : cosSigma - 2 * sinU1 * sinU2 / cosSquaredAlpha;
+      double c = WGS84_F / 16 * cosSquaredAlpha * (4 + WGS84_F * (4 - 3 * cosSquaredAlpha));
+      double previousLambda = lambda;
+      lambda =
+          l
+              + (1 - c)
+                  * WGS84_F
+                  * sinAlpha
+                  * (sigma
+                      + c
+                          * sinSigma
+                          * (cos2SigmaM + c * cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)));
+      if (Math.abs(lambda - previousLambda) <= VINCENTY_TOLERANCE) {
+        break;
+      }
+      if (++iteration >= VINCENTY_MAX_ITERATIONS) {
+        return Double.NaN;
+      }
+    }
+    double uSquared =
+        cosSquaredAlpha * (WGS84_A * WGS84_A - WGS84_B * WGS84_B) / (WGS84_B * WGS84_B);
+    double a =
+        1 + uSquared / 16384 * (4096 + uSquared * (-768 + uSquared * (320 - 175 * uSquared)));
+    double b = uSquared / 1024 * (256 + uSquared * (-128 + uSquared * (74 - 47 * uSquared)));
+    double deltaSigma =
+        b
+            * sinSigma
+            * (cos2SigmaM
+                + b
+                    / 4
+                    * (cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)
+                        - b
+                            / 6
+                            * cos2SigmaM
+                            * (-3 + 4 * sinSigma * sinSigma)
+                            * (-3 + 4 * cos2SigmaM * cos2SigmaM)));
+    return WGS84_B * a * (sigma - deltaSigma);
+  }
+
+  /**
+   * Computes the Vincenty distances from a location in degrees to {@code count} points in geodetic
+   * coordinates, in meters. Altitudes are ignored.
+   */
+  static void getVincentyDistances(
+      double latitude, double longitude, double[] geodetic, double[] distances, int count) {
+    for (int i = 0; i < count; ++i) {
+      distances[i] = getVincentyDistance(latitude, longitude, geodetic[3 * i], geodetic[3 * i + 1]);
+    }
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.geospatial;
+
+/**
+ * Geohashes: cells of the latitude and longitude grid named by base 32 strings, where each
+ * character splits the cell of the previous ones into 32 smaller cells.
+ *
+ * <p>At the equator, a geohash of 6 characters names a cell of about 1.2 km by 0.6 km, and one of 7
+ * characters a cell of about 153 m by 153 m. Cells keep their height away from the equator, but
+ * their width shrinks with the cosine of the latitude, to about 108 m for 7 characters at 45
+ * degrees.
+ */
+final class Geohash {
+  private static final String BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+
+  private Geohash() {}
+
+  /** Returns the geohash of {@code precision} characters of the cell containing a location. */
+  static String encode(double latitude, double longitude, int precision) {
+    if (precision < 1 || precision > 12) {
+      throw new IllegalArgumentException("Invalid geohash precision " + precision);
+    }
+    double minLatitude = -90;
+    double maxLatitude = 90;
+    double minLongitude = -180;
+    double maxLongitude = 180;
+    StringBuilder geohash = new StringBuilder(precision);
+    // Bits alternate between longitude and latitude, starting with longitude.
+    boolean isLongitudeBit = true;
+    int bitCount = 0;
+    int character = 0;
+    while (geohash.length() < precision) {
+      if (isLongitudeBit) {
+        double middle = (minLongitude + maxLongitude) / 2;
+        if (longitude >= middle) {
+          character = character * 2 + 1;
+          minLongitude = middle;
+        } else {
+          character = character * 2;
+          maxLongitude = middle;
+        }
+      } else {
+        double middle = (minLatitude + maxLatitude) / 2;
+        if (latitude >= middle) {
+          character = character * 2 + 1;
+          minLatitude = middle;
+        } else {
+          character = character * 2;
+          maxLatitude = middle;
+        }
+      }
+      isLongitudeBit = !isLongitudeBit;
+      if (++bitCount == 5) {
+        geohash.append(BASE32.charAt(character));
+        bitCount = 0;
+        character = 0;
+      }
+    }
+    return geohash.toString();
+  }
+
+  /**
+   * Returns the bounds of the cell of {@code geohash}, as minimum latitude, minimum longitude,
+   * maximum latitude and maximum longitude, in degrees.
+   */
+  static double[] getBounds(String geohash) {
+    double[] bounds = {-90, -180, 90, 180};
+    boolean isLongitudeBit = true;
+    for (int i = 0; i < geohash.length(); ++i) {
+      int character = BASE32.indexOf(geohash.charAt(i));
+      if (character < 0) {
+        throw new IllegalArgumentException("Invalid geohash " + geohash);
+      }
+      for (int bit = 4; bit >= 0; --bit) {
+        // Longitude bounds are at indices 1 and 3, latitude bounds at 0 and 2.
+        int axis = isLongitudeBit ? 1 : 0;
+        double middle = (bounds[axis] + bounds[axis + 2]) / 2;
+        if (((character >> bit) & 1) == 1) {
+          bounds[axis] = middle;
+        } else {
+          bounds[axis + 2] = middle;
+        }
+        isLongitudeBit = !isLongitudeBit;
+      }
+    }
+    return bounds;
+  }
+
+  /**
+   * Returns the geohash of the cell {@code latitudeSteps} cells north and {@code longitudeSteps}
+   * cells east of the cell of {@code geohash}, with the same precision. Longitudes wrap around the
+   * antimeridian, and latitudes stop at the poles.
+   */
+  static String getNeighbor(String geohash, int latitudeSteps, int longitudeSteps) {
+    double[] bounds = getBounds(geohash);
+    double height = bounds[2] - bounds[0];
+    double width = bounds[3] - bounds[1];
+    double latitude = (bounds[0] + bounds[2]) / 2 + latitudeSteps * height;
+    double longitude = (bounds[1] + bounds[3]) / 2 + longitudeSteps * width;
+    latitude = Math.max(-90 + height / 2, Math.min(90 - height / 2, latitude));
+    longitude = ((longitude + 180) % 360 + 360) % 360 - 180;
+    return encode(latitude, longitude, geohash.length());
+  }
+
+  /** Returns the geohash of {@code geohash} and of its eight neighbors, in no particular order. */
+  static String[] getNeighborhood(String geohash) {
+    String[] neighborhood = new String[9];
+    int i = 0;
+    for (int latitudeSteps = -1; latitudeSteps <= 1; ++latitudeSteps) {
+      for (int longitudeSteps = -1; longitudeSteps <= 1; ++longitudeSteps) {
+        neighborhood[i++] = getNeighbor(geohash, latitudeSteps, longitudeSteps);
+      }
+    }
+    return neighborhood;
+  }
+}
@@ -60,8 +60,8 @@ import com.google.ar.core.Session;
 import com.google.ar.core.StreetscapeGeometry;
 import com.google.ar.core.Trackable;
 import com.google.ar.core.TrackingState;
-import com.google.ar.core.VpsAvailability;
 import com.google.ar.core.VpsAvailabilityFuture;
+import com.google.ar.core.examples.java.common.helpers.AnchorRegistry;
 import com.google.ar.core.examples.java.common.helpers.CameraPermissionHelper;
 import com.google.ar.core.examples.java.common.helpers.DisplayRotationHelper;
 import com.google.ar.core.examples.java.common.helpers.FullScreenHelper;
@@ -69,11 +69,9 @@ import com.google.ar.core.examples.java.common.helpers.LocationPermissionHelper;
 import com.google.ar.core.examples.java.common.helpers.SnackbarHelper;
 import com.google.ar.core.examples.java.common.helpers.TrackingStateHelper;
 import com.google.ar.core.examples.java.common.samplerender.Framebuffer;
-import com.google.ar.core.examples.java.common.samplerender.IndexBuffer;
 import com.google.ar.core.examples.java.common.samplerender.Mesh;
 import com.google.ar.core.examples.java.common.samplerender.SampleRender;
 import com.google.ar.core.examples.java.common.samplerender.Shader;
-import com.google.ar.core.examples.java.common.samplerender.Shader.BlendFactor;
 import com.google.ar.core.examples.java.common.samplerender.Texture;
 import com.google.ar.core.examples.java.common.samplerender.VertexBuffer;
 import com.google.ar.core.examples.java.common.samplerender.arcore.BackgroundRenderer;
@@ -87,15 +85,14 @@ import com.google.ar.core.exceptions.UnavailableDeviceNotCompatibleException;
 import com.google.ar.core.exceptions.UnavailableSdkTooOldException;
 import com.google.ar.core.exceptions.UnavailableUserDeclinedInstallationException;
 import com.google.ar.core.exceptions.UnsupportedConfigurationException;
+import java.io.File;
 import java.io.IOException;
-import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -112,7 +109,10 @@ public class GeospatialActivity extends AppCompatActivity
 
   private static final String TAG = GeospatialActivity.class.getSimpleName();
 
+  // Anchors used to be saved in SharedPreferences, and are moved to the anchor store once.
   private static final String SHARED_PREFERENCES_SAVED_ANCHORS = "SHARED_PREFERENCES_SAVED_ANCHORS";
+  private static final String ANCHOR_STORE_FILE_NAME = "geospatial_anchors.bin";
+  private static final String VPS_AVAILABILITY_CACHE_FILE_NAME = "vps_availability.bin";
   private static final String ALLOW_GEOSPATIAL_ACCESS_KEY = "ALLOW_GEOSPATIAL_ACCESS";
   private static final String ANCHOR_MODE = "ANCHOR_MODE";
 
@@ -131,8 +131,19 @@ public class GeospatialActivity extends AppCompatActivity
   private static final double LOCALIZED_ORIENTATION_YAW_ACCURACY_HYSTERESIS_DEGREES = 10;
 
   private static final int LOCALIZING_TIMEOUT_SECONDS = 180;
-  private static final int MAXIMUM_ANCHORS = 20;
+  // Anchors of any number can be stored, but only the nearest are live at once.
+  private static final int MAXIMUM_LIVE_ANCHORS = 100;
+  private static final int MAXIMUM_CONCURRENT_RESOLVES = 4;
   private static final long DURATION_FOR_NO_TERRAIN_ANCHOR_RESULT_MS = 10000;
+  // VPS coverage changes rarely, so its availability is checked at most daily in each cell.
+  private static final long VPS_AVAILABILITY_TIME_TO_LIVE_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+  // GPU memory the meshes of streetscape geometries may use. Past it, the geometries farthest from
+  // the camera are freed.
+  private static final long STREETSCAPE_GEOMETRY_BUDGET_BYTES = 64L * 1024 * 1024;
+  // Time the GL thread may spend uploading new streetscape geometries in each frame.
+  private static final long STREETSCAPE_GEOMETRY_UPLOAD_BUDGET_NANOS =
+      TimeUnit.MILLISECONDS.toNanos(2);
 
   // Rendering. The Renderers are created here, and initialized when the GL surface is created.
   private GLSurfaceView surfaceView;
@@ -170,15 +181,6 @@ public class GeospatialActivity extends AppCompatActivity
 
   private State state = State.UNINITIALIZED;
 
-  enum AnchorType {
-    // Set WGS84 anchor.
-    GEOSPATIAL,
-    // Set Terrain anchor.
-    TERRAIN,
-    // Set Rooftop anchor.
-    ROOFTOP
-  }
-
   private AnchorType anchorType = AnchorType.GEOSPATIAL;
 
   private Session session;
@@ -187,6 +189,18 @@ public class GeospatialActivity extends AppCompatActivity
   private final TrackingStateHelper trackingStateHelper = new TrackingStateHelper(this);
   private SampleRender render;
   private SharedPreferences sharedPreferences;
+  // Null until the anchor store is opened, or if it could not be. Anchors are not persisted then.
+  private volatile GeospatialAnchorStore anchorStore;
+  // Opens and closes the anchor store off the UI thread.
+  private final ExecutorService anchorStoreExecutor = Executors.newSingleThreadExecutor();
+  // Resolves the stored anchors near the camera.
+  private GeospatialAnchorStreamer<LiveAnchor> anchorStreamer;
+  // Ids of the anchors that could not be stored, below the ids of the anchor store.
+  private int nextUnstoredAnchorId = -1;
+  private VpsAvailabilityCache vpsAvailabilityCache;
+  // Reads and writes the file of the VPS availability cache off the UI thread.
+  private final ExecutorService vpsAvailabilityCacheExecutor =
+      Executors.newSingleThreadExecutor();
 
   private String lastStatusText;
   private TextView geospatialPoseTextView;
@@ -209,13 +223,19 @@ public class GeospatialActivity extends AppCompatActivity
   // Virtual object (ARCore geospatial terrain)
   private Shader terrainAnchorVirtualObjectShader;
 
-  private final Object anchorsLock = new Object();
+  /** A live anchor, and the type of anchor it was resolved as. */
+  private static final class LiveAnchor {
+    final Anchor anchor;
+    final AnchorType type;
 
-  @GuardedBy("anchorsLock")
-  private final List<Anchor> anchors = new ArrayList<>();
+    LiveAnchor(Anchor anchor, AnchorType type) {
+      this.anchor = anchor;
+      this.type = type;
+    }
+  }
 
-  private final Set<Anchor> terrainAnchors = new HashSet<>();
-  private final Set<Anchor> rooftopAnchors = new HashSet<>();
+  // Published by the anchor streamer, and rendered from the latest snapshot without locking.
+  private final AnchorRegistry<LiveAnchor> anchors = new AnchorRegistry<>();
 
   // Temporary matrix allocated here to reduce number of allocations for each frame.
   private final float[] modelMatrix = new float[16];
@@ -223,6 +243,10 @@ public class GeospatialActivity extends AppCompatActivity
   private final float[] projectionMatrix = new float[16];
   private final float[] modelViewMatrix = new float[16]; // view x model
   private final float[] modelViewProjectionMatrix = new float[16]; // projection x view x model
+  private final float[] viewProjectionMatrix = new float[16]; // projection x view
+  private final float[] rotationModelMatrix = new float[16]; // model x rotation
+  // Rotates the virtual object 180 degrees around the Y axis.
+  private final float[] virtualObjectRotationMatrix = new float[16];
 
   private final float[] identityQuaternion = {0, 0, 0, 1};
 
@@ -248,15 +272,44 @@ public class GeospatialActivity extends AppCompatActivity
   // Streetscape geometry.
   private final ArrayList<float[]> wallsColor = new ArrayList<float[]>();
 
-  private Shader streetscapeGeometryTerrainShader;
-  private Shader streetscapeGeometryBuildingShader;
-  // A set of planes representing building outlines and floors.
-  private final Map<StreetscapeGeometry, Mesh> streetscapeGeometryToMeshes = new HashMap<>();
+  private static final float[] STREETSCAPE_GEOMETRY_TERRAIN_COLOR = {0f, .5f, 0f, 0.3f};
+  private StreetscapeGeometryRenderer streetscapeGeometryRenderer;
+  // Buildings are colored in turn from wallsColor, in the order they are first tracked.
+  private int streetscapeGeometryBuildingCount = 0;
+  // The meshes of building outlines and floors near the camera.
+  private final StreetscapeGeometryCache<StreetscapeGeometry, StreetscapeGeometryRenderer.Slot>
+      streetscapeGeometryCache = new StreetscapeGeometryCache<>(STREETSCAPE_GEOMETRY_BUDGET_BYTES);
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
     super.onCreate(savedInstanceState);
     sharedPreferences = getPreferences(Context.MODE_PRIVATE);
+    anchorStreamer =
+        new GeospatialAnchorStreamer<>(
+            new GeospatialAnchorStreamer.Resolver<LiveAnchor>() {
+              @Override
+              public void resolve(GeospatialAnchorStore.Entry entry) {
+                resolveAnchor(entry);
+              }
+
+              @Override
+              public void detach(LiveAnchor liveAnchor) {
+                liveAnchor.anchor.detach();
+              }
+            },
+            anchors,
+            MAXIMUM_CONCURRENT_RESOLVES,
+            MAXIMUM_LIVE_ANCHORS);
+    vpsAvailabilityCache =
+        new VpsAvailabilityCache(
+            this::checkVpsAvailabilityRemotely,
+            new File(getCacheDir(), VPS_AVAILABILITY_CACHE_FILE_NAME),
+            VPS_AVAILABILITY_TIME_TO_LIVE_MILLIS,
+            System::currentTimeMillis,
+            vpsAvailabilityCacheExecutor);
+    vpsAvailabilityCache.loadAsync(
+        e -> Log.w(TAG, "Failed to load the VPS availability cache", e));
+    anchorStoreExecutor.execute(this::openAnchorStore);
 
     setContentView(R.layout.activity_main);
     surfaceView = findViewById(R.id.surfaceview);
@@ -320,6 +373,15 @@ public class GeospatialActivity extends AppCompatActivity
 
   @Override
   protected void onDestroy() {
+    if (streetscapeGeometryRenderer != null) {
+      // Stop preparing streetscape geometry meshes before their session is closed.
+      streetscapeGeometryRenderer.close();
+    }
+    // Closes the anchor store once it is opened.
+    anchorStoreExecutor.execute(this::closeAnchorStore);
+    anchorStoreExecutor.shutdown();
+    // Saves already queued still complete.
+    vpsAvailabilityCacheExecutor.shutdown();
     if (session != null) {
       // Explicitly close ARCore Session to release native resources.
       // Review the API reference for important considerations before calling close() in apps with
@@ -468,13 +530,38 @@ public class GeospatialActivity extends AppCompatActivity
   }
 
   private void checkVpsAvailability(double latitude, double longitude) {
+    vpsAvailabilityCache.checkAvailability(
+        latitude,
+        longitude,
+        availability -> {
+          if (availability != VpsAvailabilityCache.Availability.AVAILABLE) {
+            showVpsNotAvailabilityNoticeDialog();
+          }
+        });
+  }
+
+  /** Checks VPS availability with ARCore, for the cells missing from the cache. */
+  private void checkVpsAvailabilityRemotely(
+      double latitude, double longitude, VpsAvailabilityCache.Callback callback) {
+    if (session == null) {
+      callback.onAvailability(VpsAvailabilityCache.Availability.UNKNOWN);
+      return;
+    }
     final VpsAvailabilityFuture future =
         session.checkVpsAvailabilityAsync(
             latitude,
             longitude,
             availability -> {
-              if (availability != VpsAvailability.AVAILABLE) {
-                showVpsNotAvailabilityNoticeDialog();
+              switch (availability) {
+                case AVAILABLE:
+                  callback.onAvailability(VpsAvailabilityCache.Availability.AVAILABLE);
+                  break;
+                case UNAVAILABLE:
+                  callback.onAvailability(VpsAvailabilityCache.Availability.UNAVAILABLE);
+                  break;
+                default:
+                  callback.onAvailability(VpsAvailabilityCache.Availability.UNKNOWN);
+                  break;
               }
             });
   }
@@ -535,6 +622,7 @@ public class GeospatialActivity extends AppCompatActivity
 
   @Override
   public void onSurfaceCreated(SampleRender render) {
+    Matrix.setRotateM(virtualObjectRotationMatrix, 0, 180, 0.0f, 1.0f, 0.0f);
     // Prepare the rendering objects. This involves reading shaders and 3D model files, so may throw
     // an IOException.
     try {
@@ -595,25 +683,7 @@ public class GeospatialActivity extends AppCompatActivity
           new Mesh(
               render, Mesh.PrimitiveMode.POINTS, /* indexBuffer= */ null, pointCloudVertexBuffers);
 
-      streetscapeGeometryBuildingShader =
-          Shader.createFromAssets(
-                  render,
-                  "shaders/streetscape_geometry.vert",
-                  "shaders/streetscape_geometry.frag",
-                  /* defines= */ null)
-              .setBlend(
-                  BlendFactor.DST_ALPHA, // RGB (src)
-                  BlendFactor.ONE); // ALPHA (dest)
-
-      streetscapeGeometryTerrainShader =
-          Shader.createFromAssets(
-                  render,
-                  "shaders/streetscape_geometry.vert",
-                  "shaders/streetscape_geometry.frag",
-                  /* defines= */ null)
-              .setBlend(
-                  BlendFactor.DST_ALPHA, // RGB (src)
-                  BlendFactor.ONE); // ALPHA (dest)
+      streetscapeGeometryRenderer = new StreetscapeGeometryRenderer(render);
       wallsColor.add(new float[] {0.5f, 0.0f, 0.5f, 0.3f});
       wallsColor.add(new float[] {0.5f, 0.5f, 0.0f, 0.3f});
       wallsColor.add(new float[] {0.0f, 0.5f, 0.5f, 0.3f});
@@ -649,7 +719,6 @@ public class GeospatialActivity extends AppCompatActivity
     // Notify ARCore session that the view size changed so that the perspective matrix and
     // the video background can be properly adjusted.
     displayRotationHelper.updateSessionIfNeeded(session);
-    updateStreetscapeGeometries(session.getAllTrackables(StreetscapeGeometry.class));
 
     // Obtain the current frame from ARSession. When the configuration is set to
     // UpdateMode.BLOCKING (it is by default), this will throttle the rendering to the
@@ -663,6 +732,8 @@ public class GeospatialActivity extends AppCompatActivity
       return;
     }
     Camera camera = frame.getCamera();
+    updateStreetscapeGeometries(
+        session.getAllTrackables(StreetscapeGeometry.class), camera.getPose());
 
     // BackgroundRenderer.updateDisplayGeometry must be called every frame to update the coordinates
     // used to draw the background camera image.
@@ -712,14 +783,12 @@ public class GeospatialActivity extends AppCompatActivity
             statusTextView.setText(lastStatusText);
           });
     }
-    synchronized (anchorsLock) {
-      if (anchors.size() >= MAXIMUM_ANCHORS) {
-        runOnUiThread(
-            () -> {
-              setAnchorButton.setVisibility(View.INVISIBLE);
-              tapScreenTextView.setVisibility(View.INVISIBLE);
-            });
-      }
+    if (anchors.size() >= MAXIMUM_LIVE_ANCHORS) {
+      runOnUiThread(
+          () -> {
+            setAnchorButton.setVisibility(View.INVISIBLE);
+            tapScreenTextView.setVisibility(View.INVISIBLE);
+          });
     }
 
     // Handle user input.
@@ -769,126 +838,123 @@ public class GeospatialActivity extends AppCompatActivity
     render.clear(virtualSceneFramebuffer, 0f, 0f, 0f, 0f);
 
     // -- Draw Streetscape Geometries.
-    if (isRenderStreetscapeGeometry) {
-      int index = 0;
-      for (Map.Entry<StreetscapeGeometry, Mesh> set : streetscapeGeometryToMeshes.entrySet()) {
-        StreetscapeGeometry streetscapeGeometry = set.getKey();
-        if (streetscapeGeometry.getTrackingState() != TrackingState.TRACKING) {
-          continue;
-        }
-        Mesh mesh = set.getValue();
-        Pose pose = streetscapeGeometry.getMeshPose();
-        pose.toMatrix(modelMatrix, 0);
-
-        // Calculate model/view/projection matrices
-        Matrix.multiplyMM(modelViewMatrix, 0, viewMatrix, 0, modelMatrix, 0);
-        Matrix.multiplyMM(modelViewProjectionMatrix, 0, projectionMatrix, 0, modelViewMatrix, 0);
-
-        if (streetscapeGeometry.getType() == StreetscapeGeometry.Type.BUILDING) {
-          float[] color = wallsColor.get(index % wallsColor.size());
-          index += 1;
-          streetscapeGeometryBuildingShader
-              .setVec4(
-                  "u_Color",
-                  new float[] {/* r= */ color[0], /* g= */ color[1], /* b= */ color[2], color[3]})
-              .setMat4("u_ModelViewProjection", modelViewProjectionMatrix);
-          render.draw(mesh, streetscapeGeometryBuildingShader);
-        } else if (streetscapeGeometry.getType() == StreetscapeGeometry.Type.TERRAIN) {
-          streetscapeGeometryTerrainShader
-              .setVec4("u_Color", new float[] {/* r= */ 0f, /* g= */ .5f, /* b= */ 0f, 0.3f})
-              .setMat4("u_ModelViewProjection", modelViewProjectionMatrix);
-          render.draw(mesh, streetscapeGeometryTerrainShader);
-        }
+    // Geometries in the view frustum count as visible for the GPU memory budget, whether they are
+    // drawn or not.
+    Matrix.multiplyMM(viewProjectionMatrix, 0, projectionMatrix, 0, viewMatrix, 0);
+    streetscapeGeometryRenderer.upload(render, STREETSCAPE_GEOMETRY_UPLOAD_BUDGET_NANOS);
+    streetscapeGeometryCache.beginFrame();
+    streetscapeGeometryRenderer.beginFrame(viewProjectionMatrix);
+    for (StreetscapeGeometryCache.Entry<StreetscapeGeometry, StreetscapeGeometryRenderer.Slot>
+        entry : streetscapeGeometryCache.getEntries()) {
+      if (streetscapeGeometryRenderer.cull(entry.getValue())) {
+        streetscapeGeometryCache.markVisible(entry.getKey());
       }
     }
+    if (isRenderStreetscapeGeometry) {
+      streetscapeGeometryRenderer.draw(render, viewMatrix, projectionMatrix);
+    }
     render.clear(virtualSceneFramebuffer, 0f, 0f, 0f, 0f);
-    synchronized (anchorsLock) {
-      for (Anchor anchor : anchors) {
-        // Get the current pose of an Anchor in world space. The Anchor pose is updated
-        // during calls to session.update() as ARCore refines its estimate of the world.
-        // Only render resolved Terrain & Rooftop anchors and Geospatial anchors.
-        if (anchor.getTrackingState() != TrackingState.TRACKING) {
-          continue;
-        }
-        anchor.getPose().toMatrix(modelMatrix, 0);
-        float[] scaleMatrix = new float[16];
-        Matrix.setIdentityM(scaleMatrix, 0);
-        float scale = getScale(anchor.getPose(), camera.getDisplayOrientedPose());
-        scaleMatrix[0] = scale;
-        scaleMatrix[5] = scale;
-        scaleMatrix[10] = scale;
-        Matrix.multiplyMM(modelMatrix, 0, modelMatrix, 0, scaleMatrix, 0);
-        // Rotate the virtual object 180 degrees around the Y axis to make the object face the GL
-        // camera -Z axis, since camera Z axis faces toward users.
-        float[] rotationMatrix = new float[16];
-        Matrix.setRotateM(rotationMatrix, 0, 180, 0.0f, 1.0f, 0.0f);
-        float[] rotationModelMatrix = new float[16];
-        Matrix.multiplyMM(rotationModelMatrix, 0, modelMatrix, 0, rotationMatrix, 0);
-        // Calculate model/view/projection matrices
-        Matrix.multiplyMM(modelViewMatrix, 0, viewMatrix, 0, rotationModelMatrix, 0);
-        Matrix.multiplyMM(modelViewProjectionMatrix, 0, projectionMatrix, 0, modelViewMatrix, 0);
-
-        // Update shader properties and draw
-        if (terrainAnchors.contains(anchor) || rooftopAnchors.contains(anchor)) {
-          terrainAnchorVirtualObjectShader.setMat4(
-              "u_ModelViewProjection", modelViewProjectionMatrix);
-
-          render.draw(virtualObjectMesh, terrainAnchorVirtualObjectShader, virtualSceneFramebuffer);
-        } else {
-          geospatialAnchorVirtualObjectShader.setMat4(
-              "u_ModelViewProjection", modelViewProjectionMatrix);
-          render.draw(
-              virtualObjectMesh, geospatialAnchorVirtualObjectShader, virtualSceneFramebuffer);
-        }
+    Pose cameraPose = camera.getDisplayOrientedPose();
+    // Anchors resolved or detached meanwhile are in the next snapshot.
+    AnchorRegistry.Snapshot<LiveAnchor> liveAnchors = anchors.getSnapshot();
+    for (int i = 0; i < liveAnchors.size(); ++i) {
+      LiveAnchor liveAnchor = liveAnchors.get(i);
+      Anchor anchor = liveAnchor.anchor;
+      // Get the current pose of an Anchor in world space. The Anchor pose is updated
+      // during calls to session.update() as ARCore refines its estimate of the world.
+      // Only render resolved Terrain & Rooftop anchors and Geospatial anchors.
+      if (anchor.getTrackingState() != TrackingState.TRACKING) {
+        continue;
       }
-      if (anchors.size() > 0) {
-        String anchorMessage =
-            getResources()
-                .getQuantityString(
-                    R.plurals.status_anchors_set, anchors.size(), anchors.size(), MAXIMUM_ANCHORS);
-        runOnUiThread(
-            () -> {
-              statusTextView.setVisibility(View.VISIBLE);
-              statusTextView.setText(anchorMessage);
-            });
+      Pose anchorPose = anchor.getPose();
+      anchorPose.toMatrix(modelMatrix, 0);
+      float scale = getScale(anchorPose, cameraPose);
+      Matrix.scaleM(modelMatrix, 0, scale, scale, scale);
+      // Rotate the virtual object 180 degrees around the Y axis to make the object face the GL
+      // camera -Z axis, since camera Z axis faces toward users.
+      Matrix.multiplyMM(rotationModelMatrix, 0, modelMatrix, 0, virtualObjectRotationMatrix, 0);
+      // Calculate model/view/projection matrices
+      Matrix.multiplyMM(modelViewMatrix, 0, viewMatrix, 0, rotationModelMatrix, 0);
+      Matrix.multiplyMM(modelViewProjectionMatrix, 0, projectionMatrix, 0, modelViewMatrix, 0);
+
+      // Update shader properties and draw
+      if (liveAnchor.type == AnchorType.TERRAIN || liveAnchor.type == AnchorType.ROOFTOP) {
+        terrainAnchorVirtualObjectShader.setMat4(
+            "u_ModelViewProjection", modelViewProjectionMatrix);
+
+        render.draw(virtualObjectMesh, terrainAnchorVirtualObjectShader, virtualSceneFramebuffer);
+      } else {
+        geospatialAnchorVirtualObjectShader.setMat4(
+            "u_ModelViewProjection", modelViewProjectionMatrix);
+        render.draw(
+            virtualObjectMesh, geospatialAnchorVirtualObjectShader, virtualSceneFramebuffer);
       }
     }
+    if (!liveAnchors.isEmpty()) {
+      String anchorMessage =
+          getResources()
+              .getQuantityString(
+                  R.plurals.status_anchors_set,
+                  liveAnchors.size(),
+                  liveAnchors.size(),
+                  MAXIMUM_LIVE_ANCHORS);
+      runOnUiThread(
+          () -> {
+            statusTextView.setVisibility(View.VISIBLE);
+            statusTextView.setText(anchorMessage);
+          });
+    }
 
     // Compose the virtual scene with the background.
     backgroundRenderer.drawVirtualScene(render, virtualSceneFramebuffer, Z_NEAR, Z_FAR);
   }
 
   /**
-   * Updates all the StreetscapeGeometries. Existing StreetscapeGeometries will have pose updated,
-   * and non-existing StreetscapeGeometries will be removed from the scene.
+   * Updates all the StreetscapeGeometries. New StreetscapeGeometries that fit in the GPU memory
+   * budget are added to the renderer, and StreetscapeGeometries that stopped tracking or are
+   * evicted to keep closer ones within the budget are removed from it.
    */
-  private void updateStreetscapeGeometries(Collection<StreetscapeGeometry> streetscapeGeometries) {
+  private void updateStreetscapeGeometries(
+      Collection<StreetscapeGeometry> streetscapeGeometries, Pose cameraPose) {
+    if (streetscapeGeometryRenderer == null) {
+      return;
+    }
     for (StreetscapeGeometry streetscapeGeometry : streetscapeGeometries) {
-      // If the Streetscape Geometry node is already added to the scene, then we'll simply update
-      // the pose.
-      if (streetscapeGeometryToMeshes.containsKey(streetscapeGeometry)) {
-      } else {
-        // Otherwise, we create a StreetscapeGeometry mesh and add it to the scene.
-        Mesh mesh = getSampleRenderMesh(streetscapeGeometry);
-        streetscapeGeometryToMeshes.put(streetscapeGeometry, mesh);
+      if (streetscapeGeometry.getTrackingState() == TrackingState.STOPPED) {
+        // The geometry will never be tracked again.
+        streetscapeGeometryCache.remove(streetscapeGeometry);
+        continue;
+      }
+      float distance = getDistance(streetscapeGeometry.getMeshPose(), cameraPose);
+      if (streetscapeGeometryCache.contains(streetscapeGeometry)) {
+        streetscapeGeometryCache.setDistance(streetscapeGeometry, distance);
+        continue;
+      }
+      long byteSize = StreetscapeGeometryRenderer.getByteSize(streetscapeGeometry);
+      if (streetscapeGeometryCache.shouldAdmit(byteSize, distance)) {
+        streetscapeGeometryCache.put(
+            streetscapeGeometry,
+            streetscapeGeometryRenderer.add(
+                streetscapeGeometry, getStreetscapeGeometryColor(streetscapeGeometry)),
+            distance);
       }
     }
+    // Entries are marked visible by the culling pass of the previous frame.
+    streetscapeGeometryCache.trim();
   }
 
-  private Mesh getSampleRenderMesh(StreetscapeGeometry streetscapeGeometry) {
-    FloatBuffer streetscapeGeometryBuffer = streetscapeGeometry.getMesh().getVertexList();
-    streetscapeGeometryBuffer.rewind();
-    VertexBuffer meshVertexBuffer =
-        new VertexBuffer(
-            render, /* numberOfEntriesPerVertex= */ 3, /* entries= */ streetscapeGeometryBuffer);
-    IndexBuffer meshIndexBuffer =
-        new IndexBuffer(render, streetscapeGeometry.getMesh().getIndexList());
-    final VertexBuffer[] meshVertexBuffers = {meshVertexBuffer};
-    return new Mesh(
-        render,
-        Mesh.PrimitiveMode.TRIANGLES,
-        /* indexBuffer= */ meshIndexBuffer,
-        meshVertexBuffers);
+  private float[] getStreetscapeGeometryColor(StreetscapeGeometry streetscapeGeometry) {
+    if (streetscapeGeometry.getType() == StreetscapeGeometry.Type.BUILDING) {
+      return wallsColor.get(streetscapeGeometryBuildingCount++ % wallsColor.size());
+    }
+    return STREETSCAPE_GEOMETRY_TERRAIN_COLOR;
+  }
+
+  private static float getDistance(Pose pose, Pose otherPose) {
+    float dx = pose.tx() - otherPose.tx();
+    float dy = pose.ty() - otherPose.ty();
+    float dz = pose.tz() - otherPose.tz();
+    return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
   }
 
   /** Configures the session with feature settings. */
@@ -955,21 +1021,17 @@ public class GeospatialActivity extends AppCompatActivity
         && geospatialPose.getOrientationYawAccuracy()
             <= LOCALIZING_ORIENTATION_YAW_ACCURACY_THRESHOLD_DEGREES) {
       state = State.LOCALIZED;
-      synchronized (anchorsLock) {
-        final int anchorNum = anchors.size();
-        if (anchorNum == 0) {
-          createAnchorFromSharedPreferences(earth);
-        }
-        if (anchorNum < MAXIMUM_ANCHORS) {
-          runOnUiThread(
-              () -> {
-                setAnchorButton.setVisibility(View.VISIBLE);
-                tapScreenTextView.setVisibility(View.VISIBLE);
-                if (anchorNum > 0) {
-                  clearAnchorsButton.setVisibility(View.VISIBLE);
-                }
-              });
-        }
+      // The stored anchors near the camera are resolved from the LOCALIZED state.
+      final boolean hasAnchors = anchorStreamer.size() > 0;
+      if (anchors.size() < MAXIMUM_LIVE_ANCHORS) {
+        runOnUiThread(
+            () -> {
+              setAnchorButton.setVisibility(View.VISIBLE);
+              tapScreenTextView.setVisibility(View.VISIBLE);
+              if (hasAnchors) {
+                clearAnchorsButton.setVisibility(View.VISIBLE);
+              }
+            });
       }
       return;
     }
@@ -1010,6 +1072,9 @@ public class GeospatialActivity extends AppCompatActivity
       return;
     }
 
+    anchorStreamer.update(geospatialPose.getLatitude(), geospatialPose.getLongitude());
+    vpsAvailabilityCache.onLocationChanged(
+        geospatialPose.getLatitude(), geospatialPose.getLongitude());
     updateGeospatialPoseText(geospatialPose);
   }
 
@@ -1081,19 +1146,11 @@ public class GeospatialActivity extends AppCompatActivity
     double longitude = geospatialPose.getLongitude();
     double altitude = geospatialPose.getAltitude();
     float[] quaternion = geospatialPose.getEastUpSouthQuaternion();
-    switch (anchorType) {
-      case TERRAIN:
-        createTerrainAnchor(earth, latitude, longitude, identityQuaternion);
-        storeAnchorParameters(latitude, longitude, 0, identityQuaternion);
-        break;
-      case GEOSPATIAL:
-        createAnchor(earth, latitude, longitude, altitude, quaternion);
-        storeAnchorParameters(latitude, longitude, altitude, quaternion);
-        break;
-      case ROOFTOP:
-        createRooftopAnchor(earth, latitude, longitude, identityQuaternion);
-        storeAnchorParameters(latitude, longitude, 0, identityQuaternion);
-        break;
+    // The anchor is resolved by the anchor streamer in the next frame.
+    if (anchorType == AnchorType.GEOSPATIAL) {
+      anchorStreamer.add(storeAnchorParameters(latitude, longitude, altitude, quaternion));
+    } else {
+      anchorStreamer.add(storeAnchorParameters(latitude, longitude, 0, identityQuaternion));
     }
     runOnUiThread(
         () -> {
@@ -1105,51 +1162,65 @@ public class GeospatialActivity extends AppCompatActivity
   }
 
   private void handleClearAnchorsButton() {
-    synchronized (anchorsLock) {
-      clearedAnchorsAmount = anchors.size();
-      String message =
-          getResources()
-              .getQuantityString(
-                  R.plurals.status_anchors_cleared, clearedAnchorsAmount, clearedAnchorsAmount);
+    clearedAnchorsAmount = anchorStreamer.size();
+    String message =
+        getResources()
+            .getQuantityString(
+                R.plurals.status_anchors_cleared, clearedAnchorsAmount, clearedAnchorsAmount);
 
-      statusTextView.setVisibility(View.VISIBLE);
-      statusTextView.setText(message);
+    statusTextView.setVisibility(View.VISIBLE);
+    statusTextView.setText(message);
 
-      for (Anchor anchor : anchors) {
-        anchor.detach();
-      }
-      anchors.clear();
-    }
-    clearAnchorsFromSharedPreferences();
+    // Detaches the live anchors.
+    anchorStreamer.clear();
+    clearStoredAnchors();
     clearAnchorsButton.setVisibility(View.INVISIBLE);
     setAnchorButton.setVisibility(View.VISIBLE);
     tapScreenTextView.setVisibility(View.VISIBLE);
   }
 
+  /** Starts resolving the anchor of a stored entry, reporting it to the anchor streamer. */
+  private void resolveAnchor(GeospatialAnchorStore.Entry entry) {
+    Earth earth = session == null ? null : session.getEarth();
+    if (earth == null) {
+      anchorStreamer.onResolved(entry.getId(), null);
+      return;
+    }
+    switch (entry.getType()) {
+      case TERRAIN:
+        createTerrainAnchor(earth, entry);
+        break;
+      case ROOFTOP:
+        createRooftopAnchor(earth, entry);
+        break;
+      default:
+        createAnchor(earth, entry);
+        break;
+    }
+  }
+
   /** Create an anchor at a specific geodetic location using a EUS quaternion. */
-  private void createAnchor(
-      Earth earth, double latitude, double longitude, double altitude, float[] quaternion) {
+  private void createAnchor(Earth earth, GeospatialAnchorStore.Entry entry) {
+    float[] quaternion = entry.getQuaternion();
     Anchor anchor =
         earth.createAnchor(
-            latitude,
-            longitude,
-            altitude,
+            entry.getLatitude(),
+            entry.getLongitude(),
+            entry.getAltitude(),
             quaternion[0],
             quaternion[1],
             quaternion[2],
             quaternion[3]);
-    synchronized (anchorsLock) {
-      anchors.add(anchor);
-    }
+    anchorStreamer.onResolved(entry.getId(), new LiveAnchor(anchor, AnchorType.GEOSPATIAL));
   }
 
   /** Create a terrain anchor at a specific geodetic location using a EUS quaternion. */
-  private void createTerrainAnchor(
-      Earth earth, double latitude, double longitude, float[] quaternion) {
+  private void createTerrainAnchor(Earth earth, GeospatialAnchorStore.Entry entry) {
+    float[] quaternion = entry.getQuaternion();
     final ResolveAnchorOnTerrainFuture future =
         earth.resolveAnchorOnTerrainAsync(
-            latitude,
-            longitude,
+            entry.getLatitude(),
+            entry.getLongitude(),
             /* altitudeAboveTerrain= */ 0.0f,
             quaternion[0],
             quaternion[1],
@@ -1157,11 +1228,10 @@ public class GeospatialActivity extends AppCompatActivity
             quaternion[3],
             (anchor, state) -> {
               if (state == TerrainAnchorState.SUCCESS) {
-                synchronized (anchorsLock) {
-                  anchors.add(anchor);
-                  terrainAnchors.add(anchor);
-                }
+                anchorStreamer.onResolved(
+                    entry.getId(), new LiveAnchor(anchor, AnchorType.TERRAIN));
               } else {
+                anchorStreamer.onResolved(entry.getId(), null);
                 statusTextView.setVisibility(View.VISIBLE);
                 statusTextView.setText(getString(R.string.status_terrain_anchor, state));
               }
@@ -1169,12 +1239,12 @@ public class GeospatialActivity extends AppCompatActivity
   }
 
   /** Create a rooftop anchor at a specific geodetic location using a EUS quaternion. */
-  private void createRooftopAnchor(
-      Earth earth, double latitude, double longitude, float[] quaternion) {
+  private void createRooftopAnchor(Earth earth, GeospatialAnchorStore.Entry entry) {
+    float[] quaternion = entry.getQuaternion();
     final ResolveAnchorOnRooftopFuture future =
         earth.resolveAnchorOnRooftopAsync(
-            latitude,
-            longitude,
+            entry.getLatitude(),
+            entry.getLongitude(),
             /* altitudeAboveRooftop= */ 0.0f,
             quaternion[0],
             quaternion[1],
@@ -1182,11 +1252,10 @@ public class GeospatialActivity extends AppCompatActivity
             quaternion[3],
             (anchor, state) -> {
               if (state == RooftopAnchorState.SUCCESS) {
-                synchronized (anchorsLock) {
-                  anchors.add(anchor);
-                  rooftopAnchors.add(anchor);
-                }
+                anchorStreamer.onResolved(
+                    entry.getId(), new LiveAnchor(anchor, AnchorType.ROOFTOP));
               } else {
+                anchorStreamer.onResolved(entry.getId(), null);
                 statusTextView.setVisibility(View.VISIBLE);
                 statusTextView.setText(getString(R.string.status_rooftop_anchor, state));
               }
@@ -1194,56 +1263,43 @@ public class GeospatialActivity extends AppCompatActivity
   }
 
   /**
-   * Helper function to store the parameters used in anchor creation in {@link SharedPreferences}.
+   * Opens the anchor store, moving the anchors saved in {@link SharedPreferences} to it, and
+   * streams its anchors. Runs on {@link #anchorStoreExecutor}.
    */
-  private void storeAnchorParameters(
-      double latitude, double longitude, double altitude, float[] quaternion) {
-    Set<String> anchorParameterSet =
-        sharedPreferences.getStringSet(SHARED_PREFERENCES_SAVED_ANCHORS, new HashSet<>());
-    HashSet<String> newAnchorParameterSet = new HashSet<>(anchorParameterSet);
-
-    SharedPreferences.Editor editor = sharedPreferences.edit();
-    String type = "";
-    switch (anchorType) {
-      case TERRAIN:
-        type = "Terrain";
-        break;
-      case ROOFTOP:
-        type = "Rooftop";
-        break;
-      default:
-        type = "";
-        break;
+  private void openAnchorStore() {
+    GeospatialAnchorStore store;
+    try {
+      store = GeospatialAnchorStore.open(new File(getFilesDir(), ANCHOR_STORE_FILE_NAME));
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to open the anchor store, anchors will not be persisted", e);
+      return;
     }
-    newAnchorParameterSet.add(
-        String.format(
-            type + "%.6f,%.6f,%.6f,%.6f,%.6f,%.6f,%.6f",
-            latitude,
-            longitude,
-            altitude,
-            quaternion[0],
-            quaternion[1],
-            quaternion[2],
-            quaternion[3]));
-    editor.putStringSet(SHARED_PREFERENCES_SAVED_ANCHORS, newAnchorParameterSet);
-    editor.commit();
-  }
-
-  private void clearAnchorsFromSharedPreferences() {
-    SharedPreferences.Editor editor = sharedPreferences.edit();
-    editor.putStringSet(SHARED_PREFERENCES_SAVED_ANCHORS, null);
-    editor.commit();
+    if (store.getDiscardedByteCount() > 0) {
+      Log.w(
+          TAG, "Discarded " + store.getDiscardedByteCount() + " damaged bytes of the anchor store");
+    }
+    moveSavedAnchors(store);
+    for (GeospatialAnchorStore.Entry entry : store.getEntries()) {
+      anchorStreamer.add(entry);
+    }
+    anchorStore = store;
   }
 
-  /** Creates all anchors that were stored in the {@link SharedPreferences}. */
-  private void createAnchorFromSharedPreferences(Earth earth) {
+  /**
+   * Moves the anchors saved in {@link SharedPreferences} to the anchor store. The moved anchors are
+   * removed from the preferences in a single edit once all are appended, or once appending one
+   * failed, so that a move failing partway resumes where it stopped on next launch.
+   */
+  private void moveSavedAnchors(GeospatialAnchorStore store) {
     Set<String> anchorParameterSet =
         sharedPreferences.getStringSet(SHARED_PREFERENCES_SAVED_ANCHORS, null);
     if (anchorParameterSet == null) {
       return;
     }
-
-    for (String anchorParameters : anchorParameterSet) {
+    // The set returned by the preferences must not be modified.
+    Set<String> remainingAnchorParameters = new HashSet<>(anchorParameterSet);
+    for (String savedAnchorParameters : anchorParameterSet) {
+      String anchorParameters = savedAnchorParameters;
       AnchorType type = AnchorType.GEOSPATIAL;
       if (anchorParameters.contains("Terrain")) {
         type = AnchorType.TERRAIN;
@@ -1255,33 +1311,80 @@ public class GeospatialActivity extends AppCompatActivity
       String[] parameters = anchorParameters.split(",");
       if (parameters.length != 7) {
         Log.d(
-            TAG, "Invalid number of anchor parameters. Expected four, found " + parameters.length);
+            TAG, "Invalid number of anchor parameters. Expected seven, found " + parameters.length);
+        remainingAnchorParameters.remove(savedAnchorParameters);
         continue;
       }
-      double latitude = Double.parseDouble(parameters[0]);
-      double longitude = Double.parseDouble(parameters[1]);
-      double altitude = Double.parseDouble(parameters[2]);
-      float[] quaternion =
-          new float[] {
-            Float.parseFloat(parameters[3]),
-            Float.parseFloat(parameters[4]),
-            Float.parseFloat(parameters[5]),
-            Float.parseFloat(parameters[6])
-          };
-      switch (type) {
-        case TERRAIN:
-          createTerrainAnchor(earth, latitude, longitude, quaternion);
-          break;
-        case ROOFTOP:
-          createRooftopAnchor(earth, latitude, longitude, quaternion);
-          break;
-        default:
-          createAnchor(earth, latitude, longitude, altitude, quaternion);
-          break;
+      try {
+        store.add(
+            type,
+            Double.parseDouble(parameters[0]),
+            Double.parseDouble(parameters[1]),
+            Double.parseDouble(parameters[2]),
+            new float[] {
+              Float.parseFloat(parameters[3]),
+              Float.parseFloat(parameters[4]),
+              Float.parseFloat(parameters[5]),
+              Float.parseFloat(parameters[6])
+            });
+      } catch (IOException e) {
+        Log.e(TAG, "Failed to move the saved anchors to the anchor store", e);
+        break;
       }
+      remainingAnchorParameters.remove(savedAnchorParameters);
     }
+    if (remainingAnchorParameters.isEmpty()) {
+      sharedPreferences.edit().remove(SHARED_PREFERENCES_SAVED_ANCHORS).apply();
+    } else {
+      sharedPreferences
+          .edit()
+          .putStringSet(SHARED_PREFERENCES_SAVED_ANCHORS, remainingAnchorParameters)
+          .apply();
+    }
+  }
 
-    runOnUiThread(() -> clearAnchorsButton.setVisibility(View.VISIBLE));
+  /** Flushes and closes the anchor store. Runs on {@link #anchorStoreExecutor}. */
+  private void closeAnchorStore() {
+    GeospatialAnchorStore store = anchorStore;
+    if (store == null) {
+      return;
+    }
+    anchorStore = null;
+    try {
+      store.close();
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to close the anchor store", e);
+    }
+  }
+
+  /**
+   * Helper function to store the parameters used in anchor creation in the anchor store. Returns
+   * the entry of the anchor, which is not persisted if the anchor could not be stored.
+   */
+  private GeospatialAnchorStore.Entry storeAnchorParameters(
+      double latitude, double longitude, double altitude, float[] quaternion) {
+    GeospatialAnchorStore store = anchorStore;
+    if (store != null) {
+      try {
+        return store.add(anchorType, latitude, longitude, altitude, quaternion);
+      } catch (IOException e) {
+        Log.e(TAG, "Failed to store anchor", e);
+      }
+    }
+    return new GeospatialAnchorStore.Entry(
+        nextUnstoredAnchorId--, anchorType, latitude, longitude, altitude, quaternion);
+  }
+
+  private void clearStoredAnchors() {
+    GeospatialAnchorStore store = anchorStore;
+    if (store == null) {
+      return;
+    }
+    try {
+      store.clear();
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to clear stored anchors", e);
+    }
   }
 
   @Override
@@ -1316,13 +1419,11 @@ public class GeospatialActivity extends AppCompatActivity
     // Handle taps. Handling only one tap per frame, as taps are usually low frequency
     // compared to frame rate.
     synchronized (singleTapLock) {
-      synchronized (anchorsLock) {
-        if (queuedSingleTap == null
-            || anchors.size() >= MAXIMUM_ANCHORS
-            || cameraTrackingState != TrackingState.TRACKING) {
-          queuedSingleTap = null;
-          return;
-        }
+      if (queuedSingleTap == null
+          || anchors.size() >= MAXIMUM_LIVE_ANCHORS
+          || cameraTrackingState != TrackingState.TRACKING) {
+        queuedSingleTap = null;
+        return;
       }
       Earth earth = session.getEarth();
       if (earth == null || earth.getTrackingState() != TrackingState.TRACKING) {
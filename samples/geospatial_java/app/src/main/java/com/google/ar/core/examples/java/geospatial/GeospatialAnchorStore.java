@@ -0,0 +1,356 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.geospatial;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Persists the parameters of geospatial anchors in an append-only binary log.
+ *
+ * <p>The log is a header followed by fixed-size records. A record either adds an anchor, with its
+ * type, its latitude, longitude and altitude as doubles and its EUS quaternion, or removes the
+ * anchor with a given id. Each record ends with a CRC32 of its content. Adding or removing an
+ * anchor appends a single record, and clearing the store truncates the log to its header.
+ *
+ * <p>Opening the store maps the log into memory and replays it in a single pass. Records failing
+ * their checksum are skipped and a record cut short by a crash is truncated, so that a damaged log
+ * only loses the damaged records. A log with an invalid header is reset. The log is compacted,
+ * rewriting only the anchors, once the other records outnumber them, and on opening when records
+ * were skipped, so that they are reported only once.
+ *
+ * <p>Thread safe. Does not depend on Android, so that it can be used on the JVM.
+ */
+final class GeospatialAnchorStore implements Closeable {
+  // "GANC", for geospatial anchors.
+  private static final int MAGIC = 0x47414E43;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 8;
+
+  // Kind, anchor type, 2 unused bytes, id, latitude, longitude, altitude, quaternion and CRC32.
+  private static final int RECORD_SIZE = 1 + 1 + 2 + 4 + 3 * 8 + 4 * 4 + 4;
+  private static final int CHECKED_SIZE = RECORD_SIZE - 4;
+  private static final byte KIND_ADD = 1;
+  private static final byte KIND_REMOVE = 2;
+
+  // Logs with fewer records are never compacted.
+  private static final int MIN_COMPACTION_RECORD_COUNT = 64;
+
+  private static final AnchorType[] ANCHOR_TYPES = AnchorType.values();
+
+  /** The parameters an anchor was created with. Immutable. */
+  static final class Entry {
+    private final int id;
+    private final AnchorType type;
+    private final double latitude;
+    private final double longitude;
+    private final double altitude;
+    private final float[] quaternion;
+
+    Entry(
+        int id,
+        AnchorType type,
+        double latitude,
+        double longitude,
+        double altitude,
+        float[] quaternion) {
+      this.id = id;
+      this.type = type;
+      this.latitude = latitude;
+      this.longitude = longitude;
+      this.altitude = altitude;
+      this.quaternion = quaternion.clone();
+    }
+
+    int getId() {
+      return id;
+    }
+
+    AnchorType getType() {
+      return type;
+    }
+
+    double getLatitude() {
+      return latitude;
+    }
+
+    double getLongitude() {
+      return longitude;
+    }
+
+    double getAltitude() {
+      return altitude;
+    }
+
+    /** Returns the EUS quaternion of the anchor, as x, y, z and w. */
+    float[] getQuaternion() {
+      return quaternion.clone();
+    }
+  }
+
+  private final File file;
+  private FileChannel channel;
+  // In the order the anchors were added.
+  private final LinkedHashMap<Integer, Entry> entries = new LinkedHashMap<>();
+  private int nextId;
+  private long logSize;
+  private int recordCount;
+  private long discardedByteCount;
+  private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+  private final CRC32 crc = new CRC32();
+
+  private GeospatialAnchorStore(File file) {
+    this.file = file;
+  }
+
+  /** Opens the store persisted in {@code file}, creating the file if it does not exist. */
+  static GeospatialAnchorStore open(File file) throws IOException {
+    GeospatialAnchorStore store = new GeospatialAnchorStore(file);
+    store.channel =
+        FileChannel.open(
+            file.toPath(),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+    try {
+      if (store.replay() || store.needsCompaction()) {
+        store.compact();
+      }
+    } catch (IOException | RuntimeException e) {
+      store.channel.close();
+      throw e;
+    }
+    return store;
+  }
+
+  /** Returns the anchors in the store, in the order they were added. */
+  synchronized List<Entry> getEntries() {
+    return new ArrayList<>(entries.values());
+  }
+
+  synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Returns the number of bytes of the log discarded when the store was opened, because they
+   * failed their checksum, were cut short or followed an invalid header.
+   */
+  synchronized long getDiscardedByteCount() {
+    return discardedByteCount;
+  }
+
+  /** Adds an anchor to the store, and returns its entry. */
+  synchronized Entry add(
+      AnchorType type, double latitude, double longitude, double altitude, float[] quaternion)
+      throws IOException {
+    Entry entry = new Entry(nextId++, type, latitude, longitude, altitude, quaternion);
+    append(KIND_ADD, entry);
+    entries.put(entry.id, entry);
+    return entry;
+  }
+
+  /** Removes the anchor with {@code id} from the store. Returns whether there was one. */
+  synchronized boolean remove(int id) throws IOException {
+    Entry entry = entries.remove(id);
+    if (entry == null) {
+      return false;
+    }
+    append(KIND_REMOVE, entry);
+    if (needsCompaction()) {
+      compact();
+    }
+    return true;
+  }
+
+  /** Removes all anchors from the store. */
+  synchronized void clear() throws IOException {
+    entries.clear();
+    channel.truncate(HEADER_SIZE);
+    logSize = HEADER_SIZE;
+    recordCount = 0;
+  }
+
+  /** Rewrites the log with one record per anchor, replacing the log atomically. */
+  synchronized void compact() throws IOException {
+    File compactedFile = new File(file.getPath() + ".compact");
+    try (FileChannel compactedChannel =
+        FileChannel.open(
+            compactedFile.toPath(),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE)) {
+      writeHeader(compactedChannel);
+      long position = HEADER_SIZE;
+      for (Entry entry : entries.values()) {
+        writeRecord(compactedChannel, position, KIND_ADD, entry);
+        position += RECORD_SIZE;
+      }
+      compactedChannel.force(/* metaData= */ true);
+    }
+    channel.close();
+    Files.move(
+        compactedFile.toPath(),
+        file.toPath(),
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+    recordCount = entries.size();
+    logSize = HEADER_SIZE + (long) recordCount * RECORD_SIZE;
+  }
+
+  /** Flushes the log to storage and closes it. */
+  @Override
+  public synchronized void close() throws IOException {
+    if (channel.isOpen()) {
+      channel.force(/* metaData= */ false);
+      channel.close();
+    }
+  }
+
+  /** Returns whether the records other than the anchors outnumber them, in a large enough log. */
+  private boolean needsCompaction() {
+    return recordCount >= MIN_COMPACTION_RECORD_COUNT && recordCount > 2 * entries.size();
+  }
+
+  /**
+   * Reads the log, keeping the valid records and truncating the rest. Returns whether invalid
+   * records were skipped, which stay in the log until it is compacted.
+   */
+  private boolean replay() throws IOException {
+    long size = channel.size();
+    if (size < HEADER_SIZE) {
+      discardedByteCount = size;
+      reset();
+      return false;
+    }
+    MappedByteBuffer log = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    if (log.getInt(0) != MAGIC || log.getInt(4) != VERSION) {
+      discardedByteCount = size;
+      reset();
+      return false;
+    }
+    boolean skippedRecords = false;
+    long recordsEnd = HEADER_SIZE + (size - HEADER_SIZE) / RECORD_SIZE * RECORD_SIZE;
+    for (int offset = HEADER_SIZE; offset < recordsEnd; offset += RECORD_SIZE) {
+      recordCount++;
+      if (!replayRecord(log, offset)) {
+        discardedByteCount += RECORD_SIZE;
+        skippedRecords = true;
+      }
+    }
+    // The tail of a record cut short.
+    if (recordsEnd < size) {
+      discardedByteCount += size - recordsEnd;
+      channel.truncate(recordsEnd);
+    }
+    logSize = recordsEnd;
+    return skippedRecords;
+  }
+
+  /** Applies the record at {@code offset}. Returns false if it is invalid. */
+  private boolean replayRecord(ByteBuffer log, int offset) {
+    ByteBuffer checked = log.duplicate();
+    checked.position(offset).limit(offset + CHECKED_SIZE);
+    crc.reset();
+    crc.update(checked);
+    if ((int) crc.getValue() != log.getInt(offset + CHECKED_SIZE)) {
+      return false;
+    }
+    byte kind = log.get(offset);
+    int typeOrdinal = log.get(offset + 1);
+    int id = log.getInt(offset + 4);
+    if (kind == KIND_REMOVE) {
+      entries.remove(id);
+    } else if (kind == KIND_ADD && typeOrdinal >= 0 && typeOrdinal < ANCHOR_TYPES.length) {
+      int position = offset + 8;
+      double latitude = log.getDouble(position);
+      double longitude = log.getDouble(position + 8);
+      double altitude = log.getDouble(position + 16);
+      float[] quaternion = new float[4];
+      for (int i = 0; i < 4; ++i) {
+        quaternion[i] = log.getFloat(position + 24 + 4 * i);
+      }
+      entries.put(
+          id,
+          new Entry(id, ANCHOR_TYPES[typeOrdinal], latitude, longitude, altitude, quaternion));
+    } else {
+      return false;
+    }
+    nextId = Math.max(nextId, id + 1);
+    return true;
+  }
+
+  /** Empties the log, writing a new header. */
+  private void reset() throws IOException {
+    channel.truncate(0);
+    writeHeader(channel);
+    logSize = HEADER_SIZE;
+  }
+
+  private void append(byte kind, Entry entry) throws IOException {
+    writeRecord(channel, logSize, kind, entry);
+    logSize += RECORD_SIZE;
+    recordCount++;
+  }
+
+  private void writeRecord(FileChannel target, long position, byte kind, Entry entry)
+      throws IOException {
+    record.clear();
+    record.put(kind);
+    record.put((byte) entry.type.ordinal());
+    record.putShort((short) 0);
+    record.putInt(entry.id);
+    record.putDouble(entry.latitude);
+    record.putDouble(entry.longitude);
+    record.putDouble(entry.altitude);
+    for (float component : entry.quaternion) {
+      record.putFloat(component);
+    }
+    crc.reset();
+    crc.update(record.array(), 0, CHECKED_SIZE);
+    record.putInt((int) crc.getValue());
+    record.flip();
+    writeFully(target, record, position);
+  }
+
+  private static void writeHeader(FileChannel target) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.putInt(MAGIC);
+    header.putInt(VERSION);
+    header.flip();
+    writeFully(target, header, 0);
+  }
+
+  private static void writeFully(FileChannel target, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      position += target.write(buffer, position);
+    }
+  }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.geospatial;
+
+import com.google.ar.core.examples.java.common.helpers.AnchorRegistry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps live anchors only for the stored anchors near the camera, so that any number of anchors
+ * can be stored.
+ *
+ * <p>Stored anchors are indexed by the geohash tile of their location. The tiles near the camera
+ * are the tile of the camera and its eight neighbors. Anchors in these tiles are resolved nearest
+ * to the camera first, with at most a given number resolving at once and a given number live or
+ * resolving. When the camera moves to another tile, the live anchors of the tiles no longer near
+ * it are detached, and so are the anchors still resolving in them once resolved. Anchors that fail
+ * to resolve are not retried until their tile comes near the camera again.
+ *
+ * <p>The live anchors are published to an {@link AnchorRegistry}, for the GL thread to render
+ * without locking. They are added and removed along with the state of the streamer, so that a
+ * detached anchor never stays in the registry. The anchors removed together are removed in a
+ * single snapshot, so that the registry never shows only some of them removed.
+ *
+ * <p>ARCore is only reached through a {@link Resolver}, so that the tiling and the prioritization
+ * can be used on the JVM. The resolver is never called with the lock of the streamer held. Thread
+ * safe.
+ *
+ * @param <A> the type of live anchors
+ */
+final class GeospatialAnchorStreamer<A> {
+  /** Creates and detaches live anchors. */
+  interface Resolver<A> {
+    /**
+     * Starts resolving the anchor of {@code entry}. The outcome must be reported with {@link
+     * #onResolved}, possibly before this method returns.
+     */
+    void resolve(GeospatialAnchorStore.Entry entry);
+
+    /** Detaches a live anchor no longer needed. */
+    void detach(A anchor);
+  }
+
+  // Tiles of about 153 m from north to south. From east to west they narrow with the cosine of the
+  // latitude: 153 m at the equator, 108 m at 45 degrees and 76 m at 60 degrees. Anchors closer to
+  // the camera than the width of a tile are always live.
+  static final int TILE_PRECISION = 7;
+
+  private final Resolver<A> resolver;
+  private final AnchorRegistry<A> liveAnchorRegistry;
+  private final int maxConcurrentResolves;
+  private final int maxLiveAnchors;
+  // The stored anchors of each tile, and the tile of each stored anchor.
+  private final HashMap<String, List<GeospatialAnchorStore.Entry>> tiles = new HashMap<>();
+  private final HashMap<Integer, String> entryTiles = new HashMap<>();
+  private final HashMap<Integer, A> liveAnchors = new HashMap<>();
+  private final HashSet<Integer> resolvingIds = new HashSet<>();
+  private final HashSet<Integer> failedIds = new HashSet<>();
+  private final HashSet<String> nearTiles = new HashSet<>();
+  private String cameraTile;
+  // Reused to select the anchors to resolve: the candidates, their geodetic and then ENU
+  // coordinates relative to the camera, and their distances to it.
+  private final ArrayList<GeospatialAnchorStore.Entry> candidates = new ArrayList<>();
+  private final Geodesy.LocalFrame cameraFrame = new Geodesy.LocalFrame();
+  private double[] candidateCoordinates = new double[0];
+  private double[] candidateDistances = new double[0];
+
+  /** Creates a streamer publishing the live anchors to {@code liveAnchorRegistry}. */
+  GeospatialAnchorStreamer(
+      Resolver<A> resolver,
+      AnchorRegistry<A> liveAnchorRegistry,
+      int maxConcurrentResolves,
+      int maxLiveAnchors) {
+    if (maxConcurrentResolves < 1 || maxLiveAnchors < 1) {
+      throw new IllegalArgumentException(
+          "Invalid limits " + maxConcurrentResolves + ", " + maxLiveAnchors);
+    }
+    this.resolver = resolver;
+    this.liveAnchorRegistry = liveAnchorRegistry;
+    this.maxConcurrentResolves = maxConcurrentResolves;
+    this.maxLiveAnchors = maxLiveAnchors;
+  }
+
+  /** Adds a stored anchor. It is resolved by the next {@link #update} if near the camera. */
+  synchronized void add(GeospatialAnchorStore.Entry entry) {
+    String tile = Geohash.encode(entry.getLatitude(), entry.getLongitude(), TILE_PRECISION);
+    tiles.computeIfAbsent(tile, key -> new ArrayList<>()).add(entry);
+    entryTiles.put(entry.getId(), tile);
+  }
+
+  /** Removes all stored anchors, and detaches their live anchors. */
+  void clear() {
+    List<A> detachedAnchors;
+    synchronized (this) {
+      detachedAnchors = new ArrayList<>(liveAnchors.values());
+      liveAnchorRegistry.removeAll(detachedAnchors);
+      tiles.clear();
+      entryTiles.clear();
+      liveAnchors.clear();
+      // Anchors still resolving are detached once resolved.
+      resolvingIds.clear();
+      failedIds.clear();
+    }
+    for (A anchor : detachedAnchors) {
+      resolver.detach(anchor);
+    }
+  }
+
+  /**
+   * Updates the anchors for a camera at {@code latitude} and {@code longitude}: detaches the
+   * anchors of the tiles no longer near the camera, and starts resolving the nearest anchors not
+   * live yet.
+   */
+  void update(double latitude, double longitude) {
+    List<A> detachedAnchors = new ArrayList<>();
+    List<GeospatialAnchorStore.Entry> resolvedEntries;
+    synchronized (this) {
+      String tile = Geohash.encode(latitude, longitude, TILE_PRECISION);
+      if (!tile.equals(cameraTile)) {
+        cameraTile = tile;
+        nearTiles.clear();
+        nearTiles.addAll(Arrays.asList(Geohash.getNeighborhood(tile)));
+        for (Map.Entry<Integer, String> entryTile : entryTiles.entrySet()) {
+          if (nearTiles.contains(entryTile.getValue())) {
+            continue;
+          }
+          A anchor = liveAnchors.remove(entryTile.getKey());
+          if (anchor != null) {
+            detachedAnchors.add(anchor);
+          }
+          failedIds.remove(entryTile.getKey());
+        }
+        liveAnchorRegistry.removeAll(detachedAnchors);
+      }
+      resolvedEntries = selectEntriesToResolve(latitude, longitude);
+      for (GeospatialAnchorStore.Entry entry : resolvedEntries) {
+        resolvingIds.add(entry.getId());
+      }
+    }
+    for (A anchor : detachedAnchors) {
+      resolver.detach(anchor);
+    }
+    for (GeospatialAnchorStore.Entry entry : resolvedEntries) {
+      resolver.resolve(entry);
+    }
+  }
+
+  /**
+   * Reports the outcome of resolving the anchor of the entry with {@code id}: the live anchor, or
+   * null if it could not be resolved. Returns whether the anchor is kept live, in which case it has
+   * been added to the registry of live anchors; if not, it has been detached.
+   */
+  boolean onResolved(int id, A anchor) {
+    synchronized (this) {
+      boolean wasResolving = resolvingIds.remove(id);
+      if (anchor == null) {
+        if (wasResolving) {
+          failedIds.add(id);
+        }
+        return false;
+      }
+      String tile = entryTiles.get(id);
+      if (wasResolving && tile != null && nearTiles.contains(tile)) {
+        liveAnchors.put(id, anchor);
+        liveAnchorRegistry.add(anchor);
+        return true;
+      }
+    }
+    // Cleared, or its tile is no longer near the camera.
+    resolver.detach(anchor);
+    return false;
+  }
+
+  synchronized int getLiveAnchorCount() {
+    return liveAnchors.size();
+  }
+
+  synchronized int getResolvingAnchorCount() {
+    return resolvingIds.size();
+  }
+
+  /** Returns the number of stored anchors. */
+  synchronized int size() {
+    return entryTiles.size();
+  }
+
+  /**
+   * Returns the anchors near the camera to start resolving now, nearest first, within the limits of
+   * concurrent resolves and live anchors.
+   */
+  private List<GeospatialAnchorStore.Entry> selectEntriesToResolve(
+      double latitude, double longitude) {
+    int count =
+        Math.min(
+            maxConcurrentResolves - resolvingIds.size(),
+            maxLiveAnchors - liveAnchors.size() - resolvingIds.size());
+    if (count <= 0) {
+      return Collections.emptyList();
+    }
+    candidates.clear();
+    for (String tile : nearTiles) {
+      List<GeospatialAnchorStore.Entry> tileEntries = tiles.get(tile);
+      if (tileEntries == null) {
+        continue;
+      }
+      for (GeospatialAnchorStore.Entry entry : tileEntries) {
+        int id = entry.getId();
+        if (!liveAnchors.containsKey(id) && !resolvingIds.contains(id) && !failedIds.contains(id)) {
+          candidates.add(entry);
+        }
+      }
+    }
+    List<GeospatialAnchorStore.Entry> selectedEntries;
+    if (candidates.size() <= count) {
+      selectedEntries = new ArrayList<>(candidates);
+    } else {
+      selectedEntries = new ArrayList<>(count);
+      selectNearestCandidates(latitude, longitude, count, selectedEntries);
+    }
+    candidates.clear();
+    return selectedEntries;
+  }
+
+  /**
+   * Adds the {@code count} candidates nearest to a location to {@code selectedEntries}, nearest
+   * first. Only a few anchors are resolved at once, so picking them in turn beats sorting the
+   * candidates.
+   */
+  private void selectNearestCandidates(
+      double latitude,
+      double longitude,
+      int count,
+      List<GeospatialAnchorStore.Entry> selectedEntries) {
+    int candidateCount = candidates.size();
+    if (candidateDistances.length < candidateCount) {
+      candidateCoordinates = new double[3 * candidateCount];
+      candidateDistances = new double[candidateCount];
+    }
+    for (int i = 0; i < candidateCount; ++i) {
+      GeospatialAnchorStore.Entry entry = candidates.get(i);
+      candidateCoordinates[3 * i] = entry.getLatitude();
+      candidateCoordinates[3 * i + 1] = entry.getLongitude();
+      // The anchors are resolved by horizontal distance, whatever their altitude.
+      candidateCoordinates[3 * i + 2] = 0;
+    }
+    cameraFrame.setOrigin(latitude, longitude, 0);
+    cameraFrame.toEnu(candidateCoordinates, candidateCoordinates, candidateCount);
+    Geodesy.getDistances(
+        candidateCoordinates, candidateDistances, candidateCount, /* horizontal= */ true);
+    for (int selected = 0; selected < count; ++selected) {
+      int nearest = 0;
+      for (int i = 1; i < candidateCount; ++i) {
+        if (candidateDistances[i] < candidateDistances[nearest]) {
+          nearest = i;
+        }
+      }
+      selectedEntries.add(candidates.get(nearest));
+      candidateDistances[nearest] = Double.POSITIVE_INFINITY;
+    }
+  }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.geospatial;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Keeps the GPU resources of streetscape geometries within a memory budget.
+ *
+ * <p>Each entry records the size of its resources, its distance from the camera and the last frame
+ * it was visible in. When the entries exceed the budget, the entries not visible in the current
+ * frame are evicted first, farthest from the camera first. Visible entries are only evicted if that
+ * is not enough. Geometries that stopped tracking are freed as soon as they are reported with
+ * {@link #remove}.
+ *
+ * <p>A new geometry is only admitted if it fits in the budget once the entries farther than it are
+ * evicted, so that far geometries are not loaded only to be evicted again in the same frame.
+ *
+ * <p>Values are released when evicted or removed. The eviction decisions do not depend on ARCore
+ * or OpenGL, only on the sizes, distances and frames reported. Not thread safe.
+ */
+final class StreetscapeGeometryCache<K, V extends StreetscapeGeometryCache.Value> {
+  /** The GPU resources of a geometry. */
+  interface Value {
+    /** Returns the size of the resources, in bytes. */
+    long getByteSize();
+
+    /** Frees the resources. */
+    void release();
+  }
+
+  /** A cached value and the state its eviction is decided on. */
+  static final class Entry<K, V extends Value> {
+    private final K key;
+    private final V value;
+    private final long byteSize;
+    private float distance;
+    private long lastVisibleFrame;
+
+    private Entry(K key, V value) {
+      this.key = key;
+      this.value = value;
+      this.byteSize = value.getByteSize();
+    }
+
+    K getKey() {
+      return key;
+    }
+
+    V getValue() {
+      return value;
+    }
+
+    /** Returns the size of the GPU resources of the entry, in bytes. */
+    long getByteSize() {
+      return byteSize;
+    }
+
+    /** Returns the distance from the camera last reported, in meters. */
+    float getDistance() {
+      return distance;
+    }
+
+    /** Returns the number of the last frame the entry was visible in. */
+    long getLastVisibleFrame() {
+      return lastVisibleFrame;
+    }
+  }
+
+  private final long budgetBytes;
+  private final HashMap<K, Entry<K, V>> entries = new HashMap<>();
+  private final Collection<Entry<K, V>> unmodifiableEntries =
+      Collections.unmodifiableCollection(entries.values());
+  private final Comparator<Entry<K, V>> evictionOrder;
+  private long usedBytes;
+  private long frame;
+  private long evictionCount;
+
+  /** Creates a cache holding at most {@code budgetBytes} of GPU resources. */
+  StreetscapeGeometryCache(long budgetBytes) {
+    if (budgetBytes <= 0) {
+      throw new IllegalArgumentException("Invalid budget " + budgetBytes);
+    }
+    this.budgetBytes = budgetBytes;
+    // Entries not visible in the current frame come first, then the farthest ones, then the ones
+    // visible least recently.
+    evictionOrder =
+        Comparator.<Entry<K, V>>comparingInt(entry -> entry.lastVisibleFrame == frame ? 1 : 0)
+            .thenComparing(entry -> entry.distance, Comparator.reverseOrder())
+            .thenComparingLong(entry -> entry.lastVisibleFrame);
+  }
+
+  /** Starts a new frame. Entries are visible in it once reported with {@link #markVisible}. */
+  void beginFrame() {
+    frame++;
+  }
+
+  boolean contains(K key) {
+    return entries.containsKey(key);
+  }
+
+  /** Returns the value cached for {@code key}, or null if there is none. */
+  V get(K key) {
+    Entry<K, V> entry = entries.get(key);
+    return entry == null ? null : entry.value;
+  }
+
+  /** Returns the cached entries, in no particular order. */
+  Collection<Entry<K, V>> getEntries() {
+    return unmodifiableEntries;
+  }
+
+  /**
+   * Returns whether a geometry of {@code byteSize} at {@code distance} from the camera fits in the
+   * budget, after evicting the entries farther than it if needed.
+   */
+  boolean shouldAdmit(long byteSize, float distance) {
+    if (usedBytes + byteSize <= budgetBytes) {
+      return true;
+    }
+    long evictableBytes = 0;
+    for (Entry<K, V> entry : entries.values()) {
+      if (entry.distance > distance && entry.lastVisibleFrame != frame) {
+        evictableBytes += entry.byteSize;
+      }
+    }
+    return usedBytes - evictableBytes + byteSize <= budgetBytes;
+  }
+
+  /**
+   * Caches {@code value} for {@code key}, visible in the current frame, then evicts entries if the
+   * budget is exceeded. Releases the value previously cached for {@code key}, if any.
+   */
+  void put(K key, V value, float distance) {
+    remove(key);
+    Entry<K, V> entry = new Entry<>(key, value);
+    entry.distance = distance;
+    entry.lastVisibleFrame = frame;
+    entries.put(key, entry);
+    usedBytes += entry.byteSize;
+    trim();
+  }
+
+  /**
+   * Updates the distance of the entry of {@code key} from the camera. Does nothing if {@code key}
+   * is not cached.
+   */
+  void setDistance(K key, float distance) {
+    Entry<K, V> entry = entries.get(key);
+    if (entry != null) {
+      entry.distance = distance;
+    }
+  }
+
+  /** Marks the entry of {@code key} visible in the current frame, if {@code key} is cached. */
+  void markVisible(K key) {
+    Entry<K, V> entry = entries.get(key);
+    if (entry != null) {
+      entry.lastVisibleFrame = frame;
+    }
+  }
+
+  /** Removes and releases the value cached for {@code key}. Returns whether there was one. */
+  boolean remove(K key) {
+    Entry<K, V> entry = entries.remove(key);
+    if (entry == null) {
+      return false;
+    }
+    usedBytes -= entry.byteSize;
+    entry.value.release();
+    return true;
+  }
+
+  /** Evicts entries until the cached resources fit in the budget. */
+  void trim() {
+    if (usedBytes <= budgetBytes) {
+      return;
+    }
+    List<Entry<K, V>> candidates = new ArrayList<>(entries.values());
+    Collections.sort(candidates, evictionOrder);
+    for (Entry<K, V> entry : candidates) {
+      if (usedBytes <= budgetBytes) {
+        break;
+      }
+      entries.remove(entry.key);
+      usedBytes -= entry.byteSize;
+      evictionCount++;
+      entry.value.release();
+    }
+  }
+
+  /** Removes and releases all values. */
+  void clear() {
+    for (Entry<K, V> entry : entries.values()) {
+      entry.value.release();
+    }
+    entries.clear();
+    usedBytes = 0;
+  }
+
+  int size() {
+    return entries.size();
+  }
+
+  long getBudgetBytes() {
+    return budgetBytes;
+  }
+
+  /** Returns the size of the cached GPU resources, in bytes. */
+  long getUsedBytes() {
+    return usedBytes;
+  }
+
+  /** Returns the number of entries evicted to stay within the budget. */
+  long getEvictionCount() {
+    return evictionCount;
+  }
+}
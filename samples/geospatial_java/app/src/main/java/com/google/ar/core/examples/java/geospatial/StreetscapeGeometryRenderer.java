@@ -0,0 +1,611 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.geospatial;
+
+import android.opengl.Matrix;
+import android.util.Log;
+import com.google.ar.core.Pose;
+import com.google.ar.core.StreetscapeGeometry;
+import com.google.ar.core.TrackingState;
+import com.google.ar.core.examples.java.common.samplerender.IndexBuffer;
+import com.google.ar.core.examples.java.common.samplerender.Mesh;
+import com.google.ar.core.examples.java.common.samplerender.SampleRender;
+import com.google.ar.core.examples.java.common.samplerender.Shader;
+import com.google.ar.core.examples.java.common.samplerender.Shader.BlendFactor;
+import com.google.ar.core.examples.java.common.samplerender.VertexBuffer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Draws streetscape geometries with few draw calls.
+ *
+ * <p>Geometries are grouped into arenas by the cell of the ground their first vertex lies in. An
+ * arena holds the vertices and indices of all its geometries in shared buffers, with the color of
+ * each geometry as a vertex attribute, and is drawn with a single draw call whenever one of its
+ * geometries is in the view frustum. Arenas use 16-bit indices, so they hold at most 65536
+ * vertices; a geometry too large for that gets an arena of its own.
+ *
+ * <p>Adding a geometry only reserves its place in an arena. Worker threads then copy its mesh,
+ * compute its bounds, drop its degenerate triangles, move its vertices to the frame of the arena
+ * and narrow its indices to 16 bits. The GL thread uploads the prepared geometries with {@link
+ * #upload} within a time budget per frame, and each geometry fades in from the time it is
+ * uploaded, so that new geometries never stall the frame they appear in.
+ *
+ * <p>The vertices of an arena are expressed in the frame of the first geometry added to it, and the
+ * arena is drawn with the current pose of one of its geometries. This relies on ARCore moving the
+ * meshes of nearby geometries together as its localization improves.
+ *
+ * <p>The space of an arena is never reused: removing a geometry replaces its triangles with
+ * degenerate ones, and the buffers of an arena are freed once it holds no geometry.
+ */
+final class StreetscapeGeometryRenderer implements Closeable {
+  private static final String TAG = StreetscapeGeometryRenderer.class.getSimpleName();
+
+  // Size of the ground cells geometries are grouped by, in meters.
+  private static final float ARENA_CELL_METERS = 64f;
+
+  // Number of vertices addressable with 16-bit indices.
+  private static final int MAX_ARENA_VERTICES = 65536;
+  private static final int MAX_ARENA_INDICES = 3 * MAX_ARENA_VERTICES;
+
+  // Triangles with a smaller area are dropped, in square meters.
+  private static final float MIN_TRIANGLE_AREA = 1e-6f;
+
+  private static final float FADE_IN_SECONDS = 0.5f;
+
+  private static final int POSITION_COMPONENTS = 3;
+  private static final int COLOR_COMPONENTS = 4;
+  private static final int READY_TIME_COMPONENTS = 1;
+
+  private enum State {
+    // The mesh is being prepared by a worker thread.
+    PREPARING,
+    // The mesh is prepared and waiting to be uploaded.
+    READY,
+    UPLOADED,
+    RELEASED,
+  }
+
+  /** A geometry added to an arena. Releasing it removes it from the arena. */
+  final class Slot implements StreetscapeGeometryCache.Value {
+    private final StreetscapeGeometry geometry;
+    private final float[] color;
+    private final int vertexCount;
+    private final int indexCount;
+    private final AtomicReference<State> state = new AtomicReference<>(State.PREPARING);
+    private Arena arena;
+    private int vertexOffset;
+    private int indexOffset;
+    // Pose of the geometry mesh in the frame of the arena.
+    private Pose arenaPose;
+
+    // Set by a worker thread before the slot is READY. The bounding sphere is in the frame of the
+    // geometry mesh. The buffers hold the vertices in the frame of the arena, the vertex colors and
+    // the indices in the arena, and are dropped once uploaded.
+    private final float[] center = new float[3];
+    private float radius;
+    private FloatBuffer positions;
+    private FloatBuffer colors;
+    private Buffer indices;
+
+    private Slot(StreetscapeGeometry geometry, float[] color, int vertexCount, int indexCount) {
+      this.geometry = geometry;
+      this.color = color.clone();
+      this.vertexCount = vertexCount;
+      this.indexCount = indexCount;
+    }
+
+    @Override
+    public long getByteSize() {
+      return StreetscapeGeometryRenderer.getByteSize(vertexCount, indexCount);
+    }
+
+    @Override
+    public void release() {
+      State previous = state.getAndSet(State.RELEASED);
+      if (previous != State.RELEASED) {
+        arena.remove(this, previous == State.UPLOADED);
+      }
+    }
+
+    /** Returns whether the geometry has been uploaded and is drawn. */
+    boolean isUploaded() {
+      return state.get() == State.UPLOADED;
+    }
+
+    /** Prepares the mesh for upload, on a worker thread. */
+    private void prepare(FloatBuffer vertexList, IntBuffer indexList) {
+      if (state.get() != State.PREPARING) {
+        return;
+      }
+      float[] vertices = new float[vertexCount * POSITION_COMPONENTS];
+      vertexList.get(vertices);
+      int[] meshIndices = new int[indexCount];
+      indexList.get(meshIndices);
+
+      radius = computeBounds(vertices, center);
+      int keptIndexCount = dropDegenerateTriangles(vertices, meshIndices);
+
+      float[] bakeMatrix = new float[16];
+      arenaPose.toMatrix(bakeMatrix, 0);
+      positions = allocateFloats(vertices.length);
+      for (int i = 0; i < vertices.length; i += POSITION_COMPONENTS) {
+        float x = vertices[i];
+        float y = vertices[i + 1];
+        float z = vertices[i + 2];
+        positions.put(bakeMatrix[0] * x + bakeMatrix[4] * y + bakeMatrix[8] * z + bakeMatrix[12]);
+        positions.put(bakeMatrix[1] * x + bakeMatrix[5] * y + bakeMatrix[9] * z + bakeMatrix[13]);
+        positions.put(bakeMatrix[2] * x + bakeMatrix[6] * y + bakeMatrix[10] * z + bakeMatrix[14]);
+      }
+      positions.flip();
+      colors = allocateFloats(vertexCount * COLOR_COMPONENTS);
+      for (int i = 0; i < vertexCount; ++i) {
+        colors.put(color);
+      }
+      colors.flip();
+
+      // Dropped triangles are replaced with degenerate ones at the end of the reserved range.
+      if (arena.shortIndices) {
+        ShortBuffer shortIndices = allocateShorts(indexCount);
+        for (int i = 0; i < indexCount; ++i) {
+          int index = i < keptIndexCount ? meshIndices[i] : 0;
+          shortIndices.put((short) (vertexOffset + index));
+        }
+        shortIndices.flip();
+        indices = shortIndices;
+      } else {
+        IntBuffer intIndices = allocateInts(indexCount);
+        for (int i = 0; i < indexCount; ++i) {
+          intIndices.put(i < keptIndexCount ? meshIndices[i] : 0);
+        }
+        intIndices.flip();
+        indices = intIndices;
+      }
+
+      if (state.compareAndSet(State.PREPARING, State.READY)) {
+        readySlots.add(this);
+      }
+    }
+  }
+
+  /** Geometries sharing vertex and index buffers. */
+  private final class Arena {
+    final long cell;
+    final Pose pose;
+    final int vertexCapacity;
+    final int indexCapacity;
+    final boolean shortIndices;
+    // Reserved vertices and indices, including those of removed slots.
+    int vertexCount;
+    int indexCount;
+    // Slots added and not released yet.
+    int slotCount;
+    final List<Slot> uploadedSlots = new ArrayList<>();
+    // The indices before this one have been written to the index buffer.
+    int uploadedIndexEnd;
+    boolean visible;
+    VertexBuffer positionBuffer;
+    VertexBuffer colorBuffer;
+    VertexBuffer readyTimeBuffer;
+    IndexBuffer indexBuffer;
+    Mesh mesh;
+
+    Arena(long cell, Pose pose, int vertexCapacity, int indexCapacity) {
+      this.cell = cell;
+      this.pose = pose;
+      this.vertexCapacity = vertexCapacity;
+      this.indexCapacity = indexCapacity;
+      this.shortIndices = vertexCapacity <= MAX_ARENA_VERTICES;
+    }
+
+    boolean hasRoom(int slotVertexCount, int slotIndexCount) {
+      return vertexCount + slotVertexCount <= vertexCapacity
+          && indexCount + slotIndexCount <= indexCapacity;
+    }
+
+    /** Reserves the space of {@code slot} in the arena. */
+    void add(Slot slot) {
+      slot.arena = this;
+      slot.vertexOffset = vertexCount;
+      slot.indexOffset = indexCount;
+      slot.arenaPose = pose.inverse().compose(slot.geometry.getMeshPose());
+      vertexCount += slot.vertexCount;
+      indexCount += slot.indexCount;
+      slotCount++;
+    }
+
+    /** Uploads the prepared mesh of {@code slot}, fading in from {@code readyTime}. */
+    void upload(SampleRender render, Slot slot, float readyTime) {
+      if (mesh == null) {
+        allocate(render);
+      }
+      positionBuffer.set(slot.vertexOffset, slot.positions);
+      colorBuffer.set(slot.vertexOffset, slot.colors);
+      readyTimeBuffer.set(slot.vertexOffset, obtainReadyTimes(slot.vertexCount, readyTime));
+      if (shortIndices) {
+        // Slots may become ready out of order. The indices of the slots before this one that are
+        // not uploaded yet are degenerate until they are.
+        if (slot.indexOffset > uploadedIndexEnd) {
+          indexBuffer.set(
+              uploadedIndexEnd, obtainDegenerateIndices(slot.indexOffset - uploadedIndexEnd));
+        }
+        indexBuffer.set(slot.indexOffset, (ShortBuffer) slot.indices);
+      } else {
+        // The only slot of the arena.
+        indexBuffer.set((IntBuffer) slot.indices);
+      }
+      uploadedIndexEnd = Math.max(uploadedIndexEnd, slot.indexOffset + slot.indexCount);
+      uploadedSlots.add(slot);
+      slot.positions = null;
+      slot.colors = null;
+      slot.indices = null;
+    }
+
+    void remove(Slot slot, boolean uploaded) {
+      slotCount--;
+      if (slotCount == 0) {
+        close();
+        arenas.remove(this);
+        if (openArenas.get(cell) == this) {
+          openArenas.remove(cell);
+        }
+        return;
+      }
+      if (uploaded) {
+        uploadedSlots.remove(slot);
+        indexBuffer.set(slot.indexOffset, obtainDegenerateIndices(slot.indexCount));
+      }
+    }
+
+    private void allocate(SampleRender render) {
+      positionBuffer = new VertexBuffer(render, POSITION_COMPONENTS, vertexCapacity);
+      colorBuffer = new VertexBuffer(render, COLOR_COMPONENTS, vertexCapacity);
+      readyTimeBuffer = new VertexBuffer(render, READY_TIME_COMPONENTS, vertexCapacity);
+      indexBuffer =
+          shortIndices
+              ? IndexBuffer.createUnsignedShort(render, indexCapacity)
+              : new IndexBuffer(render, /* entries= */ (IntBuffer) null);
+      mesh =
+          new Mesh(
+              render,
+              Mesh.PrimitiveMode.TRIANGLES,
+              indexBuffer,
+              new VertexBuffer[] {positionBuffer, colorBuffer, readyTimeBuffer});
+    }
+
+    void close() {
+      if (mesh != null) {
+        mesh.close();
+        positionBuffer.close();
+        colorBuffer.close();
+        readyTimeBuffer.close();
+        indexBuffer.close();
+        mesh = null;
+      }
+    }
+  }
+
+  private final Shader shader;
+  private final ExecutorService executor;
+  // Slots prepared by the worker threads, in the order they became ready.
+  private final Queue<Slot> readySlots = new ConcurrentLinkedQueue<>();
+  private final List<Arena> arenas = new ArrayList<>();
+  // The arena of each cell new geometries are added to.
+  private final HashMap<Long, Arena> openArenas = new HashMap<>();
+  private final Frustum frustum = new Frustum();
+  private final long startTimeNanos = System.nanoTime();
+
+  private final float[] modelMatrix = new float[16];
+  private final float[] modelViewMatrix = new float[16];
+  private final float[] modelViewProjectionMatrix = new float[16];
+  private final float[] point = new float[3];
+  private final float[] worldPoint = new float[3];
+
+  // Scratch buffers of the GL thread, grown as needed.
+  private FloatBuffer readyTimes;
+  // Only ever holds zeros.
+  private ShortBuffer degenerateIndices;
+
+  StreetscapeGeometryRenderer(SampleRender render) throws IOException {
+    shader =
+        Shader.createFromAssets(
+                render,
+                "shaders/streetscape_geometry.vert",
+                "shaders/streetscape_geometry.frag",
+                /* defines= */ null)
+            .setBlend(
+                BlendFactor.DST_ALPHA, // RGB (src)
+                BlendFactor.ONE) // ALPHA (dest)
+            .setFloat("u_FadeInSeconds", FADE_IN_SECONDS);
+    executor =
+        Executors.newFixedThreadPool(
+            Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1)),
+            runnable -> {
+              Thread thread = new Thread(runnable, TAG);
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  /** Returns the size of the GPU resources of a geometry, in bytes. */
+  static long getByteSize(StreetscapeGeometry geometry) {
+    return getByteSize(
+        geometry.getMesh().getVertexList().limit() / POSITION_COMPONENTS,
+        geometry.getMesh().getIndexList().limit());
+  }
+
+  private static long getByteSize(int vertexCount, int indexCount) {
+    int indexSize = vertexCount <= MAX_ARENA_VERTICES ? Short.BYTES : Integer.BYTES;
+    return (long) vertexCount
+            * (POSITION_COMPONENTS + COLOR_COMPONENTS + READY_TIME_COMPONENTS)
+            * Float.BYTES
+        + (long) indexCount * indexSize;
+  }
+
+  /**
+   * Adds a geometry, drawn with {@code color}, to the arena of its cell. The mesh is prepared in
+   * the background, and drawn once uploaded until the returned slot is released.
+   */
+  Slot add(StreetscapeGeometry geometry, float[] color) {
+    // Worker threads read the mesh through views of their own.
+    FloatBuffer vertexList = geometry.getMesh().getVertexList().duplicate();
+    IntBuffer indexList = geometry.getMesh().getIndexList().duplicate();
+    vertexList.rewind();
+    indexList.rewind();
+    int vertexCount = vertexList.limit() / POSITION_COMPONENTS;
+    int indexCount = indexList.limit();
+    Slot slot = new Slot(geometry, color, vertexCount, indexCount);
+
+    Pose meshPose = geometry.getMeshPose();
+    if (vertexCount > 0) {
+      point[0] = vertexList.get(0);
+      point[1] = vertexList.get(1);
+      point[2] = vertexList.get(2);
+    }
+    meshPose.transformPoint(point, 0, worldPoint, 0);
+    long cell =
+        ((long) Math.floor(worldPoint[0] / ARENA_CELL_METERS) << 32)
+            | ((long) Math.floor(worldPoint[2] / ARENA_CELL_METERS) & 0xFFFFFFFFL);
+    Arena arena;
+    if (vertexCount > MAX_ARENA_VERTICES || indexCount > MAX_ARENA_INDICES) {
+      // Too large for a shared arena: gets one of its own, closed to other geometries.
+      arena = new Arena(cell, meshPose, vertexCount, indexCount);
+      arenas.add(arena);
+    } else {
+      arena = openArenas.get(cell);
+      if (arena == null || !arena.hasRoom(vertexCount, indexCount)) {
+        arena = new Arena(cell, meshPose, MAX_ARENA_VERTICES, MAX_ARENA_INDICES);
+        arenas.add(arena);
+        openArenas.put(cell, arena);
+      }
+    }
+    arena.add(slot);
+    executor.execute(() -> slot.prepare(vertexList, indexList));
+    return slot;
+  }
+
+  /**
+   * Uploads the geometries prepared since the last call until {@code budgetNanos} is spent. At
+   * least one geometry is uploaded if any is ready, so that uploads always progress.
+   */
+  void upload(SampleRender render, long budgetNanos) {
+    long start = System.nanoTime();
+    float time = getTime();
+    Slot slot;
+    while ((slot = readySlots.poll()) != null) {
+      // Released slots are dropped.
+      if (slot.state.compareAndSet(State.READY, State.UPLOADED)) {
+        slot.arena.upload(render, slot, time);
+        if (System.nanoTime() - start >= budgetNanos) {
+          break;
+        }
+      }
+    }
+  }
+
+  /** Starts a frame viewed through {@code viewProjectionMatrix}, before calling {@link #cull}. */
+  void beginFrame(float[] viewProjectionMatrix) {
+    frustum.set(viewProjectionMatrix);
+    for (Arena arena : arenas) {
+      arena.visible = false;
+    }
+  }
+
+  /**
+   * Returns whether the geometry of {@code slot} is tracking and in the view frustum, in which case
+   * its arena is drawn by the next {@link #draw}. Geometries not uploaded yet count as visible, so
+   * that they are not evicted before they are drawn.
+   */
+  boolean cull(Slot slot) {
+    if (slot.geometry.getTrackingState() != TrackingState.TRACKING) {
+      return false;
+    }
+    if (!slot.isUploaded()) {
+      return true;
+    }
+    slot.geometry.getMeshPose().transformPoint(slot.center, 0, worldPoint, 0);
+    if (!frustum.intersectsSphere(worldPoint[0], worldPoint[1], worldPoint[2], slot.radius)) {
+      return false;
+    }
+    slot.arena.visible = true;
+    return true;
+  }
+
+  /** Draws the arenas holding geometries found visible by {@link #cull} since the last frame. */
+  void draw(SampleRender render, float[] viewMatrix, float[] projectionMatrix) {
+    shader.setFloat("u_Time", getTime());
+    for (Arena arena : arenas) {
+      if (!arena.visible) {
+        continue;
+      }
+      // The current pose of the arena frame, from the current pose of one of its geometries.
+      Slot reference = arena.uploadedSlots.get(0);
+      Pose arenaPose = reference.geometry.getMeshPose().compose(reference.arenaPose.inverse());
+      arenaPose.toMatrix(modelMatrix, 0);
+      Matrix.multiplyMM(modelViewMatrix, 0, viewMatrix, 0, modelMatrix, 0);
+      Matrix.multiplyMM(modelViewProjectionMatrix, 0, projectionMatrix, 0, modelViewMatrix, 0);
+      shader.setMat4("u_ModelViewProjection", modelViewProjectionMatrix);
+      render.draw(arena.mesh, shader);
+    }
+  }
+
+  /** Returns the number of arenas holding geometries. */
+  int getArenaCount() {
+    return arenas.size();
+  }
+
+  /**
+   * Stops the worker threads, waiting for the meshes being prepared, so that no mesh is read after
+   * the session is closed.
+   */
+  @Override
+  public void close() {
+    executor.shutdownNow();
+    try {
+      if (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+        Log.w(TAG, "Timed out waiting for the streetscape geometries being prepared");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Returns the time since the renderer was created, in seconds. */
+  private float getTime() {
+    return (System.nanoTime() - startTimeNanos) / 1e9f;
+  }
+
+  /**
+   * Computes the bounding sphere of {@code positions}: writes the center of their bounding box to
+   * {@code center} and returns its half diagonal.
+   */
+  private static float computeBounds(float[] positions, float[] center) {
+    if (positions.length == 0) {
+      return 0f;
+    }
+    float minX = Float.POSITIVE_INFINITY;
+    float minY = Float.POSITIVE_INFINITY;
+    float minZ = Float.POSITIVE_INFINITY;
+    float maxX = Float.NEGATIVE_INFINITY;
+    float maxY = Float.NEGATIVE_INFINITY;
+    float maxZ = Float.NEGATIVE_INFINITY;
+    for (int i = 0; i < positions.length; i += POSITION_COMPONENTS) {
+      minX = Math.min(minX, positions[i]);
+      minY = Math.min(minY, positions[i + 1]);
+      minZ = Math.min(minZ, positions[i + 2]);
+      maxX = Math.max(maxX, positions[i]);
+      maxY = Math.max(maxY, positions[i + 1]);
+      maxZ = Math.max(maxZ, positions[i + 2]);
+    }
+    center[0] = (minX + maxX) / 2;
+    center[1] = (minY + maxY) / 2;
+    center[2] = (minZ + maxZ) / 2;
+    float dx = maxX - minX;
+    float dy = maxY - minY;
+    float dz = maxZ - minZ;
+    return (float) Math.sqrt(dx * dx + dy * dy + dz * dz) / 2;
+  }
+
+  /**
+   * Moves the triangles of {@code indices} with valid indices and an area of at least {@link
+   * #MIN_TRIANGLE_AREA} to its start, in order, and returns the number of their indices.
+   */
+  private static int dropDegenerateTriangles(float[] positions, int[] indices) {
+    int vertexCount = positions.length / POSITION_COMPONENTS;
+    // The length of the cross product of two edges is twice the area of the triangle.
+    float minCrossLengthSquared = 4 * MIN_TRIANGLE_AREA * MIN_TRIANGLE_AREA;
+    int kept = 0;
+    for (int i = 0; i + 2 < indices.length; i += 3) {
+      int a = indices[i];
+      int b = indices[i + 1];
+      int c = indices[i + 2];
+      if (a < 0 || a >= vertexCount || b < 0 || b >= vertexCount || c < 0 || c >= vertexCount) {
+        continue;
+      }
+      float abX = positions[3 * b] - positions[3 * a];
+      float abY = positions[3 * b + 1] - positions[3 * a + 1];
+      float abZ = positions[3 * b + 2] - positions[3 * a + 2];
+      float acX = positions[3 * c] - positions[3 * a];
+      float acY = positions[3 * c + 1] - positions[3 * a + 1];
+      float acZ = positions[3 * c + 2] - positions[3 * a + 2];
+      float crossX = abY * acZ - abZ * acY;
+      float crossY = abZ * acX - abX * acZ;
+      float crossZ = abX * acY - abY * acX;
+      if (crossX * crossX + crossY * crossY + crossZ * crossZ < minCrossLengthSquared) {
+        continue;
+      }
+      indices[kept++] = a;
+      indices[kept++] = b;
+      indices[kept++] = c;
+    }
+    return kept;
+  }
+
+  private FloatBuffer obtainReadyTimes(int count, float readyTime) {
+    if (readyTimes == null || readyTimes.capacity() < count) {
+      readyTimes = allocateFloats(count);
+    }
+    readyTimes.clear();
+    for (int i = 0; i < count; ++i) {
+      readyTimes.put(readyTime);
+    }
+    readyTimes.flip();
+    return readyTimes;
+  }
+
+  private ShortBuffer obtainDegenerateIndices(int count) {
+    if (degenerateIndices == null || degenerateIndices.capacity() < count) {
+      degenerateIndices = allocateShorts(count);
+    }
+    degenerateIndices.clear();
+    degenerateIndices.limit(count);
+    return degenerateIndices;
+  }
+
+  private static FloatBuffer allocateFloats(int count) {
+    return ByteBuffer.allocateDirect(count * Float.BYTES)
+        .order(ByteOrder.nativeOrder())
+        .asFloatBuffer();
+  }
+
+  private static ShortBuffer allocateShorts(int count) {
+    return ByteBuffer.allocateDirect(count * Short.BYTES)
+        .order(ByteOrder.nativeOrder())
+        .asShortBuffer();
+  }
+
+  private static IntBuffer allocateInts(int count) {
+    return ByteBuffer.allocateDirect(count * Integer.BYTES)
+        .order(ByteOrder.nativeOrder())
+        .asIntBuffer();
+  }
+}
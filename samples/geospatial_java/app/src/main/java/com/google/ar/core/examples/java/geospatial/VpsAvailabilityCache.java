@@ -0,0 +1,383 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.geospatial;
+
+import android.util.Log;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Caches VPS availability by geohash cell, so that it is only checked remotely once per cell and
+ * time to live.
+ *
+ * <p>Known availabilities are persisted to a file, so that they survive launches. The file is only
+ * read and written on an {@link Executor}, never with the lock of the cache held, so that callers
+ * on the UI thread do not wait for the disk. Checks of a cell already being checked wait for the
+ * same result. As the user moves, the cell ahead in the direction of travel is checked ahead of
+ * time.
+ *
+ * <p>Availability is only checked through a {@link Provider}, so that the cache and its policy can
+ * be used on the JVM with a fake provider. Callbacks are never called with the lock of the cache
+ * held. Thread safe.
+ */
+final class VpsAvailabilityCache {
+  private static final String TAG = VpsAvailabilityCache.class.getSimpleName();
+
+  /** The availability of VPS at a location. */
+  enum Availability {
+    AVAILABLE,
+    UNAVAILABLE,
+    /** The availability could not be checked, for instance without a network connection. */
+    UNKNOWN
+  }
+
+  /** Receives an availability. */
+  interface Callback {
+    void onAvailability(Availability availability);
+  }
+
+  /** Checks availability remotely. */
+  interface Provider {
+    /** Starts checking the availability at a location, reporting it to {@code callback}. */
+    void checkAvailability(double latitude, double longitude, Callback callback);
+  }
+
+  // Cells of about 1.2 km by 0.6 km, larger than the uncertainty of a location fix.
+  static final int CELL_PRECISION = 6;
+
+  // "VPSA", for VPS availability.
+  private static final int MAGIC = 0x56505341;
+  private static final int VERSION = 1;
+  // The least recently checked cells are forgotten past this.
+  private static final int MAX_CELL_COUNT = 256;
+  // The user must move this far for a direction of travel.
+  private static final double MIN_TRAVEL_DISTANCE_METERS = 50;
+
+  private static final Availability[] AVAILABILITIES = Availability.values();
+
+  private final Provider provider;
+  // Null if availabilities are not persisted.
+  private final File file;
+  private final long timeToLiveMillis;
+  private final LongSupplier clock;
+  private final Executor fileExecutor;
+  // The known availability of each cell and when it was checked, least recently checked first.
+  private final LinkedHashMap<String, Availability> availabilities = new LinkedHashMap<>();
+  private final HashMap<String, Long> checkTimes = new HashMap<>();
+  // The callbacks waiting for the availability of the cells being checked.
+  private final HashMap<String, List<Callback>> pendingCallbacks = new HashMap<>();
+  // Whether a save is queued on the file executor and has not copied the availabilities yet.
+  private boolean isSaveQueued;
+  // Where the direction of travel was last measured from.
+  private boolean hasTravelOrigin;
+  private double travelOriginLatitude;
+  private double travelOriginLongitude;
+  private final Geodesy.LocalFrame travelFrame = new Geodesy.LocalFrame();
+  private final double[] travelCoordinates = new double[3];
+
+  /**
+   * Creates a cache checking availability with {@code provider}, persisted in {@code file} if not
+   * null, whose availabilities expire {@code timeToLiveMillis} after being checked according to
+   * {@code clock}, in milliseconds since the epoch. The file is accessed on {@code fileExecutor},
+   * which must run tasks one at a time in order.
+   */
+  VpsAvailabilityCache(
+      Provider provider,
+      File file,
+      long timeToLiveMillis,
+      LongSupplier clock,
+      Executor fileExecutor) {
+    this.provider = provider;
+    this.file = file;
+    this.timeToLiveMillis = timeToLiveMillis;
+    this.clock = clock;
+    this.fileExecutor = fileExecutor;
+  }
+
+  /**
+   * Loads the availabilities persisted in the file of the cache on the file executor, reporting a
+   * failure to {@code errorCallback} there. Availabilities checked in the meantime are kept.
+   */
+  void loadAsync(Consumer<IOException> errorCallback) {
+    fileExecutor.execute(
+        () -> {
+          try {
+            load();
+          } catch (IOException e) {
+            errorCallback.accept(e);
+          }
+        });
+  }
+
+  /**
+   * Loads the availabilities persisted in the file of the cache, dropping the expired ones, on the
+   * calling thread. Availabilities already known are kept. A missing file is not an error.
+   */
+  void load() throws IOException {
+    if (file == null || !file.exists()) {
+      return;
+    }
+    long now = clock.getAsLong();
+    List<String> cells = new ArrayList<>();
+    List<Availability> loadedAvailabilities = new ArrayList<>();
+    List<Long> loadedCheckTimes = new ArrayList<>();
+    try (DataInputStream input =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+        throw new IOException("Invalid VPS availability cache " + file);
+      }
+      int count = input.readInt();
+      for (int i = 0; i < count; ++i) {
+        String cell = input.readUTF();
+        int availability = input.readByte();
+        long checkTime = input.readLong();
+        if (availability >= 0
+            && availability < AVAILABILITIES.length
+            && AVAILABILITIES[availability] != Availability.UNKNOWN
+            && isFresh(checkTime, now)) {
+          cells.add(cell);
+          loadedAvailabilities.add(AVAILABILITIES[availability]);
+          loadedCheckTimes.add(checkTime);
+        }
+      }
+    }
+    synchronized (this) {
+      // The loaded cells were checked in earlier launches, before the ones already known.
+      Map<String, Availability> knownAvailabilities = new LinkedHashMap<>(availabilities);
+      Map<String, Long> knownCheckTimes = new HashMap<>(checkTimes);
+      availabilities.clear();
+      checkTimes.clear();
+      for (int i = 0; i < cells.size(); ++i) {
+        if (!knownAvailabilities.containsKey(cells.get(i))) {
+          putAvailability(cells.get(i), loadedAvailabilities.get(i), loadedCheckTimes.get(i));
+        }
+      }
+      for (Map.Entry<String, Availability> entry : knownAvailabilities.entrySet()) {
+        putAvailability(entry.getKey(), entry.getValue(), knownCheckTimes.get(entry.getKey()));
+      }
+    }
+  }
+
+  /**
+   * Reports the availability at a location to {@code callback}: at once if it is known for its
+   * cell, or once checked. Also checks the cell ahead if the user is moving.
+   */
+  void checkAvailability(double latitude, double longitude, Callback callback) {
+    String cell = Geohash.encode(latitude, longitude, CELL_PRECISION);
+    Availability availability;
+    boolean isCheckStarted;
+    synchronized (this) {
+      availability = getFreshAvailability(cell);
+      isCheckStarted = availability == null && addPendingCallback(cell, callback);
+    }
+    if (availability != null) {
+      callback.onAvailability(availability);
+    } else if (isCheckStarted) {
+      startCheck(cell, latitude, longitude);
+    }
+    onLocationChanged(latitude, longitude);
+  }
+
+  /**
+   * Updates the direction of travel with a new location, and checks the cell ahead if the user
+   * has moved far enough. Cheap enough to call for every frame.
+   */
+  void onLocationChanged(double latitude, double longitude) {
+    String cellAhead;
+    synchronized (this) {
+      if (!hasTravelOrigin) {
+        setTravelOrigin(latitude, longitude);
+        return;
+      }
+      if (Geodesy.getHaversineDistance(
+              travelOriginLatitude, travelOriginLongitude, latitude, longitude)
+          < MIN_TRAVEL_DISTANCE_METERS) {
+        return;
+      }
+      // The direction of travel, rounded to one of the eight neighbors of the cell.
+      travelFrame.setOrigin(travelOriginLatitude, travelOriginLongitude, 0);
+      travelCoordinates[0] = latitude;
+      travelCoordinates[1] = longitude;
+      travelCoordinates[2] = 0;
+      travelFrame.toEnu(travelCoordinates, travelCoordinates, 1);
+      double heading = Math.atan2(travelCoordinates[0], travelCoordinates[1]);
+      int latitudeSteps = (int) Math.round(Math.cos(heading));
+      int longitudeSteps = (int) Math.round(Math.sin(heading));
+      setTravelOrigin(latitude, longitude);
+      cellAhead =
+          Geohash.getNeighbor(
+              Geohash.encode(latitude, longitude, CELL_PRECISION), latitudeSteps, longitudeSteps);
+      if (getFreshAvailability(cellAhead) != null
+          || pendingCallbacks.containsKey(cellAhead)) {
+        return;
+      }
+      pendingCallbacks.put(cellAhead, new ArrayList<>());
+    }
+    double[] bounds = Geohash.getBounds(cellAhead);
+    startCheck(cellAhead, (bounds[0] + bounds[2]) / 2, (bounds[1] + bounds[3]) / 2);
+  }
+
+  /** Returns the known availability at a location, or null if it is unknown or expired. */
+  synchronized Availability getAvailability(double latitude, double longitude) {
+    return getFreshAvailability(Geohash.encode(latitude, longitude, CELL_PRECISION));
+  }
+
+  /** Returns the number of cells with a known availability, expired or not. */
+  synchronized int size() {
+    return availabilities.size();
+  }
+
+  /** Returns the number of cells being checked. */
+  synchronized int getPendingCheckCount() {
+    return pendingCallbacks.size();
+  }
+
+  private void startCheck(String cell, double latitude, double longitude) {
+    provider.checkAvailability(
+        latitude, longitude, availability -> onAvailabilityChecked(cell, availability));
+  }
+
+  private void onAvailabilityChecked(String cell, Availability availability) {
+    List<Callback> callbacks;
+    synchronized (this) {
+      callbacks = pendingCallbacks.remove(cell);
+      // Failed checks are not cached, so that they are retried.
+      if (availability != Availability.UNKNOWN) {
+        putAvailability(cell, availability, clock.getAsLong());
+        if (file != null && !isSaveQueued) {
+          try {
+            fileExecutor.execute(this::save);
+            isSaveQueued = true;
+          } catch (RejectedExecutionException e) {
+            // Checks completing after the executor was shut down are not persisted.
+          }
+        }
+      }
+    }
+    if (callbacks != null) {
+      for (Callback callback : callbacks) {
+        callback.onAvailability(availability);
+      }
+    }
+  }
+
+  /** Adds a callback for the availability of a cell. Returns whether the cell must be checked. */
+  private boolean addPendingCallback(String cell, Callback callback) {
+    List<Callback> callbacks = pendingCallbacks.get(cell);
+    if (callbacks != null) {
+      callbacks.add(callback);
+      return false;
+    }
+    callbacks = new ArrayList<>();
+    callbacks.add(callback);
+    pendingCallbacks.put(cell, callbacks);
+    return true;
+  }
+
+  private Availability getFreshAvailability(String cell) {
+    Long checkTime = checkTimes.get(cell);
+    if (checkTime == null || !isFresh(checkTime, clock.getAsLong())) {
+      return null;
+    }
+    return availabilities.get(cell);
+  }
+
+  private boolean isFresh(long checkTime, long now) {
+    return checkTime <= now && now - checkTime < timeToLiveMillis;
+  }
+
+  private void putAvailability(String cell, Availability availability, long checkTime) {
+    // Moves the cell last, as the most recently checked.
+    availabilities.remove(cell);
+    availabilities.put(cell, availability);
+    checkTimes.put(cell, checkTime);
+    if (availabilities.size() > MAX_CELL_COUNT) {
+      String oldestCell = availabilities.keySet().iterator().next();
+      availabilities.remove(oldestCell);
+      checkTimes.remove(oldestCell);
+    }
+  }
+
+  private void setTravelOrigin(double latitude, double longitude) {
+    hasTravelOrigin = true;
+    travelOriginLatitude = latitude;
+    travelOriginLongitude = longitude;
+  }
+
+  /**
+   * Writes the known availabilities to a new file, replacing the file of the cache atomically. Runs
+   * on the file executor, and only holds the lock to copy the availabilities.
+   */
+  private void save() {
+    String[] cells;
+    byte[] ordinals;
+    long[] times;
+    synchronized (this) {
+      isSaveQueued = false;
+      cells = new String[availabilities.size()];
+      ordinals = new byte[cells.length];
+      times = new long[cells.length];
+      int i = 0;
+      for (Map.Entry<String, Availability> entry : availabilities.entrySet()) {
+        cells[i] = entry.getKey();
+        ordinals[i] = (byte) entry.getValue().ordinal();
+        times[i] = checkTimes.get(entry.getKey());
+        ++i;
+      }
+    }
+    File savedFile = new File(file.getPath() + ".new");
+    try {
+      try (DataOutputStream output =
+          new DataOutputStream(new BufferedOutputStream(new FileOutputStream(savedFile)))) {
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(cells.length);
+        for (int i = 0; i < cells.length; ++i) {
+          output.writeUTF(cells[i]);
+          output.writeByte(ordinals[i]);
+          output.writeLong(times[i]);
+        }
+      }
+      Files.move(
+          savedFile.toPath(),
+          file.toPath(),
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      // Availabilities are checked again next launch.
+      Log.w(TAG, "Failed to save the VPS availability cache", e);
+      savedFile.delete();
+    }
+  }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.common.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Changes an {@link AnchorRegistry} from one thread, and from several at once to check that
+ * concurrent changes lose no anchor and detach none twice.
+ */
+@RunWith(JUnit4.class)
+public final class AnchorRegistryTest {
+  private static final int WRITER_COUNT = 4;
+  private static final int ANCHORS_PER_WRITER = 20000;
+  private static final long TIMEOUT_SECONDS = 60;
+
+  /** An anchor counting how many times it was detached. */
+  private static final class FakeAnchor {
+    final AtomicInteger detachCount = new AtomicInteger();
+
+    void detach() {
+      detachCount.incrementAndGet();
+    }
+  }
+
+  @Test
+  public void changes_publishSnapshotsInOrder() {
+    AnchorRegistry<String> registry = new AnchorRegistry<>();
+    AnchorRegistry.Snapshot<String> empty = registry.getSnapshot();
+
+    registry.add("a");
+    registry.add("b");
+    registry.add("c");
+    registry.add("b");
+    assertTrue(registry.remove("b"));
+    assertFalse(registry.remove("d"));
+    AnchorRegistry.Snapshot<String> snapshot = registry.getSnapshot();
+
+    assertEquals(Arrays.asList("a", "c", "b"), toList(snapshot));
+    assertEquals(5, snapshot.getEpoch());
+    // Earlier snapshots are left unchanged.
+    assertTrue(empty.isEmpty());
+    assertEquals(0, empty.getEpoch());
+
+    assertTrue(registry.removeAll(Arrays.asList("b", "c", "d")));
+    assertFalse(registry.removeAll(Collections.singletonList("d")));
+    assertEquals(Collections.singletonList("a"), toList(registry.getSnapshot()));
+    assertEquals(6, registry.getSnapshot().getEpoch());
+
+    assertEquals(Collections.singletonList("a"), registry.clear());
+    assertEquals(Collections.emptyList(), registry.clear());
+    assertTrue(registry.isEmpty());
+    assertEquals(7, registry.getSnapshot().getEpoch());
+  }
+
+  @Test
+  public void concurrentChanges_loseNoAnchorAndDetachNoneTwice() throws Exception {
+    AnchorRegistry<FakeAnchor> registry = new AnchorRegistry<>();
+    List<FakeAnchor> anchors = Collections.synchronizedList(new ArrayList<>());
+    AtomicInteger removedCount = new AtomicInteger();
+    AtomicInteger clearCount = new AtomicInteger();
+    AtomicBoolean writersDone = new AtomicBoolean();
+    CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(WRITER_COUNT + 2);
+    try {
+      List<Future<?>> writers = new ArrayList<>();
+      for (int writer = 0; writer < WRITER_COUNT; ++writer) {
+        writers.add(
+            executor.submit(
+                () -> {
+                  start.await();
+                  for (int i = 0; i < ANCHORS_PER_WRITER; ++i) {
+                    FakeAnchor anchor = new FakeAnchor();
+                    anchors.add(anchor);
+                    registry.add(anchor);
+                    // Removes every other anchor, unless it was cleared meanwhile.
+                    if (i % 2 == 0 && registry.remove(anchor)) {
+                      removedCount.incrementAndGet();
+                      anchor.detach();
+                    }
+                  }
+                  return null;
+                }));
+      }
+      Future<?> clearer =
+          executor.submit(
+              () -> {
+                start.await();
+                while (!writersDone.get()) {
+                  List<FakeAnchor> clearedAnchors = registry.clear();
+                  if (!clearedAnchors.isEmpty()) {
+                    clearCount.incrementAndGet();
+                  }
+                  for (FakeAnchor anchor : clearedAnchors) {
+                    anchor.detach();
+                  }
+                  Thread.yield();
+                }
+                return null;
+              });
+      Future<?> reader =
+          executor.submit(
+              () -> {
+                start.await();
+                long epoch = -1;
+                while (!writersDone.get()) {
+                  AnchorRegistry.Snapshot<FakeAnchor> snapshot = registry.getSnapshot();
+                  assertTrue(snapshot.getEpoch() >= epoch);
+                  epoch = snapshot.getEpoch();
+                  int size = 0;
+                  for (FakeAnchor anchor : snapshot) {
+                    assertTrue(anchor != null);
+                    ++size;
+                  }
+                  assertEquals(snapshot.size(), size);
+                }
+                return null;
+              });
+
+      start.countDown();
+      for (Future<?> writer : writers) {
+        writer.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      }
+      writersDone.set(true);
+      clearer.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      reader.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } finally {
+      executor.shutdownNow();
+    }
+    List<FakeAnchor> remainingAnchors = registry.clear();
+    if (!remainingAnchors.isEmpty()) {
+      clearCount.incrementAndGet();
+    }
+    for (FakeAnchor anchor : remainingAnchors) {
+      anchor.detach();
+    }
+
+    assertEquals(WRITER_COUNT * ANCHORS_PER_WRITER, anchors.size());
+    int lostCount = 0;
+    int detachedTwiceCount = 0;
+    for (FakeAnchor anchor : anchors) {
+      int detachCount = anchor.detachCount.get();
+      if (detachCount == 0) {
+        ++lostCount;
+      } else if (detachCount > 1) {
+        ++detachedTwiceCount;
+      }
+    }
+    assertEquals(0, lostCount);
+    assertEquals(0, detachedTwiceCount);
+    assertTrue(registry.isEmpty());
+    // Every add, successful remove and clear of a non-empty registry published one snapshot.
+    assertEquals(
+        WRITER_COUNT * ANCHORS_PER_WRITER + removedCount.get() + clearCount.get(),
+        registry.getSnapshot().getEpoch());
+  }
+
+  private static <T> List<T> toList(AnchorRegistry.Snapshot<T> snapshot) {
+    List<T> elements = new ArrayList<>();
+    for (T element : snapshot) {
+      elements.add(element);
+    }
+    return elements;
+  }
+}
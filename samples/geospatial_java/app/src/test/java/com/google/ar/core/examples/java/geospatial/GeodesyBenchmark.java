@@ -0,0 +1,109 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.geospatial;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the batch methods of {@link Geodesy} against the number of points: the distances in a
+ * local frame that {@link GeospatialAnchorStreamer} ranks anchors by, the headings in that frame,
+ * and the haversine and Vincenty distances.
+ *
+ * <p>The points are scattered within 2 km of the origin, like stored anchors around the camera.
+ * Run {@link #main} from the IDE, or the JMH runner with this class on the test classpath.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeodesyBenchmark {
+  private static final double LATITUDE = 37.422;
+  private static final double LONGITUDE = -122.084;
+  private static final double ALTITUDE = 10;
+  // About 2 km, in degrees of latitude.
+  private static final double SPREAD_DEGREES = 0.018;
+
+  @Param({"100", "10000"})
+  public int pointCount;
+
+  private final Geodesy.LocalFrame frame = new Geodesy.LocalFrame();
+  private double[] geodetic;
+  private double[] enu;
+  private double[] results;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42);
+    geodetic = new double[3 * pointCount];
+    for (int i = 0; i < pointCount; ++i) {
+      geodetic[3 * i] = LATITUDE + (random.nextDouble() * 2 - 1) * SPREAD_DEGREES;
+      geodetic[3 * i + 1] = LONGITUDE + (random.nextDouble() * 2 - 1) * SPREAD_DEGREES;
+      geodetic[3 * i + 2] = ALTITUDE + random.nextDouble() * 50;
+    }
+    enu = new double[3 * pointCount];
+    frame.setOrigin(LATITUDE, LONGITUDE, ALTITUDE);
+    frame.toEnu(geodetic, enu, pointCount);
+    results = new double[pointCount];
+  }
+
+  @Benchmark
+  public double[] localFrameDistances() {
+    frame.setOrigin(LATITUDE, LONGITUDE, ALTITUDE);
+    frame.toEnu(geodetic, enu, pointCount);
+    Geodesy.getDistances(enu, results, pointCount, /* horizontal= */ true);
+    return results;
+  }
+
+  @Benchmark
+  public double[] headings() {
+    Geodesy.getHeadings(enu, results, pointCount);
+    return results;
+  }
+
+  @Benchmark
+  public double[] haversineDistances() {
+    Geodesy.getHaversineDistances(LATITUDE, LONGITUDE, geodetic, results, pointCount);
+    return results;
+  }
+
+  @Benchmark
+  public double[] vincentyDistances() {
+    Geodesy.getVincentyDistances(LATITUDE, LONGITUDE, geodetic, results, pointCount);
+    return results;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(GeodesyBenchmark.class.getSimpleName()).build()).run();
+  }
+}
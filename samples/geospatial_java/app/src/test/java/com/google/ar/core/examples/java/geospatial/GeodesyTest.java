@@ -0,0 +1,180 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.geospatial;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks {@link Geodesy} against reference values on the WGS84 ellipsoid. */
+@RunWith(JUnit4.class)
+public final class GeodesyTest {
+  // Flinders Peak and Buninyong, the worked example of Vincenty's formulae by Geoscience Australia,
+  // 54972.271 m apart.
+  private static final double FLINDERS_PEAK_LATITUDE = -(37 + 57 / 60.0 + 3.72030 / 3600);
+  private static final double FLINDERS_PEAK_LONGITUDE = 144 + 25 / 60.0 + 29.52440 / 3600;
+  private static final double BUNINYONG_LATITUDE = -(37 + 39 / 60.0 + 10.15610 / 3600);
+  private static final double BUNINYONG_LONGITUDE = 143 + 55 / 60.0 + 35.38390 / 3600;
+  private static final double FLINDERS_PEAK_TO_BUNINYONG_METERS = 54972.271;
+  // The distance from the equator to a pole along a meridian.
+  private static final double MERIDIAN_QUADRANT_METERS = 10001965.729;
+
+  @Test
+  public void toEcef_returnsReferenceCoordinates() {
+    double[] geodetic = {0, 0, 0, 0, 90, 100, 90, 0, 0, -90, 0, 0};
+    double[] ecef = new double[geodetic.length];
+
+    Geodesy.toEcef(geodetic, ecef, 4);
+
+    assertArrayEquals(
+        new double[] {
+          Geodesy.WGS84_A, 0, 0,
+          0, Geodesy.WGS84_A + 100, 0,
+          0, 0, Geodesy.WGS84_B,
+          0, 0, -Geodesy.WGS84_B
+        },
+        ecef,
+        1e-6);
+  }
+
+  @Test
+  public void toEnu_pointOnEquator_returnsChordInTangentFrame() {
+    Geodesy.LocalFrame frame = new Geodesy.LocalFrame();
+    // One degree east of the origin on the equator, on the ellipsoid.
+    double[] east = {0, 1, 0};
+
+    frame.toEnu(east, east, 1);
+
+    // The chord to the point, which lies below the tangent plane.
+    double radians = Math.toRadians(1);
+    assertArrayEquals(
+        new double[] {
+          Geodesy.WGS84_A * Math.sin(radians), 0, Geodesy.WGS84_A * (Math.cos(radians) - 1)
+        },
+        east,
+        1e-6);
+  }
+
+  @Test
+  public void toEnu_pointsAroundOrigin_returnsAxes() {
+    Geodesy.LocalFrame frame = new Geodesy.LocalFrame();
+    frame.setOrigin(45, 10, 100);
+    // 10 m above the origin, and a millionth of a degree east and north of it.
+    double[] coordinates = {45, 10, 110, 45, 10.000001, 100, 45.000001, 10, 100};
+
+    frame.toEnu(coordinates, coordinates, 3);
+
+    assertArrayEquals(new double[] {0, 0, 10}, copyPoint(coordinates, 0), 1e-6);
+    // At 45 degrees, a degree of longitude spans 78.85 km and a degree of latitude 111.13 km.
+    assertArrayEquals(new double[] {0.0788481, 0, 0}, copyPoint(coordinates, 1), 1e-6);
+    assertArrayEquals(new double[] {0, 0.1111335, 0}, copyPoint(coordinates, 2), 1e-6);
+  }
+
+  @Test
+  public void getDistancesAndHeadings_returnPolarCoordinates() {
+    double[] enu = {0, 10, 5, 3, 0, -4, 0, -2, 0, -1, 1, 0};
+    double[] distances = new double[4];
+    double[] horizontalDistances = new double[4];
+    double[] headings = new double[4];
+
+    Geodesy.getDistances(enu, distances, 4, /* horizontal= */ false);
+    Geodesy.getDistances(enu, horizontalDistances, 4, /* horizontal= */ true);
+    Geodesy.getHeadings(enu, headings, 4);
+
+    assertArrayEquals(new double[] {Math.sqrt(125), 5, 2, Math.sqrt(2)}, distances, 1e-12);
+    assertArrayEquals(new double[] {10, 3, 2, Math.sqrt(2)}, horizontalDistances, 1e-12);
+    assertArrayEquals(new double[] {0, 90, 180, 315}, headings, 1e-12);
+  }
+
+  @Test
+  public void getVincentyDistance_returnsReferenceDistances() {
+    assertEquals(
+        FLINDERS_PEAK_TO_BUNINYONG_METERS,
+        Geodesy.getVincentyDistance(
+            FLINDERS_PEAK_LATITUDE,
+            FLINDERS_PEAK_LONGITUDE,
+            BUNINYONG_LATITUDE,
+            BUNINYONG_LONGITUDE),
+        1e-3);
+    assertEquals(MERIDIAN_QUADRANT_METERS, Geodesy.getVincentyDistance(0, 0, 90, 0), 1e-3);
+    // Along the equator, one degree of longitude is the semi-major axis times one degree.
+    assertEquals(
+        Geodesy.WGS84_A * Math.toRadians(1), Geodesy.getVincentyDistance(0, 10, 0, 11), 1e-6);
+    assertEquals(0, Geodesy.getVincentyDistance(12.5, 45, 12.5, 45), 0);
+  }
+
+  @Test
+  public void getHaversineDistance_isWithinHalfPercentOfVincentyDistance() {
+    double[][] locations = {
+      {FLINDERS_PEAK_LATITUDE, FLINDERS_PEAK_LONGITUDE, BUNINYONG_LATITUDE, BUNINYONG_LONGITUDE},
+      {0, 0, 90, 0},
+      {0, 10, 0, 11},
+      {37.4220, -122.0841, 37.4275, -122.1697},
+      {51.4779, -0.0015, 40.6892, -74.0445},
+      {64.1466, -21.9426, 64.1500, -21.9400},
+    };
+    for (double[] location : locations) {
+      double vincentyDistance =
+          Geodesy.getVincentyDistance(location[0], location[1], location[2], location[3]);
+      double haversineDistance =
+          Geodesy.getHaversineDistance(location[0], location[1], location[2], location[3]);
+      assertTrue(
+          haversineDistance + " m against " + vincentyDistance + " m",
+          Math.abs(haversineDistance - vincentyDistance) <= 0.005 * vincentyDistance);
+    }
+  }
+
+  @Test
+  public void batchDistances_matchSingleDistances() {
+    double[] geodetic = {
+      BUNINYONG_LATITUDE, BUNINYONG_LONGITUDE, 100, 90, 0, 0, -37.9, 144.4, -20,
+    };
+    double[] haversineDistances = new double[3];
+    double[] vincentyDistances = new double[3];
+
+    Geodesy.getHaversineDistances(
+        FLINDERS_PEAK_LATITUDE, FLINDERS_PEAK_LONGITUDE, geodetic, haversineDistances, 3);
+    Geodesy.getVincentyDistances(
+        FLINDERS_PEAK_LATITUDE, FLINDERS_PEAK_LONGITUDE, geodetic, vincentyDistances, 3);
+
+    for (int i = 0; i < 3; ++i) {
+      double latitude = geodetic[3 * i];
+      double longitude = geodetic[3 * i + 1];
+      assertEquals(
+          Geodesy.getHaversineDistance(
+              FLINDERS_PEAK_LATITUDE, FLINDERS_PEAK_LONGITUDE, latitude, longitude),
+          haversineDistances[i],
+          0);
+      assertEquals(
+          Geodesy.getVincentyDistance(
+              FLINDERS_PEAK_LATITUDE, FLINDERS_PEAK_LONGITUDE, latitude, longitude),
+          vincentyDistances[i],
+          0);
+    }
+    assertEquals(FLINDERS_PEAK_TO_BUNINYONG_METERS, vincentyDistances[0], 1e-3);
+  }
+
+  private static double[] copyPoint(double[] coordinates, int index) {
+    return new double[] {
+      coordinates[3 * index], coordinates[3 * index + 1], coordinates[3 * index + 2]
+    };
+  }
+}
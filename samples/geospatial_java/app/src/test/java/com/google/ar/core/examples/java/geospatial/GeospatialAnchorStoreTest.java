@@ -0,0 +1,233 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.geospatial;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Replays damaged logs and compacted logs of {@link GeospatialAnchorStore}. */
+@RunWith(JUnit4.class)
+public final class GeospatialAnchorStoreTest {
+  // Of the log format of the store.
+  private static final int HEADER_SIZE = 8;
+  private static final int RECORD_SIZE = 52;
+
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private File file;
+
+  @Before
+  public void setUp() {
+    file = new File(temporaryFolder.getRoot(), "anchors.bin");
+  }
+
+  @Test
+  public void open_afterAdd_returnsAnchors() throws IOException {
+    try (GeospatialAnchorStore store = GeospatialAnchorStore.open(file)) {
+      addAnchors(store, 0, 3);
+    }
+
+    try (GeospatialAnchorStore store = GeospatialAnchorStore.open(file)) {
+      assertEquals(0, store.getDiscardedByteCount());
+      assertAnchors(store.getEntries(), 0, 1, 2);
+    }
+  }
+
+  @Test
+  public void open_truncatedTail_keepsWholeRecordsAndTruncatesTail() throws IOException {
+    try (GeospatialAnchorStore store = GeospatialAnchorStore.open(file)) {
+      addAnchors(store, 0, 3);
+    }
+    // A crash while appending the third record.
+    try (RandomAccessFile log = new RandomAccessFile(file, "rw")) {
+      log.setLength(HEADER_SIZE + 2 * RECORD_SIZE + 20);
+    }
+
+    try (GeospatialAnchorStore store = GeospatialAnchorStore.open(file)) {
+      assertEquals(20, store.getDiscardedByteCount());
+      assertAnchors(store.getEntries(), 0, 1);
+      assertEquals(HEADER_SIZE + 2 * RECORD_SIZE, file.length());
+      // Appends after the last whole record.
+      addAnchors(store, 2, 3);
+    }
+    try (GeospatialAnchorStore store = GeospatialAnchorStore.open(file)) {
+      assertEquals(0, store.getDiscardedByteCount());
+      assertAnchors(store.getEntries(), 0, 1, 2);
+    }
+  }
+
+  @Test
+  public void open_crcMismatch_skipsRecordAndCompacts() throws IOException {
+    try (GeospatialAnchorStore store = GeospatialAnchorStore.open(file)) {
+      addAnchors(store, 0, 3);
+    }
+    // Flips a bit of the latitude of the second anchor.
+    try (RandomAccessFile log = new RandomAccessFile(file, "rw")) {
+      long position = HEADER_SIZE + RECORD_SIZE + 10;
+      log.seek(position);
+      int value = log.read();
+      log.seek(position);
+      log.write(value ^ 1);
+    }
+
+    try (GeospatialAnchorStore store = GeospatialAnchorStore.open(file)) {
+      assertEquals(RECORD_SIZE, store.getDiscardedByteCount());
+      assertAnchors(store.getEntries(), 0, 2);
+      // The skipped record is dropped, so that it is reported only once.
+      assertEquals(HEADER_SIZE + 2 * RECORD_SIZE, file.length());
+    }
+    try (GeospatialAnchorStore store = GeospatialAnchorStore.open(file)) {
+      assertEquals(0, store.getDiscardedByteCount());
+      assertAnchors(store.getEntries(), 0, 2);
+    }
+  }
+
+  @Test
+  public void open_badHeader_resetsLog() throws IOException {
+    try (GeospatialAnchorStore store = GeospatialAnchorStore.open(file)) {
+      addAnchors(store, 0, 3);
+    }
+    try (RandomAccessFile log = new RandomAccessFile(file, "rw")) {
+      log.writeInt(0x12345678);
+    }
+
+    try (GeospatialAnchorStore store = GeospatialAnchorStore.open(file)) {
+      assertEquals(HEADER_SIZE + 3 * RECORD_SIZE, store.getDiscardedByteCount());
+      assertEquals(0, store.size());
+      assertEquals(HEADER_SIZE, file.length());
+      addAnchors(store, 0, 1);
+    }
+    try (GeospatialAnchorStore store = GeospatialAnchorStore.open(file)) {
+      assertEquals(0, store.getDiscardedByteCount());
+      assertAnchors(store.getEntries(), 0);
+    }
+  }
+
+  @Test
+  public void open_shortFile_resetsLog() throws IOException {
+    try (RandomAccessFile log = new RandomAccessFile(file, "rw")) {
+      log.writeShort(1);
+    }
+
+    try (GeospatialAnchorStore store = GeospatialAnchorStore.open(file)) {
+      assertEquals(2, store.getDiscardedByteCount());
+      assertEquals(0, store.size());
+      assertEquals(HEADER_SIZE, file.length());
+    }
+  }
+
+  @Test
+  public void remove_manyAnchors_compactsLogAndKeepsRemainingAnchors() throws IOException {
+    try (GeospatialAnchorStore store = GeospatialAnchorStore.open(file)) {
+      addAnchors(store, 0, 40);
+      for (int id = 0; id < 30; ++id) {
+        assertEquals(true, store.remove(id));
+      }
+      assertEquals(false, store.remove(0));
+
+      // Compacted to 16 anchors after the 24th removal, then 6 more removals appended.
+      assertEquals(HEADER_SIZE + 22 * RECORD_SIZE, file.length());
+    }
+
+    try (GeospatialAnchorStore store = GeospatialAnchorStore.open(file)) {
+      assertEquals(0, store.getDiscardedByteCount());
+      assertAnchors(store.getEntries(), 30, 31, 32, 33, 34, 35, 36, 37, 38, 39);
+      // Ids of removed anchors are not reused.
+      addAnchors(store, 40, 41);
+    }
+  }
+
+  @Test
+  public void open_manyRemoveRecords_compactsLog() throws IOException {
+    try (GeospatialAnchorStore store = GeospatialAnchorStore.open(file)) {
+      addAnchors(store, 0, 40);
+      for (int id = 0; id < 20; ++id) {
+        store.remove(id);
+      }
+    }
+    // Appends the remove records again, so that the other records outnumber the anchors.
+    try (RandomAccessFile log = new RandomAccessFile(file, "rw")) {
+      byte[] removeRecords = new byte[20 * RECORD_SIZE];
+      log.seek(HEADER_SIZE + 40 * RECORD_SIZE);
+      log.readFully(removeRecords);
+      log.write(removeRecords);
+    }
+
+    try (GeospatialAnchorStore store = GeospatialAnchorStore.open(file)) {
+      assertEquals(0, store.getDiscardedByteCount());
+      assertEquals(20, store.size());
+      assertEquals(HEADER_SIZE + 20 * RECORD_SIZE, file.length());
+    }
+  }
+
+  @Test
+  public void clear_removesAllAnchors() throws IOException {
+    try (GeospatialAnchorStore store = GeospatialAnchorStore.open(file)) {
+      addAnchors(store, 0, 3);
+      store.clear();
+    }
+
+    try (GeospatialAnchorStore store = GeospatialAnchorStore.open(file)) {
+      assertEquals(0, store.size());
+      assertEquals(HEADER_SIZE, file.length());
+    }
+  }
+
+  /**
+   * Adds anchors with ids {@code firstId} to {@code endId}, excluded, whose parameters are derived
+   * from their ids.
+   */
+  private static void addAnchors(GeospatialAnchorStore store, int firstId, int endId)
+      throws IOException {
+    for (int id = firstId; id < endId; ++id) {
+      GeospatialAnchorStore.Entry entry =
+          store.add(
+              AnchorType.values()[id % AnchorType.values().length],
+              /* latitude= */ id,
+              /* longitude= */ -id,
+              /* altitude= */ 0.5 * id,
+              new float[] {id, 0, 0, 1});
+      assertEquals(id, entry.getId());
+    }
+  }
+
+  /** Asserts that {@code entries} are the anchors with {@code ids}, as added by addAnchors. */
+  private static void assertAnchors(List<GeospatialAnchorStore.Entry> entries, int... ids) {
+    assertEquals(ids.length, entries.size());
+    for (int i = 0; i < ids.length; ++i) {
+      GeospatialAnchorStore.Entry entry = entries.get(i);
+      int id = ids[i];
+      assertEquals(id, entry.getId());
+      assertEquals(AnchorType.values()[id % AnchorType.values().length], entry.getType());
+      assertEquals(id, entry.getLatitude(), 0);
+      assertEquals(-id, entry.getLongitude(), 0);
+      assertEquals(0.5 * id, entry.getAltitude(), 0);
+      assertArrayEquals(new float[] {id, 0, 0, 1}, entry.getQuaternion(), 0);
+    }
+  }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.geospatial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.ar.core.examples.java.common.helpers.AnchorRegistry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Streams anchors of {@link GeospatialAnchorStreamer} with a resolver that records its calls. */
+@RunWith(JUnit4.class)
+public final class GeospatialAnchorStreamerTest {
+  private static final double LATITUDE = 37.422;
+  private static final double LONGITUDE = -122.084;
+
+  // The live anchors are the ids of their entries.
+  private final List<Integer> resolvedIds = new ArrayList<>();
+  private final List<Integer> pendingIds = new ArrayList<>();
+  private final List<Integer> detachedIds = new ArrayList<>();
+  private final AnchorRegistry<Integer> registry = new AnchorRegistry<>();
+  private final GeospatialAnchorStreamer.Resolver<Integer> resolver =
+      new GeospatialAnchorStreamer.Resolver<Integer>() {
+        @Override
+        public void resolve(GeospatialAnchorStore.Entry entry) {
+          resolvedIds.add(entry.getId());
+          pendingIds.add(entry.getId());
+        }
+
+        @Override
+        public void detach(Integer anchor) {
+          detachedIds.add(anchor);
+        }
+      };
+
+  private String cameraTile;
+  private int nextId;
+
+  @Before
+  public void setUp() {
+    cameraTile = Geohash.encode(LATITUDE, LONGITUDE, GeospatialAnchorStreamer.TILE_PRECISION);
+  }
+
+  @Test
+  public void update_resolvesAnchorsOfCameraTileAndNeighborsOnly() {
+    GeospatialAnchorStreamer<Integer> streamer = createStreamer(100, 100);
+    List<Integer> nearIds = new ArrayList<>();
+    List<Integer> farIds = new ArrayList<>();
+    for (int latitudeSteps = -3; latitudeSteps <= 3; ++latitudeSteps) {
+      for (int longitudeSteps = -3; longitudeSteps <= 3; ++longitudeSteps) {
+        int id = addAnchorInTile(streamer, latitudeSteps, longitudeSteps, 0.5, 0.5);
+        if (Math.abs(latitudeSteps) <= 1 && Math.abs(longitudeSteps) <= 1) {
+          nearIds.add(id);
+        } else {
+          farIds.add(id);
+        }
+      }
+    }
+
+    updateAtTile(streamer, 0, 0);
+
+    assertEquals(new HashSet<>(nearIds), new HashSet<>(resolvedIds));
+    assertEquals(9, resolvedIds.size());
+    assertEquals(49, streamer.size());
+  }
+
+  @Test
+  public void update_atTileEdge_resolvesOnlyAnchorsOfNeighborTiles() {
+    GeospatialAnchorStreamer<Integer> streamer = createStreamer(100, 100);
+    // Just across the east edge of the camera tile, and just across the far edge of its eastern
+    // neighbor.
+    int nearId = addAnchorInTile(streamer, 0, 1, 0.5, 0.01);
+    addAnchorInTile(streamer, 0, 2, 0.5, 0.01);
+
+    updateAtTile(streamer, 0, 0, 0.5, 0.99);
+
+    assertEquals(Collections.singletonList(nearId), resolvedIds);
+  }
+
+  @Test
+  public void update_limitsConcurrentResolves_nearestFirst() {
+    GeospatialAnchorStreamer<Integer> streamer = createStreamer(3, 100);
+    // Farther and farther east of the camera, added in reverse.
+    List<Integer> ids = new ArrayList<>();
+    for (int i = 9; i >= 0; --i) {
+      ids.add(0, addAnchorInTile(streamer, 0, 0, 0.5, 0.5 + 0.04 * i));
+    }
+
+    updateAtTile(streamer, 0, 0);
+    // Resolves no more until one of the three resolving anchors is resolved.
+    updateAtTile(streamer, 0, 0);
+
+    assertEquals(ids.subList(0, 3), resolvedIds);
+    assertEquals(3, streamer.getResolvingAnchorCount());
+
+    assertTrue(streamer.onResolved(ids.get(0), ids.get(0)));
+    updateAtTile(streamer, 0, 0);
+
+    assertEquals(ids.subList(0, 4), resolvedIds);
+    assertEquals(1, streamer.getLiveAnchorCount());
+    assertEquals(3, streamer.getResolvingAnchorCount());
+  }
+
+  @Test
+  public void update_limitsLiveAnchors() {
+    GeospatialAnchorStreamer<Integer> streamer = createStreamer(2, 5);
+    for (int i = 0; i < 10; ++i) {
+      addAnchorInTile(streamer, 0, 0, 0.5, 0.05 * i);
+    }
+
+    for (int i = 0; i < 10; ++i) {
+      updateAtTile(streamer, 0, 0);
+      resolveAll(streamer);
+    }
+
+    assertEquals(5, resolvedIds.size());
+    assertEquals(5, streamer.getLiveAnchorCount());
+    assertEquals(5, registry.size());
+    assertEquals(0, streamer.getResolvingAnchorCount());
+  }
+
+  @Test
+  public void update_cameraMovedAway_detachesAnchorsOfFarTiles() {
+    GeospatialAnchorStreamer<Integer> streamer = createStreamer(100, 100);
+    int westId = addAnchorInTile(streamer, 0, -1, 0.5, 0.5);
+    int centerId = addAnchorInTile(streamer, 0, 0, 0.5, 0.5);
+    int eastId = addAnchorInTile(streamer, 0, 1, 0.5, 0.5);
+    updateAtTile(streamer, 0, 0);
+    resolveAll(streamer);
+
+    // The western tile is now two tiles away.
+    updateAtTile(streamer, 0, 1);
+
+    assertEquals(Collections.singletonList(westId), detachedIds);
+    assertEquals(2, streamer.getLiveAnchorCount());
+    assertEquals(
+        new HashSet<>(Arrays.asList(centerId, eastId)), new HashSet<>(snapshot(registry)));
+  }
+
+  @Test
+  public void onResolved_tileNoLongerNear_detachesAnchor() {
+    GeospatialAnchorStreamer<Integer> streamer = createStreamer(100, 100);
+    int id = addAnchorInTile(streamer, 0, 0, 0.5, 0.5);
+    updateAtTile(streamer, 0, 0);
+    updateAtTile(streamer, 0, 3);
+
+    assertFalse(streamer.onResolved(id, id));
+
+    assertEquals(Collections.singletonList(id), detachedIds);
+    assertEquals(0, streamer.getLiveAnchorCount());
+    assertTrue(registry.isEmpty());
+  }
+
+  @Test
+  public void update_failedAnchor_retriedOnlyOnceTileIsNearAgain() {
+    GeospatialAnchorStreamer<Integer> streamer = createStreamer(100, 100);
+    int id = addAnchorInTile(streamer, 0, 0, 0.5, 0.5);
+    updateAtTile(streamer, 0, 0);
+    assertFalse(streamer.onResolved(id, null));
+
+    updateAtTile(streamer, 0, 0);
+    assertEquals(1, resolvedIds.size());
+
+    updateAtTile(streamer, 0, 3);
+    updateAtTile(streamer, 0, 0);
+    assertEquals(Arrays.asList(id, id), resolvedIds);
+  }
+
+  @Test
+  public void clear_detachesLiveAnchorsAndResolvingAnchorsOnceResolved() {
+    GeospatialAnchorStreamer<Integer> streamer = createStreamer(100, 100);
+    int liveId = addAnchorInTile(streamer, 0, 0, 0.5, 0.5);
+    int resolvingId = addAnchorInTile(streamer, 0, 0, 0.5, 0.6);
+    updateAtTile(streamer, 0, 0);
+    streamer.onResolved(liveId, liveId);
+
+    streamer.clear();
+    assertFalse(streamer.onResolved(resolvingId, resolvingId));
+
+    assertEquals(Arrays.asList(liveId, resolvingId), detachedIds);
+    assertEquals(0, streamer.size());
+    assertTrue(registry.isEmpty());
+  }
+
+  private GeospatialAnchorStreamer<Integer> createStreamer(
+      int maxConcurrentResolves, int maxLiveAnchors) {
+    return new GeospatialAnchorStreamer<>(
+        resolver, registry, maxConcurrentResolves, maxLiveAnchors);
+  }
+
+  /**
+   * Adds an anchor in the tile {@code latitudeSteps} tiles north and {@code longitudeSteps} tiles
+   * east of the camera tile, at fractions of the tile from its south west corner. Returns its id.
+   */
+  private int addAnchorInTile(
+      GeospatialAnchorStreamer<Integer> streamer,
+      int latitudeSteps,
+      int longitudeSteps,
+      double latitudeFraction,
+      double longitudeFraction) {
+    double[] location =
+        getLocation(latitudeSteps, longitudeSteps, latitudeFraction, longitudeFraction);
+    int id = nextId++;
+    streamer.add(
+        new GeospatialAnchorStore.Entry(
+            id, AnchorType.GEOSPATIAL, location[0], location[1], 0, new float[] {0, 0, 0, 1}));
+    return id;
+  }
+
+  private void updateAtTile(
+      GeospatialAnchorStreamer<Integer> streamer, int latitudeSteps, int longitudeSteps) {
+    updateAtTile(streamer, latitudeSteps, longitudeSteps, 0.5, 0.5);
+  }
+
+  private void updateAtTile(
+      GeospatialAnchorStreamer<Integer> streamer,
+      int latitudeSteps,
+      int longitudeSteps,
+      double latitudeFraction,
+      double longitudeFraction) {
+    double[] location =
+        getLocation(latitudeSteps, longitudeSteps, latitudeFraction, longitudeFraction);
+    streamer.update(location[0], location[1]);
+  }
+
+  /** Returns the latitude and longitude at fractions of a tile near the camera tile. */
+  private double[] getLocation(
+      int latitudeSteps, int longitudeSteps, double latitudeFraction, double longitudeFraction) {
+    double[] bounds =
+        Geohash.getBounds(Geohash.getNeighbor(cameraTile, latitudeSteps, longitudeSteps));
+    return new double[] {
+      bounds[0] + latitudeFraction * (bounds[2] - bounds[0]),
+      bounds[1] + longitudeFraction * (bounds[3] - bounds[1])
+    };
+  }
+
+  /** Reports the anchors resolving as resolved, in the order they were resolved. */
+  private void resolveAll(GeospatialAnchorStreamer<Integer> streamer) {
+    for (int id : pendingIds) {
+      streamer.onResolved(id, id);
+    }
+    pendingIds.clear();
+  }
+
+  private static List<Integer> snapshot(AnchorRegistry<Integer> registry) {
+    List<Integer> anchors = new ArrayList<>();
+    for (Integer anchor : registry.getSnapshot()) {
+      anchors.add(anchor);
+    }
+    return anchors;
+  }
+}
@@ -57,6 +57,21 @@ public class VertexBuffer implements Closeable {
     buffer = new GpuBuffer(GLES30.GL_ARRAY_BUFFER, GpuBuffer.FLOAT_SIZE, entries);
   }
 
+  /**
+   * Construct an empty {@link VertexBuffer} with room for {@code numberOfVertices} vertices, to be
+   * populated in place with {@link #set(int, FloatBuffer)}.
+   */
+  public VertexBuffer(SampleRender render, int numberOfEntriesPerVertex, int numberOfVertices) {
+    this.numberOfEntriesPerVertex = numberOfEntriesPerVertex;
+    buffer = new GpuBuffer(GLES30.GL_ARRAY_BUFFER, GpuBuffer.FLOAT_SIZE, /*entries=*/ null);
+    try {
+      buffer.allocate(numberOfVertices * numberOfEntriesPerVertex);
+    } catch (Throwable t) {
+      buffer.free();
+      throw t;
+    }
+  }
+
   /**
    * Populate with new data.
    *
@@ -79,6 +94,22 @@ public class VertexBuffer implements Closeable {
     buffer.set(entries);
   }
 
+  /**
+   * Replaces the vertices from {@code firstVertex} with the contents of the <i>direct</i> buffer
+   * {@code entries}, without reallocating the GPU buffer.
+   *
+   * <p>The replaced vertices must be within the number of vertices the buffer was constructed with
+   * room for, or the size of the data it was last populated with.
+   */
+  public void set(int firstVertex, FloatBuffer entries) {
+    if (entries != null && entries.limit() % numberOfEntriesPerVertex != 0) {
+      throw new IllegalArgumentException(
+          "If non-null, vertex buffer data must be divisible by the number of data points per"
+              + " vertex");
+    }
+    buffer.set(firstVertex * numberOfEntriesPerVertex, entries);
+  }
+
   @Override
   public void close() {
     buffer.free();
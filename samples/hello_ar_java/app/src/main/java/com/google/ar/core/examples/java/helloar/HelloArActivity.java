@@ -59,7 +59,9 @@ import com.google.ar.core.examples.java.common.helpers.CameraPermissionHelper;
 import com.google.ar.core.examples.java.common.helpers.DepthSettings;
 import com.google.ar.core.examples.java.common.helpers.DisplayRotationHelper;
 import com.google.ar.core.examples.java.common.helpers.FullScreenHelper;
+import com.google.ar.core.examples.java.common.helpers.ImageView;
 import com.google.ar.core.examples.java.common.helpers.InstantPlacementSettings;
+import com.google.ar.core.examples.java.common.helpers.PlaneView;
 import com.google.ar.core.examples.java.common.helpers.SnackbarHelper;
 import com.google.ar.core.examples.java.common.helpers.TapHelper;
 import com.google.ar.core.examples.java.common.helpers.TrackingStateHelper;
@@ -83,7 +85,6 @@ import com.google.ar.core.exceptions.UnavailableUserDeclinedInstallationExceptio
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
-import java.nio.ShortBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -385,11 +386,9 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
 
     if (session.isDepthModeSupported(Config.DepthMode.AUTOMATIC)) {
       try (Image depthImage = frame.acquireDepthImage16Bits()) {
-        int width = depthImage.getWidth();
-        int height = depthImage.getHeight();
-        ShortBuffer buffer = depthImage.getPlanes()[0].getBuffer().asShortBuffer();
-        int centerIndex = (height / 2) * width + (width / 2);
-        short depthMillimeters = buffer.get(centerIndex);
+        PlaneView depthPlane = ImageView.of(depthImage).getY();
+        int depthMillimeters =
+            depthPlane.getUnsignedShort(depthPlane.getWidth() / 2, depthPlane.getHeight() / 2);
         float depthMeters = depthMillimeters / 1000.0f;
         runOnUiThread(() -> depthText.setText(String.format("Depth: %.2f m", depthMeters)));
       } catch (NotYetAvailableException e) {
@@ -24,6 +24,7 @@ class GpuBuffer {
   private static final String TAG = GpuBuffer.class.getSimpleName();
 
   // These values refer to the byte count of the corresponding Java datatypes.
+  public static final int SHORT_SIZE = 2;
   public static final int INT_SIZE = 4;
   public static final int FLOAT_SIZE = 4;
 
@@ -106,6 +107,50 @@ class GpuBuffer {
     }
   }
 
+  /**
+   * Reallocates the buffer with room for {@code capacity} entries, leaving it empty. Its entries
+   * can then be populated in place with {@link #set(int, Buffer)}.
+   */
+  public void allocate(int capacity) {
+    GLES30.glBindBuffer(target, bufferId[0]);
+    GLError.maybeThrowGLException("Failed to bind buffer object", "glBindBuffer");
+    GLES30.glBufferData(target, capacity * numberOfBytesPerEntry, null, GLES30.GL_DYNAMIC_DRAW);
+    GLError.maybeThrowGLException("Failed to allocate buffer object", "glBufferData");
+    size = 0;
+    this.capacity = capacity;
+  }
+
+  /**
+   * Replaces the entries from {@code offset} with the contents of {@code entries}, without
+   * reallocating the buffer. The size of the buffer grows to include the replaced entries.
+   */
+  public void set(int offset, Buffer entries) {
+    if (entries == null || entries.limit() == 0) {
+      return;
+    }
+    if (!entries.isDirect()) {
+      throw new IllegalArgumentException("If non-null, entries buffer must be a direct buffer");
+    }
+    if (offset < 0 || offset + entries.limit() > capacity) {
+      throw new IllegalArgumentException(
+          String.format(
+              "Entries %d to %d out of buffer capacity %d",
+              offset, offset + entries.limit(), capacity));
+    }
+    GLES30.glBindBuffer(target, bufferId[0]);
+    GLError.maybeThrowGLException("Failed to bind buffer object", "glBindBuffer");
+
+    entries.rewind();
+
+    GLES30.glBufferSubData(
+        target,
+        offset * numberOfBytesPerEntry,
+        entries.limit() * numberOfBytesPerEntry,
+        entries);
+    GLError.maybeThrowGLException("Failed to populate buffer object", "glBufferSubData");
+    size = Math.max(size, offset + entries.limit());
+  }
+
   public void free() {
     if (bufferId[0] != 0) {
       GLES30.glDeleteBuffers(1, bufferId, 0);
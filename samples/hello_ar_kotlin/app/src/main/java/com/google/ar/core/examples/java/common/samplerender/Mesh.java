@@ -186,7 +186,7 @@ public class Mesh implements Closeable {
       GLError.maybeThrowGLException("Failed to draw vertex array object", "glDrawArrays");
     } else {
       GLES30.glDrawElements(
-          primitiveMode.glesEnum, indexBuffer.getSize(), GLES30.GL_UNSIGNED_INT, 0);
+          primitiveMode.glesEnum, indexBuffer.getSize(), indexBuffer.getIndexType(), 0);
       GLError.maybeThrowGLException(
           "Failed to draw vertex array object with indices", "glDrawElements");
     }
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.helpers;
+
+import android.media.Image;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A stride-aware view of one plane of an image, such as a plane of an {@link Image}.
+ *
+ * <p>The sample of the pixel at column {@code x} and row {@code y} starts at byte {@code y *
+ * rowStride + x * pixelStride} of the buffer. Samples are either one unsigned byte (Y, U, V,
+ * confidence or luma planes) or one unsigned 16-bit integer in native byte order (DEPTH16 planes).
+ * A pixel stride larger than the sample size describes interleaved planes, such as the U and V
+ * planes of an NV12 or NV21 image, or one channel of an RGBA image.
+ *
+ * <p>Views never copy pixels. The buffer position and limit passed to the constructor are ignored
+ * and never modified. Pixel access and {@link #readRow} use absolute indices and may be used from
+ * several threads at once. {@link RowReader}s read rows in bulk and are faster, but each reader
+ * must only be used by one thread.
+ */
+public final class PlaneView {
+  private final ByteBuffer buffer;
+  private final int width;
+  private final int height;
+  private final int rowStride;
+  private final int pixelStride;
+  private final int bytesPerSample;
+
+  /**
+   * Creates a view of a plane.
+   *
+   * @param buffer the plane data, starting at index 0.
+   * @param width the number of pixels per row.
+   * @param height the number of rows.
+   * @param rowStride the number of bytes between the starts of two consecutive rows.
+   * @param pixelStride the number of bytes between the starts of two consecutive pixels of a row.
+   * @param bytesPerSample the size of a sample, 1 or 2 bytes.
+   */
+  public PlaneView(
+      ByteBuffer buffer,
+      int width,
+      int height,
+      int rowStride,
+      int pixelStride,
+      int bytesPerSample) {
+    if (bytesPerSample != 1 && bytesPerSample != 2) {
+      throw new IllegalArgumentException("Unsupported sample size " + bytesPerSample);
+    }
+    if (width <= 0 || height <= 0 || pixelStride < bytesPerSample || rowStride < 0) {
+      throw new IllegalArgumentException(
+          "Invalid plane " + width + "x" + height + ", strides " + rowStride + "/" + pixelStride);
+    }
+    int size = (height - 1) * rowStride + getRowLength(width, pixelStride, bytesPerSample);
+    if (buffer.capacity() < size) {
+      throw new IllegalArgumentException(
+          "Buffer of " + buffer.capacity() + " bytes too small for a plane of " + size + " bytes");
+    }
+    this.buffer = buffer.duplicate().order(ByteOrder.nativeOrder());
+    this.width = width;
+    this.height = height;
+    this.rowStride = rowStride;
+    this.pixelStride = pixelStride;
+    this.bytesPerSample = bytesPerSample;
+  }
+
+  /**
+   * Creates a view of a plane of an {@link Image}.
+   *
+   * @param width the width of the plane, which is smaller than the image for subsampled planes.
+   * @param height the height of the plane.
+   * @param bytesPerSample the size of a sample, 1 or 2 bytes.
+   */
+  public static PlaneView of(Image.Plane plane, int width, int height, int bytesPerSample) {
+    return new PlaneView(
+        plane.getBuffer(),
+        width,
+        height,
+        plane.getRowStride(),
+        plane.getPixelStride(),
+        bytesPerSample);
+  }
+
+  /** Creates a view of a single channel 8-bit image without row padding. */
+  public static PlaneView packed(ByteBuffer buffer, int width, int height) {
+    return new PlaneView(
+        buffer, width, height, width, /* pixelStride= */ 1, /* bytesPerSample= */ 1);
+  }
+
+  /** Returns the plane data. The buffer is shared with the plane, not a copy. */
+  public ByteBuffer getBuffer() {
+    return buffer;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public int getRowStride() {
+    return rowStride;
+  }
+
+  public int getPixelStride() {
+    return pixelStride;
+  }
+
+  public int getBytesPerSample() {
+    return bytesPerSample;
+  }
+
+  /** Returns the index in {@link #getBuffer()} of the first byte of a pixel. */
+  public int getIndex(int x, int y) {
+    return y * rowStride + x * pixelStride;
+  }
+
+  /** Returns the unsigned 8-bit sample of a pixel. */
+  public int get(int x, int y) {
+    return buffer.get(getIndex(x, y)) & 0xFF;
+  }
+
+  /** Returns the unsigned 16-bit sample of a pixel. */
+  public int getUnsignedShort(int x, int y) {
+    return buffer.getShort(getIndex(x, y)) & 0xFFFF;
+  }
+
+  /**
+   * Returns a buffer covering the bytes of a row, from its first to its last sample, without
+   * copying them. The returned buffer has its own position and limit, and native byte order.
+   */
+  public ByteBuffer rowSlice(int y) {
+    ByteBuffer row = buffer.duplicate();
+    int start = y * rowStride;
+    row.limit(start + getRowLength(width, pixelStride, bytesPerSample));
+    row.position(start);
+    return row.slice().order(ByteOrder.nativeOrder());
+  }
+
+  /** Copies the 8-bit samples of row {@code y} into {@code destination}. */
+  public void readRow(int y, byte[] destination) {
+    readRow(y, destination, /* offset= */ 0, /* destinationStride= */ 1);
+  }
+
+  /**
+   * Copies the 8-bit samples of row {@code y} into {@code destination}, writing the sample of
+   * column {@code x} at {@code offset + x * destinationStride}.
+   */
+  public void readRow(int y, byte[] destination, int offset, int destinationStride) {
+    int start = y * rowStride;
+    if (buffer.hasArray()) {
+      byte[] array = buffer.array();
+      start += buffer.arrayOffset();
+      if (pixelStride == 1 && destinationStride == 1) {
+        System.arraycopy(array, start, destination, offset, width);
+        return;
+      }
+      for (int x = 0; x < width; ++x) {
+        destination[offset + x * destinationStride] = array[start + x * pixelStride];
+      }
+      return;
+    }
+    for (int x = 0; x < width; ++x) {
+      destination[offset + x * destinationStride] = buffer.get(start + x * pixelStride);
+    }
+  }
+
+  /** Copies {@code source}, one 8-bit sample per pixel, into row {@code y}. */
+  public void writeRow(int y, byte[] source) {
+    int start = y * rowStride;
+    if (buffer.hasArray()) {
+      byte[] array = buffer.array();
+      start += buffer.arrayOffset();
+      if (pixelStride == 1) {
+        System.arraycopy(source, 0, array, start, width);
+        return;
+      }
+      for (int x = 0; x < width; ++x) {
+        array[start + x * pixelStride] = source[x];
+      }
+      return;
+    }
+    for (int x = 0; x < width; ++x) {
+      buffer.put(start + x * pixelStride, source[x]);
+    }
+  }
+
+  /** Creates a reader for bulk row reads. Each reader must only be used by one thread. */
+  public RowReader newRowReader() {
+    return new RowReader();
+  }
+
+  private static int getRowLength(int width, int pixelStride, int bytesPerSample) {
+    return (width - 1) * pixelStride + bytesPerSample;
+  }
+
+  /**
+   * Reads whole rows with a single bulk transfer each, through a cursor and a scratch row owned by
+   * the reader. After construction, reading does not allocate.
+   */
+  public final class RowReader {
+    private final ByteBuffer cursor = buffer.duplicate().order(ByteOrder.nativeOrder());
+    private final byte[] rowBytes = new byte[getRowLength(width, pixelStride, bytesPerSample)];
+
+    private RowReader() {}
+
+    /** Copies the 8-bit samples of row {@code y} into {@code destination}. */
+    public void read(int y, byte[] destination) {
+      read(y, destination, /* offset= */ 0, /* destinationStride= */ 1);
+    }
+
+    /**
+     * Copies the 8-bit samples of row {@code y} into {@code destination}, writing the sample of
+     * column {@code x} at {@code offset + x * destinationStride}.
+     */
+    public void read(int y, byte[] destination, int offset, int destinationStride) {
+      cursor.position(y * rowStride);
+      if (pixelStride == 1 && destinationStride == 1) {
+        cursor.get(destination, offset, width);
+        return;
+      }
+      cursor.get(rowBytes);
+      for (int x = 0; x < width; ++x) {
+        destination[offset + x * destinationStride] = rowBytes[x * pixelStride];
+      }
+    }
+
+    /** Copies the unsigned 16-bit samples of row {@code y} into {@code destination}. */
+    public void readUnsignedShorts(int y, int[] destination) {
+      cursor.position(y * rowStride);
+      cursor.get(rowBytes);
+      boolean littleEndian = cursor.order() == ByteOrder.LITTLE_ENDIAN;
+      for (int x = 0; x < width; ++x) {
+        int low = rowBytes[x * pixelStride + (littleEndian ? 0 : 1)] & 0xFF;
+        int high = rowBytes[x * pixelStride + (littleEndian ? 1 : 0)] & 0xFF;
+        destination[x] = (high << 8) | low;
+      }
+    }
+  }
+}
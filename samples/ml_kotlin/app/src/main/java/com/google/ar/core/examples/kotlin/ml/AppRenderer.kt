@@ -23,11 +23,15 @@ import androidx.lifecycle.LifecycleOwner
 import com.google.ar.core.Anchor
 import com.google.ar.core.Coordinates2d
 import com.google.ar.core.Frame
+import com.google.ar.core.HitResult
+import com.google.ar.core.Pose
+import com.google.ar.core.Session
 import com.google.ar.core.TrackingState
+import com.google.ar.core.examples.java.common.helpers.AnchorRegistry
 import com.google.ar.core.examples.java.common.helpers.DisplayRotationHelper
 import com.google.ar.core.examples.java.common.samplerender.SampleRender
 import com.google.ar.core.examples.java.common.samplerender.arcore.BackgroundRenderer
-import com.google.ar.core.examples.kotlin.ml.classification.DetectedObjectResult
+import com.google.ar.core.examples.kotlin.ml.classification.DetectionResultCache
 import com.google.ar.core.examples.kotlin.ml.classification.GoogleCloudVisionDetector
 import com.google.ar.core.examples.kotlin.ml.classification.MLKitObjectDetector
 import com.google.ar.core.examples.kotlin.ml.classification.ObjectDetector
@@ -35,15 +39,17 @@ import com.google.ar.core.examples.kotlin.ml.render.LabelRender
 import com.google.ar.core.examples.kotlin.ml.render.PointCloudRender
 import com.google.ar.core.exceptions.CameraNotAvailableException
 import com.google.ar.core.exceptions.NotYetAvailableException
-import java.util.Collections
-import kotlinx.coroutines.Dispatchers
+import kotlin.math.sqrt
 import kotlinx.coroutines.MainScope
-import kotlinx.coroutines.launch
 
 /** Renders the ML application into using our sample Renderer. */
 class AppRenderer(val activity: MainActivity) : DefaultLifecycleObserver, SampleRender.Renderer {
   companion object {
     val TAG = "MLAppRenderer"
+
+    // A detection with the label of an existing anchor closer than this to its hit is taken to be
+    // the same object, and does not create a new anchor.
+    private const val ASSOCIATION_DISTANCE_METERS = 0.3f
   }
 
   lateinit var view: MainActivityView
@@ -61,9 +67,15 @@ class AppRenderer(val activity: MainActivity) : DefaultLifecycleObserver, Sample
   val projectionMatrix = FloatArray(16)
   val viewProjectionMatrix = FloatArray(16)
 
-  val arLabeledAnchors = Collections.synchronizedList(mutableListOf<ARLabeledAnchor>())
+  // Drawn from the latest snapshot, so that the UI thread never waits for a frame to change it.
+  val arLabeledAnchors = AnchorRegistry<ARLabeledAnchor>()
   var scanButtonWasPressed = false
 
+  /** Whether camera images are analyzed continuously rather than on a scan button press. */
+  @Volatile var continuousDetection = false
+
+  private val detectionScheduler = DetectionScheduler(coroutineScope)
+
   val mlKitAnalyzer = MLKitObjectDetector(activity)
   val gcpAnalyzer = run {
     // API key used to authenticate with Google Cloud Vision API. See README for steps on how to
@@ -82,6 +94,11 @@ class AppRenderer(val activity: MainActivity) : DefaultLifecycleObserver, Sample
 
   override fun onPause(owner: LifecycleOwner) {
     displayRotationHelper.onPause()
+    // Stopping drops a scan in flight, let the user start another one.
+    detectionScheduler.stop()
+    if (::view.isInitialized && !continuousDetection) {
+      view.setScanningActive(false)
+    }
   }
 
   /** Binds UI elements for ARCore interactions. */
@@ -113,8 +130,17 @@ class AppRenderer(val activity: MainActivity) : DefaultLifecycleObserver, Sample
       )
     }
 
+    view.continuousDetectionSwitch.setOnCheckedChangeListener { _, isChecked ->
+      continuousDetection = isChecked
+      if (!isChecked) {
+        detectionScheduler.stop()
+      }
+      view.setScanningActive(isChecked)
+      hideSnackbar()
+    }
+
     view.resetButton.setOnClickListener {
-      synchronized(arLabeledAnchors) { arLabeledAnchors.clear() }
+      arLabeledAnchors.clear().forEach { it.anchor.detach() }
       view.resetButton.isEnabled = false
       hideSnackbar()
     }
@@ -131,8 +157,6 @@ class AppRenderer(val activity: MainActivity) : DefaultLifecycleObserver, Sample
     displayRotationHelper.onSurfaceChanged(width, height)
   }
 
-  var objectResults: List<DetectedObjectResult>? = null
-
   override fun onDrawFrame(render: SampleRender) {
     val session = activity.arCoreSessionHelper.session ?: return
     session.setCameraTextureNames(intArrayOf(backgroundRenderer.cameraColorTexture.textureId))
@@ -170,84 +194,144 @@ class AppRenderer(val activity: MainActivity) : DefaultLifecycleObserver, Sample
     }
 
     // Frame.acquireCameraImage must be used on the GL thread.
-    // Check if the button was pressed last frame to start processing the camera image.
-    if (scanButtonWasPressed) {
+    // In continuous mode, offer images as fast as the detector consumes them. Otherwise, check if
+    // the button was pressed last frame to start processing the camera image.
+    val continuous = continuousDetection
+    if (
+      (continuous && detectionScheduler.shouldOffer(System.nanoTime())) ||
+        (!continuous && scanButtonWasPressed)
+    ) {
       scanButtonWasPressed = false
       val cameraImage = frame.tryAcquireCameraImage()
       if (cameraImage != null) {
-        // Call our ML model on an IO thread.
-        coroutineScope.launch(Dispatchers.IO) {
-          val cameraId = session.cameraConfig.cameraId
-          val imageRotation = displayRotationHelper.getCameraSensorToDisplayRotation(cameraId)
-          objectResults =
-            try {
-              currentAnalyzer.analyze(cameraImage, imageRotation)
-            } catch (exception: Exception) {
-              showSnackbar(
-                "Exception thrown analyzing input frame: " +
-                  exception.message +
-                  "\n" +
-                  "See adb log for details."
-              )
-              Log.e(TAG, "Exception thrown analyzing input frame", exception)
-              null
-            }
-          cameraImage.close()
-        }
+        // The scheduler calls our ML model on an IO thread, and closes the image when done.
+        val cameraId = session.cameraConfig.cameraId
+        val imageRotation = displayRotationHelper.getCameraSensorToDisplayRotation(cameraId)
+        detectionScheduler.offer(cameraImage, imageRotation, currentAnalyzer, camera.pose)
       }
     }
 
     /** If results were completed this frame, create [Anchor]s from model results. */
-    val objects = objectResults
-    if (objects != null) {
-      objectResults = null
-      Log.i(TAG, "$currentAnalyzer got objects: $objects")
-      val anchors =
-        objects.mapNotNull { obj ->
-          val anchor =
-            createAnchor(obj.centerCoordinate.x.toFloat(), obj.centerCoordinate.y.toFloat(), frame)
-              ?: return@mapNotNull null
-          Log.i(TAG, "Created anchor ${anchor.pose} from hit test")
-          ARLabeledAnchor(anchor, obj.label)
-        }
-      arLabeledAnchors.addAll(anchors)
-      view.post {
-        view.resetButton.isEnabled = arLabeledAnchors.isNotEmpty()
-        view.setScanningActive(false)
-        when {
-          objects.isEmpty() &&
-            currentAnalyzer == mlKitAnalyzer &&
-            !mlKitAnalyzer.hasCustomModel() ->
-            showSnackbar(
-              "Default ML Kit classification model returned no results. " +
-                "For better classification performance, see the README to configure a custom model."
-            )
-          objects.isEmpty() -> showSnackbar("Classification model returned no results.")
-          anchors.size != objects.size ->
-            showSnackbar(
-              "Objects were classified, but could not be attached to an anchor. " +
-                "Try moving your device around to obtain a better understanding of the environment."
-            )
-        }
-      }
+    val result = detectionScheduler.pollResult()
+    if (result != null) {
+      handleResult(result, session, frame, continuous)
     }
 
     // Draw labels at their anchor position.
-    synchronized(arLabeledAnchors) {
-      for (arDetectedObject in arLabeledAnchors) {
-        val anchor = arDetectedObject.anchor
-        if (anchor.trackingState != TrackingState.TRACKING) continue
-        labelRenderer.draw(
-          render,
-          viewProjectionMatrix,
-          anchor.pose,
-          camera.pose,
-          arDetectedObject.label
-        )
+    val labeledAnchors = arLabeledAnchors.snapshot
+    for (i in 0 until labeledAnchors.size()) {
+      val arDetectedObject = labeledAnchors[i]
+      val anchor = arDetectedObject.anchor
+      if (anchor.trackingState != TrackingState.TRACKING) continue
+      labelRenderer.add(anchor.pose, arDetectedObject.label)
+    }
+    labelRenderer.draw(render, viewProjectionMatrix, camera.pose)
+  }
+
+  private fun handleResult(
+    result: DetectionScheduler.Result,
+    session: Session,
+    frame: Frame,
+    continuous: Boolean
+  ) {
+    val cachedObjects = result.cachedObjects
+    if (cachedObjects != null) {
+      handleCachedObjects(cachedObjects, session, continuous)
+      return
+    }
+    val objects = result.objects
+    if (objects == null) {
+      // Continuous detection keeps going, the failure is in the adb log.
+      if (continuous) return
+      view.post { view.setScanningActive(false) }
+      showSnackbar(
+        "Exception thrown analyzing input frame: " +
+          result.error?.message +
+          "\n" +
+          "See adb log for details."
+      )
+      return
+    }
+    Log.i(TAG, "${result.detector} got objects: $objects")
+    val anchoredObjects = ArrayList<DetectionResultCache.AnchoredObject>(objects.size)
+    for (obj in objects) {
+      val hit =
+        hitTest(obj.centerCoordinate.x.toFloat(), obj.centerCoordinate.y.toFloat(), frame)
+          ?: continue
+      anchoredObjects.add(DetectionResultCache.AnchoredObject(obj.label, hit.hitPose))
+      if (findLabeledAnchor(obj.label, hit.hitPose) != null) {
+        // Seen before, keep the existing anchor rather than stacking a new one on the object.
+        continue
       }
+      val anchor = hit.trackable.createAnchor(hit.hitPose)
+      Log.i(TAG, "Created anchor ${anchor.pose} from hit test")
+      arLabeledAnchors.add(ARLabeledAnchor(anchor, obj.label))
+    }
+    detectionScheduler.cacheObjects(result, anchoredObjects)
+    val anchoredCount = anchoredObjects.size
+    view.post {
+      view.resetButton.isEnabled = !arLabeledAnchors.isEmpty()
+      // Continuous detection reports no per image outcome, as it would flood the snackbar.
+      if (continuous) return@post
+      view.setScanningActive(false)
+      when {
+        objects.isEmpty() &&
+          result.detector == mlKitAnalyzer &&
+          !mlKitAnalyzer.hasCustomModel() ->
+          showSnackbar(
+            "Default ML Kit classification model returned no results. " +
+              "For better classification performance, see the README to configure a custom model."
+          )
+        objects.isEmpty() -> showSnackbar("Classification model returned no results.")
+        anchoredCount != objects.size ->
+          showSnackbar(
+            "Objects were classified, but could not be attached to an anchor. " +
+              "Try moving your device around to obtain a better understanding of the environment."
+          )
+      }
+    }
+  }
+
+  /**
+   * Anchors objects found in the result cache at the world poses they were anchored at before.
+   * Their pixel coordinates are not hit tested again, as the camera may have moved since.
+   */
+  private fun handleCachedObjects(
+    objects: List<DetectionResultCache.AnchoredObject>,
+    session: Session,
+    continuous: Boolean
+  ) {
+    Log.i(TAG, "Got cached objects: $objects")
+    for (obj in objects) {
+      if (findLabeledAnchor(obj.label, obj.pose) != null) continue
+      val anchor = session.createAnchor(obj.pose)
+      Log.i(TAG, "Created anchor ${anchor.pose} from cached pose")
+      arLabeledAnchors.add(ARLabeledAnchor(anchor, obj.label))
+    }
+    view.post {
+      view.resetButton.isEnabled = !arLabeledAnchors.isEmpty()
+      if (!continuous) view.setScanningActive(false)
     }
   }
 
+  /**
+   * Returns a tracked anchor labeled [label] within [ASSOCIATION_DISTANCE_METERS] of [pose], or
+   * null if there is none.
+   */
+  private fun findLabeledAnchor(label: String, pose: Pose): ARLabeledAnchor? =
+    arLabeledAnchors.snapshot.firstOrNull {
+      it.label == label &&
+        it.anchor.trackingState == TrackingState.TRACKING &&
+        distance(it.anchor.pose, pose) < ASSOCIATION_DISTANCE_METERS
+    }
+
+  private fun distance(a: Pose, b: Pose): Float {
+    val dx = a.tx() - b.tx()
+    val dy = a.ty() - b.ty()
+    val dz = a.tz() - b.tz()
+    return sqrt(dx * dx + dy * dy + dz * dz)
+  }
+
   /**
    * Utility method for [Frame.acquireCameraImage] that maps [NotYetAvailableException] to `null`.
    */
@@ -265,7 +349,7 @@ class AppRenderer(val activity: MainActivity) : DefaultLifecycleObserver, Sample
 
   private fun hideSnackbar() = activity.view.snackbarHelper.hide(activity)
 
-  /** Temporary arrays to prevent allocations in [createAnchor]. */
+  /** Temporary arrays to prevent allocations in [hitTest]. */
   private val convertFloats = FloatArray(4)
   private val convertFloatsOut = FloatArray(4)
 
@@ -273,6 +357,15 @@ class AppRenderer(val activity: MainActivity) : DefaultLifecycleObserver, Sample
    * Create an anchor using (x, y) coordinates in the [Coordinates2d.IMAGE_PIXELS] coordinate space.
    */
   fun createAnchor(xImage: Float, yImage: Float, frame: Frame): Anchor? {
+    val result = hitTest(xImage, yImage, frame) ?: return null
+    return result.trackable.createAnchor(result.hitPose)
+  }
+
+  /**
+   * Hit tests using (x, y) coordinates in the [Coordinates2d.IMAGE_PIXELS] coordinate space, and
+   * returns the closest hit, if any.
+   */
+  fun hitTest(xImage: Float, yImage: Float, frame: Frame): HitResult? {
     // IMAGE_PIXELS -> VIEW
     convertFloats[0] = xImage
     convertFloats[1] = yImage
@@ -285,8 +378,7 @@ class AppRenderer(val activity: MainActivity) : DefaultLifecycleObserver, Sample
 
     // Conduct a hit test using the VIEW coordinates
     val hits = frame.hitTest(convertFloatsOut[0], convertFloatsOut[1])
-    val result = hits.getOrNull(0) ?: return null
-    return result.trackable.createAnchor(result.hitPose)
+    return hits.getOrNull(0)
   }
 }
 
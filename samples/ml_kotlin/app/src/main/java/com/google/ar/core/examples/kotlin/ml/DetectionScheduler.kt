@@ -0,0 +1,239 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.kotlin.ml
+
+import android.media.Image
+import android.util.Log
+import com.google.ar.core.Pose
+import com.google.ar.core.examples.java.common.helpers.ImageView
+import com.google.ar.core.examples.kotlin.ml.classification.DetectedObjectResult
+import com.google.ar.core.examples.kotlin.ml.classification.DetectionResultCache
+import com.google.ar.core.examples.kotlin.ml.classification.ObjectDetector
+import java.util.concurrent.atomic.AtomicReference
+import kotlin.coroutines.coroutineContext
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.launch
+
+/**
+ * Runs an [ObjectDetector] on camera images off the GL thread, one image at a time.
+ *
+ * Images are offered to a conflated channel: an image offered while the previous one is still
+ * waiting replaces it, and the replaced image is closed. Stale images are therefore never queued,
+ * and at most two camera images are held at any time, one waiting and one being analyzed.
+ *
+ * A single long-lived worker takes the images from the channel. [stop] cancels the analysis in
+ * flight, but the worker waits for it to return before taking the next image: detectors blocking
+ * on I/O only notice cancellation once done, and analyses must never overlap.
+ *
+ * In continuous mode, [shouldOffer] paces the offers to the measured inference latency, so that
+ * camera images are only acquired about as fast as the detector can consume them.
+ *
+ * Where the objects of inferred results were anchored is kept in a [DetectionResultCache] per
+ * detector, see [cacheObjects]. An image similar to a cached one, taken from about the same camera
+ * pose, gets the cached objects without inference.
+ *
+ * [offer], [shouldOffer] and [pollResult] are meant to be called on the GL thread, [stop] from any
+ * thread.
+ */
+class DetectionScheduler(private val scope: CoroutineScope) {
+  companion object {
+    private const val TAG = "DetectionScheduler"
+
+    // Bounds of the interval between two offers in continuous mode.
+    private const val MIN_OFFER_INTERVAL_NANOS = 100_000_000L
+    private const val MAX_OFFER_INTERVAL_NANOS = 2_000_000_000L
+
+    // Weight of the latest inference latency in the smoothed latency.
+    private const val LATENCY_SMOOTHING_FACTOR = 0.25
+  }
+
+  /**
+   * The outcome of analyzing one image. [objects] is null if analysis failed with [error], or if
+   * the objects were found in the result cache: [cachedObjects] holds them then, already in world
+   * coordinates.
+   */
+  class Result(
+    val detector: ObjectDetector,
+    val objects: List<DetectedObjectResult>?,
+    val error: Exception?,
+    val cachedObjects: List<DetectionResultCache.AnchoredObject>?,
+    val cacheKey: DetectionResultCache.Key
+  )
+
+  private class Request(
+    val image: Image,
+    val imageRotation: Int,
+    val detector: ObjectDetector,
+    val poseBucket: Long,
+    val generation: Int
+  )
+
+  private val requests =
+    Channel<Request>(Channel.CONFLATED, onUndeliveredElement = { it.image.close() })
+  private val latestResult = AtomicReference<Result?>()
+  private var worker: Job? = null
+  // The analysis in flight, and the number of calls to stop(), which makes older requests stale.
+  private var analysis: Job? = null
+  private var generation = 0
+  private var lastOfferNanos = 0L
+  private val cameraDirection = FloatArray(3)
+
+  private val resultCaches = HashMap<ObjectDetector, DetectionResultCache>()
+
+  /** Inference latency, smoothed over the last few images. Zero until an image was analyzed. */
+  @Volatile
+  var smoothedLatencyNanos = 0L
+    private set
+
+  /** Returns whether an image should be offered now, in continuous mode. */
+  fun shouldOffer(nowNanos: Long): Boolean {
+    val interval =
+      smoothedLatencyNanos.coerceIn(MIN_OFFER_INTERVAL_NANOS, MAX_OFFER_INTERVAL_NANOS)
+    return nowNanos - lastOfferNanos >= interval
+  }
+
+  /**
+   * Queues [image] for analysis by [detector], replacing any image still waiting. Takes ownership
+   * of [image], which is closed once analyzed or replaced.
+   *
+   * @param cameraPose the pose of the camera that took [image], used to look up cached results.
+   */
+  @Synchronized
+  fun offer(image: Image, imageRotation: Int, detector: ObjectDetector, cameraPose: Pose) {
+    lastOfferNanos = System.nanoTime()
+    // The camera looks along its local -Z axis.
+    cameraPose.getTransformedAxis(2, -1f, cameraDirection, 0)
+    val poseBucket =
+      DetectionResultCache.poseBucket(
+        cameraPose.tx(),
+        cameraPose.ty(),
+        cameraPose.tz(),
+        cameraDirection[0],
+        cameraDirection[1],
+        cameraDirection[2]
+      )
+    // A worker only completes once its scope is cancelled, so there is never more than one.
+    if (worker?.isCompleted != false) {
+      worker = scope.launch(Dispatchers.IO) { runWorker() }
+    }
+    if (!requests.offer(Request(image, imageRotation, detector, poseBucket, generation))) {
+      image.close()
+    }
+  }
+
+  /** Returns the result of the most recently analyzed image not returned before, if any. */
+  fun pollResult(): Result? = latestResult.getAndSet(null)
+
+  /**
+   * Caches the world poses at which the objects of [result], which were inferred, got anchored, so
+   * that similar images get them without inference. Empty lists are not cached, so that scanning
+   * again retries the detector.
+   */
+  fun cacheObjects(result: Result, objects: List<DetectionResultCache.AnchoredObject>) {
+    if (objects.isNotEmpty()) {
+      getResultCache(result.detector).put(result.cacheKey, objects)
+    }
+  }
+
+  /**
+   * Cancels the analysis in flight and drops the waiting image, if any. Logs how often the result
+   * caches spared inference so far.
+   */
+  @Synchronized
+  fun stop() {
+    generation++
+    analysis?.cancel()
+    requests.poll()?.image?.close()
+    latestResult.set(null)
+    synchronized(resultCaches) {
+      for ((detector, cache) in resultCaches) {
+        Log.i(TAG, "Result cache of ${detector.javaClass.simpleName}: ${cache.getStats()}")
+      }
+    }
+  }
+
+  private suspend fun runWorker() = coroutineScope {
+    for (request in requests) {
+      val job =
+        synchronized(this@DetectionScheduler) {
+          if (request.generation != generation) {
+            // Taken from the channel just before stop().
+            request.image.close()
+            null
+          } else {
+            launch { analyze(request) }.also { analysis = it }
+          }
+        }
+      // Runs however the analysis ends, even if it was cancelled before it started.
+      job?.invokeOnCompletion { request.image.close() }
+      // Joining a cancelled analysis still waits for it to return.
+      job?.join()
+      synchronized(this@DetectionScheduler) { analysis = null }
+    }
+  }
+
+  /** Analyzes the image of [request]. The image is closed by the caller once this returns. */
+  private suspend fun analyze(request: Request) {
+    val startNanos = System.nanoTime()
+    val detector = request.detector
+    val hash = DetectionResultCache.lumaHash(ImageView.of(request.image).y)
+    val key = DetectionResultCache.Key(request.poseBucket, hash)
+    val cached = getResultCache(detector).get(key)
+    if (cached != null) {
+      // Cache hits say nothing about inference latency, leave the offer pace unchanged.
+      publish(request, Result(detector, null, null, cached, key))
+      return
+    }
+    val result =
+      try {
+        Result(detector, detector.analyze(request.image, request.imageRotation), null, null, key)
+      } catch (e: CancellationException) {
+        throw e
+      } catch (e: Exception) {
+        Log.e(TAG, "Exception thrown analyzing input frame", e)
+        Result(detector, null, e, null, key)
+      }
+    // Detectors blocking on I/O may only notice cancellation once done, drop their result then.
+    coroutineContext.ensureActive()
+    val latencyNanos = System.nanoTime() - startNanos
+    smoothedLatencyNanos =
+      if (smoothedLatencyNanos == 0L) latencyNanos
+      else
+        (smoothedLatencyNanos + LATENCY_SMOOTHING_FACTOR * (latencyNanos - smoothedLatencyNanos))
+          .toLong()
+    publish(request, result)
+  }
+
+  /**
+   * Makes [result] the latest one, unless [stop] was called since [request] was offered. Checked
+   * under the lock of [stop], so that a result cannot be published just after [stop] cleared it.
+   */
+  @Synchronized
+  private fun publish(request: Request, result: Result) {
+    if (request.generation == generation) {
+      latestResult.set(result)
+    }
+  }
+
+  private fun getResultCache(detector: ObjectDetector) =
+    synchronized(resultCaches) { resultCaches.getOrPut(detector) { DetectionResultCache() } }
+}
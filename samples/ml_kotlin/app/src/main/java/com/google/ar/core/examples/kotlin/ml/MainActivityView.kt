@@ -34,6 +34,7 @@ class MainActivityView(val activity: MainActivity, renderer: AppRenderer) :
       SampleRender(this, renderer, activity.assets)
     }
   val useCloudMlSwitch = root.findViewById<SwitchCompat>(R.id.useCloudMlSwitch)
+  val continuousDetectionSwitch = root.findViewById<SwitchCompat>(R.id.continuousDetectionSwitch)
   val scanButton = root.findViewById<AppCompatButton>(R.id.scanButton)
   val resetButton = root.findViewById<AppCompatButton>(R.id.clearButton)
   val snackbarHelper =
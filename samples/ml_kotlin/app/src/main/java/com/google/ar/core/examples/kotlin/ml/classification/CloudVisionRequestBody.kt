@@ -0,0 +1,75 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.kotlin.ml.classification
+
+import android.graphics.Bitmap
+import android.util.Base64
+import android.util.Base64OutputStream
+import java.io.FilterOutputStream
+import java.io.OutputStream
+import okhttp3.MediaType
+import okhttp3.MediaType.Companion.toMediaType
+import okhttp3.RequestBody
+import okio.BufferedSink
+
+/**
+ * An
+ * [`images.annotate` request body](https://cloud.google.com/vision/docs/reference/rest/v1/images/annotate#request-body)
+ * requesting object localization in [image].
+ *
+ * The JSON envelope and the image are written straight to the connection: the image is
+ * compressed to JPEG at [jpegQuality] into a Base64 encoder writing to the sink, so neither the
+ * JPEG bytes, nor their Base64 text, nor the JSON document are ever held in memory as a whole.
+ */
+class CloudVisionRequestBody(private val image: Bitmap, private val jpegQuality: Int) :
+  RequestBody() {
+  companion object {
+    private val JSON = "application/json; charset=utf-8".toMediaType()
+    private const val PREFIX = """{"requests":[{"image":{"content":""""
+    private const val SUFFIX = """"},"features":[{"type":"OBJECT_LOCALIZATION"}]}]}"""
+  }
+
+  /** Number of bytes written by the last call to [writeTo], for logs. */
+  var bytesWritten = 0L
+    private set
+
+  override fun contentType(): MediaType = JSON
+
+  override fun writeTo(sink: BufferedSink) {
+    sink.writeUtf8(PREFIX)
+    val counter = CountingOutputStream(sink.outputStream())
+    // NO_CLOSE keeps the sink open when the encoder is closed to write its final padding.
+    Base64OutputStream(counter, Base64.NO_WRAP or Base64.NO_CLOSE).use { base64 ->
+      image.compress(Bitmap.CompressFormat.JPEG, jpegQuality, base64)
+    }
+    sink.writeUtf8(SUFFIX)
+    bytesWritten = PREFIX.length + counter.count + SUFFIX.length
+  }
+
+  private class CountingOutputStream(out: OutputStream) : FilterOutputStream(out) {
+    var count = 0L
+
+    override fun write(b: Int) {
+      out.write(b)
+      count++
+    }
+
+    override fun write(b: ByteArray, off: Int, len: Int) {
+      out.write(b, off, len)
+      count += len
+    }
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.kotlin.ml.classification
+
+import android.graphics.PointF
+import com.google.gson.stream.JsonReader
+import java.io.Reader
+
+/**
+ * Extracts the
+ * [LocalizedObjectAnnotation](https://cloud.google.com/vision/docs/reference/rest/v1/AnnotateImageResponse#LocalizedObjectAnnotation)s
+ * of the first response of an `images.annotate` response body.
+ *
+ * The body is read as a stream of JSON tokens: only the names, scores and vertices of the
+ * annotations are kept, every other value is skipped without being materialized.
+ */
+object CloudVisionResponseParser {
+  /**
+   * A localized object.
+   *
+   * @property vertices the bounding polygon, normalized over `[0, 1]` by the image size.
+   */
+  class Annotation(val name: String, val score: Float, val vertices: List<PointF>)
+
+  /** Parses [reader] and returns the annotations found. Does not close [reader]. */
+  fun parse(reader: Reader): List<Annotation> {
+    val json = JsonReader(reader)
+    val annotations = mutableListOf<Annotation>()
+    json.beginObject()
+    while (json.hasNext()) {
+      if (json.nextName() != "responses") {
+        json.skipValue()
+        continue
+      }
+      json.beginArray()
+      if (json.hasNext()) {
+        readResponse(json, annotations)
+      }
+      while (json.hasNext()) {
+        json.skipValue()
+      }
+      json.endArray()
+    }
+    json.endObject()
+    return annotations
+  }
+
+  private fun readResponse(json: JsonReader, annotations: MutableList<Annotation>) {
+    json.beginObject()
+    while (json.hasNext()) {
+      if (json.nextName() != "localizedObjectAnnotations") {
+        json.skipValue()
+        continue
+      }
+      json.beginArray()
+      while (json.hasNext()) {
+        annotations.add(readAnnotation(json))
+      }
+      json.endArray()
+    }
+    json.endObject()
+  }
+
+  private fun readAnnotation(json: JsonReader): Annotation {
+    var name = ""
+    var score = 0f
+    var vertices = emptyList<PointF>()
+    json.beginObject()
+    while (json.hasNext()) {
+      when (json.nextName()) {
+        "name" -> name = json.nextString()
+        "score" -> score = json.nextDouble().toFloat()
+        "boundingPoly" -> vertices = readBoundingPoly(json)
+        else -> json.skipValue()
+      }
+    }
+    json.endObject()
+    return Annotation(name, score, vertices)
+  }
+
+  /**
+   * Reads the normalized vertices of a
+   * [BoundingPoly](https://cloud.google.com/vision/docs/reference/rest/v1/projects.locations.products.referenceImages#BoundingPoly).
+   * Coordinates equal to 0 are left out of JSON responses, so missing coordinates read as 0.
+   */
+  private fun readBoundingPoly(json: JsonReader): List<PointF> {
+    val vertices = mutableListOf<PointF>()
+    json.beginObject()
+    while (json.hasNext()) {
+      if (json.nextName() != "normalizedVertices") {
+        json.skipValue()
+        continue
+      }
+      json.beginArray()
+      while (json.hasNext()) {
+        var x = 0f
+        var y = 0f
+        json.beginObject()
+        while (json.hasNext()) {
+          when (json.nextName()) {
+            "x" -> x = json.nextDouble().toFloat()
+            "y" -> y = json.nextDouble().toFloat()
+            else -> json.skipValue()
+          }
+        }
+        json.endObject()
+        vertices.add(PointF(x, y))
+      }
+      json.endArray()
+    }
+    json.endObject()
+    return vertices
+  }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.kotlin.ml.classification
+
+import com.google.ar.core.Pose
+import com.google.ar.core.examples.java.common.helpers.PlaneView
+import kotlin.math.asin
+import kotlin.math.atan2
+import kotlin.math.floor
+
+/**
+ * Remembers where the objects detected in recently analyzed images were anchored, so that pointing
+ * the camera at the same scene again does not run inference again.
+ *
+ * Images are identified by a 64-bit difference hash of their luma ([lumaHash]) and by the bucket of
+ * camera poses they were taken from ([poseBucket]). A lookup hits an entry of the same pose bucket
+ * whose hash differs in at most [maxHammingDistance] bits. Entries hold the world poses the objects
+ * were anchored at, not their pixel coordinates: the camera may have moved within its pose bucket,
+ * so hit testing the cached pixels against the current frame would anchor the labels elsewhere.
+ *
+ * The least recently used entry is evicted once more than [capacity] images are cached. Thread
+ * safe.
+ */
+class DetectionResultCache(val capacity: Int = 32, val maxHammingDistance: Int = 6) {
+  companion object {
+    // Grid the luma is averaged over: one more column than hash bits per row, as each bit compares
+    // two horizontally adjacent cells.
+    private const val HASH_COLUMNS = 9
+    private const val HASH_ROWS = 8
+
+    // Luma samples averaged per cell in each direction, bounding the cost of hashing.
+    private const val SAMPLES_PER_CELL = 4
+
+    private const val POSITION_BUCKET_METERS = 0.5f
+    private const val DIRECTION_BUCKET_DEGREES = 30f
+
+    /**
+     * Computes the difference hash of a luma plane: the plane is averaged over a 9x8 grid, and each
+     * bit tells whether a cell is brighter than its right neighbour. The hash survives noise,
+     * exposure changes and small shifts, unlike a checksum of the pixels.
+     */
+    fun lumaHash(plane: PlaneView): Long {
+      val cells = IntArray(HASH_COLUMNS * HASH_ROWS)
+      for (row in 0 until HASH_ROWS) {
+        for (column in 0 until HASH_COLUMNS) {
+          var sum = 0
+          for (sampleY in 0 until SAMPLES_PER_CELL) {
+            val y = sampleCoordinate(row, sampleY, HASH_ROWS, plane.height)
+            for (sampleX in 0 until SAMPLES_PER_CELL) {
+              sum += plane.get(sampleCoordinate(column, sampleX, HASH_COLUMNS, plane.width), y)
+            }
+          }
+          cells[row * HASH_COLUMNS + column] = sum
+        }
+      }
+      var hash = 0L
+      for (row in 0 until HASH_ROWS) {
+        for (column in 0 until HASH_COLUMNS - 1) {
+          val index = row * HASH_COLUMNS + column
+          hash = (hash shl 1) or (if (cells[index] > cells[index + 1]) 1L else 0L)
+        }
+      }
+      return hash
+    }
+
+    /**
+     * Returns the bucket of a camera pose: its position quantized to [POSITION_BUCKET_METERS] and
+     * its viewing direction, a unit vector, quantized to [DIRECTION_BUCKET_DEGREES] of yaw and
+     * pitch. Direction buckets are centered on the horizon and on the -Z axis, so that a level
+     * camera looking ahead does not flip between buckets.
+     */
+    fun poseBucket(
+      x: Float,
+      y: Float,
+      z: Float,
+      directionX: Float,
+      directionY: Float,
+      directionZ: Float
+    ): Long {
+      val halfBucket = DIRECTION_BUCKET_DEGREES / 2
+      val yaw =
+        (Math.toDegrees(atan2(directionX, directionZ).toDouble()).toFloat() + 180f + halfBucket) %
+          360f
+      val pitch =
+        Math.toDegrees(asin(directionY.coerceIn(-1f, 1f)).toDouble()).toFloat() + 90f + halfBucket
+      return (bucket(x, POSITION_BUCKET_METERS) shl 44) or
+        (bucket(y, POSITION_BUCKET_METERS) shl 28) or
+        (bucket(z, POSITION_BUCKET_METERS) shl 12) or
+        (bucket(yaw, DIRECTION_BUCKET_DEGREES) shl 6) or
+        bucket(pitch, DIRECTION_BUCKET_DEGREES)
+    }
+
+    /** Returns the coordinate of a sample of a cell, spreading samples evenly over the plane. */
+    private fun sampleCoordinate(cell: Int, sample: Int, cellCount: Int, size: Int) =
+      ((cell * SAMPLES_PER_CELL + sample) * 2 + 1) * size / (2 * cellCount * SAMPLES_PER_CELL)
+
+    private fun bucket(value: Float, size: Float) = floor(value / size).toLong() and 0xFFFF
+  }
+
+  /** Identifies an analyzed image, see [lumaHash] and [poseBucket]. */
+  data class Key(val poseBucket: Long, val hash: Long)
+
+  /** An object labeled [label] that was anchored at [pose], in world coordinates. */
+  data class AnchoredObject(val label: String, val pose: Pose)
+
+  private val entries =
+    object : LinkedHashMap<Key, List<AnchoredObject>>(capacity, 0.75f, true) {
+      override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Key, List<AnchoredObject>>) =
+        size > capacity
+    }
+
+  /** Number of lookups that found cached results. */
+  @Volatile
+  var hitCount = 0L
+    private set
+
+  /** Number of lookups that found nothing. */
+  @Volatile
+  var missCount = 0L
+    private set
+
+  val size: Int
+    @Synchronized get() = entries.size
+
+  /**
+   * Returns the objects cached for an image similar to the one identified by [key], or null if
+   * there are none.
+   */
+  @Synchronized
+  fun get(key: Key): List<AnchoredObject>? {
+    var closest: Key? = null
+    var closestDistance = maxHammingDistance + 1
+    for (entryKey in entries.keys) {
+      if (entryKey.poseBucket != key.poseBucket) continue
+      val distance = java.lang.Long.bitCount(entryKey.hash xor key.hash)
+      if (distance < closestDistance) {
+        closest = entryKey
+        closestDistance = distance
+      }
+    }
+    if (closest == null) {
+      missCount++
+      return null
+    }
+    hitCount++
+    // Reading through the map marks the entry as recently used.
+    return entries[closest]
+  }
+
+  /** Caches the objects anchored from the image identified by [key]. */
+  @Synchronized
+  fun put(key: Key, objects: List<AnchoredObject>) {
+    entries[key] = objects
+  }
+
+  @Synchronized
+  fun clear() {
+    entries.clear()
+  }
+
+  /** Returns the hit rate and counts, for logs. */
+  @Synchronized
+  fun getStats(): String {
+    val lookups = hitCount + missCount
+    val hitPercent = if (lookups == 0L) 0L else 100 * hitCount / lookups
+    return "$hitCount hits, $missCount misses ($hitPercent%), $size cached"
+  }
+}
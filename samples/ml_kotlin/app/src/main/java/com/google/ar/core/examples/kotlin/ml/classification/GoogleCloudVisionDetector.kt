@@ -16,33 +16,33 @@
 
 package com.google.ar.core.examples.kotlin.ml.classification
 
-import android.graphics.PointF
 import android.media.Image
-import android.util.Base64
 import android.util.Log
 import com.google.ar.core.examples.kotlin.ml.MainActivity
-import com.google.ar.core.examples.kotlin.ml.classification.utils.ImageUtils
-import com.google.ar.core.examples.kotlin.ml.classification.utils.ImageUtils.toByteArray
 import com.google.ar.core.examples.kotlin.ml.classification.utils.VertexUtils
-import com.google.ar.core.examples.kotlin.ml.classification.utils.VertexUtils.rotateCoordinates
-import com.google.ar.core.examples.kotlin.ml.classification.utils.VertexUtils.toAbsoluteCoordinates
-import com.google.gson.JsonArray
-import com.google.gson.JsonObject
-import com.google.gson.JsonParser
-import okhttp3.MediaType.Companion.toMediaType
+import java.io.IOException
 import okhttp3.OkHttpClient
 import okhttp3.Request
-import okhttp3.RequestBody
 
 /**
  * Finds detected objects ([DetectedObjectResult]s) given an [android.media.Image]. See
  * [Cloud Vision API's detect multiple objects developer guide](https://cloud.google.com/vision/docs/object-localizer)
  * .
  */
-class GoogleCloudVisionDetector(val activity: MainActivity, val apiKey: String) :
-  ObjectDetector(activity) {
+class GoogleCloudVisionDetector(
+  val activity: MainActivity,
+  val apiKey: String,
+  maxImageDimension: Int = ObjectDetector.DEFAULT_MAX_IMAGE_DIMENSION,
+  val jpegQuality: Int = DEFAULT_JPEG_QUALITY
+) : ObjectDetector(activity, maxImageDimension) {
   companion object {
     val TAG = "GoogleCloudVisionDetector"
+
+    /**
+     * JPEG quality of uploaded images. Object localization is insensitive to compression artifacts
+     * at this level, and the upload is several times smaller than at quality 100.
+     */
+    const val DEFAULT_JPEG_QUALITY = 80
   }
 
   val httpClient = OkHttpClient.Builder().build()
@@ -50,109 +50,44 @@ class GoogleCloudVisionDetector(val activity: MainActivity, val apiKey: String)
   override suspend fun analyze(image: Image, imageRotation: Int): List<DetectedObjectResult> {
     // `image` is in YUV
     // (https://developers.google.com/ar/reference/java/com/google/ar/core/Frame#acquireCameraImage()),
-    val convertYuv = convertYuv(image)
-
-    // The model performs best on upright images, so rotate it.
-    val rotatedImage = ImageUtils.rotateBitmap(convertYuv, imageRotation)
+    // The model performs best on upright images, so rotate it. It also does not need full camera
+    // resolution, so downscale it in the same pass, which also shrinks the upload.
+    val preprocessedImage = preprocess(image, imageRotation)
 
-    // Create Google Cloud Vision request.
-    val body = createRequestBody(rotatedImage.toByteArray())
+    // Create Google Cloud Vision request. The body streams the image to the connection as it is
+    // compressed and encoded.
+    val body = CloudVisionRequestBody(preprocessedImage.bitmap, jpegQuality)
     val req =
       httpClient.newCall(
         Request.Builder()
           .url("https://vision.googleapis.com/v1/images:annotate?key=$apiKey")
-          .post(RequestBody.create("text/json".toMediaType(), body.toString()))
+          .post(body)
           .build()
       )
 
-    // Execute Google Cloud Vision request and parse response body.
+    // Execute Google Cloud Vision request and parse the annotations out of the response stream.
     req.execute().use { response ->
-      val responseBody = response.body?.string()
+      if (!response.isSuccessful) {
+        throw IOException("Request failed with HTTP ${response.code}: ${response.message}")
+      }
+      val responseBody = response.body
       if (responseBody == null) {
         Log.e(TAG, "Failed to parse result body.")
         return emptyList()
       }
-      Log.i(TAG, "Received response body: $responseBody")
-      val jsonBody = JsonParser.parseString(responseBody).asJsonObject
-
-      // Process result and map to DetectedObjectResult.
       // https://cloud.google.com/vision/docs/reference/rest/v1/AnnotateImageResponse
-      val responseObject = jsonBody.getAsJsonArray("responses").first().asJsonObject
-      // https://cloud.google.com/vision/docs/reference/rest/v1/AnnotateImageResponse#LocalizedObjectAnnotation
-      val localisedObjectAnnotationsList =
-        responseObject.getAsJsonArray("localizedObjectAnnotations") ?: return emptyList()
-      return localisedObjectAnnotationsList
-        .map { it.asJsonObject }
-        .map { annotation ->
-          // https://cloud.google.com/vision/docs/reference/rest/v1/projects.locations.products.referenceImages#BoundingPoly
-          val boundingPoly = annotation.get("boundingPoly").asJsonObject
-          val centerCoordinateNormalized =
-            VertexUtils.calculateCenterOfPoly(boundingPolyToCoordinateList(boundingPoly))
-          val centerCoordinateAbsolute =
-            centerCoordinateNormalized.toAbsoluteCoordinates(
-              rotatedImage.width,
-              rotatedImage.height
-            )
-          val rotatedCoordinates =
-            centerCoordinateAbsolute.rotateCoordinates(
-              rotatedImage.width,
-              rotatedImage.height,
-              imageRotation
-            )
-          DetectedObjectResult(
-            confidence = annotation.get("score").asFloat,
-            label = annotation.get("name").asString,
-            centerCoordinate = rotatedCoordinates
-          )
-        }
-    }
-  }
-
-  /**
-   * Creates an
-   * [`images.annotate` request body](https://cloud.google.com/vision/docs/reference/rest/v1/images/annotate#request-body)
-   *
-   * @param image a [ByteArray] representation of the image to upload to Google Cloud Vision API.
-   */
-  fun createRequestBody(image: ByteArray): JsonObject {
-
-    return JsonObject().apply {
-      add(
-        "requests",
-        JsonArray().apply {
-          add(
-            JsonObject().apply {
-              add(
-                "image",
-                JsonObject().apply {
-                  addProperty("content", Base64.encodeToString(image, Base64.DEFAULT))
-                }
-              )
-              add(
-                "features",
-                JsonArray().apply {
-                  add(JsonObject().apply { addProperty("type", "OBJECT_LOCALIZATION") })
-                }
-              )
-            }
-          )
-        }
-      )
-    }
-  }
-
-  /**
-   * Transforms a [JsonObject] of
-   * [BoundingPoly](https://cloud.google.com/vision/docs/reference/rest/v1/projects.locations.products.referenceImages#BoundingPoly)
-   * to [List<PointF>].
-   */
-  fun boundingPolyToCoordinateList(boundingPoly: JsonObject): List<PointF> {
-    return boundingPoly
-      .get("normalizedVertices")
-      .asJsonArray
-      .map { it.asJsonObject }
-      .mapNotNull {
-        if (it["x"] == null || it["y"] == null) null else PointF(it["x"].asFloat, it["y"].asFloat)
+      val annotations = CloudVisionResponseParser.parse(responseBody.charStream())
+      Log.i(TAG, "Sent ${body.bytesWritten} bytes, received ${annotations.size} annotations")
+      return annotations.map { annotation ->
+        val centerCoordinateNormalized = VertexUtils.calculateCenterOfPoly(annotation.vertices)
+        val rotatedCoordinates =
+          preprocessedImage.transform.toCameraImage(centerCoordinateNormalized)
+        DetectedObjectResult(
+          confidence = annotation.score,
+          label = annotation.name,
+          centerCoordinate = rotatedCoordinates
+        )
       }
+    }
   }
 }
@@ -19,8 +19,6 @@ package com.google.ar.core.examples.kotlin.ml.classification
 import android.app.Activity
 import android.graphics.Point
 import android.media.Image
-import com.google.ar.core.examples.kotlin.ml.classification.utils.ImageUtils
-import com.google.ar.core.examples.kotlin.ml.classification.utils.VertexUtils.rotateCoordinates
 import com.google.mlkit.vision.common.InputImage
 import com.google.mlkit.vision.objects.ObjectDetection
 import com.google.mlkit.vision.objects.custom.CustomObjectDetectorOptions
@@ -48,20 +46,18 @@ class MLKitObjectDetector(context: Activity) : ObjectDetector(context) {
   override suspend fun analyze(image: Image, imageRotation: Int): List<DetectedObjectResult> {
     // `image` is in YUV
     // (https://developers.google.com/ar/reference/java/com/google/ar/core/Frame#acquireCameraImage()),
-    val convertYuv = convertYuv(image)
+    // The model performs best on upright images, so rotate it. It also does not need full camera
+    // resolution, so downscale it in the same pass.
+    val preprocessedImage = preprocess(image, imageRotation)
 
-    // The model performs best on upright images, so rotate it.
-    val rotatedImage = ImageUtils.rotateBitmap(convertYuv, imageRotation)
-
-    val inputImage = InputImage.fromBitmap(rotatedImage, 0)
+    val inputImage = InputImage.fromBitmap(preprocessedImage.bitmap, 0)
 
     val mlKitDetectedObjects = detector.process(inputImage).await()
     return mlKitDetectedObjects.mapNotNull { obj ->
       val bestLabel = obj.labels.maxByOrNull { label -> label.confidence } ?: return@mapNotNull null
       val coords =
         Point(obj.boundingBox.exactCenterX().toInt(), obj.boundingBox.exactCenterY().toInt())
-      val rotatedCoordinates =
-        coords.rotateCoordinates(rotatedImage.width, rotatedImage.height, imageRotation)
+      val rotatedCoordinates = preprocessedImage.transform.toCameraImage(coords)
       DetectedObjectResult(bestLabel.confidence, bestLabel.text, rotatedCoordinates)
     }
   }
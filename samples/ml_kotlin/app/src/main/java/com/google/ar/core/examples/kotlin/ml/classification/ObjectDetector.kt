@@ -20,14 +20,26 @@ import android.content.Context
 import android.graphics.Bitmap
 import android.media.Image
 import com.google.ar.core.Frame
-import com.google.ar.core.examples.kotlin.ml.third_party.YuvToRgbConverter
+import com.google.ar.core.examples.kotlin.ml.classification.utils.ImagePreprocessor
+import com.google.ar.core.examples.kotlin.ml.classification.utils.ImagePreprocessor.PreprocessedImage
 
 /**
  * Describes a common interface for [GoogleCloudVisionDetector] and [MLKitObjectDetector] that can
  * infer object labels in a given [Image] and gives results in a list of [DetectedObjectResult].
+ *
+ * @param maxImageDimension longer side of the bitmaps [preprocess] returns.
  */
-abstract class ObjectDetector(val context: Context) {
-  val yuvConverter = YuvToRgbConverter(context)
+abstract class ObjectDetector(
+  val context: Context,
+  maxImageDimension: Int = DEFAULT_MAX_IMAGE_DIMENSION
+) {
+  companion object {
+    /** Longer side of the images given to detectors, which need far less than camera resolution. */
+    const val DEFAULT_MAX_IMAGE_DIMENSION = 640
+  }
+
+  /** Converts camera images to the upright, downscaled bitmaps detectors run on. */
+  val imagePreprocessor = ImagePreprocessor(maxImageDimension)
 
   /**
    * Infers a list of [DetectedObjectResult] given a camera image frame, which contains a confidence
@@ -40,11 +52,11 @@ abstract class ObjectDetector(val context: Context) {
    * [Frame.acquireCameraImage] returns an image in YUV format.
    * https://developers.google.com/ar/reference/java/com/google/ar/core/Frame#acquireCameraImage()
    *
-   * Converts a YUV image to a [Bitmap] using [YuvToRgbConverter].
+   * Converts a YUV image to an upright [Bitmap] downscaled for detection, in a single pass, so that
+   * no full resolution bitmap is created. Coordinates found in the bitmap are mapped back to
+   * [image] with [PreprocessedImage.transform].
    */
-  fun convertYuv(image: Image): Bitmap {
-    return Bitmap.createBitmap(image.width, image.height, Bitmap.Config.ARGB_8888).apply {
-      yuvConverter.yuvToRgb(image, this)
-    }
+  fun preprocess(image: Image, imageRotation: Int): PreprocessedImage {
+    return imagePreprocessor.process(image, imageRotation)
   }
 }
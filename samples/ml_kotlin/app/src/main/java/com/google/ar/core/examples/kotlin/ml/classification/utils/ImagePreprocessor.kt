@@ -0,0 +1,265 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.kotlin.ml.classification.utils
+
+import android.graphics.Bitmap
+import android.graphics.ImageFormat
+import android.graphics.Point
+import android.graphics.PointF
+import android.media.Image
+import com.google.ar.core.examples.java.common.helpers.ImageView
+import com.google.ar.core.examples.kotlin.ml.classification.utils.VertexUtils.rotateCoordinates
+import com.google.ar.core.examples.kotlin.ml.classification.utils.VertexUtils.toAbsoluteCoordinates
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.RecursiveAction
+import kotlin.math.max
+import kotlin.math.roundToInt
+
+/**
+ * Prepares camera images for object detection in a single pass: converts a
+ * [ImageFormat.YUV_420_888] image to ARGB, rotates it upright and downscales it to at most
+ * [maxDimension] pixels on its longer side, without any full-resolution intermediate bitmap.
+ *
+ * Every output pixel samples the camera pixel at its center (nearest neighbour). Source indices of
+ * the output rows and columns are computed once per image size and rotation. The output rows are
+ * split into bands converted in parallel on a shared [ForkJoinPool] with one thread per processor.
+ * The output bitmaps are pooled: the same [BITMAP_POOL_SIZE] bitmaps are reused in turn, so an
+ * image still read by a previous, cancelled detection is not overwritten by the next one. After
+ * the first image of a given size and rotation, conversion does not allocate.
+ */
+class ImagePreprocessor(val maxDimension: Int) {
+  companion object {
+    private const val BITMAP_POOL_SIZE = 2
+
+    // Shared by all preprocessors. Its threads are daemons and exit when idle.
+    private val pool = ForkJoinPool(Runtime.getRuntime().availableProcessors())
+  }
+
+  /**
+   * An upright, downscaled image ready for a detector, with the [transform] mapping its
+   * coordinates back to the camera image. [bitmap] and [pixels] are reused by later calls to
+   * [process].
+   */
+  class PreprocessedImage(val bitmap: Bitmap, val pixels: IntArray, val transform: ImageTransform)
+
+  /**
+   * Maps coordinates of a [PreprocessedImage] to pixel coordinates of the camera image it was made
+   * from, undoing the downscale with [scale] and the rotation with [rotateCoordinates].
+   *
+   * @property rotation the clockwise rotation applied to the camera image, in degrees.
+   * @property scale the size of the preprocessed image divided by the size of the rotated image.
+   * @property rotatedWidth the width of the rotated camera image, before downscaling.
+   * @property rotatedHeight the height of the rotated camera image, before downscaling.
+   */
+  data class ImageTransform(
+    val rotation: Int,
+    val scale: Float,
+    val rotatedWidth: Int,
+    val rotatedHeight: Int
+  ) {
+    /** Maps a point in pixels of the preprocessed image. */
+    fun toCameraImage(point: Point): Point =
+      Point((point.x / scale).toInt(), (point.y / scale).toInt())
+        .rotateCoordinates(rotatedWidth, rotatedHeight, rotation)
+
+    /** Maps a point normalized over `[0, 1]` by the size of the preprocessed image. */
+    fun toCameraImage(point: PointF): Point =
+      point
+        .toAbsoluteCoordinates(rotatedWidth, rotatedHeight)
+        .rotateCoordinates(rotatedWidth, rotatedHeight, rotation)
+  }
+
+  private val images = arrayOfNulls<PreprocessedImage>(BITMAP_POOL_SIZE)
+  private var nextImage = 0
+
+  /** ARGB pixels of the last converted image, row by row. Reused by later conversions. */
+  internal var pixels = IntArray(0)
+    private set
+
+  // Rotated image coordinates sampled by each output column and row, for the last image size.
+  private var sourceColumns = IntArray(0)
+  private var sourceRows = IntArray(0)
+  private var transform: ImageTransform? = null
+  private var imageWidth = 0
+  private var imageHeight = 0
+
+  private val bands = Array(pool.parallelism) { Band() }
+  private val convertTask = ConvertTask()
+  // The image being converted by the bands.
+  private var source: ImageView? = null
+
+  /**
+   * Converts, rotates and downscales [image].
+   *
+   * @param imageRotation the clockwise rotation making the image upright: 0, 90, 180 or 270.
+   */
+  @Synchronized
+  fun process(image: Image, imageRotation: Int): PreprocessedImage {
+    require(image.format == ImageFormat.YUV_420_888) { "Unsupported format ${image.format}" }
+    val transform = convert(ImageView.of(image), imageRotation)
+    val outputWidth = sourceColumns.size
+    val outputHeight = sourceRows.size
+    val preprocessed = obtainImage(outputWidth, outputHeight, transform)
+    preprocessed.bitmap.setPixels(pixels, 0, outputWidth, 0, 0, outputWidth, outputHeight)
+    return preprocessed
+  }
+
+  /**
+   * Converts, rotates and downscales a [ImageFormat.YUV_420_888] image into [pixels], without the
+   * bitmap [process] copies them to.
+   *
+   * @return the transform of the converted image.
+   */
+  @Synchronized
+  internal fun convert(view: ImageView, imageRotation: Int): ImageTransform {
+    val transform = updateTransform(view.width, view.height, imageRotation)
+    val outputHeight = sourceRows.size
+    val bandCount = minOf(bands.size, outputHeight)
+    val rowsPerBand = (outputHeight + bandCount - 1) / bandCount
+    for (i in 0 until bandCount) {
+      bands[i].firstRow = minOf(outputHeight, i * rowsPerBand)
+      bands[i].endRow = minOf(outputHeight, bands[i].firstRow + rowsPerBand)
+    }
+    source = view
+    try {
+      convertTask.bandCount = bandCount
+      convertTask.reinitialize()
+      pool.invoke(convertTask)
+    } finally {
+      source = null
+    }
+    return transform
+  }
+
+  /** Converts output rows [firstRow] until [endRow] of [source]. */
+  private fun convertRows(firstRow: Int, endRow: Int) {
+    val view = checkNotNull(source)
+    val imageRotation = checkNotNull(transform).rotation
+    val outputWidth = sourceColumns.size
+    val planeY = view.y
+    val planeU = view.u
+    val planeV = view.v
+    val lastX = view.width - 1
+    val lastY = view.height - 1
+    var output = firstRow * outputWidth
+    for (row in firstRow until endRow) {
+      val sourceRow = sourceRows[row]
+      for (column in 0 until outputWidth) {
+        val sourceColumn = sourceColumns[column]
+        val x: Int
+        val y: Int
+        when (imageRotation) {
+          0 -> {
+            x = sourceColumn
+            y = sourceRow
+          }
+          90 -> {
+            x = sourceRow
+            y = lastY - sourceColumn
+          }
+          180 -> {
+            x = lastX - sourceColumn
+            y = lastY - sourceRow
+          }
+          else -> {
+            x = lastX - sourceRow
+            y = sourceColumn
+          }
+        }
+        val chromaX = x shr 1
+        val chromaY = y shr 1
+        pixels[output++] =
+          YuvToRgbConverter.yuvToArgb(
+            planeY.get(x, y),
+            planeU.get(chromaX, chromaY),
+            planeV.get(chromaX, chromaY)
+          )
+      }
+    }
+  }
+
+  private fun updateTransform(width: Int, height: Int, imageRotation: Int): ImageTransform {
+    require(imageRotation in 0..270 && imageRotation % 90 == 0) {
+      "Invalid imageRotation $imageRotation"
+    }
+    transform?.let {
+      if (width == imageWidth && height == imageHeight && imageRotation == it.rotation) return it
+    }
+    val rotatedWidth = if (imageRotation % 180 == 0) width else height
+    val rotatedHeight = if (imageRotation % 180 == 0) height else width
+    val scale = minOf(1f, maxDimension.toFloat() / max(rotatedWidth, rotatedHeight))
+    val outputWidth = max(1, (rotatedWidth * scale).roundToInt())
+    val outputHeight = max(1, (rotatedHeight * scale).roundToInt())
+    sourceColumns = sampleIndices(outputWidth, rotatedWidth)
+    sourceRows = sampleIndices(outputHeight, rotatedHeight)
+    pixels = IntArray(outputWidth * outputHeight)
+    imageWidth = width
+    imageHeight = height
+    val transform =
+      ImageTransform(
+        imageRotation,
+        outputWidth.toFloat() / rotatedWidth,
+        rotatedWidth,
+        rotatedHeight
+      )
+    this.transform = transform
+    return transform
+  }
+
+  /** Returns the source index sampled by each of [outputSize] pixels, at their centers. */
+  private fun sampleIndices(outputSize: Int, sourceSize: Int) =
+    IntArray(outputSize) { minOf(sourceSize - 1, ((2 * it + 1) * sourceSize) / (2 * outputSize)) }
+
+  private fun obtainImage(width: Int, height: Int, transform: ImageTransform): PreprocessedImage {
+    val index = nextImage
+    nextImage = (nextImage + 1) % BITMAP_POOL_SIZE
+    val pooled = images[index]
+    if (pooled != null && pooled.transform == transform && pooled.pixels === pixels) {
+      return pooled
+    }
+    val bitmap =
+      pooled?.bitmap?.takeIf { it.width == width && it.height == height }
+        ?: Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
+    return PreprocessedImage(bitmap, pixels, transform).also { images[index] = it }
+  }
+
+  /** Forks the bands of the current image and waits for them. */
+  private inner class ConvertTask : RecursiveAction() {
+    var bandCount = 0
+
+    override fun compute() {
+      for (i in 1 until bandCount) {
+        bands[i].reinitialize()
+        bands[i].fork()
+      }
+      // Convert the first band on this thread rather than leave it idle.
+      bands[0].reinitialize()
+      bands[0].invoke()
+      for (i in 1 until bandCount) {
+        bands[i].join()
+      }
+    }
+  }
+
+  /** Converts a range of output rows. */
+  private inner class Band : RecursiveAction() {
+    var firstRow = 0
+    var endRow = 0
+
+    override fun compute() = convertRows(firstRow, endRow)
+  }
+}
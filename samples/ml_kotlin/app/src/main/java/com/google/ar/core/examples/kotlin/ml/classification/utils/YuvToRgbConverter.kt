@@ -0,0 +1,54 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.kotlin.ml.classification.utils
+
+import android.graphics.ImageFormat
+import kotlin.math.roundToInt
+
+/**
+ * Converts [ImageFormat.YUV_420_888] samples to ARGB pixels on the CPU.
+ *
+ * Uses the BT.601 limited range coefficients of the RenderScript intrinsic this object replaces,
+ * stored as fixed-point tables indexed by sample value: converting a pixel costs a few table reads,
+ * additions and shifts. [ImagePreprocessor] converts only the pixels it samples with these tables,
+ * so no full image is ever converted.
+ */
+object YuvToRgbConverter {
+  private const val SHIFT = 16
+  private const val ALPHA = 0xFF shl 24
+
+  private fun table(coefficient: Float, offset: Int, bias: Int = 0) =
+    IntArray(256) { (coefficient * (it - offset) * (1 shl SHIFT)).roundToInt() + bias }
+
+  // Luma carries the rounding term, so that it is added once per channel.
+  private val Y_TABLE = table(1.164f, offset = 16, bias = 1 shl (SHIFT - 1))
+  private val V_TO_R_TABLE = table(1.596f, offset = 128)
+  private val U_TO_G_TABLE = table(-0.391f, offset = 128)
+  private val V_TO_G_TABLE = table(-0.813f, offset = 128)
+  private val U_TO_B_TABLE = table(2.018f, offset = 128)
+
+  private fun clamp(value: Int) = if (value < 0) 0 else if (value > 255) 255 else value
+
+  /** Converts one pixel to ARGB with the fixed-point tables. */
+  fun yuvToArgb(y: Int, u: Int, v: Int): Int {
+    val luma = Y_TABLE[y]
+    val r = clamp((luma + V_TO_R_TABLE[v]) shr SHIFT)
+    val g = clamp((luma + U_TO_G_TABLE[u] + V_TO_G_TABLE[v]) shr SHIFT)
+    val b = clamp((luma + U_TO_B_TABLE[u]) shr SHIFT)
+    return ALPHA or (r shl 16) or (g shl 8) or b
+  }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.kotlin.ml.render
+
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.Paint
+import android.graphics.Typeface
+import android.opengl.GLES30
+import android.util.Log
+import com.google.ar.core.examples.java.common.samplerender.GLError
+import com.google.ar.core.examples.java.common.samplerender.SampleRender
+import com.google.ar.core.examples.java.common.samplerender.Texture
+import java.io.Closeable
+import java.nio.ByteBuffer
+import kotlin.math.ceil
+
+/**
+ * Packs the rendered text of label names into a single texture, so that any number of labels can
+ * be drawn with one texture bound.
+ *
+ * Each name is rasterized once into a region fitting its text, placed by a shelf packer: the atlas
+ * is split into horizontal shelves filled from left to right. All names are drawn with the same
+ * paint, so regions share a height and shelves waste little space.
+ *
+ * The atlas texture is the only memory held on the GPU: it is the largest power-of-two square of
+ * RGBA texels within [memoryBudgetBytes]. When a name does not fit, the least recently used names
+ * are evicted until it does. Names used since the last [endFrame] are never evicted.
+ *
+ * Must be used on the GL thread.
+ */
+class LabelAtlas(memoryBudgetBytes: Int = DEFAULT_MEMORY_BUDGET_BYTES) : Closeable {
+  companion object {
+    private const val TAG = "LabelAtlas"
+
+    /** A 1024x1024 atlas. */
+    const val DEFAULT_MEMORY_BUDGET_BYTES = 4 * 1024 * 1024
+
+    private const val BYTES_PER_TEXEL = 4
+
+    // Transparent border around each region, so that linear filtering does not bleed the
+    // neighbouring regions into it.
+    private const val PADDING = 2
+  }
+
+  /**
+   * The part of the atlas holding the text of [label], in texels and in texture coordinates. The
+   * top of the text is at [v0].
+   */
+  class Region
+  internal constructor(
+    val label: String,
+    internal val shelf: Shelf,
+    val x: Int,
+    val width: Int,
+    val height: Int,
+    atlasSize: Int
+  ) {
+    val u0 = x.toFloat() / atlasSize
+    val v0 = shelf.y.toFloat() / atlasSize
+    val u1 = (x + width).toFloat() / atlasSize
+    val v1 = (shelf.y + height).toFloat() / atlasSize
+    internal var lastUsedFrame = 0L
+  }
+
+  internal class Shelf(val y: Int, val height: Int) {
+    var usedWidth = 0
+    var regionCount = 0
+  }
+
+  /** Width and height of the atlas texture, in texels. */
+  val size: Int
+
+  init {
+    require(memoryBudgetBytes >= BYTES_PER_TEXEL) { "Invalid memory budget $memoryBudgetBytes" }
+    var side = 1
+    while (4L * side * side * BYTES_PER_TEXEL <= memoryBudgetBytes) side *= 2
+    size = side
+  }
+
+  lateinit var texture: Texture
+    private set
+
+  // In access order: the least recently used region comes first.
+  private val regions = LinkedHashMap<String, Region>(16, 0.75f, true)
+  private val shelves = mutableListOf<Shelf>()
+  private var frame = 1L
+
+  /** Paint used to draw the label's text. */
+  val textPaint =
+    Paint().apply {
+      textSize = 26f
+      setARGB(0xff, 0xea, 0x43, 0x35)
+      style = Paint.Style.FILL
+      isAntiAlias = true
+      textAlign = Paint.Align.CENTER
+      typeface = Typeface.DEFAULT_BOLD
+      strokeWidth = 2f
+    }
+
+  /** Paint used to stroke the label text. */
+  val strokePaint =
+    Paint(textPaint).apply {
+      setARGB(0xff, 0x00, 0x00, 0x00)
+      style = Paint.Style.STROKE
+    }
+
+  private val fontMetrics = textPaint.fontMetrics
+  private val regionHeight =
+    ceil(fontMetrics.descent - fontMetrics.ascent + strokePaint.strokeWidth).toInt() + 2 * PADDING
+
+  // Names are rasterized into the top left corner of this bitmap, then copied to the atlas.
+  private val scratchBitmap = Bitmap.createBitmap(size, regionHeight, Bitmap.Config.ARGB_8888)
+  private val scratchCanvas = Canvas(scratchBitmap)
+  private val scratchPixels = ByteBuffer.allocateDirect(scratchBitmap.byteCount)
+
+  fun onSurfaceCreated(render: SampleRender) {
+    texture =
+      Texture(render, Texture.Target.TEXTURE_2D, Texture.WrapMode.CLAMP_TO_EDGE, false)
+    GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, texture.textureId)
+    GLError.maybeThrowGLException("Failed to bind texture", "glBindTexture")
+    GLES30.glTexImage2D(
+      GLES30.GL_TEXTURE_2D,
+      0,
+      GLES30.GL_RGBA8,
+      size,
+      size,
+      0,
+      GLES30.GL_RGBA,
+      GLES30.GL_UNSIGNED_BYTE,
+      null
+    )
+    GLError.maybeThrowGLException("Failed to allocate texture", "glTexImage2D")
+    // The regions of a previous texture are lost with it.
+    regions.clear()
+    shelves.clear()
+  }
+
+  /**
+   * Returns the region holding [label], rasterizing it first if it is not in the atlas, or null if
+   * it does not fit even after evicting every name unused in this frame.
+   */
+  fun get(label: String): Region? {
+    regions[label]?.let {
+      it.lastUsedFrame = frame
+      return it
+    }
+    val textWidth = ceil(textPaint.measureText(label) + strokePaint.strokeWidth).toInt()
+    val width = minOf(size, textWidth + 2 * PADDING)
+    val region = allocate(label, width, regionHeight)
+    if (region == null) {
+      Log.w(TAG, "No room for label $label, ${regions.size} labels in use")
+      return null
+    }
+    upload(region)
+    region.lastUsedFrame = frame
+    regions[label] = region
+    return region
+  }
+
+  /** Ends the current frame, allowing the names used in it to be evicted. */
+  fun endFrame() {
+    frame++
+  }
+
+  override fun close() {
+    texture.close()
+  }
+
+  private fun allocate(label: String, width: Int, height: Int): Region? {
+    while (true) {
+      pack(label, width, height)?.let {
+        return it
+      }
+      val eldest = regions.values.firstOrNull() ?: return null
+      if (eldest.lastUsedFrame == frame) return null
+      evict(eldest)
+    }
+  }
+
+  /** Places a region on the shortest shelf with room for it, or on a new shelf if there is none. */
+  private fun pack(label: String, width: Int, height: Int): Region? {
+    var best: Shelf? = null
+    for (shelf in shelves) {
+      if (shelf.height < height || size - shelf.usedWidth < width) continue
+      if (best == null || shelf.height < best.height) best = shelf
+    }
+    if (best == null) {
+      val top = shelves.lastOrNull()?.let { it.y + it.height } ?: 0
+      if (top + height > size) return null
+      best = Shelf(top, height).also { shelves.add(it) }
+    }
+    val region = Region(label, best, best.usedWidth, width, height, size)
+    best.usedWidth += width
+    best.regionCount++
+    return region
+  }
+
+  /**
+   * Removes [region] from the atlas. Its space is reclaimed if it ends its shelf, and the whole
+   * shelf once it holds no region.
+   */
+  private fun evict(region: Region) {
+    regions.remove(region.label)
+    val shelf = region.shelf
+    shelf.regionCount--
+    if (shelf.regionCount == 0) {
+      shelf.usedWidth = 0
+      // An empty top shelf is dropped, so that its space can be opened again for any height.
+      if (shelves.last() === shelf) shelves.removeAt(shelves.size - 1)
+    } else if (region.x + region.width == shelf.usedWidth) {
+      shelf.usedWidth = region.x
+    }
+  }
+
+  /** Rasterizes the text of [region] and copies it to its place in the atlas. */
+  private fun upload(region: Region) {
+    scratchBitmap.eraseColor(0)
+    val x = region.width / 2f
+    val baseline = PADDING + strokePaint.strokeWidth / 2 - fontMetrics.ascent
+    scratchCanvas.drawText(region.label, x, baseline, strokePaint)
+    scratchCanvas.drawText(region.label, x, baseline, textPaint)
+    scratchPixels.rewind()
+    scratchBitmap.copyPixelsToBuffer(scratchPixels)
+    scratchPixels.rewind()
+
+    GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, texture.textureId)
+    GLError.maybeThrowGLException("Failed to bind texture", "glBindTexture")
+    // Rows of the scratch bitmap are wider than the region.
+    GLES30.glPixelStorei(GLES30.GL_UNPACK_ROW_LENGTH, scratchBitmap.width)
+    GLES30.glTexSubImage2D(
+      GLES30.GL_TEXTURE_2D,
+      0,
+      region.x,
+      region.shelf.y,
+      region.width,
+      region.height,
+      GLES30.GL_RGBA,
+      GLES30.GL_UNSIGNED_BYTE,
+      scratchPixels
+    )
+    GLError.maybeThrowGLException("Failed to populate texture data", "glTexSubImage2D")
+    GLES30.glPixelStorei(GLES30.GL_UNPACK_ROW_LENGTH, 0)
+  }
+}
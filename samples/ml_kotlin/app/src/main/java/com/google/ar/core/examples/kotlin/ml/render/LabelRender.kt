@@ -23,64 +23,71 @@ import com.google.ar.core.examples.java.common.samplerender.Shader
 import com.google.ar.core.examples.java.common.samplerender.VertexBuffer
 import java.nio.ByteBuffer
 import java.nio.ByteOrder
+import java.nio.FloatBuffer
 
-/** Draws a label onto a quad using a text texture generated by [TextTextureCache]. */
+/**
+ * Draws labels onto quads using the text rendered into a [LabelAtlas].
+ *
+ * Labels are batched: [add] appends the quad of a label to the vertex data of the frame, and
+ * [draw] draws all of them at once, so the number of draw calls does not depend on the number of
+ * labels.
+ */
 class LabelRender {
   companion object {
     private const val TAG = "LabelRender"
-    val COORDS_BUFFER_SIZE = 2 * 4 * 4
 
-    /** Vertex buffer data for the mesh quad. */
-    val NDC_QUAD_COORDS_BUFFER =
-      ByteBuffer.allocateDirect(COORDS_BUFFER_SIZE)
-        .order(ByteOrder.nativeOrder())
-        .asFloatBuffer()
-        .put(
-          floatArrayOf(
-            /*0:*/
-            -1.5f,
-            -1.5f,
-            /*1:*/
-            1.5f,
-            -1.5f,
-            /*2:*/
-            -1.5f,
-            1.5f,
-            /*3:*/
-            1.5f,
-            1.5f,
-          )
-        )
+    /** Size of an atlas texel on a label quad, in meters. */
+    private const val METERS_PER_TEXEL = 0.3f / 256
 
-    /** Vertex buffer data for texture coordinates. */
-    val SQUARE_TEX_COORDS_BUFFER =
-      ByteBuffer.allocateDirect(COORDS_BUFFER_SIZE)
+    private const val VERTICES_PER_LABEL = 6
+    private const val INITIAL_LABEL_CAPACITY = 16
+
+    /** Corners of the two triangles of a label quad, in units of its half size. */
+    private val QUAD_CORNERS =
+      floatArrayOf(
+        /*0:*/
+        -1f,
+        -1f,
+        /*1:*/
+        1f,
+        -1f,
+        /*2:*/
+        -1f,
+        1f,
+        /*3:*/
+        -1f,
+        1f,
+        /*4:*/
+        1f,
+        -1f,
+        /*5:*/
+        1f,
+        1f,
+      )
+
+    private fun allocateVertices(labelCount: Int, entriesPerVertex: Int): FloatBuffer =
+      ByteBuffer.allocateDirect(labelCount * VERTICES_PER_LABEL * entriesPerVertex * 4)
         .order(ByteOrder.nativeOrder())
         .asFloatBuffer()
-        .put(
-          floatArrayOf(
-            /*0:*/
-            0f,
-            0f,
-            /*1:*/
-            1f,
-            0f,
-            /*2:*/
-            0f,
-            1f,
-            /*3:*/
-            1f,
-            1f,
-          )
-        )
   }
 
-  val cache = TextTextureCache()
+  val atlas = LabelAtlas()
 
   lateinit var mesh: Mesh
   lateinit var shader: Shader
+  private lateinit var originBuffer: VertexBuffer
+  private lateinit var positionBuffer: VertexBuffer
+  private lateinit var texCoordBuffer: VertexBuffer
+
+  // Vertex data of the labels added since the last draw.
+  private var labelCapacity = INITIAL_LABEL_CAPACITY
+  private var origins = allocateVertices(labelCapacity, 3)
+  private var positions = allocateVertices(labelCapacity, 2)
+  private var texCoords = allocateVertices(labelCapacity, 2)
+  private var labelCount = 0
 
   fun onSurfaceCreated(render: SampleRender) {
+    atlas.onSurfaceCreated(render)
     shader =
       Shader.createFromAssets(render, "shaders/label.vert", "shaders/label.frag", null)
         .setBlend(
@@ -90,35 +97,69 @@ class LabelRender {
         .setDepthTest(false)
         .setDepthWrite(false)
 
-    val vertexBuffers =
-      arrayOf(
-        VertexBuffer(render, 2, NDC_QUAD_COORDS_BUFFER),
-        VertexBuffer(render, 2, SQUARE_TEX_COORDS_BUFFER),
-      )
-    mesh = Mesh(render, Mesh.PrimitiveMode.TRIANGLE_STRIP, null, vertexBuffers)
+    originBuffer = VertexBuffer(render, 3, null)
+    positionBuffer = VertexBuffer(render, 2, null)
+    texCoordBuffer = VertexBuffer(render, 2, null)
+    val vertexBuffers = arrayOf(originBuffer, positionBuffer, texCoordBuffer)
+    mesh = Mesh(render, Mesh.PrimitiveMode.TRIANGLES, null, vertexBuffers)
   }
 
-  val labelOrigin = FloatArray(3)
+  /**
+   * Adds a label quad with text [label] at [pose] to the next [draw]. The label will rotate to face
+   * the camera around the Y-axis.
+   */
+  fun add(pose: Pose, label: String) {
+    val region = atlas.get(label) ?: return
+    if (labelCount == labelCapacity) grow()
+    val halfWidth = region.width * METERS_PER_TEXEL / 2
+    val halfHeight = region.height * METERS_PER_TEXEL / 2
+    for (vertex in 0 until VERTICES_PER_LABEL) {
+      val cornerX = QUAD_CORNERS[2 * vertex]
+      val cornerY = QUAD_CORNERS[2 * vertex + 1]
+      origins.put(pose.tx()).put(pose.ty()).put(pose.tz())
+      positions.put(cornerX * halfWidth).put(cornerY * halfHeight)
+      // The top of the text is at v0.
+      texCoords
+        .put(if (cornerX < 0) region.u0 else region.u1)
+        .put(if (cornerY < 0) region.v1 else region.v0)
+    }
+    labelCount++
+  }
 
   /**
-   * Draws a label quad with text [label] at [pose]. The label will rotate to face [cameraPose]
-   * around the Y-axis.
+   * Draws the labels added since the last call with a single draw call, facing [cameraPose], then
+   * clears them.
    */
-  fun draw(
-    render: SampleRender,
-    viewProjectionMatrix: FloatArray,
-    pose: Pose,
-    cameraPose: Pose,
-    label: String
-  ) {
-    labelOrigin[0] = pose.tx()
-    labelOrigin[1] = pose.ty()
-    labelOrigin[2] = pose.tz()
-    shader
-      .setMat4("u_ViewProjection", viewProjectionMatrix)
-      .setVec3("u_LabelOrigin", labelOrigin)
-      .setVec3("u_CameraPos", cameraPose.translation)
-      .setTexture("uTexture", cache.get(render, label))
-    render.draw(mesh, shader)
+  fun draw(render: SampleRender, viewProjectionMatrix: FloatArray, cameraPose: Pose) {
+    if (labelCount > 0) {
+      origins.flip()
+      positions.flip()
+      texCoords.flip()
+      originBuffer.set(origins)
+      positionBuffer.set(positions)
+      texCoordBuffer.set(texCoords)
+      shader
+        .setMat4("u_ViewProjection", viewProjectionMatrix)
+        .setVec3("u_CameraPos", cameraPose.translation)
+        .setTexture("uTexture", atlas.texture)
+      render.draw(mesh, shader)
+    }
+    origins.clear()
+    positions.clear()
+    texCoords.clear()
+    labelCount = 0
+    atlas.endFrame()
+  }
+
+  private fun grow() {
+    labelCapacity *= 2
+    origins = copyVertices(origins, 3)
+    positions = copyVertices(positions, 2)
+    texCoords = copyVertices(texCoords, 2)
+  }
+
+  private fun copyVertices(vertices: FloatBuffer, entriesPerVertex: Int): FloatBuffer {
+    vertices.flip()
+    return allocateVertices(labelCapacity, entriesPerVertex).put(vertices)
   }
 }
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.kotlin.ml.classification
+
+import com.google.ar.core.Pose
+import com.google.ar.core.examples.java.common.helpers.PlaneView
+import com.google.ar.core.examples.kotlin.ml.classification.DetectionResultCache.AnchoredObject
+import com.google.ar.core.examples.kotlin.ml.classification.DetectionResultCache.Key
+import java.nio.ByteBuffer
+import java.util.Random
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+
+@RunWith(JUnit4::class)
+class DetectionResultCacheTest {
+  companion object {
+    private const val WIDTH = 160
+    private const val HEIGHT = 120
+    private const val BLOCK_SIZE = 16
+    private const val POSE_BUCKET = 42L
+  }
+
+  private val cup = listOf(AnchoredObject("cup", Pose.IDENTITY))
+  private val plant = listOf(AnchoredObject("plant", Pose.IDENTITY))
+
+  @Test
+  fun lumaHash_brighterNoisyFrame_staysWithinMaxHammingDistance() {
+    val hash = DetectionResultCache.lumaHash(frame())
+    val brighterHash = DetectionResultCache.lumaHash(frame(brightness = 30, noise = 4))
+
+    assertTrue(distance(hash, brighterHash) <= DetectionResultCache().maxHammingDistance)
+  }
+
+  @Test
+  fun lumaHash_mirroredFrame_exceedsMaxHammingDistance() {
+    val hash = DetectionResultCache.lumaHash(frame())
+    val mirroredHash = DetectionResultCache.lumaHash(frame(mirrored = true))
+
+    assertTrue(distance(hash, mirroredHash) > DetectionResultCache().maxHammingDistance)
+  }
+
+  @Test
+  fun poseBucket_closePoseLevelCameraJitter_sameBucket() {
+    val bucket = DetectionResultCache.poseBucket(0.1f, 1.1f, -0.6f, 0f, 0f, -1f)
+
+    assertEquals(bucket, DetectionResultCache.poseBucket(0.3f, 1.2f, -0.9f, 0.05f, 0.02f, -1f))
+    assertEquals(bucket, DetectionResultCache.poseBucket(0.3f, 1.2f, -0.9f, -0.05f, -0.02f, -1f))
+  }
+
+  @Test
+  fun poseBucket_movedOrTurned_differentBucket() {
+    val bucket = DetectionResultCache.poseBucket(0.1f, 1.1f, -0.6f, 0f, 0f, -1f)
+
+    assertNotEquals(bucket, DetectionResultCache.poseBucket(0.1f, 1.1f, -1.6f, 0f, 0f, -1f))
+    assertNotEquals(bucket, DetectionResultCache.poseBucket(0.1f, 1.1f, -0.6f, -1f, 0f, 0f))
+    assertNotEquals(bucket, DetectionResultCache.poseBucket(0.1f, 1.1f, -0.6f, 0f, -1f, 0f))
+  }
+
+  @Test
+  fun get_similarHashSameBucket_returnsCachedObjects() {
+    val cache = DetectionResultCache()
+    cache.put(Key(POSE_BUCKET, 0x0F0F_0F0FL), cup)
+
+    assertSame(cup, cache.get(Key(POSE_BUCKET, 0x0F0F_0F0FL xor 0b11_1111L)))
+  }
+
+  @Test
+  fun get_tooManyDifferentBits_returnsNull() {
+    val cache = DetectionResultCache()
+    cache.put(Key(POSE_BUCKET, 0x0F0F_0F0FL), cup)
+
+    assertNull(cache.get(Key(POSE_BUCKET, 0x0F0F_0F0FL xor 0b111_1111L)))
+  }
+
+  @Test
+  fun get_otherPoseBucket_returnsNull() {
+    val cache = DetectionResultCache()
+    cache.put(Key(POSE_BUCKET, 0x0F0F_0F0FL), cup)
+
+    assertNull(cache.get(Key(POSE_BUCKET + 1, 0x0F0F_0F0FL)))
+  }
+
+  @Test
+  fun get_severalSimilarEntries_returnsClosest() {
+    val cache = DetectionResultCache()
+    cache.put(Key(POSE_BUCKET, 0b1111L), cup)
+    cache.put(Key(POSE_BUCKET, 0b0001L), plant)
+
+    assertSame(plant, cache.get(Key(POSE_BUCKET, 0b0000L)))
+    assertSame(cup, cache.get(Key(POSE_BUCKET, 0b0111L)))
+  }
+
+  @Test
+  fun put_overCapacity_evictsLeastRecentlyUsed() {
+    val cache = DetectionResultCache(capacity = 2, maxHammingDistance = 0)
+    cache.put(Key(POSE_BUCKET, 1L), cup)
+    cache.put(Key(POSE_BUCKET, 2L), plant)
+    cache.get(Key(POSE_BUCKET, 1L))
+
+    cache.put(Key(POSE_BUCKET, 3L), plant)
+
+    assertEquals(2, cache.size)
+    assertSame(cup, cache.get(Key(POSE_BUCKET, 1L)))
+    assertNull(cache.get(Key(POSE_BUCKET, 2L)))
+  }
+
+  @Test
+  fun getStats_countsHitsAndMisses() {
+    val cache = DetectionResultCache()
+    cache.put(Key(POSE_BUCKET, 1L), cup)
+    cache.get(Key(POSE_BUCKET, 1L))
+    cache.get(Key(POSE_BUCKET, 1L))
+    cache.get(Key(POSE_BUCKET + 1, 1L))
+
+    assertEquals(2L, cache.hitCount)
+    assertEquals(1L, cache.missCount)
+    assertEquals("2 hits, 1 misses (66%), 1 cached", cache.getStats())
+  }
+
+  /**
+   * Returns a luma plane of random gray blocks, the same for every call, optionally brightened,
+   * with noise added to every pixel, or mirrored horizontally.
+   */
+  private fun frame(brightness: Int = 0, noise: Int = 0, mirrored: Boolean = false): PlaneView {
+    val blocks = Random(7)
+    val blockColumns = (WIDTH + BLOCK_SIZE - 1) / BLOCK_SIZE
+    val blockValues = IntArray(blockColumns * ((HEIGHT + BLOCK_SIZE - 1) / BLOCK_SIZE)) {
+      16 + blocks.nextInt(200)
+    }
+    val noiseSource = Random(11)
+    val buffer = ByteBuffer.allocateDirect(WIDTH * HEIGHT)
+    for (y in 0 until HEIGHT) {
+      for (x in 0 until WIDTH) {
+        val blockX = (if (mirrored) WIDTH - 1 - x else x) / BLOCK_SIZE
+        val value = blockValues[(y / BLOCK_SIZE) * blockColumns + blockX]
+        val pixelNoise = if (noise == 0) 0 else noiseSource.nextInt(2 * noise + 1) - noise
+        buffer.put(y * WIDTH + x, (value + brightness + pixelNoise).coerceIn(0, 255).toByte())
+      }
+    }
+    return PlaneView.packed(buffer, WIDTH, HEIGHT)
+  }
+
+  private fun distance(hash: Long, otherHash: Long) = java.lang.Long.bitCount(hash xor otherHash)
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.kotlin.ml.classification.utils
+
+import com.google.ar.core.examples.java.common.helpers.ImageView
+import java.util.concurrent.TimeUnit
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import org.openjdk.jmh.runner.Runner
+import org.openjdk.jmh.runner.options.OptionsBuilder
+
+/**
+ * Compares [ImagePreprocessor.convert], which splits rows into bands converted in parallel, with a
+ * scalar conversion of one pixel at a time with [YuvToRgbConverter.yuvToArgb] on a single thread.
+ *
+ * Run [main] from the IDE, or the JMH runner with this class on the test classpath.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class ImagePreprocessorBenchmark {
+  /** Camera image size, `<width>x<height>`. */
+  @Param("640x480", "1920x1080") @JvmField var size = ""
+
+  /** Longer side of the converted image: the default of the detectors, and no downscaling. */
+  @Param("640", "4096") @JvmField var maxDimension = 0
+
+  private lateinit var image: ImageView
+  private lateinit var imagePreprocessor: ImagePreprocessor
+  private var referencePixels = IntArray(0)
+
+  @Setup
+  fun setUp() {
+    val (width, height) = size.split("x").map { it.toInt() }
+    image = YuvImages.nv21(width, height)
+    imagePreprocessor = ImagePreprocessor(maxDimension)
+    referencePixels = YuvImages.convertReference(image, ROTATION, maxDimension)
+  }
+
+  @Benchmark
+  fun reference(): IntArray =
+    YuvImages.convertReference(image, ROTATION, maxDimension, referencePixels)
+
+  @Benchmark
+  fun preprocessor(): IntArray {
+    imagePreprocessor.convert(image, ROTATION)
+    return imagePreprocessor.pixels
+  }
+
+  companion object {
+    // Portrait, the most common orientation of the app.
+    private const val ROTATION = 90
+
+    @JvmStatic
+    fun main(args: Array<String>) {
+      Runner(OptionsBuilder().include(ImagePreprocessorBenchmark::class.java.simpleName).build())
+        .run()
+    }
+  }
+}
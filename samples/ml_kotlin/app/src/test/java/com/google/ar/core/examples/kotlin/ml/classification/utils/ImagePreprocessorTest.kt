@@ -0,0 +1,68 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.kotlin.ml.classification.utils
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertSame
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+
+@RunWith(JUnit4::class)
+class ImagePreprocessorTest {
+  @Test
+  fun convert_everyRotation_matchesReference() {
+    val image = YuvImages.nv21(width = 640, height = 480)
+    val preprocessor = ImagePreprocessor(maxDimension = 300)
+    for (rotation in intArrayOf(0, 90, 180, 270)) {
+      preprocessor.convert(image, rotation)
+
+      assertArrayEquals(
+        "rotation $rotation",
+        YuvImages.convertReference(image, rotation, maxDimension = 300),
+        preprocessor.pixels
+      )
+    }
+  }
+
+  @Test
+  fun convert_fewerRowsThanBands_matchesReference() {
+    val image = YuvImages.nv21(width = 7, height = 3)
+    val preprocessor = ImagePreprocessor(maxDimension = 100)
+
+    preprocessor.convert(image, 90)
+
+    assertArrayEquals(
+      YuvImages.convertReference(image, 90, maxDimension = 100),
+      preprocessor.pixels
+    )
+  }
+
+  @Test
+  fun convert_sameSizeAndRotation_reusesPixelsAndTransform() {
+    val preprocessor = ImagePreprocessor(maxDimension = 300)
+    val firstTransform = preprocessor.convert(YuvImages.nv21(640, 480, seed = 1), 90)
+    val firstPixels = preprocessor.pixels
+
+    val image = YuvImages.nv21(640, 480, seed = 2)
+    val transform = preprocessor.convert(image, 90)
+
+    assertSame(firstTransform, transform)
+    assertSame(firstPixels, preprocessor.pixels)
+    assertArrayEquals(YuvImages.convertReference(image, 90, maxDimension = 300), firstPixels)
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.kotlin.ml.classification.utils
+
+import android.graphics.ImageFormat
+import com.google.ar.core.examples.java.common.helpers.ImageView
+import com.google.ar.core.examples.java.common.helpers.PlaneView
+import java.nio.ByteBuffer
+import java.util.Random
+import kotlin.math.max
+import kotlin.math.roundToInt
+
+/** Synthetic camera images, and a scalar reference of [ImagePreprocessor.convert]. */
+internal object YuvImages {
+  private const val ROW_PADDING = 32
+
+  /**
+   * Returns a [ImageFormat.YUV_420_888] image of random samples with padded rows, and V and U
+   * planes interleaved as in NV21, the layout of most camera images.
+   */
+  fun nv21(width: Int, height: Int, seed: Long = 42): ImageView {
+    val random = Random(seed)
+    val rowStride = width + ROW_PADDING
+    val chromaWidth = (width + 1) / 2
+    val chromaHeight = (height + 1) / 2
+    val luma = ByteBuffer.allocateDirect(rowStride * height)
+    val chroma = ByteBuffer.allocateDirect(rowStride * chromaHeight)
+    for (i in 0 until luma.capacity()) {
+      luma.put(i, random.nextInt(256).toByte())
+    }
+    for (i in 0 until chroma.capacity()) {
+      chroma.put(i, random.nextInt(256).toByte())
+    }
+    // U samples follow the V samples they are interleaved with.
+    val chromaU = chroma.duplicate().apply { position(1) }.slice()
+    return ImageView(
+      ImageFormat.YUV_420_888,
+      width,
+      height,
+      PlaneView(luma, width, height, rowStride, /* pixelStride= */ 1, /* bytesPerSample= */ 1),
+      PlaneView(chromaU, chromaWidth, chromaHeight, rowStride, 2, 1),
+      PlaneView(chroma, chromaWidth, chromaHeight, rowStride, 2, 1)
+    )
+  }
+
+  /**
+   * Converts, rotates and downscales [image] one pixel at a time on the calling thread, as the
+   * preprocessor does before it split rows into bands.
+   *
+   * @param output receives the pixels if it has the right size, otherwise a new array does.
+   */
+  fun convertReference(
+    image: ImageView,
+    rotation: Int,
+    maxDimension: Int,
+    output: IntArray? = null
+  ): IntArray {
+    val rotatedWidth = if (rotation % 180 == 0) image.width else image.height
+    val rotatedHeight = if (rotation % 180 == 0) image.height else image.width
+    val scale = minOf(1f, maxDimension.toFloat() / max(rotatedWidth, rotatedHeight))
+    val outputWidth = max(1, (rotatedWidth * scale).roundToInt())
+    val outputHeight = max(1, (rotatedHeight * scale).roundToInt())
+    val pixelCount = outputWidth * outputHeight
+    val pixels = if (output != null && output.size == pixelCount) output else IntArray(pixelCount)
+    val lastX = image.width - 1
+    val lastY = image.height - 1
+    for (row in 0 until outputHeight) {
+      val rotatedY = minOf(rotatedHeight - 1, (2 * row + 1) * rotatedHeight / (2 * outputHeight))
+      for (column in 0 until outputWidth) {
+        val rotatedX = minOf(rotatedWidth - 1, (2 * column + 1) * rotatedWidth / (2 * outputWidth))
+        val x =
+          when (rotation) {
+            0 -> rotatedX
+            90 -> rotatedY
+            180 -> lastX - rotatedX
+            else -> lastX - rotatedY
+          }
+        val y =
+          when (rotation) {
+            0 -> rotatedY
+            90 -> lastY - rotatedX
+            180 -> lastY - rotatedY
+            else -> rotatedX
+          }
+        pixels[row * outputWidth + column] =
+          YuvToRgbConverter.yuvToArgb(
+            image.y.get(x, y),
+            image.u.get(x / 2, y / 2),
+            image.v.get(x / 2, y / 2)
+          )
+      }
+    }
+    return pixels
+  }
+}
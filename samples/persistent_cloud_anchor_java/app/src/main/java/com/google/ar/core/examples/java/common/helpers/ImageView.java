@@ -0,0 +1,173 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.helpers;
+
+import android.graphics.ImageFormat;
+import android.media.Image;
+
+/**
+ * A view of all planes of an image, without copying pixels. See {@link PlaneView}.
+ *
+ * <p>Supports the images returned by ARCore: YUV_420_888 camera images, whose U and V planes are
+ * subsampled by two in both directions and often interleaved (NV12 or NV21 layouts), DEPTH16
+ * depth images, and single plane 8-bit images such as depth confidence images.
+ *
+ * <p>The view is only valid until the underlying {@link Image} is closed.
+ */
+public final class ImageView {
+  private static final int Y_PLANE = 0;
+  private static final int U_PLANE = 1;
+  private static final int V_PLANE = 2;
+
+  private final int format;
+  private final int width;
+  private final int height;
+  private final PlaneView[] planes;
+
+  /**
+   * Creates a view of an image from views of its planes.
+   *
+   * @param format the {@link ImageFormat} of the image.
+   */
+  public ImageView(int format, int width, int height, PlaneView... planes) {
+    if (format == ImageFormat.YUV_420_888 && planes.length != 3) {
+      throw new IllegalArgumentException("YUV_420_888 images have 3 planes, not " + planes.length);
+    }
+    this.format = format;
+    this.width = width;
+    this.height = height;
+    this.planes = planes.clone();
+  }
+
+  /** Creates a view of an {@link Image}. */
+  public static ImageView of(Image image) {
+    int format = image.getFormat();
+    int width = image.getWidth();
+    int height = image.getHeight();
+    Image.Plane[] imagePlanes = image.getPlanes();
+    PlaneView[] planes = new PlaneView[imagePlanes.length];
+    int bytesPerSample = format == ImageFormat.DEPTH16 ? 2 : 1;
+    for (int i = 0; i < planes.length; ++i) {
+      boolean subsampled = format == ImageFormat.YUV_420_888 && i != Y_PLANE;
+      planes[i] =
+          PlaneView.of(
+              imagePlanes[i],
+              subsampled ? (width + 1) / 2 : width,
+              subsampled ? (height + 1) / 2 : height,
+              bytesPerSample);
+    }
+    return new ImageView(format, width, height, planes);
+  }
+
+  public int getFormat() {
+    return format;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public int getPlaneCount() {
+    return planes.length;
+  }
+
+  public PlaneView getPlane(int index) {
+    return planes[index];
+  }
+
+  /** Returns the luma plane of a YUV image, or the only plane of a single plane image. */
+  public PlaneView getY() {
+    return planes[Y_PLANE];
+  }
+
+  /** Returns the U (Cb) plane of a YUV image. */
+  public PlaneView getU() {
+    checkYuv();
+    return planes[U_PLANE];
+  }
+
+  /** Returns the V (Cr) plane of a YUV image. */
+  public PlaneView getV() {
+    checkYuv();
+    return planes[V_PLANE];
+  }
+
+  /**
+   * Returns whether the U and V samples of a YUV image are interleaved, as in the NV12 and NV21
+   * layouts. Interleaved chroma rows are then best read from one plane with a pixel stride of 2.
+   */
+  public boolean isChromaInterleaved() {
+    return format == ImageFormat.YUV_420_888
+        && planes[U_PLANE].getPixelStride() == 2
+        && planes[V_PLANE].getPixelStride() == 2;
+  }
+
+  /** Returns the size in bytes of this YUV image in the NV21 or NV12 layout. */
+  public int getSemiPlanarSize() {
+    checkYuv();
+    return width * height + 2 * planes[U_PLANE].getWidth() * planes[U_PLANE].getHeight();
+  }
+
+  /**
+   * Copies a YUV image into {@code output} in the NV21 layout: the luma plane without row padding,
+   * followed by rows of interleaved V and U samples.
+   *
+   * @param output an array of at least {@link #getSemiPlanarSize()} bytes.
+   */
+  public void copyToNv21(byte[] output) {
+    copyToSemiPlanar(output, /* vFirst= */ true);
+  }
+
+  /**
+   * Copies a YUV image into {@code output} in the NV12 layout: the luma plane without row padding,
+   * followed by rows of interleaved U and V samples.
+   *
+   * @param output an array of at least {@link #getSemiPlanarSize()} bytes.
+   */
+  public void copyToNv12(byte[] output) {
+    copyToSemiPlanar(output, /* vFirst= */ false);
+  }
+
+  private void copyToSemiPlanar(byte[] output, boolean vFirst) {
+    if (output.length < getSemiPlanarSize()) {
+      throw new IllegalArgumentException(
+          "Output of " + output.length + " bytes smaller than " + getSemiPlanarSize());
+    }
+    PlaneView.RowReader luma = planes[Y_PLANE].newRowReader();
+    for (int y = 0; y < height; ++y) {
+      luma.read(y, output, y * width, /* destinationStride= */ 1);
+    }
+    PlaneView.RowReader first = planes[vFirst ? V_PLANE : U_PLANE].newRowReader();
+    PlaneView.RowReader second = planes[vFirst ? U_PLANE : V_PLANE].newRowReader();
+    int chromaRowLength = 2 * planes[U_PLANE].getWidth();
+    int chromaHeight = planes[U_PLANE].getHeight();
+    for (int y = 0; y < chromaHeight; ++y) {
+      int offset = width * height + y * chromaRowLength;
+      first.read(y, output, offset, /* destinationStride= */ 2);
+      second.read(y, output, offset + 1, /* destinationStride= */ 2);
+    }
+  }
+
+  private void checkYuv() {
+    if (format != ImageFormat.YUV_420_888) {
+      throw new IllegalStateException("Not a YUV_420_888 image: " + format);
+    }
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#version 300 es
+
+// Unprojects raw depth image pixels into 3D points. The output is captured with transform feedback,
+// so no primitives are rasterized.
+
+uniform highp usampler2D u_DepthTexture;
+uniform sampler2D u_ConfidenceTexture;
+
+// Focal length (x, y) and principal point (z, w) of the depth image, in pixels.
+uniform vec4 u_Intrinsics;
+
+// Integer pixel coordinates in the depth image.
+layout(location = 0) in vec2 a_PixelCoordinates;
+
+// X, Y, Z and confidence, in the same layout as the CPU point buffer. Pixels without a depth
+// estimate get a negative confidence, so that they are hidden at any confidence threshold.
+out vec4 v_Point;
+
+void main() {
+  ivec2 pixel = ivec2(a_PixelCoordinates);
+  uint depthMillimeters = texelFetch(u_DepthTexture, pixel, 0).r;
+  float depthMeters = float(depthMillimeters) / 1000.0;
+  float confidence = texelFetch(u_ConfidenceTexture, pixel, 0).r;
+
+  v_Point = vec4(
+      depthMeters * (a_PixelCoordinates.x - u_Intrinsics.z) / u_Intrinsics.x,
+      depthMeters * (u_Intrinsics.w - a_PixelCoordinates.y) / u_Intrinsics.y,
+      -depthMeters,
+      depthMillimeters == 0u ? -1.0 : confidence);
+  gl_Position = vec4(0.0);
+}
@@ -28,11 +28,23 @@ import java.nio.FloatBuffer;
  * Stores depth data from ARCore as a 3D pointcloud. Points are added by calling the Raw Depth API,
  * and reprojected into 3D space. The points are stored relative to an anchor created with each
  * instance. The color of the points are matched with the latest color image from the same frame.
+ *
+ * <p>Points are either computed on the CPU and kept in a buffer, or computed on the GPU and kept in
+ * a vertex buffer object, see {@link GpuPointCloudUnprojector}.
  */
 final class DepthData {
-  /** Buffer of point coordinates and confidence values. */
+  /** Buffer of point coordinates and confidence values, or null if computed on the GPU. */
   private FloatBuffer points;
 
+  /** Vertex buffer holding the point coordinates and confidence values, or 0 if not used. */
+  private int pointVertexBuffer;
+
+  /** The unprojector that computed the points on the GPU and recycles their buffer, or null. */
+  private final GpuPointCloudUnprojector gpuUnprojector;
+
+  /** The number of points. */
+  private final int pointCount;
+
   /** Buffer of point RGB color values. */
   private FloatBuffer colors;
 
@@ -43,14 +55,40 @@ final class DepthData {
   private long timestamp;
 
   private DepthData(
-      FloatBuffer points, FloatBuffer colors, long timestamp, Anchor cameraPoseAnchor) {
+      FloatBuffer points,
+      int pointVertexBuffer,
+      GpuPointCloudUnprojector gpuUnprojector,
+      int pointCount,
+      FloatBuffer colors,
+      long timestamp,
+      Anchor cameraPoseAnchor) {
     this.points = points;
+    this.pointVertexBuffer = pointVertexBuffer;
+    this.gpuUnprojector = gpuUnprojector;
+    this.pointCount = pointCount;
     this.colors = colors;
     this.timestamp = timestamp;
     this.anchor = cameraPoseAnchor;
   }
 
+  /**
+   * Creates depth data for the frame, converting the raw depth image into points on the CPU.
+   *
+   * @return the depth data, or null if depth is not available yet.
+   */
   public static DepthData create(Session session, Frame frame) {
+    return create(session, frame, null);
+  }
+
+  /**
+   * Creates depth data for the frame.
+   *
+   * @param gpuUnprojector if not null, the raw depth image is converted into points on the GPU with
+   *     this unprojector, and this method must be called on the GL thread.
+   * @return the depth data, or null if depth is not available yet.
+   */
+  public static DepthData create(
+      Session session, Frame frame, GpuPointCloudUnprojector gpuUnprojector) {
     try (Image cameraImage = frame.acquireCameraImage();
         Image depthImage = frame.acquireRawDepthImage16Bits();
         Image confidenceImage = frame.acquireRawDepthConfidenceImage()) {
@@ -62,9 +100,20 @@ final class DepthData {
       // corresponding to the depth image. See more information about the depth values at
       // https://developers.google.com/ar/develop/java/depth/overview#understand-depth-values.
       CameraIntrinsics intrinsics = frame.getCamera().getTextureIntrinsics();
-      FloatBuffer points =
-          PointCloudHelper.convertRawDepthImagesTo3dPointBuffer(
-              depthImage, confidenceImage, intrinsics, maxNumberOfPointsToRender);
+      FloatBuffer points = null;
+      int pointVertexBuffer = 0;
+      int pointCount;
+      if (gpuUnprojector != null) {
+        pointVertexBuffer =
+            gpuUnprojector.unproject(
+                depthImage, confidenceImage, intrinsics, maxNumberOfPointsToRender);
+        pointCount = gpuUnprojector.getPointCount();
+      } else {
+        points =
+            PointCloudHelper.convertRawDepthImagesTo3dPointBuffer(
+                depthImage, confidenceImage, intrinsics, maxNumberOfPointsToRender);
+        pointCount = points.remaining() / Renderer.POSITION_FLOATS_PER_POINT;
+      }
 
       // To give each point a color from the RGB camera we need to look up the RGB pixel
       // corresponding to each depth pixel. RGB and depth images usually have different aspect
@@ -73,12 +122,24 @@ final class DepthData {
       FloatBuffer imageRegionCoordinates =
           PointCloudHelper.getImageCoordinatesForFullTexture(frame);
 
+      // The GPU point buffer keeps pixels without depth, so the colors must include them as well.
       FloatBuffer colors =
           PointCloudHelper.convertImageToColorBuffer(
-              cameraImage, depthImage, imageRegionCoordinates, maxNumberOfPointsToRender);
+              cameraImage,
+              depthImage,
+              imageRegionCoordinates,
+              maxNumberOfPointsToRender,
+              /* includeMissingDepth= */ gpuUnprojector != null);
 
       Anchor cameraPoseAnchor = session.createAnchor(frame.getCamera().getPose());
-      return new DepthData(points, colors, depthImage.getTimestamp(), cameraPoseAnchor);
+      return new DepthData(
+          points,
+          pointVertexBuffer,
+          gpuUnprojector,
+          pointCount,
+          colors,
+          depthImage.getTimestamp(),
+          cameraPoseAnchor);
     } catch (NotYetAvailableException e) {
       // This normally means that depth data is not available yet. This is normal so we will not
       // spam the logcat with this.
@@ -96,11 +157,26 @@ final class DepthData {
    *
    * <p>Point locations are in the world coordinate space, consistent with the camera position for
    * the frame that provided the point cloud.
+   *
+   * <p>Returns null if the points were computed on the GPU, see {@link #getPointVertexBuffer()}.
    */
   public FloatBuffer getPoints() {
     return points;
   }
 
+  /**
+   * Returns the vertex buffer object holding the points in the same layout as {@link #getPoints()},
+   * or 0 if the points were computed on the CPU.
+   */
+  public int getPointVertexBuffer() {
+    return pointVertexBuffer;
+  }
+
+  /** Returns the number of points. */
+  public int getPointCount() {
+    return pointCount;
+  }
+
   /**
    * Buffer of point RGB values from the color camera.
    *
@@ -124,4 +200,15 @@ final class DepthData {
     anchor.getPose().toMatrix(modelMatrix, 0);
   }
 
+  /**
+   * Detaches the anchor and hands the vertex buffer back to the unprojector for reuse. Must be
+   * called on the GL thread.
+   */
+  public void release() {
+    anchor.detach();
+    if (pointVertexBuffer != 0) {
+      gpuUnprojector.recyclePointBuffer(pointVertexBuffer, pointCount);
+      pointVertexBuffer = 0;
+    }
+  }
 }
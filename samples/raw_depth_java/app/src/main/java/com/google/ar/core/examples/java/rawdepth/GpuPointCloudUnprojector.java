@@ -0,0 +1,363 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.rawdepth;
+
+import android.content.Context;
+import android.media.Image;
+import android.media.Image.Plane;
+import android.opengl.GLES30;
+import com.google.ar.core.CameraIntrinsics;
+import com.google.ar.core.examples.java.common.rendering.ShaderUtil;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Converts raw depth images into 3D points on the GPU.
+ *
+ * <p>The depth and confidence images are uploaded as {@code GL_R16UI} and {@code GL_R8} textures.
+ * A vertex shader then runs over a static grid of subsampled pixel coordinates, unprojects each
+ * pixel with the texture intrinsics, and the results are captured with transform feedback into a
+ * vertex buffer. The buffer has the same layout as the buffer created by {@link
+ * PointCloudHelper#convertRawDepthImagesTo3dPointBuffer}, which remains the reference
+ * implementation, except that pixels without depth are kept with a negative confidence.
+ *
+ * <p>Point buffers are recycled once their depth frame is released, so that buffers are only
+ * allocated until as many frames as the renderer keeps are live, and then reused. {@link #close}
+ * deletes them when the GPU path is no longer used.
+ *
+ * <p>Requires OpenGL ES 3.0. All methods must be called on the GL thread.
+ */
+final class GpuPointCloudUnprojector {
+  private static final String TAG = GpuPointCloudUnprojector.class.getSimpleName();
+
+  private static final String VERTEX_SHADER_NAME = "shaders/depth_unproject.vert";
+  private static final String FRAGMENT_SHADER_NAME = "shaders/depth_unproject.frag";
+
+  private static final int PIXEL_COORDINATE_FLOATS = 2;
+  private static final int POSITION_BYTES_PER_POINT =
+      Renderer.POSITION_FLOATS_PER_POINT * Renderer.BYTES_PER_FLOAT;
+
+  private int programName;
+  private int intrinsicsUniform;
+  private int depthTextureUniform;
+  private int confidenceTextureUniform;
+
+  private int depthTexture;
+  private int confidenceTexture;
+  private int gridBuffer;
+
+  // Dimensions of the allocated textures and the pixel grid. The grid is rebuilt when they change.
+  private int textureWidth;
+  private int textureHeight;
+  private int gridStep;
+  private int gridPointCount;
+
+  // Point buffers released by their depth frames and ready for reuse, with their sizes in bytes.
+  private int[] freePointBuffers = new int[Renderer.MAX_FRAMES_STORED + 1];
+  private int[] freePointBufferSizes = new int[Renderer.MAX_FRAMES_STORED + 1];
+  private int freePointBufferCount;
+
+  private boolean created;
+
+  /**
+   * Allocates and initializes the OpenGL resources. Must be called on the OpenGL thread, before the
+   * first call to {@link #unproject}.
+   *
+   * @param context Needed to access shader source.
+   */
+  void createOnGlThread(Context context) throws IOException {
+    int vertexShader =
+        ShaderUtil.loadGLShader(TAG, context, GLES30.GL_VERTEX_SHADER, VERTEX_SHADER_NAME);
+    int fragmentShader =
+        ShaderUtil.loadGLShader(TAG, context, GLES30.GL_FRAGMENT_SHADER, FRAGMENT_SHADER_NAME);
+
+    programName = GLES30.glCreateProgram();
+    GLES30.glAttachShader(programName, vertexShader);
+    GLES30.glAttachShader(programName, fragmentShader);
+    // The captured varyings must be declared before linking.
+    GLES30.glTransformFeedbackVaryings(
+        programName, new String[] {"v_Point"}, GLES30.GL_INTERLEAVED_ATTRIBS);
+    GLES30.glLinkProgram(programName);
+    int[] linkStatus = new int[1];
+    GLES30.glGetProgramiv(programName, GLES30.GL_LINK_STATUS, linkStatus, 0);
+    if (linkStatus[0] == 0) {
+      String log = GLES30.glGetProgramInfoLog(programName);
+      GLES30.glDeleteProgram(programName);
+      throw new IllegalStateException("Error linking depth unprojection program: " + log);
+    }
+
+    intrinsicsUniform = GLES30.glGetUniformLocation(programName, "u_Intrinsics");
+    depthTextureUniform = GLES30.glGetUniformLocation(programName, "u_DepthTexture");
+    confidenceTextureUniform = GLES30.glGetUniformLocation(programName, "u_ConfidenceTexture");
+
+    int[] textures = new int[2];
+    GLES30.glGenTextures(2, textures, 0);
+    depthTexture = textures[0];
+    confidenceTexture = textures[1];
+    // Integer textures cannot be filtered, and pixels are fetched exactly anyway.
+    for (int texture : textures) {
+      GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, texture);
+      GLES30.glTexParameteri(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_MIN_FILTER, GLES30.GL_NEAREST);
+      GLES30.glTexParameteri(GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_MAG_FILTER, GLES30.GL_NEAREST);
+      GLES30.glTexParameteri(
+          GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_WRAP_S, GLES30.GL_CLAMP_TO_EDGE);
+      GLES30.glTexParameteri(
+          GLES30.GL_TEXTURE_2D, GLES30.GL_TEXTURE_WRAP_T, GLES30.GL_CLAMP_TO_EDGE);
+    }
+    GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, 0);
+
+    int[] buffers = new int[1];
+    GLES30.glGenBuffers(1, buffers, 0);
+    gridBuffer = buffers[0];
+
+    ShaderUtil.checkGLError(TAG, "Init complete");
+    created = true;
+  }
+
+  /** Returns whether {@link #createOnGlThread} has been called since creation or closing. */
+  boolean isCreated() {
+    return created;
+  }
+
+  /**
+   * Deletes the OpenGL resources, including the free point buffers. Buffers still held by depth
+   * frames are deleted once handed back. {@link #createOnGlThread} must be called again before the
+   * next use.
+   */
+  void close() {
+    if (!created) {
+      return;
+    }
+    GLES30.glDeleteProgram(programName);
+    GLES30.glDeleteTextures(2, new int[] {depthTexture, confidenceTexture}, 0);
+    GLES30.glDeleteBuffers(1, new int[] {gridBuffer}, 0);
+    GLES30.glDeleteBuffers(freePointBufferCount, freePointBuffers, 0);
+    forgetGlResources();
+  }
+
+  /**
+   * Forgets the OpenGL resources after the context was lost, which deleted them. Depth frames must
+   * hand back their buffers before, as their names may be reused by the new context.
+   */
+  void onContextLost() {
+    forgetGlResources();
+  }
+
+  /**
+   * Unprojects the depth image into a vertex buffer with {@link Renderer#POSITION_FLOATS_PER_POINT}
+   * floats per point. The caller owns the returned buffer until it hands it back with {@link
+   * #recyclePointBuffer}.
+   *
+   * @param pointLimit the maximum number of points, as in the CPU implementation.
+   * @return the name of the vertex buffer. The number of points is {@link #getPointCount()}.
+   */
+  int unproject(
+      Image depth, Image confidence, CameraIntrinsics cameraTextureIntrinsics, int pointLimit) {
+    int depthWidth = depth.getWidth();
+    int depthHeight = depth.getHeight();
+    updateGrid(depthWidth, depthHeight, pointLimit);
+    uploadTextures(depth, confidence);
+
+    int[] intrinsicsDimensions = cameraTextureIntrinsics.getImageDimensions();
+    float fx = cameraTextureIntrinsics.getFocalLength()[0] * depthWidth / intrinsicsDimensions[0];
+    float fy = cameraTextureIntrinsics.getFocalLength()[1] * depthHeight / intrinsicsDimensions[1];
+    float cx =
+        cameraTextureIntrinsics.getPrincipalPoint()[0] * depthWidth / intrinsicsDimensions[0];
+    float cy =
+        cameraTextureIntrinsics.getPrincipalPoint()[1] * depthHeight / intrinsicsDimensions[1];
+
+    int pointBuffer = obtainPointBuffer(gridPointCount * POSITION_BYTES_PER_POINT);
+
+    GLES30.glUseProgram(programName);
+    GLES30.glUniform4f(intrinsicsUniform, fx, fy, cx, cy);
+    GLES30.glActiveTexture(GLES30.GL_TEXTURE0);
+    GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, depthTexture);
+    GLES30.glUniform1i(depthTextureUniform, 0);
+    GLES30.glActiveTexture(GLES30.GL_TEXTURE1);
+    GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, confidenceTexture);
+    GLES30.glUniform1i(confidenceTextureUniform, 1);
+
+    GLES30.glBindBuffer(GLES30.GL_ARRAY_BUFFER, gridBuffer);
+    GLES30.glEnableVertexAttribArray(0);
+    GLES30.glVertexAttribPointer(0, PIXEL_COORDINATE_FLOATS, GLES30.GL_FLOAT, false, 0, 0);
+
+    GLES30.glEnable(GLES30.GL_RASTERIZER_DISCARD);
+    GLES30.glBindBufferBase(GLES30.GL_TRANSFORM_FEEDBACK_BUFFER, 0, pointBuffer);
+    GLES30.glBeginTransformFeedback(GLES30.GL_POINTS);
+    GLES30.glDrawArrays(GLES30.GL_POINTS, 0, gridPointCount);
+    GLES30.glEndTransformFeedback();
+    GLES30.glBindBufferBase(GLES30.GL_TRANSFORM_FEEDBACK_BUFFER, 0, 0);
+    GLES30.glDisable(GLES30.GL_RASTERIZER_DISCARD);
+
+    GLES30.glDisableVertexAttribArray(0);
+    GLES30.glBindBuffer(GLES30.GL_ARRAY_BUFFER, 0);
+    GLES30.glActiveTexture(GLES30.GL_TEXTURE1);
+    GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, 0);
+    GLES30.glActiveTexture(GLES30.GL_TEXTURE0);
+    GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, 0);
+
+    ShaderUtil.checkGLError(TAG, "Unproject");
+    return pointBuffer;
+  }
+
+  /** Returns the number of points written by the last call to {@link #unproject}. */
+  int getPointCount() {
+    return gridPointCount;
+  }
+
+  /**
+   * Hands back a buffer of {@code pointCount} points returned by {@link #unproject}, once its
+   * points are no longer drawn.
+   */
+  void recyclePointBuffer(int pointBuffer, int pointCount) {
+    if (!created) {
+      // Closed since the buffer was filled.
+      GLES30.glDeleteBuffers(1, new int[] {pointBuffer}, 0);
+      return;
+    }
+    if (freePointBufferCount == freePointBuffers.length) {
+      freePointBuffers = Arrays.copyOf(freePointBuffers, 2 * freePointBufferCount);
+      freePointBufferSizes = Arrays.copyOf(freePointBufferSizes, 2 * freePointBufferCount);
+    }
+    freePointBuffers[freePointBufferCount] = pointBuffer;
+    freePointBufferSizes[freePointBufferCount] = pointCount * POSITION_BYTES_PER_POINT;
+    freePointBufferCount++;
+  }
+
+  /**
+   * Returns a recycled point buffer of {@code size} bytes, or a new one if none is free. A recycled
+   * buffer is only reallocated if the depth image size changed since it was filled.
+   */
+  private int obtainPointBuffer(int size) {
+    int pointBuffer;
+    int bufferSize = 0;
+    if (freePointBufferCount > 0) {
+      freePointBufferCount--;
+      pointBuffer = freePointBuffers[freePointBufferCount];
+      bufferSize = freePointBufferSizes[freePointBufferCount];
+    } else {
+      int[] buffers = new int[1];
+      GLES30.glGenBuffers(1, buffers, 0);
+      pointBuffer = buffers[0];
+    }
+    if (bufferSize != size) {
+      GLES30.glBindBuffer(GLES30.GL_TRANSFORM_FEEDBACK_BUFFER, pointBuffer);
+      GLES30.glBufferData(GLES30.GL_TRANSFORM_FEEDBACK_BUFFER, size, null, GLES30.GL_STATIC_DRAW);
+      GLES30.glBindBuffer(GLES30.GL_TRANSFORM_FEEDBACK_BUFFER, 0);
+    }
+    return pointBuffer;
+  }
+
+  private void forgetGlResources() {
+    created = false;
+    freePointBufferCount = 0;
+    // Allocated again with the textures and the grid on next use.
+    textureWidth = 0;
+    textureHeight = 0;
+    gridStep = 0;
+    gridPointCount = 0;
+  }
+
+  /**
+   * Rebuilds the static grid of pixel coordinates if the depth image size changed. The grid visits
+   * pixels in the same order as the CPU implementation.
+   */
+  private void updateGrid(int depthWidth, int depthHeight, int pointLimit) {
+    int step = PointCloudHelper.calculateImageSubsamplingStep(depthWidth, depthHeight, pointLimit);
+    if (depthWidth == textureWidth && depthHeight == textureHeight && step == gridStep) {
+      return;
+    }
+    gridStep = step;
+    gridPointCount =
+        PointCloudHelper.getSubsampledPointCount(depthWidth, depthHeight, pointLimit);
+    FloatBuffer grid =
+        ByteBuffer.allocateDirect(gridPointCount * PIXEL_COORDINATE_FLOATS * Float.BYTES)
+            .order(ByteOrder.nativeOrder())
+            .asFloatBuffer();
+    for (int y = 0; y < depthHeight; y += step) {
+      for (int x = 0; x < depthWidth; x += step) {
+        grid.put(x);
+        grid.put(y);
+      }
+    }
+    grid.flip();
+    GLES30.glBindBuffer(GLES30.GL_ARRAY_BUFFER, gridBuffer);
+    GLES30.glBufferData(
+        GLES30.GL_ARRAY_BUFFER, grid.limit() * Float.BYTES, grid, GLES30.GL_STATIC_DRAW);
+    GLES30.glBindBuffer(GLES30.GL_ARRAY_BUFFER, 0);
+  }
+
+  private void uploadTextures(Image depth, Image confidence) {
+    int width = depth.getWidth();
+    int height = depth.getHeight();
+    boolean reallocate = width != textureWidth || height != textureHeight;
+    textureWidth = width;
+    textureHeight = height;
+
+    // Planes may be padded at the end of each row, which GL skips with GL_UNPACK_ROW_LENGTH.
+    Plane depthPlane = depth.getPlanes()[0];
+    GLES30.glPixelStorei(GLES30.GL_UNPACK_ALIGNMENT, 1);
+    GLES30.glPixelStorei(
+        GLES30.GL_UNPACK_ROW_LENGTH, depthPlane.getRowStride() / depthPlane.getPixelStride());
+    GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, depthTexture);
+    uploadPlane(
+        depthPlane.getBuffer(),
+        width,
+        height,
+        reallocate,
+        GLES30.GL_R16UI,
+        GLES30.GL_RED_INTEGER,
+        GLES30.GL_UNSIGNED_SHORT);
+
+    Plane confidencePlane = confidence.getPlanes()[0];
+    GLES30.glPixelStorei(
+        GLES30.GL_UNPACK_ROW_LENGTH,
+        confidencePlane.getRowStride() / confidencePlane.getPixelStride());
+    GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, confidenceTexture);
+    uploadPlane(
+        confidencePlane.getBuffer(),
+        width,
+        height,
+        reallocate,
+        GLES30.GL_R8,
+        GLES30.GL_RED,
+        GLES30.GL_UNSIGNED_BYTE);
+
+    GLES30.glPixelStorei(GLES30.GL_UNPACK_ROW_LENGTH, 0);
+    GLES30.glPixelStorei(GLES30.GL_UNPACK_ALIGNMENT, 4);
+    GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, 0);
+  }
+
+  private static void uploadPlane(
+      ByteBuffer pixels,
+      int width,
+      int height,
+      boolean reallocate,
+      int internalFormat,
+      int format,
+      int type) {
+    if (reallocate) {
+      GLES30.glTexImage2D(
+          GLES30.GL_TEXTURE_2D, 0, internalFormat, width, height, 0, format, type, pixels);
+    } else {
+      GLES30.glTexSubImage2D(GLES30.GL_TEXTURE_2D, 0, 0, 0, width, height, format, type, pixels);
+    }
+  }
+}
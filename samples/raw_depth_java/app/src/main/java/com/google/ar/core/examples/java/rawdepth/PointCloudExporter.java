@@ -0,0 +1,197 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.rawdepth;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Exports accumulated raw depth frames as a binary little endian PLY file.
+ *
+ * <p>Each vertex holds the world space position, the RGB color and the depth confidence of a
+ * point. Points are transformed and written one at a time through a {@link FileChannel} with a
+ * single reusable direct buffer, so the export never holds a copy of the whole point cloud in
+ * memory. Exports run on a background thread while the app continues rendering.
+ */
+final class PointCloudExporter {
+  /** The PLY header, with the vertex count as the only parameter. */
+  static final String HEADER_FORMAT =
+      "ply\n"
+          + "format binary_little_endian 1.0\n"
+          + "comment ARCore raw depth point cloud\n"
+          + "element vertex %d\n"
+          + "property float x\n"
+          + "property float y\n"
+          + "property float z\n"
+          + "property uchar red\n"
+          + "property uchar green\n"
+          + "property uchar blue\n"
+          + "property float confidence\n"
+          + "end_header\n";
+
+  /** Size of a single vertex record: three position floats, three color bytes, one float. */
+  static final int BYTES_PER_VERTEX = 3 * Float.BYTES + 3 + Float.BYTES;
+
+  private static final int WRITE_BUFFER_BYTES = 64 * 1024;
+
+  /** A depth frame captured on the GL thread for export. */
+  static final class Frame {
+    final FloatBuffer points;
+    final FloatBuffer colors;
+    final float[] modelMatrix;
+
+    Frame(FloatBuffer points, FloatBuffer colors, float[] modelMatrix) {
+      this.points = points;
+      this.colors = colors;
+      this.modelMatrix = modelMatrix;
+    }
+  }
+
+  /** Receives the outcome of an export on the export thread. */
+  interface Listener {
+    void onExportComplete(File file, int pointCount);
+
+    void onExportFailed(File file, IOException exception);
+  }
+
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+  /** Reused by all exports, which are serialized on the executor thread. */
+  private final ByteBuffer writeBuffer =
+      ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+  /**
+   * Starts exporting the given depth frames. Must be called on the GL thread, as it captures the
+   * current anchor pose of every frame. Point data itself is not copied. Frames whose points were
+   * computed on the GPU are skipped, as their points are not available on the CPU.
+   *
+   * @param depthFrames the frames to export.
+   * @param minConfidence points with a lower depth confidence are skipped.
+   * @param file the destination file. It is overwritten if it exists.
+   * @param listener notified on the export thread once the file is written.
+   */
+  void export(List<DepthData> depthFrames, float minConfidence, File file, Listener listener) {
+    List<Frame> frames = new ArrayList<>(depthFrames.size());
+    for (DepthData depth : depthFrames) {
+      if (depth.getPoints() == null) {
+        continue;
+      }
+      float[] modelMatrix = new float[16];
+      depth.getModelMatrix(modelMatrix);
+      frames.add(
+          new Frame(depth.getPoints().duplicate(), depth.getColors().duplicate(), modelMatrix));
+    }
+    executor.execute(
+        () -> {
+          try {
+            listener.onExportComplete(file, write(frames, minConfidence, file));
+          } catch (IOException e) {
+            listener.onExportFailed(file, e);
+          }
+        });
+  }
+
+  /** Stops the export thread. A running export is interrupted. */
+  void close() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Writes the given frames on the calling thread, and returns the number of points written. Must
+   * not run concurrently with another export, as all exports share the write buffer.
+   */
+  int write(List<Frame> frames, float minConfidence, File file) throws IOException {
+    // The PLY header needs the vertex count up front, so count the exported points first.
+    int vertexCount = 0;
+    for (Frame frame : frames) {
+      FloatBuffer points = frame.points;
+      int numPoints = points.limit() / Renderer.POSITION_FLOATS_PER_POINT;
+      for (int i = 0; i < numPoints; ++i) {
+        if (points.get(i * Renderer.POSITION_FLOATS_PER_POINT + 3) >= minConfidence) {
+          ++vertexCount;
+        }
+      }
+    }
+
+    try (FileOutputStream stream = new FileOutputStream(file);
+        FileChannel channel = stream.getChannel()) {
+      writeBuffer.clear();
+      String header = String.format(Locale.US, HEADER_FORMAT, vertexCount);
+      writeBuffer.put(header.getBytes(StandardCharsets.US_ASCII));
+      for (Frame frame : frames) {
+        writeFrame(frame, minConfidence, channel);
+      }
+      flush(channel);
+    }
+    return vertexCount;
+  }
+
+  private void writeFrame(Frame frame, float minConfidence, FileChannel channel)
+      throws IOException {
+    FloatBuffer points = frame.points;
+    FloatBuffer colors = frame.colors;
+    float[] m = frame.modelMatrix;
+    int numPoints = points.limit() / Renderer.POSITION_FLOATS_PER_POINT;
+    for (int i = 0; i < numPoints; ++i) {
+      int pointOffset = i * Renderer.POSITION_FLOATS_PER_POINT;
+      float confidence = points.get(pointOffset + 3);
+      if (confidence < minConfidence) {
+        continue;
+      }
+      float x = points.get(pointOffset);
+      float y = points.get(pointOffset + 1);
+      float z = points.get(pointOffset + 2);
+
+      if (writeBuffer.remaining() < BYTES_PER_VERTEX) {
+        flush(channel);
+      }
+      // Column-major model matrix, see android.opengl.Matrix.
+      writeBuffer.putFloat(m[0] * x + m[4] * y + m[8] * z + m[12]);
+      writeBuffer.putFloat(m[1] * x + m[5] * y + m[9] * z + m[13]);
+      writeBuffer.putFloat(m[2] * x + m[6] * y + m[10] * z + m[14]);
+      int colorOffset = i * Renderer.COLOR_FLOATS_PER_POINT;
+      writeBuffer.put(toUnsignedByte(colors.get(colorOffset)));
+      writeBuffer.put(toUnsignedByte(colors.get(colorOffset + 1)));
+      writeBuffer.put(toUnsignedByte(colors.get(colorOffset + 2)));
+      writeBuffer.putFloat(confidence);
+    }
+  }
+
+  private void flush(FileChannel channel) throws IOException {
+    writeBuffer.flip();
+    while (writeBuffer.hasRemaining()) {
+      channel.write(writeBuffer);
+    }
+    writeBuffer.clear();
+  }
+
+  /** Converts a color channel value in [0.0, 1.0] range into an unsigned byte. */
+  private static byte toUnsignedByte(float value) {
+    return (byte) Math.round(Math.max(0.0f, Math.min(1.0f, value)) * 255.0f);
+  }
+}
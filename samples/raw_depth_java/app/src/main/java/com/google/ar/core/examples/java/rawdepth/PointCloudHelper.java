@@ -17,14 +17,14 @@
 package com.google.ar.core.examples.java.rawdepth;
 
 import android.media.Image;
-import android.media.Image.Plane;
 import com.google.ar.core.CameraIntrinsics;
 import com.google.ar.core.Coordinates2d;
 import com.google.ar.core.Frame;
+import com.google.ar.core.examples.java.common.helpers.ImageView;
+import com.google.ar.core.examples.java.common.helpers.PlaneView;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
 
 /** Static utilities for depth data transformations. */
 public final class PointCloudHelper {
@@ -37,13 +37,8 @@ public final class PointCloudHelper {
    */
   public static FloatBuffer convertRawDepthImagesTo3dPointBuffer(
       Image depth, Image confidence, CameraIntrinsics cameraTextureIntrinsics, int pointLimit) {
-    Plane depthImagePlane = depth.getPlanes()[0];
-    // Set the endianess to ensure we extract depth data in the correct byte order.
-    ShortBuffer depthBuffer =
-        depthImagePlane.getBuffer().order(ByteOrder.nativeOrder()).asShortBuffer();
-
-    Plane confidenceImagePlane = confidence.getPlanes()[0];
-    ByteBuffer confidenceBuffer = confidenceImagePlane.getBuffer().order(ByteOrder.nativeOrder());
+    PlaneView depthPlane = ImageView.of(depth).getY();
+    PlaneView confidencePlane = ImageView.of(confidence).getY();
 
     // To transform 2D depth pixels into 3D points we retrieve the intrinsic camera parameters
     // corresponding to the depth image. See more information about the depth values at
@@ -64,12 +59,12 @@ public final class PointCloudHelper {
     int step = calculateImageSubsamplingStep(depthWidth, depthHeight, pointLimit);
     FloatBuffer points =
         FloatBuffer.allocate(
-            depthWidth / step * depthHeight / step * Renderer.POSITION_FLOATS_PER_POINT);
+            getSubsampledPointCount(depthWidth, depthHeight, pointLimit)
+                * Renderer.POSITION_FLOATS_PER_POINT);
 
     for (int y = 0; y < depthHeight; y += step) {
       for (int x = 0; x < depthWidth; x += step) {
-        // Depth images are tightly packed, so it's OK to not use row and pixel strides.
-        int depthMillimeters = depthBuffer.get(y * depthWidth + x); // Depth image pixels are in mm.
+        int depthMillimeters = depthPlane.getUnsignedShort(x, y); // Depth image pixels are in mm.
         if (depthMillimeters == 0) {
           // A pixel that has a value of zero has a missing depth estimate at this location.
           continue;
@@ -82,17 +77,15 @@ public final class PointCloudHelper {
         points.put(-depthMeters); // Z.
 
         // Depth confidence value for this pixel, stored as an unsigned byte in range [0, 255].
-        byte confidencePixelValue =
-            confidenceBuffer.get(
-                y * confidenceImagePlane.getRowStride()
-                    + x * confidenceImagePlane.getPixelStride());
+        int confidencePixelValue = confidencePlane.get(x, y);
         // Normalize depth confidence to [0.0, 1.0] float range.
-        float confidenceNormalized = ((float) (confidencePixelValue & 0xff)) / 255.0f;
+        float confidenceNormalized = ((float) confidencePixelValue) / 255.0f;
         points.put(confidenceNormalized);
       }
     }
 
-    points.rewind();
+    // Limit the buffer to the points written, as pixels without depth were skipped.
+    points.flip();
 
     return points;
   }
@@ -120,22 +113,30 @@ public final class PointCloudHelper {
    */
   public static FloatBuffer convertImageToColorBuffer(
       Image color, Image depth, FloatBuffer imageCoords, int pointLimit) {
+    return convertImageToColorBuffer(
+        color, depth, imageCoords, pointLimit, /* includeMissingDepth= */ false);
+  }
+
+  /**
+   * Creates a linear buffer of RGB color values corresponding to the values in the depth image.
+   *
+   * @param includeMissingDepth whether pixels with the depth value equal to zero are included in
+   *     the output, as required to match the GPU point buffer.
+   */
+  public static FloatBuffer convertImageToColorBuffer(
+      Image color,
+      Image depth,
+      FloatBuffer imageCoords,
+      int pointLimit,
+      boolean includeMissingDepth) {
     int depthWidth = depth.getWidth();
     int depthHeight = depth.getHeight();
     int colorWidth = color.getWidth();
     int colorHeight = color.getHeight();
-    Plane imagePlaneY = color.getPlanes()[0];
-    Plane imagePlaneU = color.getPlanes()[1];
-    Plane imagePlaneV = color.getPlanes()[2];
-    int rowStrideY = imagePlaneY.getRowStride();
-    int rowStrideU = imagePlaneU.getRowStride();
-    int rowStrideV = imagePlaneV.getRowStride();
-    int pixelStrideY = imagePlaneY.getPixelStride();
-    int pixelStrideU = imagePlaneU.getPixelStride();
-    int pixelStrideV = imagePlaneV.getPixelStride();
-    ByteBuffer colorBufferY = imagePlaneY.getBuffer();
-    ByteBuffer colorBufferU = imagePlaneU.getBuffer();
-    ByteBuffer colorBufferV = imagePlaneV.getBuffer();
+    ImageView colorImage = ImageView.of(color);
+    PlaneView colorPlaneY = colorImage.getY();
+    PlaneView colorPlaneU = colorImage.getU();
+    PlaneView colorPlaneV = colorImage.getV();
 
     // The first CPU image row overlapping with the depth image region.
     int colorMinY = Math.round(imageCoords.get(1));
@@ -143,21 +144,20 @@ public final class PointCloudHelper {
     int colorMaxY = Math.round(imageCoords.get(3));
     int colorRegionHeight = colorMaxY - colorMinY;
 
-    Plane depthImagePlane = depth.getPlanes()[0];
-    ShortBuffer depthBuffer =
-        depthImagePlane.getBuffer().order(ByteOrder.nativeOrder()).asShortBuffer();
+    PlaneView depthPlane = ImageView.of(depth).getY();
 
     // Allocate the destination color buffer.
     int step = calculateImageSubsamplingStep(depthWidth, depthHeight, pointLimit);
     FloatBuffer colors =
         FloatBuffer.allocate(
-            depthWidth / step * depthHeight / step * Renderer.COLOR_FLOATS_PER_POINT);
+            getSubsampledPointCount(depthWidth, depthHeight, pointLimit)
+                * Renderer.COLOR_FLOATS_PER_POINT);
 
     float rgb[] = new float[3]; // Reusable space for 3-channel color values.
 
     for (int y = 0; y < depthHeight; y += step) {
       for (int x = 0; x < depthWidth; x += step) {
-        if (depthBuffer.get(y * depthWidth + x) == 0) {
+        if (!includeMissingDepth && depthPlane.getUnsignedShort(x, y) == 0) {
           // A pixel that has a value of zero has a missing depth estimate at this location.
           continue;
         }
@@ -168,12 +168,9 @@ public final class PointCloudHelper {
         int colorHalfX = colorX / 2;
         int colorHalfY = colorY / 2;
 
-        // Each channel value is an unsigned byte, so we need to apply `0xff` to convert the sign.
-        int channelValueY = colorBufferY.get(colorY * rowStrideY + colorX * pixelStrideY) & 0xff;
-        int channelValueU =
-            colorBufferU.get(colorHalfY * rowStrideU + colorHalfX * pixelStrideU) & 0xff;
-        int channelValueV =
-            colorBufferV.get(colorHalfY * rowStrideV + colorHalfX * pixelStrideV) & 0xff;
+        int channelValueY = colorPlaneY.get(colorX, colorY);
+        int channelValueU = colorPlaneU.get(colorHalfX, colorHalfY);
+        int channelValueV = colorPlaneV.get(colorHalfX, colorHalfY);
 
         convertYuvToRgb(channelValueY, channelValueU, channelValueV, rgb);
         colors.put(rgb[0]);
@@ -182,16 +179,22 @@ public final class PointCloudHelper {
       }
     }
 
-    colors.rewind();
+    colors.flip();
 
     return colors;
   }
 
   /** Returs the increment in rows and columns to sample the image n times. */
-  private static int calculateImageSubsamplingStep(int imageWidth, int imageHeight, int n) {
+  static int calculateImageSubsamplingStep(int imageWidth, int imageHeight, int n) {
     return (int) Math.ceil(Math.sqrt((float) imageWidth * imageHeight / n));
   }
 
+  /** Returns the number of pixels visited when subsampling the image to at most n points. */
+  static int getSubsampledPointCount(int imageWidth, int imageHeight, int n) {
+    int step = calculateImageSubsamplingStep(imageWidth, imageHeight, n);
+    return ((imageWidth + step - 1) / step) * ((imageHeight + step - 1) / step);
+  }
+
   /**
    * Converts a YUV color value into RGB. Input YUV values are expected in the range [0, 255].
    * Output RGB values are in the range [0.0, 1.0].
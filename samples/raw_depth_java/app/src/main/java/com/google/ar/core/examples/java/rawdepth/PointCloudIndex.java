@@ -0,0 +1,533 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.rawdepth;
+
+/**
+ * Immutable k-d tree over a set of world-space depth points.
+ *
+ * <p>The tree is stored implicitly in primitive arrays: the points are reordered so that the node
+ * of every subtree `[lo, hi)` sits at its middle index, with the split axis recorded alongside it.
+ * This avoids per-node objects, so an index over hundreds of thousands of points can be built on a
+ * worker thread and queried from the GL thread without any allocation.
+ *
+ * <p>Instances are safe to share between threads once built. Ray casts and nearest neighbour
+ * queries reuse scratch state owned by the index, so they are serialized on it.
+ */
+final class PointCloudIndex {
+  /** Point coordinates, three consecutive values (X, Y, Z) per point, in tree order. */
+  private final float[] xyz;
+
+  /** Depth confidence per point in [0, 1] range, in tree order. */
+  private final float[] confidence;
+
+  /** Split axis (0, 1 or 2) of the node stored at each index. */
+  private final byte[] splitAxis;
+
+  private final int size;
+
+  // Scratch state of the queries, reused so that queries do not allocate.
+  private final RayQuery rayQuery = new RayQuery();
+  private final NeighborQuery neighborQuery = new NeighborQuery();
+
+  private PointCloudIndex(float[] xyz, float[] confidence, int size) {
+    this.xyz = xyz;
+    this.confidence = confidence;
+    this.splitAxis = new byte[size];
+    this.size = size;
+  }
+
+  /**
+   * Builds an index over the given points. The arrays are taken over by the index and reordered in
+   * place, so the caller must not modify them afterwards.
+   *
+   * @param xyz point coordinates, three consecutive values per point.
+   * @param confidence depth confidence per point in [0, 1] range.
+   * @param size number of points stored in the arrays.
+   */
+  static PointCloudIndex build(float[] xyz, float[] confidence, int size) {
+    if (xyz.length < size * 3 || confidence.length < size) {
+      throw new IllegalArgumentException("Point arrays are smaller than the point count");
+    }
+    PointCloudIndex index = new PointCloudIndex(xyz, confidence, size);
+    index.buildSubtree(0, size);
+    return index;
+  }
+
+  /** Returns the number of indexed points. */
+  int size() {
+    return size;
+  }
+
+  /** Copies the coordinates of the point at {@code pointIndex} into {@code out}. */
+  void getPoint(int pointIndex, float[] out) {
+    out[0] = xyz[pointIndex * 3];
+    out[1] = xyz[pointIndex * 3 + 1];
+    out[2] = xyz[pointIndex * 3 + 2];
+  }
+
+  /** Returns the depth confidence of the point at {@code pointIndex}. */
+  float getConfidence(int pointIndex) {
+    return confidence[pointIndex];
+  }
+
+  /**
+   * Finds the point closest to the ray origin among all points that lie within {@code maxRadius}
+   * of the ray, i.e. the first point a thick ray would hit.
+   *
+   * @param origin the ray origin in world space.
+   * @param direction the normalized ray direction in world space.
+   * @param maxRadius the maximum distance in meters between a point and the ray.
+   * @param minConfidence points with a lower depth confidence are ignored.
+   * @return the index of the hit point, or -1 if no point is close enough to the ray.
+   */
+  int rayCast(float[] origin, float[] direction, float maxRadius, float minConfidence) {
+    return rayCast(origin, direction, maxRadius, minConfidence, Float.POSITIVE_INFINITY);
+  }
+
+  /**
+   * Like {@link #rayCast(float[], float[], float, float)}, but only finds points closer than {@code
+   * maxDistanceAlongRay} to the ray origin, measured along the ray. Used to search several indices
+   * for the first hit.
+   */
+  synchronized int rayCast(
+      float[] origin,
+      float[] direction,
+      float maxRadius,
+      float minConfidence,
+      float maxDistanceAlongRay) {
+    if (size == 0) {
+      return -1;
+    }
+    RayQuery query = rayQuery;
+    query.ox = origin[0];
+    query.oy = origin[1];
+    query.oz = origin[2];
+    query.dx = direction[0];
+    query.dy = direction[1];
+    query.dz = direction[2];
+    query.radius = maxRadius;
+    query.radiusSquared = maxRadius * maxRadius;
+    query.minConfidence = minConfidence;
+    query.bounds[0] = query.bounds[1] = query.bounds[2] = Float.NEGATIVE_INFINITY;
+    query.bounds[3] = query.bounds[4] = query.bounds[5] = Float.POSITIVE_INFINITY;
+    query.bestIndex = -1;
+    query.bestDistanceAlongRay = maxDistanceAlongRay;
+    rayCastSubtree(0, size, query);
+    return query.bestIndex;
+  }
+
+  /**
+   * Collects the points within {@code radius} of the query point.
+   *
+   * @param outIndices receives the indices of the found points. The search stops once it is full.
+   * @return the number of indices written to {@code outIndices}.
+   */
+  int radiusSearch(float x, float y, float z, float radius, float minConfidence, int[] outIndices) {
+    return radiusSearch(x, y, z, radius, minConfidence, outIndices, 0, 0);
+  }
+
+  /**
+   * Like {@link #radiusSearch(float, float, float, float, float, int[])}, but appends to the {@code
+   * count} indices already in {@code outIndices}, adding {@code indexOffset} to the indices found.
+   * Used to search several indices.
+   *
+   * @return the number of indices in {@code outIndices}, including the first {@code count}.
+   */
+  int radiusSearch(
+      float x,
+      float y,
+      float z,
+      float radius,
+      float minConfidence,
+      int[] outIndices,
+      int count,
+      int indexOffset) {
+    if (size == 0 || count >= outIndices.length) {
+      return count;
+    }
+    int newCount =
+        radiusSubtree(0, size, x, y, z, radius * radius, minConfidence, outIndices, count);
+    for (int i = count; i < newCount; ++i) {
+      outIndices[i] += indexOffset;
+    }
+    return newCount;
+  }
+
+  /**
+   * Finds the {@code k} points closest to the query point, where {@code k} is the length of {@code
+   * outIndices}. Results are sorted by increasing distance.
+   *
+   * @param outIndices receives the indices of the nearest points.
+   * @param outDistancesSquared receives the squared distances of the nearest points. Must be at
+   *     least as long as {@code outIndices}.
+   * @return the number of neighbours found, which is smaller than {@code k} if the index holds
+   *     fewer eligible points.
+   */
+  int nearestNeighbors(
+      float x,
+      float y,
+      float z,
+      float minConfidence,
+      int[] outIndices,
+      float[] outDistancesSquared) {
+    return nearestNeighbors(x, y, z, minConfidence, outIndices, outDistancesSquared, 0, 0);
+  }
+
+  /**
+   * Like {@link #nearestNeighbors(float, float, float, float, int[], float[])}, but merges the
+   * neighbours found with the {@code count} sorted ones already in the output arrays, adding {@code
+   * indexOffset} to the indices found. Used to search several indices.
+   *
+   * @return the number of neighbours in the output arrays, including the first {@code count}.
+   */
+  synchronized int nearestNeighbors(
+      float x,
+      float y,
+      float z,
+      float minConfidence,
+      int[] outIndices,
+      float[] outDistancesSquared,
+      int count,
+      int indexOffset) {
+    int k = outIndices.length;
+    if (size == 0 || k == 0) {
+      return count;
+    }
+    NeighborQuery query = neighborQuery;
+    query.reset(outIndices, outDistancesSquared, count, indexOffset);
+    query.x = x;
+    query.y = y;
+    query.z = z;
+    query.minConfidence = minConfidence;
+    nearestSubtree(0, size, query);
+    count = query.count;
+    // Do not keep the caller's arrays alive.
+    query.reset(null, null, 0, 0);
+    return count;
+  }
+
+  private void buildSubtree(int lo, int hi) {
+    while (hi - lo > 1) {
+      int axis = widestAxis(lo, hi);
+      int mid = (lo + hi) >>> 1;
+      select(lo, hi - 1, mid, axis);
+      splitAxis[mid] = (byte) axis;
+      // Recurse into the smaller half and loop on the larger one to bound the stack depth.
+      if (mid - lo < hi - mid - 1) {
+        buildSubtree(lo, mid);
+        lo = mid + 1;
+      } else {
+        buildSubtree(mid + 1, hi);
+        hi = mid;
+      }
+    }
+  }
+
+  /** Returns the axis along which the points in {@code [lo, hi)} have the largest extent. */
+  private int widestAxis(int lo, int hi) {
+    float minX = Float.POSITIVE_INFINITY;
+    float minY = Float.POSITIVE_INFINITY;
+    float minZ = Float.POSITIVE_INFINITY;
+    float maxX = Float.NEGATIVE_INFINITY;
+    float maxY = Float.NEGATIVE_INFINITY;
+    float maxZ = Float.NEGATIVE_INFINITY;
+    for (int i = lo; i < hi; ++i) {
+      float px = xyz[i * 3];
+      float py = xyz[i * 3 + 1];
+      float pz = xyz[i * 3 + 2];
+      minX = Math.min(minX, px);
+      maxX = Math.max(maxX, px);
+      minY = Math.min(minY, py);
+      maxY = Math.max(maxY, py);
+      minZ = Math.min(minZ, pz);
+      maxZ = Math.max(maxZ, pz);
+    }
+    float extentX = maxX - minX;
+    float extentY = maxY - minY;
+    float extentZ = maxZ - minZ;
+    if (extentX >= extentY && extentX >= extentZ) {
+      return 0;
+    }
+    return extentY >= extentZ ? 1 : 2;
+  }
+
+  /**
+   * Partially sorts the points in {@code [left, right]} along {@code axis} so that the point at
+   * index {@code nth} is in its sorted position (quickselect).
+   *
+   * <p>Partitions three ways, into points below, equal to and above the pivot, so that the many
+   * equal coordinates of quantized depth do not degrade it to quadratic time.
+   */
+  private void select(int left, int right, int nth, int axis) {
+    while (right > left) {
+      float pivot = xyz[((left + right) >>> 1) * 3 + axis];
+      // [left, lt) is below the pivot, [lt, i) equal to it and (gt, right] above it.
+      int lt = left;
+      int gt = right;
+      int i = left;
+      while (i <= gt) {
+        float value = xyz[i * 3 + axis];
+        if (value < pivot) {
+          swap(lt++, i++);
+        } else if (value > pivot) {
+          swap(i, gt--);
+        } else {
+          ++i;
+        }
+      }
+      if (nth < lt) {
+        right = lt - 1;
+      } else if (nth > gt) {
+        left = gt + 1;
+      } else {
+        return;
+      }
+    }
+  }
+
+  private void swap(int a, int b) {
+    if (a == b) {
+      return;
+    }
+    for (int c = 0; c < 3; ++c) {
+      float tmp = xyz[a * 3 + c];
+      xyz[a * 3 + c] = xyz[b * 3 + c];
+      xyz[b * 3 + c] = tmp;
+    }
+    float tmp = confidence[a];
+    confidence[a] = confidence[b];
+    confidence[b] = tmp;
+  }
+
+  private void rayCastSubtree(int lo, int hi, RayQuery query) {
+    if (lo >= hi || !query.intersectsBounds()) {
+      return;
+    }
+    int mid = (lo + hi) >>> 1;
+    query.testPoint(mid, xyz, confidence);
+    if (hi - lo == 1) {
+      return;
+    }
+
+    int axis = splitAxis[mid];
+    float split = xyz[mid * 3 + axis];
+    float[] bounds = query.bounds;
+    // Visit the child on the side of the ray origin first, as it most likely holds the nearest hit.
+    boolean lowerFirst = query.originComponent(axis) < split;
+    for (int pass = 0; pass < 2; ++pass) {
+      boolean lower = (pass == 0) == lowerFirst;
+      int boundIndex = lower ? axis + 3 : axis;
+      float savedBound = bounds[boundIndex];
+      bounds[boundIndex] = split;
+      if (lower) {
+        rayCastSubtree(lo, mid, query);
+      } else {
+        rayCastSubtree(mid + 1, hi, query);
+      }
+      bounds[boundIndex] = savedBound;
+    }
+  }
+
+  private int radiusSubtree(
+      int lo,
+      int hi,
+      float x,
+      float y,
+      float z,
+      float radiusSquared,
+      float minConfidence,
+      int[] out,
+      int count) {
+    while (lo < hi && count < out.length) {
+      int mid = (lo + hi) >>> 1;
+      float dx = xyz[mid * 3] - x;
+      float dy = xyz[mid * 3 + 1] - y;
+      float dz = xyz[mid * 3 + 2] - z;
+      if (dx * dx + dy * dy + dz * dz <= radiusSquared && confidence[mid] >= minConfidence) {
+        out[count++] = mid;
+      }
+      if (hi - lo == 1) {
+        break;
+      }
+
+      int axis = splitAxis[mid];
+      float delta = (axis == 0 ? x : axis == 1 ? y : z) - xyz[mid * 3 + axis];
+      boolean visitLower = delta <= 0 || delta * delta <= radiusSquared;
+      boolean visitUpper = delta >= 0 || delta * delta <= radiusSquared;
+      if (visitLower && visitUpper) {
+        count = radiusSubtree(lo, mid, x, y, z, radiusSquared, minConfidence, out, count);
+        lo = mid + 1;
+      } else if (visitLower) {
+        hi = mid;
+      } else {
+        lo = mid + 1;
+      }
+    }
+    return count;
+  }
+
+  private void nearestSubtree(int lo, int hi, NeighborQuery query) {
+    if (lo >= hi) {
+      return;
+    }
+    int mid = (lo + hi) >>> 1;
+    if (confidence[mid] >= query.minConfidence) {
+      float dx = xyz[mid * 3] - query.x;
+      float dy = xyz[mid * 3 + 1] - query.y;
+      float dz = xyz[mid * 3 + 2] - query.z;
+      query.offer(mid, dx * dx + dy * dy + dz * dz);
+    }
+    if (hi - lo == 1) {
+      return;
+    }
+
+    int axis = splitAxis[mid];
+    float delta = query.component(axis) - xyz[mid * 3 + axis];
+    if (delta < 0) {
+      nearestSubtree(lo, mid, query);
+      if (delta * delta < query.worstDistanceSquared()) {
+        nearestSubtree(mid + 1, hi, query);
+      }
+    } else {
+      nearestSubtree(mid + 1, hi, query);
+      if (delta * delta < query.worstDistanceSquared()) {
+        nearestSubtree(lo, mid, query);
+      }
+    }
+  }
+
+  /** Mutable state of a single ray cast. */
+  private static final class RayQuery {
+    float ox;
+    float oy;
+    float oz;
+    float dx;
+    float dy;
+    float dz;
+    float radius;
+    float radiusSquared;
+    float minConfidence;
+
+    /** Bounds of the current subtree: min X, Y, Z followed by max X, Y, Z. */
+    final float[] bounds = new float[6];
+
+    int bestIndex = -1;
+    float bestDistanceAlongRay = Float.POSITIVE_INFINITY;
+
+    float originComponent(int axis) {
+      return axis == 0 ? ox : axis == 1 ? oy : oz;
+    }
+
+    void testPoint(int index, float[] xyz, float[] confidence) {
+      if (confidence[index] < minConfidence) {
+        return;
+      }
+      float px = xyz[index * 3] - ox;
+      float py = xyz[index * 3 + 1] - oy;
+      float pz = xyz[index * 3 + 2] - oz;
+      float t = px * dx + py * dy + pz * dz;
+      if (t < 0 || t >= bestDistanceAlongRay) {
+        return;
+      }
+      float distanceToRaySquared = px * px + py * py + pz * pz - t * t;
+      if (distanceToRaySquared <= radiusSquared) {
+        bestIndex = index;
+        bestDistanceAlongRay = t;
+      }
+    }
+
+    /**
+     * Slab test of the ray against the current subtree bounds grown by the query radius. Returns
+     * false if the subtree cannot contain a hit closer than the best one found so far.
+     */
+    boolean intersectsBounds() {
+      float tMin = 0;
+      float tMax = bestDistanceAlongRay + radius;
+      for (int axis = 0; axis < 3; ++axis) {
+        float o = originComponent(axis);
+        float d = axis == 0 ? dx : axis == 1 ? dy : dz;
+        float min = bounds[axis] - radius;
+        float max = bounds[axis + 3] + radius;
+        if (d == 0) {
+          if (o < min || o > max) {
+            return false;
+          }
+          continue;
+        }
+        float inverse = 1f / d;
+        float t0 = (min - o) * inverse;
+        float t1 = (max - o) * inverse;
+        if (t0 > t1) {
+          float tmp = t0;
+          t0 = t1;
+          t1 = tmp;
+        }
+        tMin = Math.max(tMin, t0);
+        tMax = Math.min(tMax, t1);
+        if (tMin > tMax) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /** Mutable state of a k-nearest-neighbours query, kept as a sorted insertion list. */
+  private static final class NeighborQuery {
+    int[] indices;
+    float[] distancesSquared;
+    float x;
+    float y;
+    float z;
+    float minConfidence;
+    int count;
+    int indexOffset;
+
+    void reset(int[] indices, float[] distancesSquared, int count, int indexOffset) {
+      if (indices != null && distancesSquared.length < indices.length) {
+        throw new IllegalArgumentException("Distance array is smaller than the index array");
+      }
+      this.indices = indices;
+      this.distancesSquared = distancesSquared;
+      this.count = count;
+      this.indexOffset = indexOffset;
+    }
+
+    float component(int axis) {
+      return axis == 0 ? x : axis == 1 ? y : z;
+    }
+
+    float worstDistanceSquared() {
+      return count < indices.length ? Float.POSITIVE_INFINITY : distancesSquared[count - 1];
+    }
+
+    void offer(int index, float distanceSquared) {
+      int k = indices.length;
+      if (count == k && distanceSquared >= distancesSquared[k - 1]) {
+        return;
+      }
+      int position = count < k ? count++ : k - 1;
+      while (position > 0 && distancesSquared[position - 1] > distanceSquared) {
+        indices[position] = indices[position - 1];
+        distancesSquared[position] = distancesSquared[position - 1];
+        --position;
+      }
+      indices[position] = index + indexOffset;
+      distancesSquared[position] = distanceSquared;
+    }
+  }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.rawdepth;
+
+import android.opengl.Matrix;
+import android.util.Log;
+import java.nio.FloatBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Maintains an index over the accumulated raw depth frames.
+ *
+ * <p>Frames are handed over from the GL thread with {@link #add(DepthData)}, which only captures
+ * the frame's model matrix. Transforming the points into world space and indexing them happens on a
+ * single worker thread. The index is updated incrementally: each frame gets its own {@link
+ * PointCloudIndex}, built once over the frame's points alone, and dropped when the frame leaves the
+ * window. Frames that arrive while the worker is busy are coalesced into its next update. The
+ * indices of the frames in the window are published atomically as a {@link Snapshot}, which can be
+ * queried from any thread with {@link #getIndex()}.
+ */
+final class PointCloudIndexer {
+  private static final String TAG = PointCloudIndexer.class.getSimpleName();
+
+  /**
+   * The indices of the frames in the window, queried as one. Point indices are global: the points
+   * of each frame follow those of the frames before it.
+   */
+  static final class Snapshot {
+    /** A snapshot without frames, returned until the first frame is indexed. */
+    static final Snapshot EMPTY = new Snapshot(new PointCloudIndex[0]);
+
+    private final PointCloudIndex[] frames;
+    /** Global index of the first point of each frame. */
+    private final int[] offsets;
+
+    private final int size;
+
+    Snapshot(PointCloudIndex[] frames) {
+      this.frames = frames;
+      offsets = new int[frames.length];
+      int size = 0;
+      for (int i = 0; i < frames.length; ++i) {
+        offsets[i] = size;
+        size += frames[i].size();
+      }
+      this.size = size;
+    }
+
+    /** Returns the number of indexed points. */
+    int size() {
+      return size;
+    }
+
+    /** Copies the coordinates of the point at {@code pointIndex} into {@code out}. */
+    void getPoint(int pointIndex, float[] out) {
+      int frame = frameOf(pointIndex);
+      frames[frame].getPoint(pointIndex - offsets[frame], out);
+    }
+
+    /** Returns the depth confidence of the point at {@code pointIndex}. */
+    float getConfidence(int pointIndex) {
+      int frame = frameOf(pointIndex);
+      return frames[frame].getConfidence(pointIndex - offsets[frame]);
+    }
+
+    /** See {@link PointCloudIndex#rayCast(float[], float[], float, float)}. */
+    int rayCast(float[] origin, float[] direction, float maxRadius, float minConfidence) {
+      int bestIndex = -1;
+      float bestDistanceAlongRay = Float.POSITIVE_INFINITY;
+      float[] point = new float[3];
+      for (int i = 0; i < frames.length; ++i) {
+        int hit =
+            frames[i].rayCast(origin, direction, maxRadius, minConfidence, bestDistanceAlongRay);
+        if (hit < 0) {
+          continue;
+        }
+        frames[i].getPoint(hit, point);
+        bestIndex = offsets[i] + hit;
+        bestDistanceAlongRay =
+            (point[0] - origin[0]) * direction[0]
+                + (point[1] - origin[1]) * direction[1]
+                + (point[2] - origin[2]) * direction[2];
+      }
+      return bestIndex;
+    }
+
+    /** See {@link PointCloudIndex#radiusSearch(float, float, float, float, float, int[])}. */
+    int radiusSearch(
+        float x, float y, float z, float radius, float minConfidence, int[] outIndices) {
+      int count = 0;
+      for (int i = 0; i < frames.length && count < outIndices.length; ++i) {
+        count =
+            frames[i].radiusSearch(x, y, z, radius, minConfidence, outIndices, count, offsets[i]);
+      }
+      return count;
+    }
+
+    /** See {@link PointCloudIndex#nearestNeighbors(float, float, float, float, int[], float[])}. */
+    int nearestNeighbors(
+        float x,
+        float y,
+        float z,
+        float minConfidence,
+        int[] outIndices,
+        float[] outDistancesSquared) {
+      int count = 0;
+      for (int i = 0; i < frames.length; ++i) {
+        count =
+            frames[i].nearestNeighbors(
+                x, y, z, minConfidence, outIndices, outDistancesSquared, count, offsets[i]);
+      }
+      return count;
+    }
+
+    /** Returns the frame holding the point at {@code pointIndex}. */
+    private int frameOf(int pointIndex) {
+      if (pointIndex < 0 || pointIndex >= size) {
+        throw new IndexOutOfBoundsException("Point index " + pointIndex + " of " + size);
+      }
+      int frame = Arrays.binarySearch(offsets, pointIndex);
+      if (frame < 0) {
+        return -frame - 2;
+      }
+      // Skip the frames without points that share the offset.
+      while (frames[frame].size() == 0) {
+        ++frame;
+      }
+      return frame;
+    }
+  }
+
+  /** A frame waiting to be transformed by the worker thread. */
+  private static final class PendingFrame {
+    final FloatBuffer points;
+    final float[] modelMatrix;
+
+    PendingFrame(FloatBuffer points, float[] modelMatrix) {
+      this.points = points;
+      this.modelMatrix = modelMatrix;
+    }
+  }
+
+  private final int maxFrames;
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+  private final ConcurrentLinkedQueue<PendingFrame> pendingFrames = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean rebuildScheduled = new AtomicBoolean();
+
+  /** Indices of the frames in the window, oldest first. Only accessed by the worker thread. */
+  private final ArrayDeque<PointCloudIndex> frameIndices = new ArrayDeque<>();
+
+  // Scratch vectors of the worker thread.
+  private final float[] localPoint = {0, 0, 0, 1};
+  private final float[] worldPoint = new float[4];
+
+  private volatile Snapshot index = Snapshot.EMPTY;
+
+  /**
+   * @param maxFrames the number of most recent depth frames covered by the index. This should match
+   *     the number of frames kept by the {@link Renderer}.
+   */
+  PointCloudIndexer(int maxFrames) {
+    this.maxFrames = maxFrames;
+  }
+
+  /**
+   * Queues a new depth frame for indexing. Must be called on the GL thread. Frames whose points
+   * were computed on the GPU are not indexed, as their points are not available on the CPU.
+   */
+  void add(DepthData depth) {
+    if (depth.getPoints() == null) {
+      return;
+    }
+    float[] modelMatrix = new float[16];
+    depth.getModelMatrix(modelMatrix);
+    pendingFrames.add(new PendingFrame(depth.getPoints().duplicate(), modelMatrix));
+    if (rebuildScheduled.compareAndSet(false, true)) {
+      executor.execute(this::rebuild);
+    }
+  }
+
+  /** Returns the most recently published index. Never null. */
+  Snapshot getIndex() {
+    return index;
+  }
+
+  /** Stops the worker thread. Pending frames are discarded. */
+  void close() {
+    executor.shutdownNow();
+  }
+
+  private void rebuild() {
+    // Clear the flag before draining, so that a frame added during the rebuild schedules another.
+    rebuildScheduled.set(false);
+    PendingFrame pending;
+    boolean changed = false;
+    long startNanos = System.nanoTime();
+    int indexedPoints = 0;
+    while ((pending = pendingFrames.poll()) != null) {
+      PointCloudIndex frameIndex = indexFrame(pending);
+      frameIndices.addLast(frameIndex);
+      indexedPoints += frameIndex.size();
+      changed = true;
+    }
+    if (!changed) {
+      return;
+    }
+    while (frameIndices.size() > maxFrames) {
+      frameIndices.removeFirst();
+    }
+
+    index = new Snapshot(frameIndices.toArray(new PointCloudIndex[0]));
+    Log.v(
+        TAG,
+        "Indexed "
+            + indexedPoints
+            + " new points in "
+            + (System.nanoTime() - startNanos) / 1000
+            + " us, "
+            + index.size()
+            + " in total");
+  }
+
+  /** Transforms the points of a frame to world space and builds an index over them. */
+  private PointCloudIndex indexFrame(PendingFrame pending) {
+    FloatBuffer points = pending.points;
+    points.rewind();
+    int size = points.remaining() / Renderer.POSITION_FLOATS_PER_POINT;
+    // Taken over by the index of the frame, which is never rebuilt.
+    float[] xyz = new float[size * 3];
+    float[] confidence = new float[size];
+    for (int i = 0; i < size; ++i) {
+      localPoint[0] = points.get();
+      localPoint[1] = points.get();
+      localPoint[2] = points.get();
+      confidence[i] = points.get();
+      Matrix.multiplyMV(worldPoint, 0, pending.modelMatrix, 0, localPoint, 0);
+      xyz[i * 3] = worldPoint[0];
+      xyz[i * 3 + 1] = worldPoint[1];
+      xyz[i * 3 + 2] = worldPoint[2];
+    }
+    return PointCloudIndex.build(xyz, confidence, size);
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.rawdepth;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Reads point clouds written by {@link PointCloudExporter}. Only the exact vertex layout produced
+ * by the exporter is supported.
+ */
+final class PointCloudPlyReader {
+  private static final String END_HEADER = "end_header\n";
+  private static final String VERTEX_ELEMENT = "element vertex ";
+  private static final int MAX_HEADER_BYTES = 4096;
+
+  /** Points read from a PLY file. */
+  static final class Points {
+    /** Point coordinates, three consecutive values (X, Y, Z) per point. */
+    final float[] xyz;
+
+    /** Point colors, three consecutive unsigned bytes (red, green, blue) per point. */
+    final byte[] rgb;
+
+    /** Depth confidence per point in [0, 1] range. */
+    final float[] confidence;
+
+    Points(int size) {
+      xyz = new float[size * 3];
+      rgb = new byte[size * 3];
+      confidence = new float[size];
+    }
+
+    int size() {
+      return confidence.length;
+    }
+  }
+
+  private PointCloudPlyReader() {}
+
+  /** Reads all points of the given file. */
+  static Points read(File file) throws IOException {
+    try (FileInputStream stream = new FileInputStream(file);
+        FileChannel channel = stream.getChannel()) {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+      int vertexCount = readHeader(channel, buffer);
+      Points points = new Points(vertexCount);
+      for (int i = 0; i < vertexCount; ++i) {
+        if (buffer.remaining() < PointCloudExporter.BYTES_PER_VERTEX) {
+          buffer.compact();
+          while (buffer.position() < PointCloudExporter.BYTES_PER_VERTEX) {
+            if (channel.read(buffer) < 0) {
+              throw new IOException("Unexpected end of file after " + i + " vertices");
+            }
+          }
+          buffer.flip();
+        }
+        points.xyz[i * 3] = buffer.getFloat();
+        points.xyz[i * 3 + 1] = buffer.getFloat();
+        points.xyz[i * 3 + 2] = buffer.getFloat();
+        points.rgb[i * 3] = buffer.get();
+        points.rgb[i * 3 + 1] = buffer.get();
+        points.rgb[i * 3 + 2] = buffer.get();
+        points.confidence[i] = buffer.getFloat();
+      }
+      return points;
+    }
+  }
+
+  /**
+   * Reads and validates the header. On return, {@code buffer} is positioned at the first vertex.
+   *
+   * @return the number of vertices in the file.
+   */
+  private static int readHeader(FileChannel channel, ByteBuffer buffer) throws IOException {
+    buffer.clear();
+    int headerLength = -1;
+    while (headerLength < 0) {
+      if (buffer.position() >= MAX_HEADER_BYTES || channel.read(buffer) < 0) {
+        throw new IOException("PLY header not found");
+      }
+      headerLength = findHeaderEnd(buffer);
+    }
+    buffer.flip();
+    byte[] headerBytes = new byte[headerLength];
+    buffer.get(headerBytes);
+    String header = new String(headerBytes, StandardCharsets.US_ASCII);
+
+    int countStart = header.indexOf(VERTEX_ELEMENT);
+    if (countStart < 0) {
+      throw new IOException("PLY header does not declare vertices");
+    }
+    countStart += VERTEX_ELEMENT.length();
+    int countEnd = header.indexOf('\n', countStart);
+    int vertexCount;
+    try {
+      vertexCount = Integer.parseInt(header.substring(countStart, countEnd).trim());
+    } catch (NumberFormatException e) {
+      throw new IOException("Invalid PLY vertex count", e);
+    }
+    if (!String.format(Locale.US, PointCloudExporter.HEADER_FORMAT, vertexCount)
+        .equals(header)) {
+      throw new IOException("Unsupported PLY layout");
+    }
+    return vertexCount;
+  }
+
+  /** Returns the length of the header including its terminating line, or -1 if not read yet. */
+  private static int findHeaderEnd(ByteBuffer buffer) {
+    int end = buffer.position();
+    int markerLength = END_HEADER.length();
+    for (int i = 0; i + markerLength <= end; ++i) {
+      boolean match = true;
+      for (int j = 0; j < markerLength && match; ++j) {
+        match = buffer.get(i + j) == END_HEADER.charAt(j);
+      }
+      if (match) {
+        return i + markerLength;
+      }
+    }
+    return -1;
+  }
+}
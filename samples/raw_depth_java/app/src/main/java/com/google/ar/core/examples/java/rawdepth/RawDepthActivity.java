@@ -16,25 +16,34 @@
 
 package com.google.ar.core.examples.java.rawdepth;
 
+import android.app.ActivityManager;
 import android.media.Image;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
+import android.opengl.Matrix;
 import android.os.Bundle;
 import android.util.Log;
+import android.view.MotionEvent;
+import android.widget.Button;
 import android.widget.SeekBar;
+import android.widget.Switch;
 import android.widget.Toast;
 import androidx.appcompat.app.AppCompatActivity;
+import com.google.ar.core.Anchor;
 import com.google.ar.core.ArCoreApk;
 import com.google.ar.core.Camera;
 import com.google.ar.core.Config;
 import com.google.ar.core.Frame;
+import com.google.ar.core.Pose;
 import com.google.ar.core.Session;
 import com.google.ar.core.TrackingState;
 import com.google.ar.core.examples.java.common.helpers.CameraPermissionHelper;
 import com.google.ar.core.examples.java.common.helpers.DisplayRotationHelper;
 import com.google.ar.core.examples.java.common.helpers.FullScreenHelper;
 import com.google.ar.core.examples.java.common.helpers.SnackbarHelper;
+import com.google.ar.core.examples.java.common.helpers.TapHelper;
 import com.google.ar.core.examples.java.common.helpers.TrackingStateHelper;
+import com.google.ar.core.examples.java.common.rendering.ObjectRenderer;
 import com.google.ar.core.exceptions.CameraNotAvailableException;
 import com.google.ar.core.exceptions.NotYetAvailableException;
 import com.google.ar.core.exceptions.UnavailableApkTooOldException;
@@ -42,17 +51,25 @@ import com.google.ar.core.exceptions.UnavailableArcoreNotInstalledException;
 import com.google.ar.core.exceptions.UnavailableDeviceNotCompatibleException;
 import com.google.ar.core.exceptions.UnavailableSdkTooOldException;
 import com.google.ar.core.exceptions.UnavailableUserDeclinedInstallationException;
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
 /**
  * This is a simple example that shows how to use ARCore Raw Depth API. The application will display
- * a 3D point cloud and allow the user control the number of points based on depth confidence.
+ * a 3D point cloud and allow the user control the number of points based on depth confidence. Taps
+ * are hit tested against the accumulated point cloud to place objects on dense depth geometry.
  */
 public class RawDepthActivity extends AppCompatActivity implements GLSurfaceView.Renderer {
   private static final String TAG = RawDepthActivity.class.getSimpleName();
 
+  /** The maximum distance in meters between a tap ray and a depth point to count as a hit. */
+  private static final float TAP_RAY_RADIUS_METERS = 0.02f;
+
+  private static final int MAX_PLACED_OBJECTS = 20;
+
   // Rendering. The Renderers are created here, and initialized when the GL surface is created.
   private GLSurfaceView surfaceView;
 
@@ -63,8 +80,34 @@ public class RawDepthActivity extends AppCompatActivity implements GLSurfaceView
   private final SnackbarHelper messageSnackbarHelper = new SnackbarHelper();
   private DisplayRotationHelper displayRotationHelper;
   private final TrackingStateHelper trackingStateHelper = new TrackingStateHelper(this);
+  private TapHelper tapHelper;
 
   private final Renderer renderer = new Renderer();
+  private final ObjectRenderer virtualObject = new ObjectRenderer();
+  private final GpuPointCloudUnprojector gpuUnprojector = new GpuPointCloudUnprojector();
+
+  // Whether raw depth images are converted into points on the GPU instead of the CPU. The CPU path
+  // is the reference implementation. The GPU path requires OpenGL ES 3.0.
+  private volatile boolean useGpuUnprojection = false;
+  private boolean isGpuUnprojectionSupported;
+
+  // Spatial index over the accumulated depth points, used to hit test taps.
+  private final PointCloudIndexer pointCloudIndexer =
+      new PointCloudIndexer(Renderer.MAX_FRAMES_STORED);
+
+  private final PointCloudExporter pointCloudExporter = new PointCloudExporter();
+
+  // Anchors created from taps on the point cloud. Only accessed on the GL thread.
+  private final ArrayList<Anchor> anchors = new ArrayList<>();
+
+  // Temporary matrices allocated here to reduce number of allocations for each frame.
+  private final float[] anchorMatrix = new float[16];
+  private final float[] viewProjectionMatrix = new float[16];
+  private final float[] inverseViewProjectionMatrix = new float[16];
+  private final float[] colorCorrectionRgba = new float[] {1f, 1f, 1f, 1f};
+
+  private int surfaceWidth;
+  private int surfaceHeight;
 
   // This lock prevents accessing the frame images while Session is paused.
   private final Object frameInUseLock = new Object();
@@ -79,9 +122,18 @@ public class RawDepthActivity extends AppCompatActivity implements GLSurfaceView
     surfaceView = findViewById(R.id.surfaceview);
     displayRotationHelper = new DisplayRotationHelper(/*context=*/ this);
 
+    // Set up tap listener.
+    tapHelper = new TapHelper(/*context=*/ this);
+    surfaceView.setOnTouchListener(tapHelper);
+
     // Set up rendering.
     surfaceView.setPreserveEGLContextOnPause(true);
-    surfaceView.setEGLContextClientVersion(2);
+    // OpenGL ES 3.0 is only required by the GPU depth points, for transform feedback and integer
+    // textures, so other devices fall back to OpenGL ES 2.0 and the CPU depth points.
+    ActivityManager activityManager = (ActivityManager) getSystemService(ACTIVITY_SERVICE);
+    isGpuUnprojectionSupported =
+        activityManager.getDeviceConfigurationInfo().reqGlEsVersion >= 0x30000;
+    surfaceView.setEGLContextClientVersion(isGpuUnprojectionSupported ? 3 : 2);
     surfaceView.setEGLConfigChooser(8, 8, 8, 0, 16, 0);
     surfaceView.setRenderer(this);
     surfaceView.setRenderMode(GLSurfaceView.RENDERMODE_CONTINUOUSLY);
@@ -92,6 +144,23 @@ public class RawDepthActivity extends AppCompatActivity implements GLSurfaceView
     seekBar.setProgress((int) (renderer.getPointAmount() * seekBar.getMax()));
     seekBar.setOnSeekBarChangeListener(seekBarChangeListener);
 
+    // Set up the switch between CPU and GPU depth point computation.
+    Switch gpuUnprojectionSwitch = findViewById(R.id.gpu_unprojection_switch);
+    gpuUnprojectionSwitch.setChecked(useGpuUnprojection);
+    gpuUnprojectionSwitch.setEnabled(isGpuUnprojectionSupported);
+    gpuUnprojectionSwitch.setOnCheckedChangeListener(
+        (buttonView, isChecked) -> {
+          useGpuUnprojection = isChecked;
+          if (!isChecked) {
+            // Frees the point buffers kept for reuse. Frames still drawn free theirs when dropped.
+            surfaceView.queueEvent(gpuUnprojector::close);
+          }
+        });
+
+    // Set up point cloud export button.
+    Button exportButton = findViewById(R.id.export_button);
+    exportButton.setOnClickListener(v -> exportPointCloud());
+
     installRequested = false;
     depthReceived = false;
   }
@@ -121,6 +190,8 @@ public class RawDepthActivity extends AppCompatActivity implements GLSurfaceView
       session.close();
       session = null;
     }
+    pointCloudIndexer.close();
+    pointCloudExporter.close();
 
     super.onDestroy();
   }
@@ -238,10 +309,16 @@ public class RawDepthActivity extends AppCompatActivity implements GLSurfaceView
   @Override
   public void onSurfaceCreated(GL10 gl, EGLConfig config) {
     GLES20.glClearColor(0.1f, 0.1f, 0.1f, 1.0f);
+    // A new context after a lost one no longer holds the buffers of the depth frames, nor the
+    // resources of the unprojector.
+    renderer.releaseDepthFrames();
+    gpuUnprojector.onContextLost();
 
     // Prepare the rendering objects. This involves reading shaders, so may throw an IOException.
     try {
       renderer.createOnGlThread(/*context=*/ this);
+      virtualObject.createOnGlThread(/*context=*/ this, "models/andy.obj", "models/andy.png");
+      virtualObject.setMaterialProperties(0.0f, 2.0f, 0.5f, 6.0f);
     } catch (IOException e) {
       Log.e(TAG, "Failed to read an asset file", e);
     }
@@ -251,6 +328,8 @@ public class RawDepthActivity extends AppCompatActivity implements GLSurfaceView
   public void onSurfaceChanged(GL10 gl, int width, int height) {
     displayRotationHelper.onSurfaceChanged(width, height);
     GLES20.glViewport(0, 0, width, height);
+    surfaceWidth = width;
+    surfaceHeight = height;
   }
 
   @Override
@@ -301,13 +380,15 @@ public class RawDepthActivity extends AppCompatActivity implements GLSurfaceView
 
         if (containsNewDepthData) {
           // Get Raw Depth data of the current frame.
-          final DepthData depth = DepthData.create(session, frame);
+          final DepthData depth =
+              DepthData.create(session, frame, useGpuUnprojection ? getGpuUnprojector() : null);
 
           // Skip rendering the current frame if an exception arises during depth data processing.
           // For example, before depth estimation finishes initializing.
           if (depth != null) {
             depthReceived = true;
             renderer.update(depth);
+            pointCloudIndexer.add(depth);
           }
         }
 
@@ -316,9 +397,15 @@ public class RawDepthActivity extends AppCompatActivity implements GLSurfaceView
         float[] viewMatrix = new float[16];
         camera.getViewMatrix(viewMatrix, 0);
 
-        // Visualize depth points.
+        // Visualize depth points. Note that the renderer moves the virtual camera backwards, and
+        // updates `viewMatrix` accordingly.
         renderer.draw(viewMatrix, projectionMatrix);
 
+        // Taps are hit tested against the point cloud as it is displayed, so they use the same
+        // modified view matrix.
+        handleTap(viewMatrix, projectionMatrix);
+        drawAnchors(frame, viewMatrix, projectionMatrix);
+
         // Hide all user notifications when the frame has been rendered successfully.
         messageSnackbarHelper.hide(this);
       } catch (Throwable t) {
@@ -327,4 +414,118 @@ public class RawDepthActivity extends AppCompatActivity implements GLSurfaceView
       }
     }
   }
+
+  /**
+   * Returns the GPU unprojector, creating its OpenGL resources on first use so that the CPU path
+   * never needs them. Returns null, falling back to the CPU path, if they cannot be created.
+   */
+  private GpuPointCloudUnprojector getGpuUnprojector() {
+    if (!gpuUnprojector.isCreated()) {
+      try {
+        gpuUnprojector.createOnGlThread(/*context=*/ this);
+      } catch (IOException e) {
+        Log.e(TAG, "Failed to read an asset file", e);
+        useGpuUnprojection = false;
+        return null;
+      }
+    }
+    return gpuUnprojector;
+  }
+
+  /**
+   * Saves the rendered point cloud as a PLY file in the app's external files directory. The depth
+   * frames are captured on the GL thread and written in the background.
+   */
+  private void exportPointCloud() {
+    File file =
+        new File(getExternalFilesDir(null), "pointcloud_" + System.currentTimeMillis() + ".ply");
+    surfaceView.queueEvent(
+        () ->
+            pointCloudExporter.export(
+                renderer.getDepthFrames(),
+                renderer.getMinConfidence(),
+                file,
+                new PointCloudExporter.Listener() {
+                  @Override
+                  public void onExportComplete(File file, int pointCount) {
+                    showToast("Exported " + pointCount + " points to " + file.getAbsolutePath());
+                  }
+
+                  @Override
+                  public void onExportFailed(File file, IOException exception) {
+                    Log.e(TAG, "Failed to export point cloud", exception);
+                    showToast("Failed to export point cloud");
+                  }
+                }));
+  }
+
+  private void showToast(String message) {
+    runOnUiThread(() -> Toast.makeText(this, message, Toast.LENGTH_LONG).show());
+  }
+
+  /**
+   * Handles the first queued tap by casting a ray through the tapped pixel against the point cloud
+   * index. If a depth point is hit, an anchor is created at its position.
+   */
+  private void handleTap(float[] viewMatrix, float[] projectionMatrix) {
+    MotionEvent tap = tapHelper.poll();
+    if (tap == null || surfaceWidth == 0 || surfaceHeight == 0) {
+      return;
+    }
+
+    // Unproject the tapped pixel on the near and far planes to get a world space ray.
+    Matrix.multiplyMM(viewProjectionMatrix, 0, projectionMatrix, 0, viewMatrix, 0);
+    if (!Matrix.invertM(inverseViewProjectionMatrix, 0, viewProjectionMatrix, 0)) {
+      return;
+    }
+    float ndcX = 2f * tap.getX() / surfaceWidth - 1f;
+    float ndcY = 1f - 2f * tap.getY() / surfaceHeight;
+    float[] nearNdc = {ndcX, ndcY, -1f, 1f};
+    float[] farNdc = {ndcX, ndcY, 1f, 1f};
+    float[] near = new float[4];
+    float[] far = new float[4];
+    Matrix.multiplyMV(near, 0, inverseViewProjectionMatrix, 0, nearNdc, 0);
+    Matrix.multiplyMV(far, 0, inverseViewProjectionMatrix, 0, farNdc, 0);
+    float[] origin = {near[0] / near[3], near[1] / near[3], near[2] / near[3]};
+    float[] direction = {
+      far[0] / far[3] - origin[0], far[1] / far[3] - origin[1], far[2] / far[3] - origin[2]
+    };
+    float length = Matrix.length(direction[0], direction[1], direction[2]);
+    direction[0] /= length;
+    direction[1] /= length;
+    direction[2] /= length;
+
+    PointCloudIndexer.Snapshot index = pointCloudIndexer.getIndex();
+    int hit =
+        index.rayCast(origin, direction, TAP_RAY_RADIUS_METERS, renderer.getMinConfidence());
+    if (hit < 0) {
+      return;
+    }
+
+    float[] hitPosition = new float[3];
+    index.getPoint(hit, hitPosition);
+    // Cap the number of objects created. This avoids overloading both the rendering system and
+    // ARCore.
+    if (anchors.size() >= MAX_PLACED_OBJECTS) {
+      anchors.get(0).detach();
+      anchors.remove(0);
+    }
+    anchors.add(session.createAnchor(Pose.makeTranslation(hitPosition)));
+  }
+
+  /** Draws an object at each anchor placed by tapping on the point cloud. */
+  private void drawAnchors(Frame frame, float[] viewMatrix, float[] projectionMatrix) {
+    if (anchors.isEmpty()) {
+      return;
+    }
+    frame.getLightEstimate().getColorCorrection(colorCorrectionRgba, 0);
+    for (Anchor anchor : anchors) {
+      if (anchor.getTrackingState() != TrackingState.TRACKING) {
+        continue;
+      }
+      anchor.getPose().toMatrix(anchorMatrix, 0);
+      virtualObject.updateModelMatrix(anchorMatrix, /*scaleFactor=*/ 0.5f);
+      virtualObject.draw(viewMatrix, projectionMatrix, colorCorrectionRgba);
+    }
+  }
 }
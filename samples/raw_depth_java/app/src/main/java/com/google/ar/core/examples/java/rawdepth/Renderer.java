@@ -23,6 +23,8 @@ import android.opengl.Matrix;
 import com.google.ar.core.examples.java.common.rendering.ShaderUtil;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /** Renders the data from Raw Depth API as 3D points. */
 final class Renderer {
@@ -36,6 +38,9 @@ final class Renderer {
   private static final int COLOR_BYTES_PER_POINT = BYTES_PER_FLOAT * COLOR_FLOATS_PER_POINT;
   private static final int INITIAL_BUFFER_POINTS = 1000;
 
+  /** The maximum number of depth frames kept for rendering. */
+  public static final int MAX_FRAMES_STORED = 60;
+
   // Shader names.
   private static final String VERTEX_SHADER_NAME = "shaders/depth_point_cloud.vert";
   private static final String FRAGMENT_SHADER_NAME = "shaders/depth_point_cloud.frag";
@@ -129,13 +134,25 @@ final class Renderer {
     // Cap the total number of depth frames and anchors to avoid memory exhaustion (each depth frame
     // consumes memory). ARCore consumes CPU cycles for each anchor that it tracks, and this cap
     // avoids overloading the app rendering system.
-    final int maxFramesStored = 60;
-    while (depthFrames.size() > maxFramesStored) {
-      depthFrames.get(0).getAnchor().detach();
+    while (depthFrames.size() > MAX_FRAMES_STORED) {
+      depthFrames.get(0).release();
       depthFrames.remove(0);
     }
   }
 
+  /** Releases all depth frames. Must be called on the GL thread. */
+  void releaseDepthFrames() {
+    for (DepthData depthFrame : depthFrames) {
+      depthFrame.release();
+    }
+    depthFrames.clear();
+  }
+
+  /** Returns the depth frames currently rendered, oldest first. Must be called on the GL thread. */
+  List<DepthData> getDepthFrames() {
+    return Collections.unmodifiableList(depthFrames);
+  }
+
   /**
    * Renders the point cloud. ARCore point cloud is given in world space.
    *
@@ -159,17 +176,27 @@ final class Renderer {
     ShaderUtil.checkGLError(TAG, "Draw");
 
     for (DepthData depthFrame : depthFrames) {
-      numPoints = depthFrame.getPoints().remaining() / POSITION_FLOATS_PER_POINT;
-
-      // Resize the position buffer if needed.
-      while (numPoints * POSITION_BYTES_PER_POINT > positionBufferSize) {
-        positionBufferSize *= 2;
+      numPoints = depthFrame.getPointCount();
+
+      // Points computed on the GPU are already in a vertex buffer, others are uploaded here.
+      int framePositionBuffer = depthFrame.getPointVertexBuffer();
+      if (framePositionBuffer == 0) {
+        framePositionBuffer = positionBuffer;
+
+        // Resize the position buffer if needed.
+        while (numPoints * POSITION_BYTES_PER_POINT > positionBufferSize) {
+          positionBufferSize *= 2;
+        }
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, positionBuffer);
+        GLES20.glBufferData(
+            GLES20.GL_ARRAY_BUFFER, positionBufferSize, null, GLES20.GL_DYNAMIC_DRAW);
+
+        GLES20.glBufferSubData(
+            GLES20.GL_ARRAY_BUFFER,
+            0,
+            numPoints * POSITION_BYTES_PER_POINT,
+            depthFrame.getPoints());
       }
-      GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, positionBuffer);
-      GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, positionBufferSize, null, GLES20.GL_DYNAMIC_DRAW);
-
-      GLES20.glBufferSubData(
-          GLES20.GL_ARRAY_BUFFER, 0, numPoints * POSITION_BYTES_PER_POINT, depthFrame.getPoints());
 
       // Resize the color buffer if needed.
       while (numPoints * COLOR_BYTES_PER_POINT > colorBufferSize) {
@@ -188,7 +215,7 @@ final class Renderer {
       GLES20.glUseProgram(programName);
 
       GLES20.glEnableVertexAttribArray(positionAttribute);
-      GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, positionBuffer);
+      GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, framePositionBuffer);
       GLES20.glVertexAttribPointer(
           positionAttribute, 4, GLES20.GL_FLOAT, false, POSITION_BYTES_PER_POINT, 0);
 
@@ -216,6 +243,11 @@ final class Renderer {
     return 1f - minConfidence;
   }
 
+  /** Returns the minimum depth confidence of the rendered points. */
+  float getMinConfidence() {
+    return minConfidence;
+  }
+
   /**
    * Configures the fraction of points that should be rendered based on their depth confidence.
    *
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.rawdepth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Round trips point clouds through {@link PointCloudExporter} and {@link PointCloudPlyReader}. */
+@RunWith(JUnit4.class)
+public final class PointCloudExporterTest {
+  private static final float[] IDENTITY = {1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1};
+
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void write_thenRead_returnsWorldSpacePoints() throws IOException {
+    // Column-major translation by (1, 2, 3).
+    float[] translation = IDENTITY.clone();
+    translation[12] = 1;
+    translation[13] = 2;
+    translation[14] = 3;
+    PointCloudExporter.Frame frame =
+        createFrame(
+            new float[] {0.5f, -0.5f, -1, 0.9f, 0, 0, -2, 0.6f},
+            new float[] {1, 0.5f, 0, 0.2f, 0.4f, 2},
+            translation);
+    File file = temporaryFolder.newFile("points.ply");
+
+    int written =
+        new PointCloudExporter()
+            .write(Collections.singletonList(frame), /* minConfidence= */ 0, file);
+    PointCloudPlyReader.Points points = PointCloudPlyReader.read(file);
+
+    assertEquals(2, written);
+    assertEquals(2, points.size());
+    assertEquals(
+        Arrays.toString(new float[] {1.5f, 1.5f, 2, 1, 2, 1}), Arrays.toString(points.xyz));
+    // Colors are rounded to bytes and clamped to [0, 1].
+    assertEquals(
+        Arrays.toString(new byte[] {(byte) 255, (byte) 128, 0, 51, 102, (byte) 255}),
+        Arrays.toString(points.rgb));
+    assertEquals(Arrays.toString(new float[] {0.9f, 0.6f}), Arrays.toString(points.confidence));
+  }
+
+  @Test
+  public void write_skipsPointsBelowMinConfidence() throws IOException {
+    PointCloudExporter.Frame frame =
+        createFrame(
+            new float[] {1, 1, 1, 0.2f, 2, 2, 2, 0.8f, 3, 3, 3, 0.5f},
+            new float[] {0, 0, 0, 0, 0, 0, 0, 0, 0},
+            IDENTITY);
+    File file = temporaryFolder.newFile("points.ply");
+
+    int written = new PointCloudExporter().write(Collections.singletonList(frame), 0.5f, file);
+    PointCloudPlyReader.Points points = PointCloudPlyReader.read(file);
+
+    assertEquals(2, written);
+    assertEquals(
+        Arrays.toString(new float[] {2, 2, 2, 3, 3, 3}), Arrays.toString(points.xyz));
+  }
+
+  @Test
+  public void write_thenRead_pointsSpanningManyBuffers() throws IOException {
+    // Several times the write and read buffers, in frames not aligned to them.
+    int pointsPerFrame = 10_007;
+    PointCloudExporter.Frame[] frames = new PointCloudExporter.Frame[3];
+    for (int f = 0; f < frames.length; ++f) {
+      float[] points = new float[pointsPerFrame * Renderer.POSITION_FLOATS_PER_POINT];
+      float[] colors = new float[pointsPerFrame * Renderer.COLOR_FLOATS_PER_POINT];
+      for (int i = 0; i < pointsPerFrame; ++i) {
+        points[i * 4] = f;
+        points[i * 4 + 1] = i;
+        points[i * 4 + 2] = -i;
+        points[i * 4 + 3] = 1;
+        colors[i * 3] = (i % 256) / 255f;
+      }
+      frames[f] = createFrame(points, colors, IDENTITY);
+    }
+    File file = temporaryFolder.newFile("points.ply");
+
+    new PointCloudExporter().write(Arrays.asList(frames), 0, file);
+    PointCloudPlyReader.Points points = PointCloudPlyReader.read(file);
+
+    assertEquals(frames.length * pointsPerFrame, points.size());
+    for (int f = 0; f < frames.length; ++f) {
+      for (int i = 0; i < pointsPerFrame; ++i) {
+        int point = f * pointsPerFrame + i;
+        assertEquals(f, points.xyz[point * 3], 0);
+        assertEquals(i, points.xyz[point * 3 + 1], 0);
+        assertEquals(-i, points.xyz[point * 3 + 2], 0);
+        assertEquals(i % 256, points.rgb[point * 3] & 0xFF);
+      }
+    }
+  }
+
+  @Test
+  public void read_truncatedFile_throws() throws IOException {
+    PointCloudExporter.Frame frame =
+        createFrame(new float[] {1, 1, 1, 1, 2, 2, 2, 1}, new float[6], IDENTITY);
+    File file = temporaryFolder.newFile("points.ply");
+    new PointCloudExporter().write(Collections.singletonList(frame), 0, file);
+    try (RandomAccessFile truncated = new RandomAccessFile(file, "rw")) {
+      truncated.setLength(truncated.length() - 1);
+    }
+
+    assertThrows(IOException.class, () -> PointCloudPlyReader.read(file));
+  }
+
+  private static PointCloudExporter.Frame createFrame(
+      float[] points, float[] colors, float[] modelMatrix) {
+    return new PointCloudExporter.Frame(
+        FloatBuffer.wrap(points), FloatBuffer.wrap(colors), modelMatrix);
+  }
+}
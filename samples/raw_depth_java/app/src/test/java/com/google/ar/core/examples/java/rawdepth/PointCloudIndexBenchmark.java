@@ -0,0 +1,172 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.rawdepth;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the query latency of the point cloud index against the number of indexed points, split
+ * into frames as {@link PointCloudIndexer} does.
+ *
+ * <p>The points lie on a few noisy planes in front of the camera, like raw depth of a room. Run
+ * {@link #main} from the IDE, or the JMH runner with this class on the test classpath.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PointCloudIndexBenchmark {
+  // Number of query points and rays cycled through, so that the caches do not favor one query.
+  private static final int QUERY_COUNT = 1024;
+  private static final float RAY_RADIUS_METERS = 0.02f;
+  private static final float SEARCH_RADIUS_METERS = 0.05f;
+  private static final float MIN_CONFIDENCE = 0.3f;
+
+  @Param({"10000", "100000", "1000000"})
+  public int pointCount;
+
+  /** 1 for a single index over all points, 60 for the window of the app. */
+  @Param({"1", "60"})
+  public int frameCount;
+
+  private PointCloudIndexer.Snapshot index;
+  private final float[] queryPoints = new float[QUERY_COUNT * 3];
+  private final float[] rayDirections = new float[QUERY_COUNT * 3];
+  private final float[] origin = new float[3];
+  private final float[] direction = new float[3];
+  private final int[] radiusIndices = new int[256];
+  private final int[] neighborIndices = new int[8];
+  private final float[] neighborDistancesSquared = new float[8];
+  private int query;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42);
+    PointCloudIndex[] frames = new PointCloudIndex[frameCount];
+    for (int frame = 0; frame < frameCount; ++frame) {
+      int size = pointCount / frameCount;
+      float[] xyz = new float[size * 3];
+      float[] confidence = new float[size];
+      for (int i = 0; i < size; ++i) {
+        createPoint(random, xyz, i);
+        confidence[i] = random.nextFloat();
+      }
+      frames[frame] = PointCloudIndex.build(xyz, confidence, size);
+    }
+    index = new PointCloudIndexer.Snapshot(frames);
+    for (int i = 0; i < QUERY_COUNT; ++i) {
+      createPoint(random, queryPoints, i);
+      // Rays from the camera at the origin towards the points.
+      float x = queryPoints[i * 3];
+      float y = queryPoints[i * 3 + 1];
+      float z = queryPoints[i * 3 + 2];
+      float length = (float) Math.sqrt(x * x + y * y + z * z);
+      rayDirections[i * 3] = x / length;
+      rayDirections[i * 3 + 1] = y / length;
+      rayDirections[i * 3 + 2] = z / length;
+    }
+  }
+
+  @Benchmark
+  public int rayCast() {
+    int i = nextQuery();
+    direction[0] = rayDirections[i * 3];
+    direction[1] = rayDirections[i * 3 + 1];
+    direction[2] = rayDirections[i * 3 + 2];
+    return index.rayCast(origin, direction, RAY_RADIUS_METERS, MIN_CONFIDENCE);
+  }
+
+  @Benchmark
+  public int radiusSearch() {
+    int i = nextQuery();
+    return index.radiusSearch(
+        queryPoints[i * 3],
+        queryPoints[i * 3 + 1],
+        queryPoints[i * 3 + 2],
+        SEARCH_RADIUS_METERS,
+        MIN_CONFIDENCE,
+        radiusIndices);
+  }
+
+  @Benchmark
+  public int nearestNeighbors() {
+    int i = nextQuery();
+    return index.nearestNeighbors(
+        queryPoints[i * 3],
+        queryPoints[i * 3 + 1],
+        queryPoints[i * 3 + 2],
+        MIN_CONFIDENCE,
+        neighborIndices,
+        neighborDistancesSquared);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(PointCloudIndexBenchmark.class.getSimpleName()).build())
+        .run();
+  }
+
+  private int nextQuery() {
+    query = (query + 1) % QUERY_COUNT;
+    return query;
+  }
+
+  /** Writes a point of one of the walls, floor or table of a 4 m room, with depth noise. */
+  private static void createPoint(Random random, float[] xyz, int i) {
+    float u = random.nextFloat() * 4 - 2;
+    float v = random.nextFloat() * 4 - 2;
+    float noise = (float) random.nextGaussian() * 0.01f;
+    switch (random.nextInt(4)) {
+      case 0: // Back wall.
+        xyz[i * 3] = u;
+        xyz[i * 3 + 1] = v * 0.75f;
+        xyz[i * 3 + 2] = -3 + noise;
+        break;
+      case 1: // Left wall.
+        xyz[i * 3] = -2 + noise;
+        xyz[i * 3 + 1] = v * 0.75f;
+        xyz[i * 3 + 2] = u * 0.75f - 1.5f;
+        break;
+      case 2: // Floor.
+        xyz[i * 3] = u;
+        xyz[i * 3 + 1] = -1.5f + noise;
+        xyz[i * 3 + 2] = v * 0.75f - 1.5f;
+        break;
+      default: // Table.
+        xyz[i * 3] = u * 0.25f;
+        xyz[i * 3 + 1] = -0.75f + noise;
+        xyz[i * 3 + 2] = v * 0.25f - 1.5f;
+        break;
+    }
+  }
+}
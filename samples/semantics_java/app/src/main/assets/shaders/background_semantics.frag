@@ -18,6 +18,9 @@
 precision mediump float;
 uniform sampler2D uSemanticImage;
 uniform sampler2D uSemanticColorMap;
+#if USE_CONFIDENCE
+uniform sampler2D uSemanticConfidenceImage;
+#endif  // USE_CONFIDENCE
 
 in vec2 vTextureCoord;
 out vec4 oFragColor;
@@ -39,7 +42,12 @@ void main() {
   vec3 color = texture(uSemanticColorMap, vec2(colormap_position, 0.5)).rgb;
 
   // Set alpha value to allow some transparency.
-  vec4 semantic_color = vec4(color, 0.8);
+  float alpha = 0.8;
+#if USE_CONFIDENCE
+  // Fade out the labels the model is not confident about.
+  alpha *= texture(uSemanticConfidenceImage, vTextureCoord.xy).r;
+#endif  // USE_CONFIDENCE
+  vec4 semantic_color = vec4(color, alpha);
 
   oFragColor = semantic_color;
 }
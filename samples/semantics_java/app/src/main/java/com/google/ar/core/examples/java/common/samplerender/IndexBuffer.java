@@ -18,6 +18,7 @@ package com.google.ar.core.examples.java.common.samplerender;
 import android.opengl.GLES30;
 import java.io.Closeable;
 import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 
 /**
  * A list of vertex indices stored GPU-side.
@@ -30,6 +31,7 @@ import java.nio.IntBuffer;
  */
 public class IndexBuffer implements Closeable {
   private final GpuBuffer buffer;
+  private final int indexType;
 
   /**
    * Construct an {@link IndexBuffer} populated with initial data.
@@ -43,6 +45,30 @@ public class IndexBuffer implements Closeable {
    */
   public IndexBuffer(SampleRender render, IntBuffer entries) {
     buffer = new GpuBuffer(GLES30.GL_ELEMENT_ARRAY_BUFFER, GpuBuffer.INT_SIZE, entries);
+    indexType = GLES30.GL_UNSIGNED_INT;
+  }
+
+  private IndexBuffer(GpuBuffer buffer, int indexType) {
+    this.buffer = buffer;
+    this.indexType = indexType;
+  }
+
+  /**
+   * Construct an empty {@link IndexBuffer} of 16-bit indices with room for {@code capacity}
+   * indices, to be populated in place with {@link #set(int, ShortBuffer)}.
+   *
+   * <p>16-bit indices take half the memory of 32-bit indices, but can only address 65536 vertices.
+   */
+  public static IndexBuffer createUnsignedShort(SampleRender render, int capacity) {
+    GpuBuffer buffer =
+        new GpuBuffer(GLES30.GL_ELEMENT_ARRAY_BUFFER, GpuBuffer.SHORT_SIZE, /*entries=*/ null);
+    try {
+      buffer.allocate(capacity);
+    } catch (Throwable t) {
+      buffer.free();
+      throw t;
+    }
+    return new IndexBuffer(buffer, GLES30.GL_UNSIGNED_SHORT);
   }
 
   /**
@@ -57,9 +83,30 @@ public class IndexBuffer implements Closeable {
    * <p>The {@code entries} buffer may be null, in which case the buffer will become empty.
    */
   public void set(IntBuffer entries) {
+    checkIndexType(GLES30.GL_UNSIGNED_INT);
     buffer.set(entries);
   }
 
+  /**
+   * Replaces the 32-bit indices from {@code offset} with the contents of the <i>direct</i> buffer
+   * {@code entries}, without reallocating the GPU buffer.
+   */
+  public void set(int offset, IntBuffer entries) {
+    checkIndexType(GLES30.GL_UNSIGNED_INT);
+    buffer.set(offset, entries);
+  }
+
+  /**
+   * Replaces the 16-bit indices from {@code offset} with the contents of the <i>direct</i> buffer
+   * {@code entries}, without reallocating the GPU buffer.
+   *
+   * @see #createUnsignedShort
+   */
+  public void set(int offset, ShortBuffer entries) {
+    checkIndexType(GLES30.GL_UNSIGNED_SHORT);
+    buffer.set(offset, entries);
+  }
+
   @Override
   public void close() {
     buffer.free();
@@ -74,4 +121,18 @@ public class IndexBuffer implements Closeable {
   int getSize() {
     return buffer.getSize();
   }
+
+  /* package-private */
+  int getIndexType() {
+    return indexType;
+  }
+
+  private void checkIndexType(int expectedIndexType) {
+    if (indexType != expectedIndexType) {
+      throw new IllegalStateException(
+          indexType == GLES30.GL_UNSIGNED_SHORT
+              ? "Index buffer holds 16-bit indices"
+              : "Index buffer holds 32-bit indices");
+    }
+  }
 }
@@ -36,7 +36,6 @@ import com.google.ar.core.ArCoreApk;
 import com.google.ar.core.Camera;
 import com.google.ar.core.Config;
 import com.google.ar.core.Frame;
-import com.google.ar.core.SemanticLabel;
 import com.google.ar.core.Session;
 import com.google.ar.core.TrackingFailureReason;
 import com.google.ar.core.TrackingState;
@@ -71,6 +70,9 @@ public class HelloSemanticsActivity extends AppCompatActivity implements SampleR
   private static final float Z_NEAR = 0.1f;
   private static final float Z_FAR = 100f;
 
+  // Semantic label statistics are published to the legend at most this often.
+  private static final long LABEL_STATISTICS_INTERVAL_NANOS = 250_000_000L;
+
   // Rendering. The Renderers are created here, and initialized when the GL surface is created.
   private GLSurfaceView surfaceView;
 
@@ -88,6 +90,8 @@ public class HelloSemanticsActivity extends AppCompatActivity implements SampleR
   private Framebuffer virtualSceneFramebuffer;
   private boolean hasSetTextureNames = false;
   private boolean semanticsEnabled = true;
+  // Set to true to fade out the semantic labels the model is not confident about.
+  private boolean semanticConfidenceEnabled = false;
 
   private LinearLayout semanticsColorLegend;
   private RecyclerView semanticLabelsRecyclerView;
@@ -95,6 +99,9 @@ public class HelloSemanticsActivity extends AppCompatActivity implements SampleR
   private RecyclerView.LayoutManager layoutManager;
   private TextView toggleSemanticsLegend;
 
+  private final SemanticLabelStatistics labelStatistics = new SemanticLabelStatistics();
+  private long lastLabelStatisticsNanos;
+
   @Override
   protected void onCreate(Bundle savedInstanceState) {
     super.onCreate(savedInstanceState);
@@ -124,6 +131,7 @@ public class HelloSemanticsActivity extends AppCompatActivity implements SampleR
       session.close();
       session = null;
     }
+    labelStatistics.close();
 
     super.onDestroy();
   }
@@ -216,6 +224,19 @@ public class HelloSemanticsActivity extends AppCompatActivity implements SampleR
       surfaceView.onPause();
       session.pause();
     }
+    if (semanticsRenderer != null) {
+      Log.i(
+          TAG,
+          "Semantics texture updates: "
+              + semanticsRenderer.getPerformedSemanticsUpdateCount()
+              + " performed, "
+              + semanticsRenderer.getSkippedSemanticsUpdateCount()
+              + " skipped. Confidence texture updates: "
+              + semanticsRenderer.getPerformedConfidenceUpdateCount()
+              + " performed, "
+              + semanticsRenderer.getSkippedConfidenceUpdateCount()
+              + " skipped.");
+    }
   }
 
   @Override
@@ -299,6 +320,7 @@ public class HelloSemanticsActivity extends AppCompatActivity implements SampleR
     try {
       backgroundRenderer.setUseDepthVisualization(render, false);
       backgroundRenderer.setUseOcclusion(render, false);
+      semanticsRenderer.setUseConfidence(render, semanticConfidenceEnabled);
     } catch (IOException e) {
       Log.e(TAG, "Failed to read a required asset file", e);
       messageSnackbarHelper.showError(this, "Failed to read a required asset file: " + e);
@@ -311,12 +333,22 @@ public class HelloSemanticsActivity extends AppCompatActivity implements SampleR
 
     if (camera.getTrackingState() == TrackingState.TRACKING) {
       try (Image semanticImage = frame.acquireSemanticImage()) {
-        semanticsRenderer.updateCameraSemanticsTexture(semanticImage);
-        updateSemanticLabelsFraction(frame);
+        // Semantic images are produced at a lower rate than frames are rendered. Only upload and
+        // analyze new ones.
+        if (semanticsRenderer.updateCameraSemanticsTexture(semanticImage)) {
+          updateSemanticLabelStatistics(semanticImage);
+        }
       } catch (NotYetAvailableException e) {
         // This normally means that semantics data is not available yet. This is normal so we will
         // not spam the logcat with this.
       }
+      if (semanticConfidenceEnabled) {
+        try (Image confidenceImage = frame.acquireSemanticConfidenceImage()) {
+          semanticsRenderer.updateCameraSemanticsConfidenceTexture(confidenceImage);
+        } catch (NotYetAvailableException e) {
+          // Same as above.
+        }
+      }
     }
 
     // Handle one tap per frame.
@@ -444,17 +476,17 @@ public class HelloSemanticsActivity extends AppCompatActivity implements SampleR
     toggleSemanticsLegend.setText(R.string.show_semantics_legend);
   }
 
-  private void updateSemanticLabelsFraction(Frame frame) {
-    for (SemanticLabel label : SemanticLabel.values()) {
-      float fraction;
-      try {
-        fraction = frame.getSemanticLabelFraction(label);
-      } catch (NotYetAvailableException e) {
-        fraction = 0.0f;
-      }
-
-      float finalFraction = fraction;
-      runOnUiThread(() -> adapter.updateLabelFraction(label, finalFraction));
+  /**
+   * Computes the statistics of all semantic labels in one pass over {@code semanticImage} and
+   * publishes them to the legend, at most once per {@link #LABEL_STATISTICS_INTERVAL_NANOS}.
+   */
+  private void updateSemanticLabelStatistics(Image semanticImage) {
+    long nowNanos = System.nanoTime();
+    if (adapter == null || nowNanos - lastLabelStatisticsNanos < LABEL_STATISTICS_INTERVAL_NANOS) {
+      return;
     }
+    lastLabelStatisticsNanos = nowNanos;
+    SemanticLabelStatistics.Snapshot snapshot = labelStatistics.compute(semanticImage);
+    runOnUiThread(() -> adapter.updateLabelStatistics(snapshot));
   }
 }
@@ -125,12 +125,26 @@ public class SemanticLabelAdapter extends RecyclerView.Adapter<SemanticLabelAdap
       Log.w(TAG, "Aborting fraction update due to invalid label " + label);
       return;
     }
+    labels.get(labelNumber).fraction = fraction;
     ViewHolder viewHolder = (ViewHolder) recyclerView.findViewHolderForAdapterPosition(labelNumber);
     if (viewHolder != null) {
       viewHolder.getFraction().setText(getFractionText(fraction));
     }
   }
 
+  /**
+   * Updates the fractions of all labels.
+   *
+   * @param snapshot the statistics of the latest semantic image.
+   */
+  public void updateLabelStatistics(SemanticLabelStatistics.Snapshot snapshot) {
+    for (SemanticLabel label : SemanticLabel.values()) {
+      if (label.ordinal() < getItemCount()) {
+        updateLabelFraction(label, snapshot.getFraction(label));
+      }
+    }
+  }
+
   /**
    * Creates the list of colors and names for the existing semantic labels.
    *
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.hellosemantics;
+
+import android.graphics.PointF;
+import android.graphics.Rect;
+import android.media.Image;
+import com.google.ar.core.SemanticLabel;
+import com.google.ar.core.examples.java.common.helpers.PlaneView;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Computes the statistics of every {@link SemanticLabel} in a semantic image in a single pass: the
+ * fraction of pixels with the label, and the bounding box and centroid of these pixels.
+ *
+ * <p>The image is split into row bands scanned in parallel, each accumulating into its own
+ * counters, which are merged once all bands are done. Rows are scanned as runs of equal labels, so
+ * the counters are updated once per run rather than once per pixel. Results are returned as
+ * immutable {@link Snapshot}s that can be handed to the UI thread. {@link #compute} must not be
+ * called concurrently.
+ */
+final class SemanticLabelStatistics implements Closeable {
+  private static final String TAG = SemanticLabelStatistics.class.getSimpleName();
+
+  private static final SemanticLabel[] LABELS = SemanticLabel.values();
+
+  /** The statistics of one semantic image. Immutable. */
+  static final class Snapshot {
+    private final long timestamp;
+    private final int width;
+    private final int height;
+    private final int[] pixelCounts;
+    // Left, top, right and bottom of each label, inclusive.
+    private final int[] bounds;
+    // Sum of the x and y coordinates of the pixels of each label.
+    private final long[] coordinateSums;
+
+    private Snapshot(
+        long timestamp,
+        int width,
+        int height,
+        int[] pixelCounts,
+        int[] bounds,
+        long[] coordinateSums) {
+      this.timestamp = timestamp;
+      this.width = width;
+      this.height = height;
+      this.pixelCounts = pixelCounts;
+      this.bounds = bounds;
+      this.coordinateSums = coordinateSums;
+    }
+
+    /** Returns the timestamp of the semantic image, in nanoseconds. */
+    public long getTimestamp() {
+      return timestamp;
+    }
+
+    public int getWidth() {
+      return width;
+    }
+
+    public int getHeight() {
+      return height;
+    }
+
+    /** Returns the number of pixels with {@code label}. */
+    public int getPixelCount(SemanticLabel label) {
+      return pixelCounts[label.ordinal()];
+    }
+
+    /** Returns the fraction of the pixels of the image with {@code label}, from 0 to 1. */
+    public float getFraction(SemanticLabel label) {
+      return (float) pixelCounts[label.ordinal()] / (width * height);
+    }
+
+    /**
+     * Returns the smallest rectangle containing the pixels with {@code label}, in pixels of the
+     * semantic image, or null if no pixel has the label.
+     */
+    public Rect getBoundingBox(SemanticLabel label) {
+      int i = label.ordinal();
+      if (pixelCounts[i] == 0) {
+        return null;
+      }
+      // Rect excludes its right and bottom edges.
+      return new Rect(
+          bounds[4 * i], bounds[4 * i + 1], bounds[4 * i + 2] + 1, bounds[4 * i + 3] + 1);
+    }
+
+    /**
+     * Returns the mean position of the pixels with {@code label}, in pixels of the semantic image,
+     * or null if no pixel has the label.
+     */
+    public PointF getCentroid(SemanticLabel label) {
+      int i = label.ordinal();
+      int count = pixelCounts[i];
+      if (count == 0) {
+        return null;
+      }
+      return new PointF(
+          (float) coordinateSums[2 * i] / count, (float) coordinateSums[2 * i + 1] / count);
+    }
+  }
+
+  /** Counters of one band of rows, reused for every image. */
+  private static final class Band {
+    final int[] pixelCounts = new int[LABELS.length];
+    final int[] bounds = new int[4 * LABELS.length];
+    final long[] coordinateSums = new long[2 * LABELS.length];
+    byte[] row = new byte[0];
+
+    void scan(PlaneView plane, int startRow, int endRow) {
+      Arrays.fill(pixelCounts, 0);
+      Arrays.fill(coordinateSums, 0);
+      int width = plane.getWidth();
+      if (row.length < width) {
+        row = new byte[width];
+      }
+      PlaneView.RowReader reader = plane.newRowReader();
+      for (int y = startRow; y < endRow; ++y) {
+        reader.read(y, row);
+        int start = 0;
+        while (start < width) {
+          int label = row[start] & 0xFF;
+          int end = start + 1;
+          while (end < width && (row[end] & 0xFF) == label) {
+            ++end;
+          }
+          if (label < LABELS.length) {
+            addRun(label, start, end, y);
+          }
+          start = end;
+        }
+      }
+    }
+
+    /** Adds the pixels from {@code start} included to {@code end} excluded of row {@code y}. */
+    private void addRun(int label, int start, int end, int y) {
+      int length = end - start;
+      if (pixelCounts[label] == 0) {
+        bounds[4 * label] = start;
+        bounds[4 * label + 1] = y;
+        bounds[4 * label + 2] = end - 1;
+      } else {
+        bounds[4 * label] = Math.min(bounds[4 * label], start);
+        bounds[4 * label + 2] = Math.max(bounds[4 * label + 2], end - 1);
+      }
+      // Rows are scanned from top to bottom.
+      bounds[4 * label + 3] = y;
+      pixelCounts[label] += length;
+      coordinateSums[2 * label] += (long) length * (start + end - 1) / 2;
+      coordinateSums[2 * label + 1] += (long) length * y;
+    }
+  }
+
+  private final Band[] bands;
+  private final ExecutorService executor;
+  private final List<Future<?>> futures = new ArrayList<>();
+
+  /** Creates statistics scanning images in up to {@code bandCount} bands in parallel. */
+  SemanticLabelStatistics(int bandCount) {
+    if (bandCount < 1) {
+      throw new IllegalArgumentException("Invalid band count " + bandCount);
+    }
+    bands = new Band[bandCount];
+    for (int i = 0; i < bandCount; ++i) {
+      bands[i] = new Band();
+    }
+    // The calling thread scans the first band.
+    executor =
+        bandCount == 1
+            ? null
+            : Executors.newFixedThreadPool(
+                bandCount - 1,
+                runnable -> {
+                  Thread thread = new Thread(runnable, TAG);
+                  thread.setDaemon(true);
+                  return thread;
+                });
+  }
+
+  /** Creates statistics scanning images in as many bands as there are processors, up to four. */
+  SemanticLabelStatistics() {
+    this(Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors())));
+  }
+
+  /**
+   * Computes the statistics of a semantic image, blocking until done. Pixel values that are not
+   * the ordinal of a {@link SemanticLabel} are not counted as any label.
+   */
+  Snapshot compute(Image semanticImage) {
+    int width = semanticImage.getWidth();
+    int height = semanticImage.getHeight();
+    PlaneView plane =
+        PlaneView.of(semanticImage.getPlanes()[0], width, height, /* bytesPerSample= */ 1);
+    int bandCount = Math.max(1, Math.min(bands.length, height));
+    futures.clear();
+    for (int i = 1; i < bandCount; ++i) {
+      Band band = bands[i];
+      int startRow = height * i / bandCount;
+      int endRow = height * (i + 1) / bandCount;
+      futures.add(executor.submit(() -> band.scan(plane, startRow, endRow)));
+    }
+    bands[0].scan(plane, 0, height / bandCount);
+    try {
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted computing semantic label statistics", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Failed to compute semantic label statistics", e.getCause());
+    }
+    return merge(semanticImage.getTimestamp(), width, height, bandCount);
+  }
+
+  /** Stops the threads scanning bands. */
+  @Override
+  public void close() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  /** Merges the counters of the first {@code bandCount} bands, from top to bottom. */
+  private Snapshot merge(long timestamp, int width, int height, int bandCount) {
+    int[] pixelCounts = new int[LABELS.length];
+    int[] bounds = new int[4 * LABELS.length];
+    long[] coordinateSums = new long[2 * LABELS.length];
+    for (int b = 0; b < bandCount; ++b) {
+      Band band = bands[b];
+      for (int i = 0; i < LABELS.length; ++i) {
+        if (band.pixelCounts[i] == 0) {
+          continue;
+        }
+        if (pixelCounts[i] == 0) {
+          System.arraycopy(band.bounds, 4 * i, bounds, 4 * i, 4);
+        } else {
+          bounds[4 * i] = Math.min(bounds[4 * i], band.bounds[4 * i]);
+          bounds[4 * i + 2] = Math.max(bounds[4 * i + 2], band.bounds[4 * i + 2]);
+          bounds[4 * i + 3] = band.bounds[4 * i + 3];
+        }
+        pixelCounts[i] += band.pixelCounts[i];
+        coordinateSums[2 * i] += band.coordinateSums[2 * i];
+        coordinateSums[2 * i + 1] += band.coordinateSums[2 * i + 1];
+      }
+    }
+    return new Snapshot(timestamp, width, height, pixelCounts, bounds, coordinateSums);
+  }
+}
@@ -21,6 +21,7 @@ import android.opengl.GLES30;
 import com.google.ar.core.Coordinates2d;
 import com.google.ar.core.Frame;
 import com.google.ar.core.examples.java.common.samplerender.Framebuffer;
+import com.google.ar.core.examples.java.common.samplerender.GLError;
 import com.google.ar.core.examples.java.common.samplerender.Mesh;
 import com.google.ar.core.examples.java.common.samplerender.SampleRender;
 import com.google.ar.core.examples.java.common.samplerender.Shader;
@@ -30,11 +31,79 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.util.HashMap;
 
-/** This class renders semantic Images to a framebuffer or the screen. */
+/**
+ * This class renders semantic Images to a framebuffer or the screen.
+ *
+ * <p>Semantic images are produced at a lower rate than frames are rendered. The renderer remembers
+ * the timestamp of the last image uploaded to each texture and skips uploading the same image
+ * again; the number of performed and skipped uploads is counted.
+ */
 public class SemanticsRenderer {
   private static final String TAG = SemanticsRenderer.class.getSimpleName();
 
+  /** A single channel texture updated from images, skipping images already uploaded. */
+  private static final class ImageTexture {
+    final Texture texture;
+    long timestamp = -1;
+    int width;
+    int height;
+    long performedUpdateCount;
+    long skippedUpdateCount;
+
+    ImageTexture(SampleRender render) {
+      texture =
+          new Texture(
+              render,
+              Texture.Target.TEXTURE_2D,
+              Texture.WrapMode.CLAMP_TO_EDGE,
+              /* useMipmaps= */ false);
+    }
+
+    /** Uploads {@code image} unless it has the timestamp of the last image uploaded. */
+    boolean update(Image image) {
+      if (image.getTimestamp() == timestamp) {
+        skippedUpdateCount++;
+        return false;
+      }
+      // SampleRender abstraction leaks here
+      GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, texture.getTextureId());
+      GLError.maybeThrowGLException("Failed to bind texture", "glBindTexture");
+      if (image.getWidth() == width && image.getHeight() == height) {
+        // Overwriting the texture in place avoids reallocating its storage.
+        GLES30.glTexSubImage2D(
+            GLES30.GL_TEXTURE_2D,
+            0,
+            0,
+            0,
+            width,
+            height,
+            GLES30.GL_RED,
+            GLES30.GL_UNSIGNED_BYTE,
+            image.getPlanes()[0].getBuffer());
+        GLError.maybeThrowGLException("Failed to populate texture data", "glTexSubImage2D");
+      } else {
+        width = image.getWidth();
+        height = image.getHeight();
+        GLES30.glTexImage2D(
+            GLES30.GL_TEXTURE_2D,
+            0,
+            GLES30.GL_R8,
+            width,
+            height,
+            0,
+            GLES30.GL_RED,
+            GLES30.GL_UNSIGNED_BYTE,
+            image.getPlanes()[0].getBuffer());
+        GLError.maybeThrowGLException("Failed to populate texture data", "glTexImage2D");
+      }
+      timestamp = image.getTimestamp();
+      performedUpdateCount++;
+      return true;
+    }
+  }
+
   // components_per_vertex * number_of_vertices * float_size
   private static final int COORDS_BUFFER_SIZE = 2 * 4 * 4;
 
@@ -58,9 +127,11 @@ public class SemanticsRenderer {
   private final FloatBuffer cameraTexCoords =
       ByteBuffer.allocateDirect(COORDS_BUFFER_SIZE).order(ByteOrder.nativeOrder()).asFloatBuffer();
 
-  private final Texture cameraSemanticsTexture;
+  private final ImageTexture cameraSemanticsTexture;
+  private final ImageTexture cameraSemanticsConfidenceTexture;
   private Texture semanticsColorPaletteTexture;
   private Shader backgroundSemanticsShader;
+  private boolean useConfidence;
   private final VertexBuffer cameraTexCoordsVertexBuffer;
   private final Mesh mesh;
 
@@ -70,12 +141,8 @@ public class SemanticsRenderer {
    * SampleRender.Renderer#onSurfaceCreated()}.
    */
   public SemanticsRenderer(SampleRender render) {
-    cameraSemanticsTexture =
-        new Texture(
-            render,
-            Texture.Target.TEXTURE_2D,
-            Texture.WrapMode.CLAMP_TO_EDGE,
-            /* useMipmaps= */ false);
+    cameraSemanticsTexture = new ImageTexture(render);
+    cameraSemanticsConfidenceTexture = new ImageTexture(render);
 
     // Create a Mesh with three vertex buffers: one for the screen coordinates (normalized device
     // coordinates), one for the camera texture coordinates (to be populated with proper data later
@@ -102,16 +169,43 @@ public class SemanticsRenderer {
             "textures/semantics_sv12_colormap.png",
             Texture.WrapMode.CLAMP_TO_EDGE,
             Texture.ColorFormat.LINEAR);
+    createSemanticsShader(render);
+  }
+
+  /**
+   * Sets whether the semantic image is faded out where the semantic confidence image is low. The
+   * confidence texture must then be updated with {@link
+   * #updateCameraSemanticsConfidenceTexture(Image)}.
+   */
+  public void setUseConfidence(SampleRender render, boolean useConfidence) throws IOException {
+    if (backgroundSemanticsShader != null) {
+      if (this.useConfidence == useConfidence) {
+        return;
+      }
+      backgroundSemanticsShader.close();
+      backgroundSemanticsShader = null;
+    }
+    this.useConfidence = useConfidence;
+    createSemanticsShader(render);
+  }
+
+  private void createSemanticsShader(SampleRender render) throws IOException {
+    HashMap<String, String> defines = new HashMap<>();
+    defines.put("USE_CONFIDENCE", useConfidence ? "1" : "0");
     backgroundSemanticsShader =
         Shader.createFromAssets(
                 render,
                 "shaders/background_semantics.vert",
                 "shaders/background_semantics.frag",
-                /* defines= */ null)
-            .setTexture("uSemanticImage", cameraSemanticsTexture)
+                defines)
+            .setTexture("uSemanticImage", cameraSemanticsTexture.texture)
             .setTexture("uSemanticColorMap", semanticsColorPaletteTexture)
             .setDepthTest(false)
             .setDepthWrite(false);
+    if (useConfidence) {
+      backgroundSemanticsShader.setTexture(
+          "uSemanticConfidenceImage", cameraSemanticsConfidenceTexture.texture);
+    }
   }
 
   /**
@@ -133,20 +227,44 @@ public class SemanticsRenderer {
     }
   }
 
-  /** Update semantics texture with Image contents. */
-  public void updateCameraSemanticsTexture(Image image) {
-    // SampleRender abstraction leaks here
-    GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, cameraSemanticsTexture.getTextureId());
-    GLES30.glTexImage2D(
-        GLES30.GL_TEXTURE_2D,
-        0,
-        GLES30.GL_R8,
-        image.getWidth(),
-        image.getHeight(),
-        0,
-        GLES30.GL_RED,
-        GLES30.GL_UNSIGNED_BYTE,
-        image.getPlanes()[0].getBuffer());
+  /**
+   * Updates the semantics texture with the contents of a semantic image, unless the image has the
+   * timestamp of the last one uploaded.
+   *
+   * @return whether the texture was updated, i.e. whether {@code image} is a new semantic image.
+   */
+  public boolean updateCameraSemanticsTexture(Image image) {
+    return cameraSemanticsTexture.update(image);
+  }
+
+  /**
+   * Updates the semantic confidence texture with the contents of a semantic confidence image,
+   * unless the image has the timestamp of the last one uploaded.
+   *
+   * @return whether the texture was updated.
+   */
+  public boolean updateCameraSemanticsConfidenceTexture(Image image) {
+    return cameraSemanticsConfidenceTexture.update(image);
+  }
+
+  /** Returns the number of semantic images uploaded to the semantics texture. */
+  public long getPerformedSemanticsUpdateCount() {
+    return cameraSemanticsTexture.performedUpdateCount;
+  }
+
+  /** Returns the number of semantic images not uploaded, as they were uploaded already. */
+  public long getSkippedSemanticsUpdateCount() {
+    return cameraSemanticsTexture.skippedUpdateCount;
+  }
+
+  /** Returns the number of confidence images uploaded to the semantic confidence texture. */
+  public long getPerformedConfidenceUpdateCount() {
+    return cameraSemanticsConfidenceTexture.performedUpdateCount;
+  }
+
+  /** Returns the number of confidence images not uploaded, as they were uploaded already. */
+  public long getSkippedConfidenceUpdateCount() {
+    return cameraSemanticsConfidenceTexture.skippedUpdateCount;
   }
 
   /**